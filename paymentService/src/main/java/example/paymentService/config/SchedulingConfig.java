@@ -0,0 +1,12 @@
+package example.paymentService.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Включает фоновые задачи по расписанию (снимки журнала платежей).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,65 +1,230 @@
 package example.paymentService.controller;
 
 import com.example.openapi.client.model.BalanceResponse;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
 import com.example.openapi.client.model.PaymentRequest;
 import com.example.openapi.client.model.PaymentResponse;
 import example.paymentService.service.BalanceService;
+import example.paymentService.service.IdempotencyStore;
 import com.example.openapi.client.model.ConfirmRequest;
 import com.example.openapi.client.model.ConfirmResponse;
+import com.example.openapi.client.model.ReleaseRequest;
+import com.example.openapi.client.model.ReleaseResponse;
 import reactor.core.publisher.Mono;
 
 import lombok.RequiredArgsConstructor;
+import java.security.Principal;
+import java.time.ZoneOffset;
+import java.util.Optional;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 
 @RestController
 @RequiredArgsConstructor
 public class PaymentController {
 
     private final BalanceService balanceService;
+    private final IdempotencyStore idempotencyStore;
 
     private static final Logger log = LoggerFactory.getLogger(PaymentController.class);
 
+    /** Заголовок с ключом идемпотентности (см. контракт) */
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    /**
+     * Блокирует сумму заказа; {@code transactionId} ответа — id блокировки.
+     * Успешная блокировка запоминается по ключу идемпотентности, а без него —
+     * по заказу и счёту: повтор после таймаута получает исходный ответ, и
+     * сумма не блокируется дважды.
+     */
     @PostMapping("/pay")
-    public Mono<PaymentResponse> pay(@RequestBody PaymentRequest request) {
+    public Mono<PaymentResponse> pay(@RequestBody PaymentRequest request,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            ServerWebExchange exchange) {
         log.info("PAY request amount={}", request.getAmount());
-        PaymentResponse response = new PaymentResponse();
-        response.setTransactionId(UUID.randomUUID().toString());
+        return resolveAccount(request.getAccountId(), exchange)
+                .flatMap(accountId -> idempotencyKey(idempotencyKey, request.getOrderId())
+                        .flatMap(key -> idempotencyStore.execute("pay:" + accountId + ":" + key, request,
+                                response -> PaymentResponse.StatusEnum.SUCCESS.equals(response.getStatus()),
+                                () -> authorize(accountId, request))));
+    }
 
-        try {
-            boolean success = balanceService.deduct(request.getAmount());
-            if (success) {
-                response.setStatus(PaymentResponse.StatusEnum.SUCCESS);
-                response.setMessage("Оплата успешно проведена");
-            } else {
-                response.setStatus(PaymentResponse.StatusEnum.FAILED);
-                response.setMessage("Недостаточно средств на балансе");
-            }
-        } catch (Exception e) {
-            response.setStatus(PaymentResponse.StatusEnum.FAILED);
-            response.setMessage("Ошибка при списании: " + e.getMessage());
-        }
+    private Mono<PaymentResponse> authorize(String accountId, PaymentRequest request) {
+        return Mono.defer(() -> balanceService.hold(accountId, BalanceService.toMinorUnits(request.getAmount())))
+                .map(authorization -> {
+                    PaymentResponse response = new PaymentResponse();
+                    if (authorization.status() == BalanceService.Authorization.Status.HELD) {
+                        response.setTransactionId(authorization.holdId().toString());
+                        response.setStatus(PaymentResponse.StatusEnum.SUCCESS);
+                        response.setMessage("Сумма заблокирована");
+                        response.setExpiresAt(authorization.expiresAt().atOffset(ZoneOffset.UTC));
+                    } else {
+                        response.setTransactionId(UUID.randomUUID().toString());
+                        response.setStatus(PaymentResponse.StatusEnum.FAILED);
+                        response.setMessage("Недостаточно средств на балансе");
+                    }
+                    return response;
+                })
+                .onErrorResume(e -> {
+                    PaymentResponse response = new PaymentResponse();
+                    response.setTransactionId(UUID.randomUUID().toString());
+                    response.setStatus(PaymentResponse.StatusEnum.FAILED);
+                    response.setMessage("Ошибка при блокировке: " + e.getMessage());
+                    return Mono.just(response);
+                });
+    }
 
-        return Mono.just(response);
+    /**
+     * Оплата заказа одним запросом: списание без блокировки и новый баланс
+     * счёта в ответе. Идемпотентность — как у {@link #pay}, но в своей
+     * области ключей.
+     */
+    @PostMapping("/checkout-payment")
+    public Mono<CheckoutPaymentResponse> checkoutPayment(@RequestBody PaymentRequest request,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            ServerWebExchange exchange) {
+        log.info("CHECKOUT-PAYMENT request amount={}", request.getAmount());
+        return resolveAccount(request.getAccountId(), exchange)
+                .flatMap(accountId -> idempotencyKey(idempotencyKey, request.getOrderId())
+                        .flatMap(key -> idempotencyStore.execute("checkout:" + accountId + ":" + key, request,
+                                response -> CheckoutPaymentResponse.StatusEnum.SUCCESS.equals(response.getStatus()),
+                                () -> charge(accountId, request))));
     }
 
-    @PostMapping("/confirm")
-    public Mono<ConfirmResponse> confirm(@RequestBody ConfirmRequest request) {
-        ConfirmResponse response = new ConfirmResponse();
+    private Mono<CheckoutPaymentResponse> charge(String accountId, PaymentRequest request) {
+        return Mono.defer(() -> balanceService.deduct(accountId, BalanceService.toMinorUnits(request.getAmount())))
+                .map(success -> {
+                    CheckoutPaymentResponse response = checkoutResponse(accountId, request);
+                    if (success) {
+                        response.setStatus(CheckoutPaymentResponse.StatusEnum.SUCCESS);
+                        response.setMessage("Заказ оплачен");
+                    } else {
+                        response.setStatus(CheckoutPaymentResponse.StatusEnum.FAILED);
+                        response.setMessage("Недостаточно средств на балансе");
+                    }
+                    return response;
+                })
+                .onErrorResume(e -> {
+                    CheckoutPaymentResponse response = checkoutResponse(accountId, request);
+                    response.setStatus(CheckoutPaymentResponse.StatusEnum.FAILED);
+                    response.setMessage("Ошибка при списании: " + e.getMessage());
+                    return Mono.just(response);
+                });
+    }
+
+    private CheckoutPaymentResponse checkoutResponse(String accountId, PaymentRequest request) {
+        CheckoutPaymentResponse response = new CheckoutPaymentResponse();
         response.setOrderId(request.getOrderId());
-        response.setTransactionId(request.getTransactionId());
-        response.setConfirmed(true);
-        response.setMessage("Заказ успешно оформлен");
-        return Mono.just(response);
+        response.setTransactionId(UUID.randomUUID().toString());
+        response.setBalance(BalanceService.fromMinorUnits(balanceService.getBalance(accountId)));
+        response.setCurrency("RUB");
+        return response;
+    }
+
+    /**
+     * Списывает заблокированную сумму. Успешное списание запоминается по
+     * ключу идемпотентности в области счёта, как у {@link #pay}: повтор
+     * получает {@code confirmed=true}, хотя блокировки уже нет, а тот же
+     * ключ другого счёта его ответ не получит.
+     */
+    @PostMapping("/confirm")
+    public Mono<ConfirmResponse> confirm(@RequestBody ConfirmRequest request,
+            @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            ServerWebExchange exchange) {
+        return resolveAccount(request.getAccountId(), exchange)
+                .flatMap(accountId -> idempotencyKey(idempotencyKey, request.getOrderId())
+                        .flatMap(key -> idempotencyStore.execute("confirm:" + accountId + ":" + key, request,
+                                response -> Boolean.TRUE.equals(response.getConfirmed()),
+                                () -> capture(request))));
+    }
+
+    private Mono<ConfirmResponse> capture(ConfirmRequest request) {
+        return holdId(request.getTransactionId())
+                .map(balanceService::capture)
+                .orElse(Mono.just(false))
+                .map(captured -> {
+                    ConfirmResponse response = new ConfirmResponse();
+                    response.setOrderId(request.getOrderId());
+                    response.setTransactionId(request.getTransactionId());
+                    response.setConfirmed(captured);
+                    response.setMessage(captured
+                            ? "Заказ успешно оформлен"
+                            : "Блокировка не найдена или истекла");
+                    return response;
+                });
+    }
+
+    /** Отпускает блокировку; повтор безопасен и вернёт {@code released=false} */
+    @PostMapping("/release")
+    public Mono<ReleaseResponse> release(@RequestBody ReleaseRequest request) {
+        return holdId(request.getTransactionId())
+                .map(balanceService::release)
+                .orElse(Mono.just(false))
+                .map(released -> {
+                    ReleaseResponse response = new ReleaseResponse();
+                    response.setOrderId(request.getOrderId());
+                    response.setTransactionId(request.getTransactionId());
+                    response.setReleased(released);
+                    response.setMessage(released ? "Блокировка отменена" : "Блокировка не найдена");
+                    return response;
+                });
     }
 
     @GetMapping("/balance")
-    public Mono<BalanceResponse> getBalance() {
-        BalanceResponse response = new BalanceResponse();
-        response.setBalance(balanceService.getBalance());
-        response.setCurrency("RUB");
-        return Mono.just(response);
+    public Mono<BalanceResponse> getBalance(@RequestParam(required = false) String accountId,
+            ServerWebExchange exchange) {
+        return resolveAccount(accountId, exchange)
+                .map(id -> {
+                    BalanceResponse response = new BalanceResponse();
+                    response.setBalance(BalanceService.fromMinorUnits(balanceService.getBalance(id)));
+                    response.setHeld(BalanceService.fromMinorUnits(balanceService.getHeld(id)));
+                    response.setCurrency("RUB");
+                    return response;
+                });
+    }
+
+    /**
+     * Счёт операции: явно указанный в запросе (витрина платит от имени своих
+     * покупателей) или счёт аутентифицированного субъекта.
+     */
+    private static Mono<String> resolveAccount(String accountId, ServerWebExchange exchange) {
+        if (accountId != null && !accountId.isBlank()) {
+            return Mono.just(accountId);
+        }
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указан счёт")));
+    }
+
+    /** id блокировки; чужой формат — это просто неизвестная блокировка */
+    private static Optional<UUID> holdId(String transactionId) {
+        try {
+            return Optional.of(UUID.fromString(transactionId));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Ключ идемпотентности из заголовка, а без заголовка — заказ.
+     */
+    private static Mono<String> idempotencyKey(String header, String orderId) {
+        if (header != null && !header.isBlank()) {
+            if (header.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Слишком длинный ключ идемпотентности"));
+            }
+            return Mono.just("key:" + header);
+        }
+        if (orderId == null || orderId.isBlank()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не указан заказ"));
+        }
+        return Mono.just("order:" + orderId);
     }
 }
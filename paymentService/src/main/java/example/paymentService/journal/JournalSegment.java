@@ -0,0 +1,179 @@
+package example.paymentService.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Сегмент журнала — файл фиксированного размера, целиком отображённый в
+ * память. Имя файла — номер первой записи сегмента ({@code 00000000000000000001.log}).
+ * <p>
+ * Формат записи:
+ * <pre>
+ * int   длина полезной части (0 — конец сегмента)
+ * int   CRC32C полезной части
+ * long  номер записи
+ * byte  операция ({@link PaymentJournal.Operation})
+ * long  сумма в копейках
+ * long  доступный баланс счёта после операции
+ * long  заблокированная сумма счёта после операции
+ * long  id блокировки (старшие 64 бита UUID; 0 — операция без блокировки)
+ * long  id блокировки (младшие 64 бита UUID)
+ * long  срок блокировки, мс от эпохи
+ * short длина идентификатора счёта
+ * byte[] идентификатор счёта (UTF-8)
+ * </pre>
+ * Новый файл заполнен нулями, поэтому чтение останавливается на первой
+ * нулевой длине, на записи с неверной контрольной суммой (оборванная запись
+ * при сбое) или на нарушении нумерации. Целая запись другого формата
+ * останавливает восстановление ошибкой, а не обрезает журнал.
+ */
+final class JournalSegment {
+
+    static final String SUFFIX = ".log";
+
+    static final int HEADER = Integer.BYTES + Integer.BYTES;
+    static final int FIXED_PAYLOAD = Long.BYTES + Byte.BYTES + 7 * Long.BYTES + Short.BYTES;
+    private static final int ACCOUNT_LENGTH_OFFSET = FIXED_PAYLOAD - Short.BYTES;
+
+    private final long firstSeq;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+
+    /** Позиция записи; меняется только под блокировкой журнала */
+    private int position;
+    /** До какой позиции данные сброшены на диск; меняется только потоком сброса */
+    private int synced;
+
+    private JournalSegment(long firstSeq, FileChannel channel, MappedByteBuffer buffer) {
+        this.firstSeq = firstSeq;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /** Создаёт новый сегмент, начинающийся с записи {@code firstSeq} */
+    static JournalSegment create(Path dir, long firstSeq, int size) throws IOException {
+        Path path = dir.resolve(fileName(firstSeq));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new JournalSegment(firstSeq, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /** Открывает существующий сегмент для чтения при восстановлении */
+    static JournalSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new JournalSegment(firstSeq(path), channel,
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    static String fileName(long firstSeq) {
+        return String.format("%020d%s", firstSeq, SUFFIX);
+    }
+
+    static long firstSeq(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    static boolean isSegment(Path path) {
+        return path.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    static int recordSize(int accountLength) {
+        return HEADER + FIXED_PAYLOAD + accountLength;
+    }
+
+    int position() {
+        return position;
+    }
+
+    boolean fits(int recordSize) {
+        return buffer.capacity() - position >= recordSize;
+    }
+
+    /**
+     * Дописывает запись в память. Вызывается под блокировкой журнала; на
+     * диск запись попадает при следующем {@link #force(int)}.
+     */
+    void append(long seq, PaymentJournal.Change change, byte[] account) {
+        int payload = FIXED_PAYLOAD + account.length;
+        int at = position + HEADER;
+        UUID hold = change.holdId();
+        buffer.putLong(at, seq);
+        buffer.put(at + 8, change.operation().code());
+        buffer.putLong(at + 9, change.amount());
+        buffer.putLong(at + 17, change.balance());
+        buffer.putLong(at + 25, change.held());
+        buffer.putLong(at + 33, hold != null ? hold.getMostSignificantBits() : 0);
+        buffer.putLong(at + 41, hold != null ? hold.getLeastSignificantBits() : 0);
+        buffer.putLong(at + 49, change.holdExpiresAt());
+        buffer.putShort(at + ACCOUNT_LENGTH_OFFSET, (short) account.length);
+        buffer.put(at + FIXED_PAYLOAD, account);
+
+        crc.reset();
+        crc.update(buffer.slice(at, payload));
+        buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(position, payload);
+        position += HEADER + payload;
+    }
+
+    /**
+     * Читает записи сегмента по порядку, начиная с первой.
+     *
+     * @return номер, который должна получить следующая запись
+     */
+    long read(PaymentJournal.RecordVisitor visitor) {
+        long expected = firstSeq;
+        int at = 0;
+        while (buffer.capacity() - at >= HEADER + FIXED_PAYLOAD) {
+            int payload = buffer.getInt(at);
+            if (payload < FIXED_PAYLOAD || payload > buffer.capacity() - at - HEADER) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(at + HEADER, payload));
+            if ((int) crc.getValue() != buffer.getInt(at + Integer.BYTES)) {
+                break; // запись оборвана сбоем
+            }
+            int p = at + HEADER;
+            long seq = buffer.getLong(p);
+            if (seq != expected) {
+                break;
+            }
+            int accountLength = buffer.getShort(p + ACCOUNT_LENGTH_OFFSET);
+            if (FIXED_PAYLOAD + accountLength != payload) {
+                // контрольная сумма сошлась, значит запись целая, но другого формата
+                throw new IllegalStateException("Неизвестный формат записи журнала " + seq);
+            }
+            byte[] account = new byte[accountLength];
+            buffer.get(p + FIXED_PAYLOAD, account);
+            long msb = buffer.getLong(p + 33);
+            long lsb = buffer.getLong(p + 41);
+            visitor.visit(seq, new PaymentJournal.Change(PaymentJournal.Operation.of(buffer.get(p + 8)),
+                    new String(account, StandardCharsets.UTF_8), buffer.getLong(p + 9),
+                    buffer.getLong(p + 17), buffer.getLong(p + 25),
+                    msb == 0 && lsb == 0 ? null : new UUID(msb, lsb), buffer.getLong(p + 49)));
+            expected++;
+            at += HEADER + payload;
+        }
+        return expected;
+    }
+
+    /** Сбрасывает на диск всё, что записано до позиции {@code end} */
+    void force(int end) {
+        if (end > synced) {
+            buffer.force(synced, end - synced);
+            synced = end;
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
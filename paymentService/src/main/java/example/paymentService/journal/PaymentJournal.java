@@ -0,0 +1,528 @@
+package example.paymentService.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Журнал предзаписи операций со счетами: списаний, пополнений и блокировок
+ * средств под авторизованные платежи.
+ * <p>
+ * Записи дописываются в конец отображённого в память сегмента
+ * ({@link JournalSegment}); заполненный сегмент закрывается и начинается
+ * новый. Запись в память дешёвая и идёт под короткой блокировкой, а на диск
+ * данные сбрасывает отдельный поток одним {@code msync} за всю накопившуюся
+ * пачку (групповая фиксация): пока идёт один сброс, следующие операции
+ * собираются в новую пачку. Чем больше одновременных платежей, тем больше
+ * пачка, поэтому скорость диска ограничивает число сбросов, а не число
+ * платежей. Операция подтверждается клиенту только после сброса её пачки
+ * ({@link Appended#durable()}).
+ * <p>
+ * Снимок ({@link #writeSnapshot(long, Map)}) фиксирует балансы и блокировки всех счетов;
+ * сегменты, целиком покрытые снимком, удаляются, и при запуске
+ * ({@link #recover()}) читается снимок и только хвост журнала после него.
+ * <p>
+ * Если сброс на диск не удался, журнал перестаёт принимать записи: после
+ * перезапуска состояние восстановится по тому, что успело попасть на диск.
+ */
+@Component
+public class PaymentJournal {
+
+    /** Предел длины идентификатора счёта в байтах UTF-8 */
+    public static final int MAX_ACCOUNT_LENGTH = 255;
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentJournal.class);
+
+    private final Path dir;
+    private final int segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+
+    // состояние ниже — под lock
+    private JournalSegment current;
+    private final List<JournalSegment> sealed = new ArrayList<>();
+    private long lastSeq;
+    private int unsynced;
+    /** Пачка, которая собирается сейчас */
+    private CompletableFuture<Void> commit = new CompletableFuture<>();
+    /** Пачка, которую сейчас сбрасывает поток сброса */
+    private CompletableFuture<Void> flushing = CompletableFuture.completedFuture(null);
+    private boolean directoryDirty;
+    private boolean closing;
+    private IOException failure;
+
+    private Thread flusher;
+
+    /** Операция над счётом */
+    public enum Operation {
+        DEBIT((byte) 1),
+        CREDIT((byte) 2),
+        /** Сумма переведена из доступного баланса в заблокированную */
+        HOLD((byte) 3),
+        /** Заблокированная сумма списана */
+        CAPTURE((byte) 4),
+        /** Заблокированная сумма возвращена в доступный баланс */
+        RELEASE((byte) 5);
+
+        private final byte code;
+
+        Operation(byte code) {
+            this.code = code;
+        }
+
+        byte code() {
+            return code;
+        }
+
+        static Operation of(byte code) {
+            return switch (code) {
+                case 1 -> DEBIT;
+                case 2 -> CREDIT;
+                case 3 -> HOLD;
+                case 4 -> CAPTURE;
+                case 5 -> RELEASE;
+                default -> throw new IllegalStateException("Неизвестная операция журнала: " + code);
+            };
+        }
+    }
+
+    /**
+     * Изменение счёта — одна запись журнала.
+     *
+     * @param operation     операция
+     * @param accountId     счёт
+     * @param amount        сумма операции в копейках
+     * @param balance       доступный баланс счёта после операции
+     * @param held          заблокированная сумма счёта после операции
+     * @param holdId        блокировка, к которой относится операция; {@code null} для списаний и пополнений
+     * @param holdExpiresAt срок блокировки для {@link Operation#HOLD}, мс от эпохи; иначе 0
+     */
+    public record Change(Operation operation, String accountId, long amount, long balance, long held,
+            UUID holdId, long holdExpiresAt) {
+
+        /** Списание или пополнение, не связанное с блокировкой */
+        public static Change of(Operation operation, String accountId, long amount, long balance, long held) {
+            return new Change(operation, accountId, amount, balance, held, null, 0);
+        }
+    }
+
+    /**
+     * Блокировка средств на счёте.
+     *
+     * @param id        идентификатор блокировки
+     * @param amount    сумма в копейках
+     * @param expiresAt срок, мс от эпохи
+     */
+    public record HoldState(UUID id, long amount, long expiresAt) {
+    }
+
+    /**
+     * Состояние счёта после восстановления.
+     *
+     * @param balance доступный баланс в копейках
+     * @param held    заблокированная сумма в копейках
+     * @param lastSeq номер последней записи журнала по счёту
+     * @param holds   действующие блокировки
+     */
+    public record AccountState(long balance, long held, long lastSeq, List<HoldState> holds) {
+
+        public AccountState {
+            holds = List.copyOf(holds);
+        }
+
+        /** Счёт без блокировок */
+        public AccountState(long balance, long lastSeq) {
+            this(balance, 0, lastSeq, List.of());
+        }
+    }
+
+    /**
+     * Принятая журналом запись.
+     *
+     * @param seq     номер записи
+     * @param durable завершается, когда запись сброшена на диск; общий для
+     *                всей пачки, поэтому отменять его нельзя
+     */
+    public record Appended(long seq, CompletableFuture<Void> durable) {
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long seq, Change change);
+    }
+
+    public PaymentJournal(@Value("${payment.journal.dir:data/journal}") Path dir,
+            @Value("${payment.journal.segment-size:64MB}") DataSize segmentSize) {
+        this.dir = dir;
+        this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+        if (this.segmentSize < JournalSegment.recordSize(MAX_ACCOUNT_LENGTH)) {
+            throw new IllegalArgumentException("Сегмент журнала слишком мал: " + segmentSize);
+        }
+    }
+
+    /**
+     * Восстанавливает балансы по последнему снимку и хвосту журнала и
+     * открывает журнал на запись. Вызывается один раз при запуске.
+     *
+     * @return состояние счетов, упомянутых в снимке или журнале
+     */
+    public Map<String, AccountState> recover() {
+        try {
+            return doRecover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось восстановить журнал платежей из " + dir, e);
+        }
+    }
+
+    private Map<String, AccountState> doRecover() throws IOException {
+        long started = System.nanoTime();
+        Files.createDirectories(dir);
+
+        List<Path> snapshots = list(SnapshotFile::isSnapshot, SnapshotFile::seq);
+        SnapshotFile.Loaded snapshot = snapshots.isEmpty()
+                ? new SnapshotFile.Loaded(0, new HashMap<>())
+                : SnapshotFile.read(snapshots.get(snapshots.size() - 1));
+        Map<String, Replayed> accounts = new HashMap<>();
+        snapshot.accounts().forEach((accountId, state) -> accounts.put(accountId, new Replayed(state)));
+        long from = snapshot.seq() + 1;
+
+        // сегменты, все записи которых вошли в снимок, читать не нужно
+        List<Path> segments = list(JournalSegment::isSegment, JournalSegment::firstSeq);
+        int first = 0;
+        while (first + 1 < segments.size() && JournalSegment.firstSeq(segments.get(first + 1)) <= from) {
+            first++;
+        }
+
+        long next = from;
+        long replayed = 0;
+        for (int i = first; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            long firstSeq = JournalSegment.firstSeq(path);
+            if (i == first ? firstSeq > from : firstSeq != next) {
+                throw new IllegalStateException("Разрыв в журнале платежей перед " + path
+                        + ": ожидалась запись " + next);
+            }
+            JournalSegment segment = JournalSegment.open(path);
+            try {
+                long[] applied = { 0 };
+                long end = segment.read((seq, change) -> {
+                    if (seq < from) {
+                        return;
+                    }
+                    // снимок мог уже учесть эту запись: он снимается без остановки платежей
+                    accounts.computeIfAbsent(change.accountId(), id -> new Replayed()).apply(seq, change);
+                    applied[0]++;
+                });
+                replayed += applied[0];
+                next = Math.max(next, end);
+            } finally {
+                segment.close();
+            }
+        }
+        // хвост последнего сегмента мог быть оборван сбоем: продолжаем в новом сегменте
+        if (!segments.isEmpty()) {
+            Path last = segments.get(segments.size() - 1);
+            if (JournalSegment.firstSeq(last) == next) {
+                Files.delete(last); // пустой сегмент
+            }
+        }
+        deleteTemporaryFiles();
+
+        lock.lock();
+        try {
+            lastSeq = next - 1;
+            current = JournalSegment.create(dir, next, segmentSize);
+            directoryDirty = true;
+        } finally {
+            lock.unlock();
+        }
+        flusher = Thread.ofPlatform().name("payment-journal-flusher").daemon().start(this::flushLoop);
+
+        log.info("Журнал платежей восстановлен за {} мс: снимок на записи {}, повторено записей {}, счетов {}",
+                (System.nanoTime() - started) / 1_000_000, snapshot.seq(), replayed, accounts.size());
+        Map<String, AccountState> recovered = new HashMap<>(Math.max(16, accounts.size() * 4 / 3 + 1));
+        accounts.forEach((accountId, state) -> recovered.put(accountId, state.toState()));
+        return recovered;
+    }
+
+    /**
+     * Дописывает запись в журнал. Записи одного счёта должны дописываться в
+     * том же порядке, в каком меняется его баланс (вызывающий держит
+     * блокировку счёта).
+     *
+     * @throws IllegalArgumentException если идентификатор счёта длиннее {@value #MAX_ACCOUNT_LENGTH} байт
+     * @throws IllegalStateException    если журнал закрыт или не смог сбросить данные на диск
+     */
+    public Appended append(Change change) {
+        byte[] account = change.accountId().getBytes(StandardCharsets.UTF_8);
+        if (account.length > MAX_ACCOUNT_LENGTH) {
+            throw new IllegalArgumentException("Слишком длинный идентификатор счёта");
+        }
+        int size = JournalSegment.recordSize(account.length);
+
+        lock.lock();
+        try {
+            ensureWritable();
+            if (!current.fits(size)) {
+                roll();
+            }
+            long seq = ++lastSeq;
+            current.append(seq, change, account);
+            if (unsynced++ == 0) {
+                hasWork.signal();
+            }
+            return new Appended(seq, commit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Номер последней принятой записи */
+    public long lastSeq() {
+        lock.lock();
+        try {
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Записывает снимок балансов и удаляет сегменты, которые он покрывает.
+     * Сначала дожидается сброса всех принятых записей: в снимок не должна
+     * попасть операция, которая ещё не подтверждена и может пропасть при сбое.
+     *
+     * @param seq      все записи до этого номера включительно учтены в {@code accounts}
+     * @param accounts состояние счетов с номером последней записи каждого
+     */
+    public void writeSnapshot(long seq, Map<String, AccountState> accounts) {
+        CompletableFuture<Void> pending;
+        lock.lock();
+        try {
+            ensureWritable();
+            pending = unsynced > 0 ? commit : flushing;
+        } finally {
+            lock.unlock();
+        }
+        pending.join();
+        try {
+            Path written = SnapshotFile.write(dir, seq, accounts);
+            forceDirectory();
+            for (Path old : list(SnapshotFile::isSnapshot, SnapshotFile::seq)) {
+                if (!old.equals(written)) {
+                    Files.deleteIfExists(old);
+                }
+            }
+            deleteSegmentsBefore(seq + 1);
+            log.debug("Снимок журнала платежей на записи {}: счетов {}", seq, accounts.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать снимок журнала платежей", e);
+        }
+    }
+
+    /**
+     * Сбрасывает принятые записи на диск и останавливает поток сброса.
+     */
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            closing = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть сегмент журнала: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Начинает новый сегмент; старый сбросит и закроет поток сброса */
+    private void roll() {
+        try {
+            JournalSegment next = JournalSegment.create(dir, lastSeq + 1, segmentSize);
+            sealed.add(current);
+            current = next;
+            directoryDirty = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать сегмент журнала платежей", e);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<JournalSegment> full;
+            JournalSegment segment;
+            int end;
+            boolean syncDirectory;
+            CompletableFuture<Void> batch;
+
+            lock.lock();
+            try {
+                while (unsynced == 0 && sealed.isEmpty() && !closing) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if (unsynced == 0 && sealed.isEmpty()) {
+                    return;
+                }
+                batch = commit;
+                flushing = batch;
+                commit = new CompletableFuture<>();
+                unsynced = 0;
+                full = new ArrayList<>(sealed);
+                sealed.clear();
+                segment = current;
+                end = segment.position();
+                syncDirectory = directoryDirty;
+                directoryDirty = false;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                for (JournalSegment s : full) {
+                    s.force(s.position());
+                    s.close();
+                }
+                if (syncDirectory) {
+                    forceDirectory();
+                }
+                segment.force(end);
+                batch.complete(null);
+            } catch (IOException | UncheckedIOException e) {
+                IOException cause = e instanceof UncheckedIOException u ? u.getCause() : (IOException) e;
+                log.error("Сброс журнала платежей на диск не удался, запись остановлена", cause);
+                lock.lock();
+                try {
+                    failure = cause;
+                    commit.completeExceptionally(cause);
+                } finally {
+                    lock.unlock();
+                }
+                batch.completeExceptionally(cause);
+                return;
+            }
+        }
+    }
+
+    private void ensureWritable() {
+        if (current == null) {
+            throw new IllegalStateException("Журнал платежей не восстановлен");
+        }
+        if (closing) {
+            throw new IllegalStateException("Журнал платежей закрыт");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Журнал платежей недоступен после ошибки записи", failure);
+        }
+    }
+
+    /** Удаляет сегменты, все записи которых имеют номер меньше {@code from} */
+    private void deleteSegmentsBefore(long from) throws IOException {
+        List<Path> segments = list(JournalSegment::isSegment, JournalSegment::firstSeq);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (JournalSegment.firstSeq(segments.get(i + 1)) > from) {
+                break;
+            }
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private void deleteTemporaryFiles() throws IOException {
+        for (Path temp : list(SnapshotFile::isTemp, path -> 0L)) {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Фиксирует в каталоге создание и переименование файлов */
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private List<Path> list(Predicate<Path> filter, ToLongFunction<Path> order) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(filter).sorted(Comparator.comparingLong(order)).toList();
+        }
+    }
+
+    /** Состояние счёта, собираемое при повторе журнала */
+    private static final class Replayed {
+
+        long balance;
+        long held;
+        long lastSeq;
+        final Map<UUID, HoldState> holds = new LinkedHashMap<>();
+
+        Replayed() {
+        }
+
+        Replayed(AccountState state) {
+            balance = state.balance();
+            held = state.held();
+            lastSeq = state.lastSeq();
+            state.holds().forEach(hold -> holds.put(hold.id(), hold));
+        }
+
+        void apply(long seq, Change change) {
+            if (lastSeq >= seq) {
+                return;
+            }
+            balance = change.balance();
+            held = change.held();
+            lastSeq = seq;
+            switch (change.operation()) {
+                case HOLD -> holds.put(change.holdId(),
+                        new HoldState(change.holdId(), change.amount(), change.holdExpiresAt()));
+                case CAPTURE, RELEASE -> holds.remove(change.holdId());
+                case DEBIT, CREDIT -> {
+                }
+            }
+        }
+
+        AccountState toState() {
+            return new AccountState(balance, held, lastSeq, new ArrayList<>(holds.values()));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package example.paymentService.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32C;
+
+import example.paymentService.journal.PaymentJournal.AccountState;
+import example.paymentService.journal.PaymentJournal.HoldState;
+
+/**
+ * Снимок балансов и блокировок всех счетов.
+ * <p>
+ * Имя файла — номер записи журнала, до которой включительно снимок учитывает
+ * все операции ({@code 00000000000000001000.snapshot}). Формат:
+ * <pre>
+ * int   {@link #MAGIC}
+ * long  номер записи
+ * int   количество счетов
+ * для каждого счёта: UTF-8 идентификатор, доступный баланс, заблокированная
+ *       сумма, номер последней записи счёта, количество блокировок и для
+ *       каждой — id (два long), сумма, срок
+ * int   CRC32C всего предыдущего
+ * </pre>
+ * Снимок пишется во временный файл и переименовывается атомарно, поэтому
+ * на диске всегда лежит либо старый, либо новый целый снимок.
+ */
+final class SnapshotFile {
+
+    static final String SUFFIX = ".snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x50534E32; // "PSN2"
+
+    private SnapshotFile() {
+    }
+
+    /** Снимок, прочитанный при восстановлении */
+    record Loaded(long seq, Map<String, AccountState> accounts) {
+    }
+
+    static boolean isSnapshot(Path path) {
+        return path.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    static long seq(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    static boolean isTemp(Path path) {
+        return path.getFileName().toString().endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Записывает снимок и сбрасывает его на диск.
+     *
+     * @return путь к записанному снимку
+     */
+    static Path write(Path dir, long seq, Map<String, AccountState> accounts) throws IOException {
+        Path target = dir.resolve(String.format("%020d%s", seq, SUFFIX));
+        Path temp = dir.resolve(target.getFileName() + TEMP_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32C crc = new CRC32C();
+            // поток не закрываем: канал закрывает try, а до этого его нужно сбросить на диск
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeLong(seq);
+            out.writeInt(accounts.size());
+            for (Map.Entry<String, AccountState> entry : accounts.entrySet()) {
+                AccountState state = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(state.balance());
+                out.writeLong(state.held());
+                out.writeLong(state.lastSeq());
+                out.writeInt(state.holds().size());
+                for (HoldState hold : state.holds()) {
+                    out.writeLong(hold.id().getMostSignificantBits());
+                    out.writeLong(hold.id().getLeastSignificantBits());
+                    out.writeLong(hold.amount());
+                    out.writeLong(hold.expiresAt());
+                }
+            }
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    /**
+     * Читает снимок.
+     *
+     * @throws IllegalStateException если снимок повреждён
+     */
+    static Loaded read(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            CRC32C crc = new CRC32C();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 16), crc));
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Не снимок журнала: " + path);
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            Map<String, AccountState> accounts = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String accountId = in.readUTF();
+                long balance = in.readLong();
+                long held = in.readLong();
+                long lastSeq = in.readLong();
+                int holdCount = in.readInt();
+                List<HoldState> holds = new ArrayList<>(holdCount);
+                for (int h = 0; h < holdCount; h++) {
+                    holds.add(new HoldState(new UUID(in.readLong(), in.readLong()), in.readLong(), in.readLong()));
+                }
+                accounts.put(accountId, new AccountState(balance, held, lastSeq, holds));
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected || seq != seq(path)) {
+                throw new IllegalStateException("Снимок журнала повреждён: " + path);
+            }
+            return new Loaded(seq, accounts);
+        }
+    }
+}
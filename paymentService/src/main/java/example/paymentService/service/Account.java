@@ -0,0 +1,90 @@
+package example.paymentService.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.journal.PaymentJournal.HoldState;
+
+/**
+ * Прокладка перед балансом счёта. Поля суперкласса HotSpot размещает раньше
+ * полей подкласса, поэтому баланс оказывается между двумя прокладками по
+ * 56 байт и не делит строку кэша с балансом соседнего по памяти счёта.
+ */
+abstract class AccountLeftPadding {
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class AccountValue extends AccountLeftPadding {
+    /** Доступный баланс в минимальных единицах валюты (копейках) */
+    volatile long balance;
+    /** Сумма действующих блокировок в копейках */
+    volatile long held;
+}
+
+abstract class AccountRightPadding extends AccountValue {
+    long p11, p12, p13, p14, p15, p16, p17;
+}
+
+/**
+ * Счёт покупателя в {@link BalanceService}.
+ * <p>
+ * Доступный баланс и заблокированная сумма — {@code long} в копейках.
+ * Меняются под монитором счёта вместе с записью операции в
+ * {@link PaymentJournal}: так записи одного счёта лежат в журнале в том же
+ * порядке, в каком менялся баланс. Читаются без блокировки. Каждый счёт
+ * занимает отдельную строку кэша: операции над разными счетами не
+ * конкурируют ни за монитор, ни за одно слово памяти.
+ */
+final class Account extends AccountRightPadding {
+
+    /** Номер последней записи журнала по счёту; под монитором счёта */
+    private long lastSeq;
+    /** Действующие блокировки; под монитором счёта */
+    private final Map<UUID, HoldState> holds = new HashMap<>();
+
+    Account(long balance, long lastSeq) {
+        this.balance = balance;
+        this.lastSeq = lastSeq;
+    }
+
+    Account(PaymentJournal.AccountState state) {
+        this(state.balance(), state.lastSeq());
+        this.held = state.held();
+        state.holds().forEach(hold -> holds.put(hold.id(), hold));
+    }
+
+    long balance() {
+        return balance;
+    }
+
+    long held() {
+        return held;
+    }
+
+    /** Фиксирует баланс после операции, записанной в журнал под номером {@code seq} */
+    void apply(long balance, long held, long seq) {
+        assert Thread.holdsLock(this);
+        this.balance = balance;
+        this.held = held;
+        this.lastSeq = seq;
+    }
+
+    void addHold(HoldState hold) {
+        assert Thread.holdsLock(this);
+        holds.put(hold.id(), hold);
+    }
+
+    /** @return снятая блокировка или {@code null}, если её уже списали или отпустили */
+    HoldState removeHold(UUID id) {
+        assert Thread.holdsLock(this);
+        return holds.remove(id);
+    }
+
+    /** Согласованное состояние счёта с номером последней записи для снимка */
+    synchronized PaymentJournal.AccountState state() {
+        return new PaymentJournal.AccountState(balance, held, lastSeq, new ArrayList<>(holds.values()));
+    }
+}
@@ -1,43 +1,341 @@
 package example.paymentService.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.journal.PaymentJournal.AccountState;
+import example.paymentService.journal.PaymentJournal.Appended;
+import example.paymentService.journal.PaymentJournal.Change;
+import example.paymentService.journal.PaymentJournal.HoldState;
+import example.paymentService.journal.PaymentJournal.Operation;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+
 import java.math.BigDecimal;
-import java.util.concurrent.atomic.AtomicReference;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Счета покупателей.
+ * <p>
+ * Таблица счетов — {@link ConcurrentHashMap} по идентификатору счёта: чтение
+ * без блокировок, блокируется только корзина хэш-таблицы при открытии нового
+ * счёта. Баланс каждого счёта меняется под его собственным монитором
+ * ({@link Account}), поэтому платежи разных покупателей не конкурируют друг
+ * с другом, а одновременные платежи одного покупателя — только между собой.
+ * <p>
+ * Оплата заказа идёт в два шага: {@link #hold(String, long)} переводит сумму
+ * из доступного баланса в заблокированную, а {@link #capture(UUID)} её
+ * списывает или {@link #release(UUID)} возвращает. Неподтверждённая
+ * блокировка отпускается сама через {@code payment.hold.ttl}: сроки ведёт
+ * колесо таймеров ({@link HashedWheelTimer}) с шагом
+ * {@code payment.hold.tick}, поэтому постановка и снятие срока стоят O(1) и
+ * ни один запрос не перебирает блокировки. Доступный баланс и
+ * заблокированная сумма счёта хранятся готовыми и читаются за O(1).
+ * <p>
+ * Каждая операция записывается в {@link PaymentJournal}, и
+ * результат операции выдаётся только после сброса записи на диск. При
+ * запуске балансы и блокировки восстанавливаются из журнала (сроки
+ * блокировок ставятся заново, истёкшие отпускаются на первом шаге колеса), а по расписанию
+ * ({@code payment.journal.snapshot-interval}) и при остановке снимаются
+ * снимки, чтобы при следующем запуске читать только хвост журнала.
+ * <p>
+ * Суммы хранятся в копейках ({@code long}). Новый счёт открывается при
+ * первом обращении с балансом {@code balance.initial}.
+ */
 @Service
 public class BalanceService {
 
-    private final AtomicReference<BigDecimal> balance;
+    private static final int SCALE = 2;
+    private static final Logger log = LoggerFactory.getLogger(BalanceService.class);
+
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    /** Действующие блокировки по id: счёт и срок в колесе таймеров */
+    private final ConcurrentHashMap<UUID, Hold> holds = new ConcurrentHashMap<>();
+    private final PaymentJournal journal;
+    private final long initialBalance;
+    private final Duration holdTtl;
+    private final HashedWheelTimer timer;
+
+    public BalanceService(@Value("${balance.initial:10000}") BigDecimal initialBalance, PaymentJournal journal,
+            @Value("${payment.hold.ttl:15m}") Duration holdTtl,
+            @Value("${payment.hold.tick:1s}") Duration holdTick) {
+        this.initialBalance = toMinorUnits(initialBalance);
+        this.journal = journal;
+        this.holdTtl = holdTtl;
+        this.timer = new HashedWheelTimer(Thread.ofPlatform().name("payment-hold-timer").daemon().factory(),
+                holdTick.toMillis(), TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+        journal.recover().forEach((id, state) -> {
+            Account account = new Account(state);
+            accounts.put(id, account);
+            synchronized (account) {
+                for (HoldState hold : state.holds()) {
+                    holds.put(hold.id(), new Hold(id, account, expire(id, account, hold.id(), hold.expiresAt() - now)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Результат авторизации платежа.
+     *
+     * @param status    итог авторизации
+     * @param holdId    id блокировки (только для {@link Status#HELD})
+     * @param expiresAt когда блокировка будет отпущена, если её не списать (только для {@link Status#HELD})
+     */
+    public record Authorization(Status status, UUID holdId, Instant expiresAt) {
+
+        public enum Status {
+            /** сумма заблокирована на счёте */
+            HELD,
+            /** доступного баланса не хватает */
+            INSUFFICIENT_FUNDS
+        }
+    }
+
+    /** Блокировка в индексе: счёт, на котором она стоит, и её срок в колесе */
+    private record Hold(String accountId, Account account, Timeout expiry) {
+    }
+
+    /**
+     * Текущий доступный баланс счёта в копейках.
+     *
+     * @param accountId идентификатор счёта
+     */
+    public long getBalance(String accountId) {
+        Account account = accounts.get(accountId);
+        return account != null ? account.balance() : initialBalance;
+    }
+
+    /**
+     * Сумма действующих блокировок счёта в копейках.
+     *
+     * @param accountId идентификатор счёта
+     */
+    public long getHeld(String accountId) {
+        Account account = accounts.get(accountId);
+        return account != null ? account.held() : 0;
+    }
 
-    public BalanceService(@Value("${balance.initial:10000}") BigDecimal initialBalance) {
-        this.balance = new AtomicReference<>(initialBalance);
+    /**
+     * Блокирует сумму на счёте до списания, отмены или истечения срока
+     * {@code payment.hold.ttl}.
+     *
+     * @param accountId идентификатор счёта
+     * @param amount    сумма в копейках, больше нуля
+     * @return блокировка, когда она сохранена в журнале, или отказ, если
+     *         доступного баланса не хватает
+     */
+    public Mono<Authorization> hold(String accountId, long amount) {
+        return Mono.defer(() -> {
+            requirePositive(amount);
+            Account account = account(accountId);
+            Appended appended;
+            UUID id = UUID.randomUUID();
+            long expiresAt = System.currentTimeMillis() + holdTtl.toMillis();
+            synchronized (account) {
+                long balance = account.balance() - amount;
+                if (balance < 0) {
+                    return Mono.just(new Authorization(Authorization.Status.INSUFFICIENT_FUNDS, null, null));
+                }
+                long held = Math.addExact(account.held(), amount);
+                appended = journal.append(new Change(Operation.HOLD, accountId, amount, balance, held, id, expiresAt));
+                account.apply(balance, held, appended.seq());
+                account.addHold(new HoldState(id, amount, expiresAt));
+                // срок ставится под монитором: списание той же блокировки не может его обогнать
+                holds.put(id, new Hold(accountId, account, expire(accountId, account, id, holdTtl.toMillis())));
+            }
+            return durable(appended).thenReturn(new Authorization(Authorization.Status.HELD, id,
+                    Instant.ofEpochMilli(expiresAt)));
+        });
+    }
+
+    /**
+     * Списывает заблокированную сумму.
+     *
+     * @param holdId id блокировки из {@link #hold(String, long)}
+     * @return {@code true}, если сумма списана и списание сохранено в журнале;
+     *         {@code false}, если блокировки нет: её уже списали, отпустили или истёк срок
+     */
+    public Mono<Boolean> capture(UUID holdId) {
+        return settle(holdId, Operation.CAPTURE);
+    }
+
+    /**
+     * Отпускает блокировку: сумма возвращается в доступный баланс.
+     *
+     * @param holdId id блокировки из {@link #hold(String, long)}
+     * @return {@code true}, если блокировка отпущена и это сохранено в журнале;
+     *         {@code false}, если блокировки уже нет
+     */
+    public Mono<Boolean> release(UUID holdId) {
+        return settle(holdId, Operation.RELEASE);
     }
 
-    /** Получение текущего баланса */
-    public BigDecimal getBalance() {
-        return balance.get();
+    /**
+     * Списание суммы со счёта.
+     *
+     * @param accountId идентификатор счёта
+     * @param amount    сумма в копейках, больше нуля
+     * @return {@code true}, если сумма списана и списание сохранено в журнале;
+     *         {@code false}, если недостаточно средств
+     */
+    public Mono<Boolean> deduct(String accountId, long amount) {
+        return Mono.defer(() -> {
+            requirePositive(amount);
+            Account account = account(accountId);
+            Appended appended;
+            synchronized (account) {
+                long balance = account.balance() - amount;
+                if (balance < 0) {
+                    return Mono.just(false);
+                }
+                appended = journal.append(Change.of(Operation.DEBIT, accountId, amount, balance, account.held()));
+                account.apply(balance, account.held(), appended.seq());
+            }
+            return durable(appended).thenReturn(true);
+        });
     }
 
     /**
-     * Списание суммы с баланса
-     * 
-     * @param amount сумма для списания
-     * @return true, если операция успешна
+     * Пополнение счёта.
+     *
+     * @param accountId идентификатор счёта
+     * @param amount    сумма в копейках, больше нуля
+     * @return завершается, когда пополнение сохранено в журнале
      */
-    public boolean deduct(BigDecimal amount) {
-        return balance.updateAndGet(current -> {
-            if (current.compareTo(amount) >= 0) {
-                return current.subtract(amount);
-            } else {
-                throw new IllegalStateException("Недостаточно средств на балансе");
+    public Mono<Void> add(String accountId, long amount) {
+        return Mono.defer(() -> {
+            requirePositive(amount);
+            Account account = account(accountId);
+            Appended appended;
+            synchronized (account) {
+                long balance = Math.addExact(account.balance(), amount);
+                appended = journal.append(Change.of(Operation.CREDIT, accountId, amount, balance, account.held()));
+                account.apply(balance, account.held(), appended.seq());
             }
-        }).compareTo(BigDecimal.ZERO) >= 0;
+            return durable(appended);
+        });
+    }
+
+    private Mono<Boolean> settle(UUID holdId, Operation operation) {
+        return Mono.defer(() -> {
+            Hold hold = holds.get(holdId);
+            return hold != null ? settle(hold.accountId(), hold.account(), holdId, operation) : Mono.just(false);
+        });
+    }
+
+    /** Списывает или отпускает блокировку; кто первый взял монитор счёта, тот и решает */
+    private Mono<Boolean> settle(String accountId, Account account, UUID holdId, Operation operation) {
+        return Mono.defer(() -> {
+            Appended appended;
+            Hold hold;
+            synchronized (account) {
+                HoldState state = account.removeHold(holdId);
+                if (state == null) {
+                    return Mono.just(false);
+                }
+                long balance = operation == Operation.RELEASE
+                        ? Math.addExact(account.balance(), state.amount())
+                        : account.balance();
+                long held = account.held() - state.amount();
+                try {
+                    appended = journal.append(new Change(operation, accountId, state.amount(),
+                            balance, held, holdId, 0));
+                } catch (RuntimeException e) {
+                    account.addHold(state); // операция не записана — блокировка остаётся
+                    throw e;
+                }
+                account.apply(balance, held, appended.seq());
+                hold = holds.remove(holdId);
+            }
+            if (hold != null) {
+                hold.expiry().cancel();
+            }
+            return durable(appended).thenReturn(true);
+        });
+    }
+
+    /**
+     * Ставит отпускание блокировки в колесо таймеров. Вызывается под
+     * монитором счёта до того, как блокировка попадёт в индекс, поэтому счёт
+     * передаётся сразу, а не ищется в индексе.
+     */
+    private Timeout expire(String accountId, Account account, UUID holdId, long delayMillis) {
+        return timer.newTimeout(timeout -> settle(accountId, account, holdId, Operation.RELEASE)
+                .subscribe(released -> {
+                    if (released) {
+                        log.debug("Блокировка {} отпущена по истечении срока", holdId);
+                    }
+                }, e -> log.warn("Не удалось отпустить блокировку {}: {}", holdId, e.getMessage())),
+                Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Снимает снимок балансов без остановки платежей: операции, записанные
+     * в журнал во время обхода, при восстановлении повторятся поверх снимка
+     * по номеру последней записи каждого счёта.
+     */
+    @Scheduled(fixedDelayString = "${payment.journal.snapshot-interval:5m}",
+            initialDelayString = "${payment.journal.snapshot-interval:5m}")
+    public void snapshot() {
+        long seq = journal.lastSeq();
+        Map<String, AccountState> state = new HashMap<>(accounts.size() * 4 / 3 + 1);
+        accounts.forEach((id, account) -> state.put(id, account.state()));
+        journal.writeSnapshot(seq, state);
+    }
+
+    @PreDestroy
+    public void close() {
+        timer.stop();
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            // журнал остаётся источником истины: при запуске хвост просто будет длиннее
+            log.warn("Не удалось снять снимок балансов при остановке: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Переводит сумму в копейки.
+     *
+     * @throws ArithmeticException если в сумме больше двух знаков после запятой
+     */
+    public static long toMinorUnits(BigDecimal amount) {
+        return amount.setScale(SCALE).unscaledValue().longValueExact();
+    }
+
+    /** Переводит копейки в сумму с двумя знаками после запятой */
+    public static BigDecimal fromMinorUnits(long amount) {
+        return BigDecimal.valueOf(amount, SCALE);
+    }
+
+    private Account account(String accountId) {
+        Account account = accounts.get(accountId);
+        // быстрый путь без computeIfAbsent: тот может заблокировать корзину таблицы и для существующего ключа
+        return account != null ? account : accounts.computeIfAbsent(accountId, id -> new Account(initialBalance, 0));
+    }
+
+    /** Общий для пачки future отменять нельзя, поэтому отмену подписчика не передаём */
+    private static Mono<Void> durable(Appended appended) {
+        return Mono.fromFuture(appended.durable(), true);
     }
 
-    /** Пополнение баланса */
-    public void add(BigDecimal amount) {
-        balance.updateAndGet(current -> current.add(amount));
+    private static void requirePositive(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Сумма должна быть больше нуля");
+        }
     }
 }
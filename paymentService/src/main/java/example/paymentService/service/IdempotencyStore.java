@@ -0,0 +1,95 @@
+package example.paymentService.service;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Ответы на запросы с ключом идемпотентности.
+ * <p>
+ * Хранилище ограничено по размеру ({@code payment.idempotency.max-size}) и
+ * по времени жизни записи ({@code payment.idempotency.ttl}). Первый запрос с
+ * ключом выполняет операцию; повторы, пришедшие пока она идёт, ждут её
+ * результата, а не выполняют операцию ещё раз. После завершения результат
+ * остаётся в хранилище, только если он подходит под условие {@code remember}
+ * (например, успешная оплата): неуспешную операцию безопасно повторить тем
+ * же ключом, а ошибка не должна закрывать ключ до истечения TTL.
+ * <p>
+ * Ключи живут в памяти узла и в журнал не пишутся: после перезапуска
+ * сервиса, на другом узле или после вытеснения повтор выполняется как новый
+ * запрос. Гарантия рассчитана на повторы сразу после таймаута; контракт
+ * описывает эти границы у заголовка {@code Idempotency-Key}.
+ */
+@Component
+public class IdempotencyStore {
+
+    private final Cache<String, Entry<?>> entries;
+
+    public IdempotencyStore(@Value("${payment.idempotency.max-size:100000}") long maxSize,
+            @Value("${payment.idempotency.ttl:24h}") Duration ttl) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Выполняет операцию один раз на ключ.
+     *
+     * @param key       ключ идемпотентности вместе с областью (операция, счёт)
+     * @param request   тело запроса: повтор с тем же ключом и другим телом отклоняется
+     * @param remember  какие результаты запоминать после завершения
+     * @param operation операция; вызывается только для первого запроса с ключом
+     * @throws ResponseStatusException 422, если ключ уже использован для другого запроса
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String key, Object request, Predicate<T> remember, Supplier<Mono<T>> operation) {
+        return Mono.defer(() -> {
+            Entry<T> created = new Entry<>(key, request, remember, operation);
+            Entry<T> entry = (Entry<T>) entries.asMap().putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            } else if (!Objects.equals(entry.request, request)) {
+                return Mono.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        "Ключ идемпотентности уже использован для другого запроса"));
+            }
+            return entry.result;
+        });
+    }
+
+    /** Запрос и его общий для всех повторов результат */
+    private final class Entry<T> {
+
+        final Object request;
+        final Mono<T> result;
+
+        Entry(String key, Object request, Predicate<T> remember, Supplier<Mono<T>> operation) {
+            this.request = request;
+            this.result = Mono.defer(operation)
+                    .doOnNext(value -> {
+                        if (!remember.test(value)) {
+                            forget(key);
+                        }
+                    })
+                    .doOnError(e -> forget(key))
+                    // операция не отменяется, если клиент отключился: её результат нужен повторам
+                    .cache();
+        }
+
+        /** Удаляет именно эту запись: её могли уже вытеснить и заменить новой */
+        private void forget(String key) {
+            entries.asMap().remove(key, this);
+        }
+    }
+}
@@ -2,41 +2,53 @@ package example.paymentService;
 
 import example.paymentService.service.BalanceService;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
 
 @SpringBootTest(properties = "balance.initial=5000")
 class BalanceServiceIntegrationTest {
 
+    @TempDir
+    static Path journalDir;
+
+    @DynamicPropertySource
+    static void journalProperties(DynamicPropertyRegistry registry) {
+        registry.add("payment.journal.dir", journalDir::toString);
+    }
+
     @Autowired
     private BalanceService balanceService;
 
     @Test
     void getBalance_shouldReturnInitialBalanceFromProperties() {
-        assertEquals(BigDecimal.valueOf(5000), balanceService.getBalance());
+        assertEquals(BigDecimal.valueOf(500_000, 2),
+                BalanceService.fromMinorUnits(balanceService.getBalance("initial")));
     }
 
     @Test
     void deduct_shouldReduceBalance() {
-        boolean result = balanceService.deduct(BigDecimal.valueOf(1500));
+        boolean result = balanceService.deduct("deduct", BalanceService.toMinorUnits(BigDecimal.valueOf(1500))).block();
         assertTrue(result);
-        assertEquals(BigDecimal.valueOf(5500), balanceService.getBalance());
+        assertEquals(350_000, balanceService.getBalance("deduct"));
     }
 
     @Test
-    void deduct_shouldThrow_whenNotEnoughFunds() {
-        IllegalStateException ex = assertThrows(IllegalStateException.class,
-                () -> balanceService.deduct(BigDecimal.valueOf(6000)));
-        assertEquals("Недостаточно средств на балансе", ex.getMessage());
+    void deduct_shouldFail_whenNotEnoughFunds() {
+        assertFalse(balanceService.deduct("poor", BalanceService.toMinorUnits(BigDecimal.valueOf(6000))).block());
+        assertEquals(500_000, balanceService.getBalance("poor"));
     }
 
     @Test
     void add_shouldIncreaseBalance() {
-        balanceService.add(BigDecimal.valueOf(2000));
-        assertEquals(BigDecimal.valueOf(7000), balanceService.getBalance());
+        balanceService.add("add", BalanceService.toMinorUnits(BigDecimal.valueOf(2000))).block();
+        assertEquals(700_000, balanceService.getBalance("add"));
     }
 }
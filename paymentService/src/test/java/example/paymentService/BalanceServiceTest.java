@@ -1,40 +1,234 @@
 package example.paymentService;
 
+import example.paymentService.journal.PaymentJournal;
 import example.paymentService.service.BalanceService;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class BalanceServiceTest {
 
 private BalanceService balanceService;
+    private PaymentJournal journal;
+
+    @TempDir
+    Path journalDir;
 
     @BeforeEach
     void setUp() {
-        // Инициализация баланса 5000
-        balanceService = new BalanceService(BigDecimal.valueOf(5000));
+        // Инициализация баланса 5000 для каждого нового счёта
+        balanceService = newService();
+    }
+
+    @AfterEach
+    void tearDown() {
+        balanceService.close();
+        journal.close();
+    }
+
+    private BalanceService newService() {
+        return newService(Duration.ofMinutes(15));
+    }
+
+    private BalanceService newService(Duration holdTtl) {
+        journal = new PaymentJournal(journalDir, DataSize.ofKilobytes(64));
+        return new BalanceService(BigDecimal.valueOf(5000), journal, holdTtl, Duration.ofMillis(10));
+    }
+
+    private UUID hold(String accountId, long amount) {
+        BalanceService.Authorization authorization = balanceService.hold(accountId, amount).block();
+        assertEquals(BalanceService.Authorization.Status.HELD, authorization.status());
+        return authorization.holdId();
+    }
+
+    private void awaitHeld(String accountId, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (balanceService.getHeld(accountId) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, balanceService.getHeld(accountId));
     }
 
     @Test
     void deduct_shouldReduceBalance() {
-        boolean result = balanceService.deduct(BigDecimal.valueOf(1500));
+        boolean result = balanceService.deduct("alice", 150_000).block();
         assertTrue(result);
-        assertEquals(BigDecimal.valueOf(3500), balanceService.getBalance());
+        assertEquals(350_000, balanceService.getBalance("alice"));
     }
 
     @Test
-    void deduct_shouldThrow_whenNotEnoughFunds() {
-        IllegalStateException ex = assertThrows(IllegalStateException.class,
-                () -> balanceService.deduct(BigDecimal.valueOf(6000)));
-        assertEquals("Недостаточно средств на балансе", ex.getMessage());
+    void deduct_shouldFail_whenNotEnoughFunds() {
+        assertFalse(balanceService.deduct("alice", 600_000).block());
+        assertEquals(500_000, balanceService.getBalance("alice"));
     }
 
     @Test
     void add_shouldIncreaseBalance() {
-        balanceService.add(BigDecimal.valueOf(2000));
-        assertEquals(BigDecimal.valueOf(7000), balanceService.getBalance());
+        balanceService.add("alice", 200_000).block();
+        assertEquals(700_000, balanceService.getBalance("alice"));
+    }
+
+    @Test
+    void accounts_shouldBeIndependent() {
+        balanceService.deduct("alice", 500_000).block();
+
+        assertEquals(0, balanceService.getBalance("alice"));
+        assertEquals(500_000, balanceService.getBalance("bob"));
+    }
+
+    @Test
+    void balances_shouldSurviveRestart() {
+        balanceService.deduct("alice", 150_000).block();
+        balanceService.add("bob", 1).block();
+        journal.close();
+
+        balanceService = newService();
+
+        assertEquals(350_000, balanceService.getBalance("alice"));
+        assertEquals(500_001, balanceService.getBalance("bob"));
+    }
+
+    @Test
+    void balances_shouldSurviveRestart_afterSnapshot() {
+        balanceService.deduct("alice", 150_000).block();
+        balanceService.snapshot();
+        balanceService.deduct("alice", 50_000).block();
+        journal.close();
+
+        balanceService = newService();
+
+        assertEquals(300_000, balanceService.getBalance("alice"));
+    }
+
+    @Test
+    void hold_shouldMoveAmountFromAvailableToHeld_andCaptureShouldDebitIt() {
+        UUID holdId = hold("alice", 150_000);
+        assertEquals(350_000, balanceService.getBalance("alice"));
+        assertEquals(150_000, balanceService.getHeld("alice"));
+
+        assertTrue(balanceService.capture(holdId).block());
+        assertEquals(350_000, balanceService.getBalance("alice"));
+        assertEquals(0, balanceService.getHeld("alice"));
+        // повторное списание той же блокировки ничего не меняет
+        assertFalse(balanceService.capture(holdId).block());
+        assertFalse(balanceService.release(holdId).block());
+        assertEquals(350_000, balanceService.getBalance("alice"));
+    }
+
+    @Test
+    void hold_shouldFail_whenAvailableBalanceHeldByAnotherPayment() {
+        hold("alice", 400_000);
+
+        BalanceService.Authorization second = balanceService.hold("alice", 200_000).block();
+        assertEquals(BalanceService.Authorization.Status.INSUFFICIENT_FUNDS, second.status());
+        assertEquals(100_000, balanceService.getBalance("alice"));
+    }
+
+    @Test
+    void release_shouldReturnAmount_andCaptureAfterItShouldFail() {
+        UUID holdId = hold("alice", 150_000);
+
+        assertTrue(balanceService.release(holdId).block());
+        assertEquals(500_000, balanceService.getBalance("alice"));
+        assertEquals(0, balanceService.getHeld("alice"));
+        assertFalse(balanceService.capture(holdId).block());
+    }
+
+    @Test
+    void hold_shouldBeReleased_whenExpired() throws InterruptedException {
+        journal.close();
+        balanceService = newService(Duration.ofMillis(100));
+        UUID holdId = hold("alice", 150_000);
+
+        awaitHeld("alice", 0);
+        assertEquals(500_000, balanceService.getBalance("alice"));
+        assertFalse(balanceService.capture(holdId).block());
+    }
+
+    @Test
+    void holds_shouldSurviveRestart() {
+        UUID captured = hold("alice", 100_000);
+        UUID pending = hold("alice", 50_000);
+        balanceService.snapshot();
+        assertTrue(balanceService.capture(captured).block());
+        journal.close();
+
+        balanceService = newService();
+
+        assertEquals(350_000, balanceService.getBalance("alice"));
+        assertEquals(50_000, balanceService.getHeld("alice"));
+        assertTrue(balanceService.capture(pending).block());
+        assertEquals(0, balanceService.getHeld("alice"));
+    }
+
+    @Test
+    void holds_shouldExpireAfterRestart() throws InterruptedException {
+        journal.close();
+        balanceService = newService(Duration.ofMillis(300));
+        hold("alice", 150_000);
+        journal.close();
+
+        balanceService = newService(Duration.ofMillis(300));
+
+        assertEquals(150_000, balanceService.getHeld("alice"));
+        awaitHeld("alice", 0);
+        assertEquals(500_000, balanceService.getBalance("alice"));
+    }
+
+    @Test
+    void deduct_shouldRejectNonPositiveAmount() {
+        assertThrows(IllegalArgumentException.class, () -> balanceService.deduct("alice", 0).block());
+    }
+
+    @Test
+    void minorUnits_shouldRoundTripAndRejectFractionsOfKopeck() {
+        assertEquals(9_999, BalanceService.toMinorUnits(new BigDecimal("99.99")));
+        assertEquals(new BigDecimal("99.99"), BalanceService.fromMinorUnits(9_999));
+        assertThrows(ArithmeticException.class, () -> BalanceService.toMinorUnits(new BigDecimal("0.001")));
+    }
+
+    @Test
+    void deduct_shouldNeverOverdraw_underConcurrency() throws Exception {
+        int threads = 8;
+        int attemptsPerThread = 10_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    int succeeded = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (balanceService.deduct("alice", 7).block()) {
+                            succeeded++;
+                        }
+                    }
+                    return succeeded;
+                }));
+            }
+            int succeeded = 0;
+            for (Future<Integer> result : results) {
+                succeeded += result.get();
+            }
+
+            // 500 000 копеек / 7 = 71 428 успешных списаний, остаток 4 копейки
+            assertEquals(71_428, succeeded);
+            assertEquals(4, balanceService.getBalance("alice"));
+        } finally {
+            pool.shutdownNow();
+        }
     }
 }
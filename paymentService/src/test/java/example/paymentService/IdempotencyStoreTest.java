@@ -0,0 +1,79 @@
+package example.paymentService;
+
+import example.paymentService.service.IdempotencyStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IdempotencyStoreTest {
+
+    private IdempotencyStore store;
+    private AtomicInteger executions;
+
+    @BeforeEach
+    void setUp() {
+        store = new IdempotencyStore(1000, Duration.ofMinutes(1));
+        executions = new AtomicInteger();
+    }
+
+    private Mono<String> execute(String key, String request, String result) {
+        return store.execute(key, request, value -> value.startsWith("ok"),
+                () -> Mono.fromCallable(() -> result + "#" + executions.incrementAndGet()));
+    }
+
+    @Test
+    void execute_shouldReturnRememberedResult_forRepeatedKey() {
+        assertEquals("ok#1", execute("k", "request", "ok").block());
+        assertEquals("ok#1", execute("k", "request", "ok").block());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void execute_shouldRunOnce_forConcurrentDuplicates() {
+        Sinks.One<String> result = Sinks.one();
+        Mono<String> first = store.execute("k", "request", value -> true,
+                () -> { executions.incrementAndGet(); return result.asMono(); });
+        Mono<String> second = store.execute("k", "request", value -> true,
+                () -> { executions.incrementAndGet(); return result.asMono(); });
+
+        StepVerifier.create(Mono.zip(first, second, (a, b) -> a + "," + b))
+                .then(() -> result.tryEmitValue("ok"))
+                .expectNext("ok,ok")
+                .verifyComplete();
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    void execute_shouldForgetResultNotRemembered() {
+        assertEquals("failed#1", execute("k", "request", "failed").block());
+        assertEquals("ok#2", execute("k", "request", "ok").block());
+    }
+
+    @Test
+    void execute_shouldForgetErrors() {
+        Mono<String> failing = store.execute("k", "request", value -> true,
+                () -> Mono.error(new IllegalStateException("журнал недоступен")));
+        assertThrows(IllegalStateException.class, failing::block);
+
+        assertEquals("ok#1", execute("k", "request", "ok").block());
+    }
+
+    @Test
+    void execute_shouldRejectKeyReusedForAnotherRequest() {
+        execute("k", "request", "ok").block();
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> execute("k", "another request", "ok").block());
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, e.getStatusCode());
+        assertEquals(1, executions.get());
+    }
+}
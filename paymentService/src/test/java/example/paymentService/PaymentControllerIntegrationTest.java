@@ -15,14 +15,24 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.example.openapi.client.model.BalanceResponse;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
 import com.example.openapi.client.model.ConfirmRequest;
 import com.example.openapi.client.model.ConfirmResponse;
 import com.example.openapi.client.model.PaymentRequest;
 import com.example.openapi.client.model.PaymentResponse;
+import com.example.openapi.client.model.ReleaseRequest;
+import com.example.openapi.client.model.ReleaseResponse;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.UUID;
 
+import reactor.core.publisher.Mono;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -39,23 +49,34 @@ class PaymentControllerIntegrationTest {
 
     private PaymentRequest paymentRequest;
     private ConfirmRequest confirmRequest;
+    private UUID holdId;
+    private Instant expiresAt;
 
     @BeforeEach
     void setUp() {
         paymentRequest = new PaymentRequest();
         paymentRequest.setOrderId("order-1");
+        paymentRequest.setAccountId("42");
         paymentRequest.setAmount(BigDecimal.valueOf(500));
         paymentRequest.setCurrency("RUB");
         paymentRequest.setMethod("CARD");
 
+        holdId = UUID.randomUUID();
+        expiresAt = Instant.parse("2030-01-01T00:15:00Z");
+
         confirmRequest = new ConfirmRequest();
+        confirmRequest.setAccountId("42");
         confirmRequest.setOrderId("order-1");
-        confirmRequest.setTransactionId(UUID.randomUUID().toString());
+        confirmRequest.setTransactionId(holdId.toString());
+    }
+
+    private Mono<BalanceService.Authorization> held() {
+        return Mono.just(new BalanceService.Authorization(BalanceService.Authorization.Status.HELD, holdId, expiresAt));
     }
 
     @Test
-    void pay_shouldReturnSuccess_whenBalanceSufficient() {
-        when(balanceService.deduct(paymentRequest.getAmount())).thenReturn(true);
+    void pay_shouldHoldAmount_whenBalanceSufficient() {
+        when(balanceService.hold("42", 50_000)).thenReturn(held());
 
         webTestClient.post()
                 .uri("/pay")
@@ -65,14 +86,16 @@ class PaymentControllerIntegrationTest {
                 .expectBody(PaymentResponse.class)
                 .value(resp -> {
                     assertThat(resp.getStatus()).isEqualTo(PaymentResponse.StatusEnum.SUCCESS);
-                    assertThat(resp.getMessage()).isEqualTo("Оплата успешно проведена");
-                    assertThat(resp.getTransactionId()).isNotNull();
+                    assertThat(resp.getMessage()).isEqualTo("Сумма заблокирована");
+                    assertThat(resp.getTransactionId()).isEqualTo(holdId.toString());
+                    assertThat(resp.getExpiresAt().toInstant()).isEqualTo(expiresAt);
                 });
     }
 
     @Test
     void pay_shouldReturnFailed_whenBalanceInsufficient() {
-        when(balanceService.deduct(paymentRequest.getAmount())).thenReturn(false);
+        when(balanceService.hold("42", 50_000)).thenReturn(Mono.just(new BalanceService.Authorization(
+                BalanceService.Authorization.Status.INSUFFICIENT_FUNDS, null, null)));
 
         webTestClient.post()
                 .uri("/pay")
@@ -88,7 +111,106 @@ class PaymentControllerIntegrationTest {
     }
 
     @Test
-    void confirm_shouldReturnConfirmed() {
+    void pay_shouldNotHoldTwice_whenRetriedWithSameIdempotencyKey() {
+        when(balanceService.hold("42", 50_000)).thenReturn(held());
+
+        PaymentResponse first = webTestClient.post()
+                .uri("/pay")
+                .header("Idempotency-Key", "order-1-attempt")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(PaymentResponse.class)
+                .returnResult().getResponseBody();
+
+        webTestClient.post()
+                .uri("/pay")
+                .header("Idempotency-Key", "order-1-attempt")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(PaymentResponse.class)
+                .value(resp -> assertThat(resp.getTransactionId()).isEqualTo(first.getTransactionId()));
+
+        verify(balanceService, times(1)).hold("42", 50_000);
+    }
+
+    @Test
+    void pay_shouldReject_whenIdempotencyKeyReusedForAnotherRequest() {
+        when(balanceService.hold(anyString(), anyLong())).thenReturn(held());
+
+        webTestClient.post()
+                .uri("/pay")
+                .header("Idempotency-Key", "reused")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isOk();
+
+        paymentRequest.setAmount(BigDecimal.valueOf(700));
+        webTestClient.post()
+                .uri("/pay")
+                .header("Idempotency-Key", "reused")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isEqualTo(422);
+    }
+
+    @Test
+    void checkoutPayment_shouldDebitAndReturnNewBalance() {
+        when(balanceService.deduct("42", 50_000)).thenReturn(Mono.just(true));
+        when(balanceService.getBalance("42")).thenReturn(950_000L);
+
+        webTestClient.post()
+                .uri("/checkout-payment")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(CheckoutPaymentResponse.class)
+                .value(resp -> {
+                    assertThat(resp.getStatus()).isEqualTo(CheckoutPaymentResponse.StatusEnum.SUCCESS);
+                    assertThat(resp.getOrderId()).isEqualTo("order-1");
+                    assertThat(resp.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(9500));
+                });
+    }
+
+    @Test
+    void checkoutPayment_shouldNotChargeTwice_whenRetriedForSameOrder() {
+        when(balanceService.deduct("42", 50_000)).thenReturn(Mono.just(true));
+        when(balanceService.getBalance("42")).thenReturn(950_000L);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            webTestClient.post()
+                    .uri("/checkout-payment")
+                    .bodyValue(paymentRequest)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+
+        verify(balanceService, times(1)).deduct("42", 50_000);
+    }
+
+    @Test
+    void checkoutPayment_shouldReturnFailed_whenBalanceInsufficient() {
+        when(balanceService.deduct("42", 50_000)).thenReturn(Mono.just(false));
+        when(balanceService.getBalance("42")).thenReturn(10_000L);
+
+        webTestClient.post()
+                .uri("/checkout-payment")
+                .bodyValue(paymentRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(CheckoutPaymentResponse.class)
+                .value(resp -> {
+                    assertThat(resp.getStatus()).isEqualTo(CheckoutPaymentResponse.StatusEnum.FAILED);
+                    assertThat(resp.getMessage()).isEqualTo("Недостаточно средств на балансе");
+                    assertThat(resp.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(100));
+                });
+    }
+
+    @Test
+    void confirm_shouldCaptureHold() {
+        when(balanceService.capture(holdId)).thenReturn(Mono.just(true));
+
         webTestClient.post()
                 .uri("/confirm")
                 .bodyValue(confirmRequest)
@@ -103,17 +225,83 @@ class PaymentControllerIntegrationTest {
                 });
     }
 
+    @Test
+    void confirm_shouldNotConfirm_whenHoldExpired() {
+        when(balanceService.capture(holdId)).thenReturn(Mono.just(false));
+
+        webTestClient.post()
+                .uri("/confirm")
+                .bodyValue(confirmRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ConfirmResponse.class)
+                .value(resp -> {
+                    assertThat(resp.getConfirmed()).isFalse();
+                    assertThat(resp.getMessage()).isEqualTo("Блокировка не найдена или истекла");
+                });
+    }
+
+    @Test
+    void confirm_shouldScopeIdempotencyKeyByAccount() {
+        UUID otherHold = UUID.randomUUID();
+        when(balanceService.capture(holdId)).thenReturn(Mono.just(true));
+        when(balanceService.capture(otherHold)).thenReturn(Mono.just(true));
+
+        webTestClient.post()
+                .uri("/confirm")
+                .header("Idempotency-Key", "shared-confirm")
+                .bodyValue(confirmRequest)
+                .exchange()
+                .expectStatus().isOk();
+
+        ConfirmRequest other = new ConfirmRequest();
+        other.setAccountId("43");
+        other.setOrderId("order-1");
+        other.setTransactionId(otherHold.toString());
+        webTestClient.post()
+                .uri("/confirm")
+                .header("Idempotency-Key", "shared-confirm")
+                .bodyValue(other)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ConfirmResponse.class)
+                .value(resp -> assertThat(resp.getTransactionId()).isEqualTo(otherHold.toString()));
+
+        verify(balanceService).capture(otherHold);
+    }
+
+    @Test
+    void release_shouldReleaseHold() {
+        when(balanceService.release(holdId)).thenReturn(Mono.just(true));
+        ReleaseRequest request = new ReleaseRequest();
+        request.setOrderId("order-1");
+        request.setTransactionId(holdId.toString());
+
+        webTestClient.post()
+                .uri("/release")
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ReleaseResponse.class)
+                .value(resp -> {
+                    assertThat(resp.getReleased()).isTrue();
+                    assertThat(resp.getTransactionId()).isEqualTo(holdId.toString());
+                });
+    }
+
     @Test
     void getBalance_shouldReturnCurrentBalance() {
-        when(balanceService.getBalance()).thenReturn(BigDecimal.valueOf(1234.56));
+        when(balanceService.getBalance("42")).thenReturn(123_456L);
+        when(balanceService.getHeld("42")).thenReturn(9_999L);
 
         webTestClient.get()
-                .uri("/balance")
+                .uri("/balance?accountId=42")
                 .exchange()
                 .expectStatus().isOk()
                 .expectBody(BalanceResponse.class)
                 .value(resp -> {
                     assertThat(resp.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(1234.56));
+                    assertThat(resp.getHeld()).isEqualByComparingTo(new BigDecimal("99.99"));
                     assertThat(resp.getCurrency()).isEqualTo("RUB");
                 });
     }
@@ -0,0 +1,168 @@
+package example.paymentService;
+
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.journal.PaymentJournal.AccountState;
+import example.paymentService.journal.PaymentJournal.Change;
+import example.paymentService.journal.PaymentJournal.HoldState;
+import example.paymentService.journal.PaymentJournal.Operation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+class PaymentJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private PaymentJournal open() {
+        return new PaymentJournal(dir, DataSize.ofKilobytes(4));
+    }
+
+    @Test
+    void recover_shouldReplayRecordsAcrossSegments() {
+        PaymentJournal journal = open();
+        assertTrue(journal.recover().isEmpty());
+        long balance = 0;
+        for (int i = 1; i <= 500; i++) {
+            balance += i;
+            journal.append(Change.of(Operation.CREDIT, "alice", i, balance, 0)).durable().join();
+        }
+        journal.append(Change.of(Operation.DEBIT, "bob", 10, 90, 0)).durable().join();
+        journal.close();
+        assertTrue(files(".log").size() > 1, "записи должны занять несколько сегментов");
+
+        PaymentJournal reopened = open();
+        Map<String, AccountState> accounts = reopened.recover();
+        reopened.close();
+
+        assertEquals(new AccountState(balance, 500), accounts.get("alice"));
+        assertEquals(new AccountState(90, 501), accounts.get("bob"));
+    }
+
+    @Test
+    void recover_shouldContinueNumberingAfterRestart() {
+        PaymentJournal journal = open();
+        journal.recover();
+        journal.append(Change.of(Operation.CREDIT, "alice", 1, 1, 0)).durable().join();
+        journal.close();
+
+        PaymentJournal reopened = open();
+        reopened.recover();
+        assertEquals(2, reopened.append(Change.of(Operation.CREDIT, "alice", 1, 2, 0)).seq());
+        reopened.close();
+
+        PaymentJournal again = open();
+        assertEquals(new AccountState(2, 2), again.recover().get("alice"));
+        again.close();
+    }
+
+    @Test
+    void recover_shouldStopAtTornRecord() throws IOException {
+        PaymentJournal journal = open();
+        journal.recover();
+        journal.append(Change.of(Operation.CREDIT, "alice", 100, 100, 0)).durable().join();
+        journal.append(Change.of(Operation.DEBIT, "alice", 30, 70, 0)).durable().join();
+        journal.close();
+
+        // портим последний байт второй записи — как будто сбой оборвал её запись
+        Path segment = files(".log").get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int second = 8 + 59 + "alice".length();
+            long lastByte = second + 8 + 59 + "alice".length() - 1;
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) 0xFF }), lastByte);
+        }
+
+        PaymentJournal reopened = open();
+        assertEquals(new AccountState(100, 1), reopened.recover().get("alice"));
+        // после оборванной записи журнал продолжается в новом сегменте с тем же номером
+        assertEquals(2, reopened.append(Change.of(Operation.DEBIT, "alice", 50, 50, 0)).seq());
+        reopened.close();
+
+        PaymentJournal again = open();
+        assertEquals(new AccountState(50, 2), again.recover().get("alice"));
+        again.close();
+    }
+
+    @Test
+    void snapshot_shouldDropCoveredSegmentsAndKeepLaterRecords() {
+        PaymentJournal journal = open();
+        journal.recover();
+        for (int i = 1; i <= 300; i++) {
+            journal.append(Change.of(Operation.CREDIT, "alice", 1, i, 0)).durable().join();
+        }
+        int segmentsBefore = files(".log").size();
+        // снимок снят на записи 300, но счёт bob уже успел измениться записью 301
+        journal.append(Change.of(Operation.CREDIT, "bob", 5, 5, 0));
+        journal.writeSnapshot(300, Map.of("alice", new AccountState(300, 300), "bob", new AccountState(5, 301)));
+        journal.append(Change.of(Operation.DEBIT, "alice", 100, 200, 0)).durable().join();
+        journal.close();
+
+        assertTrue(files(".log").size() < segmentsBefore, "сегменты до снимка должны удаляться");
+        assertEquals(1, files(".snapshot").size());
+
+        PaymentJournal reopened = open();
+        Map<String, AccountState> accounts = reopened.recover();
+        reopened.close();
+
+        assertEquals(new AccountState(200, 302), accounts.get("alice"));
+        assertEquals(new AccountState(5, 301), accounts.get("bob"));
+    }
+
+    @Test
+    void recover_shouldReplayHoldsFromSnapshotAndTail() {
+        UUID captured = UUID.randomUUID();
+        UUID pending = UUID.randomUUID();
+        UUID released = UUID.randomUUID();
+        PaymentJournal journal = open();
+        journal.recover();
+        journal.append(new Change(Operation.HOLD, "alice", 100, 900, 100, captured, 1_000));
+        journal.append(new Change(Operation.HOLD, "alice", 50, 850, 150, pending, 2_000));
+        journal.writeSnapshot(2, Map.of("alice", new AccountState(850, 150, 2, List.of(
+                new HoldState(captured, 100, 1_000), new HoldState(pending, 50, 2_000)))));
+        journal.append(new Change(Operation.CAPTURE, "alice", 100, 850, 50, captured, 0));
+        journal.append(new Change(Operation.HOLD, "alice", 30, 820, 80, released, 3_000));
+        journal.append(new Change(Operation.RELEASE, "alice", 30, 850, 50, released, 0)).durable().join();
+        journal.close();
+
+        PaymentJournal reopened = open();
+        AccountState alice = reopened.recover().get("alice");
+        reopened.close();
+
+        assertEquals(new AccountState(850, 50, 5, List.of(new HoldState(pending, 50, 2_000))), alice);
+    }
+
+    @Test
+    void append_shouldRejectTooLongAccountId() {
+        PaymentJournal journal = open();
+        journal.recover();
+        try {
+            assertThrows(IllegalArgumentException.class,
+                    () -> journal.append(Change.of(Operation.CREDIT, "x".repeat(PaymentJournal.MAX_ACCOUNT_LENGTH + 1),
+                            1, 1, 0)));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private List<Path> files(String suffix) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).sorted(Comparator.naturalOrder()).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
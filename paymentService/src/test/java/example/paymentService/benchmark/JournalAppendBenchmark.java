@@ -0,0 +1,105 @@
+package example.paymentService.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.journal.PaymentJournal.Change;
+import example.paymentService.journal.PaymentJournal.Operation;
+
+/**
+ * Пропускная способность журнала платежей с подтверждением после сброса на
+ * диск.
+ * <p>
+ * Каждый поток JMH — отдельный клиент: дописывает запись и ждёт, пока её
+ * пачка будет сброшена. При групповой фиксации число сбросов в секунду
+ * ограничено диском, а число записей растёт с числом одновременных
+ * клиентов — это и видно при прогоне на 1, 2, 4 … 64 потоках
+ * ({@link #main(String[])}). Каталог журнала — {@code -Dbench.journal.dir}
+ * (по умолчанию временный): мерить стоит на том диске, где журнал будет
+ * работать, а не на tmpfs.
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     example.paymentService.benchmark.JournalAppendBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalAppendBenchmark {
+
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private Path dir;
+    private PaymentJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String base = System.getProperty("bench.journal.dir");
+        dir = base == null
+                ? Files.createTempDirectory("journal-append")
+                : Files.createTempDirectory(Files.createDirectories(Path.of(base)), "journal-append");
+        journal = new PaymentJournal(dir, DataSize.ofMegabytes(64));
+        journal.recover();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        FileSystemUtils.deleteRecursively(dir);
+    }
+
+    /** Счёт клиента, закреплённый за потоком JMH */
+    @State(Scope.Thread)
+    public static class Client {
+
+        String accountId;
+        long balance;
+
+        @Setup(Level.Trial)
+        public void setUp(JournalAppendBenchmark benchmark) {
+            accountId = "account-" + benchmark.nextClient.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public long appendDurable(Client client) {
+        client.balance += 100;
+        PaymentJournal.Appended appended = journal.append(
+                Change.of(Operation.CREDIT, client.accountId, 100, client.balance, 0));
+        appended.durable().join();
+        return appended.seq();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                    .include(JournalAppendBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package example.paymentService.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.journal.PaymentJournal.AccountState;
+import example.paymentService.journal.PaymentJournal.Change;
+import example.paymentService.journal.PaymentJournal.Operation;
+
+/**
+ * Время запуска {@link PaymentJournal#recover()} в зависимости от длины
+ * журнала и наличия снимка.
+ * <p>
+ * Журнал из {@code records} записей по {@value #ACCOUNTS} счетам готовится
+ * один раз на прогон. При {@code snapshot=none} восстановление читает весь
+ * журнал, при {@code snapshot=tail} снимок снят на последнем проценте записей
+ * и читается только хвост после него (сегменты по 4 МБ: снимок отбрасывает
+ * журнал целыми сегментами).
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     org.openjdk.jmh.Main JournalRecoveryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JournalRecoveryBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    /** Меньше, чем по умолчанию, чтобы снимок мог отбросить часть сегментов и на малом журнале */
+    private static final DataSize SEGMENT_SIZE = DataSize.ofMegabytes(4);
+
+    @Param({ "100000", "1000000" })
+    public int records;
+
+    @Param({ "none", "tail" })
+    public String snapshot;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-recovery");
+        PaymentJournal journal = new PaymentJournal(dir, SEGMENT_SIZE);
+        journal.recover();
+
+        long snapshotAt = "tail".equals(snapshot) ? records - records / 100 : -1;
+        Map<String, AccountState> state = new HashMap<>();
+        PaymentJournal.Appended last = null;
+        for (int i = 0; i < records; i++) {
+            String accountId = "account-" + (i % ACCOUNTS);
+            long balance = i / ACCOUNTS + 1;
+            last = journal.append(Change.of(Operation.CREDIT, accountId, 1, balance, 0));
+            state.put(accountId, new AccountState(balance, last.seq()));
+            if (last.seq() == snapshotAt) {
+                journal.writeSnapshot(snapshotAt, new HashMap<>(state));
+            }
+        }
+        last.durable().join();
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int recover() {
+        PaymentJournal journal = new PaymentJournal(dir, SEGMENT_SIZE);
+        try {
+            return journal.recover().size();
+        } finally {
+            journal.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JournalRecoveryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+package example.paymentService.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import example.paymentService.journal.PaymentJournal;
+import example.paymentService.service.BalanceService;
+
+/**
+ * Конкуренция за баланс при одновременных платежах.
+ * <ul>
+ * <li>{@code globalReference} — прежняя схема: один
+ * {@code AtomicReference<BigDecimal>} на весь сервис, каждое списание
+ * выделяет новый {@link BigDecimal} и CAS-ится на одной ссылке;</li>
+ * <li>{@code ledger} — {@link BalanceService}: у каждого потока свой счёт
+ * ({@code accounts=per-thread}) или все потоки платят с одного счёта
+ * ({@code accounts=shared}). Сюда входит запись в {@link PaymentJournal} и
+ * ожидание сброса на диск, поэтому без групповой фиксации результат упирался
+ * бы в скорость {@code fsync}.</li>
+ * </ul>
+ * Каждая операция — списание и пополнение на ту же сумму, чтобы баланс не
+ * заканчивался. {@link #main(String[])} прогоняет бенчмарк на 1, 2, 4 … 64
+ * потоках; запуск после {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     example.paymentService.benchmark.LedgerContentionBenchmark
+ * </pre>
+ * Когда потоков больше, чем ядер, результаты показывают уже не конкуренцию
+ * за строку кэша, а вытеснение потоков планировщиком.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedgerContentionBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("99.99");
+    private static final long AMOUNT_MINOR = 9_999;
+
+    @Param({ "per-thread", "shared" })
+    public String accounts;
+
+    private final AtomicReference<BigDecimal> globalBalance = new AtomicReference<>(new BigDecimal("10000.00"));
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private Path journalDir;
+    private PaymentJournal journal;
+    private BalanceService balanceService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        journalDir = Files.createTempDirectory("ledger-journal");
+        journal = new PaymentJournal(journalDir, DataSize.ofMegabytes(64));
+        balanceService = new BalanceService(new BigDecimal("10000.00"), journal,
+                Duration.ofMinutes(15), Duration.ofSeconds(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        balanceService.close();
+        journal.close();
+        FileSystemUtils.deleteRecursively(journalDir);
+    }
+
+    /** Счёт, с которого платит поток */
+    @State(Scope.Thread)
+    public static class Payer {
+
+        String accountId;
+
+        @Setup(Level.Trial)
+        public void setUp(LedgerContentionBenchmark benchmark) {
+            accountId = "shared".equals(benchmark.accounts)
+                    ? "shared"
+                    : "account-" + benchmark.nextThread.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public BigDecimal globalReference() {
+        globalBalance.updateAndGet(current -> {
+            if (current.compareTo(AMOUNT) >= 0) {
+                return current.subtract(AMOUNT);
+            }
+            throw new IllegalStateException("Недостаточно средств на балансе");
+        });
+        return globalBalance.updateAndGet(current -> current.add(AMOUNT));
+    }
+
+    @Benchmark
+    public boolean ledger(Payer payer) {
+        boolean paid = balanceService.deduct(payer.accountId, AMOUNT_MINOR).block();
+        balanceService.add(payer.accountId, AMOUNT_MINOR).block();
+        return paid;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                    .include(LedgerContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package example.toyshop.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import example.toyshop.model.Product;
+
+/**
+ * Компактный бинарный сериализатор значений кэша товаров.
+ * <p>
+ * Формат записи: {@code [MAGIC][версия][тег][тело]}.
+ * <ul>
+ * <li>{@link #TAG_PRODUCT} — один {@link Product};</li>
+ * <li>{@link #TAG_JSON} — прочие значения, тело пишет JSON-сериализатор.</li>
+ * </ul>
+ * Товар кодируется без имён полей: битовая маска заполненных полей, затем
+ * поля по порядку — числа как zigzag-varint, строки как varint-длина и UTF-8.
+ * Длины проверяются по остатку записи до чтения, так что повреждённое
+ * значение даёт {@link SerializationException}, а не огромный буфер.
+ * <p>
+ * Совместимость при раскатке: значения без {@link #MAGIC} (JSON, записанный
+ * старыми узлами) читаются JSON-сериализатором. Значения более новой версии
+ * формата отклоняются {@link SerializationException}, и вызывающий код
+ * считает их промахом. Поэтому сначала раскатывается код, умеющий читать оба
+ * формата ({@code cache.redis.codec=json}), и только затем включается запись
+ * в компактном формате ({@code cache.redis.codec=compact}).
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    /** Первый байт записи; JSON никогда не начинается с него */
+    static final byte MAGIC = (byte) 0xC7;
+    /** Текущая версия формата */
+    static final byte VERSION = 1;
+
+    static final byte TAG_JSON = 0;
+    static final byte TAG_PRODUCT = 1;
+    // тег 2 зарезервирован под списки товаров; списки пишутся через TAG_JSON
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_DESCRIPTION = 1 << 2;
+    private static final int HAS_PRICE = 1 << 3;
+    private static final int HAS_IMAGE_URL = 1 << 4;
+    private static final int HAS_QUANTITY = 1 << 5;
+
+    private final RedisSerializer<Object> json;
+    private final boolean writeCompact;
+
+    public CompactRedisSerializer(RedisSerializer<Object> json) {
+        this(json, true);
+    }
+
+    /**
+     * @param json         сериализатор JSON-значений
+     * @param writeCompact {@code false} — писать прежний JSON, но читать оба
+     *                     формата (первый шаг раскатки)
+     */
+    public CompactRedisSerializer(RedisSerializer<Object> json, boolean writeCompact) {
+        this.json = json;
+        this.writeCompact = writeCompact;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (!writeCompact) {
+            return json.serialize(value);
+        }
+        Output out = new Output();
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        if (value instanceof Product product) {
+            out.write(TAG_PRODUCT);
+            writeProduct(out, product);
+        } else {
+            out.write(TAG_JSON);
+            out.write(json.serialize(value));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return json.deserialize(bytes); // значение, записанное до перехода на компактный формат
+        }
+        if (bytes.length < 3) {
+            throw new SerializationException("Повреждённое значение кэша: нет заголовка");
+        }
+        if (bytes[1] != VERSION) {
+            throw new SerializationException("Неподдерживаемая версия формата кэша: " + bytes[1]);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(bytes, 3, bytes.length - 3);
+        try {
+            return switch (bytes[2]) {
+                case TAG_PRODUCT -> readProduct(in);
+                case TAG_JSON -> {
+                    byte[] body = new byte[in.remaining()];
+                    in.get(body);
+                    yield json.deserialize(body);
+                }
+                default -> throw new SerializationException("Неизвестный тип значения кэша: " + bytes[2]);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Повреждённое значение кэша: запись обрезана", e);
+        }
+    }
+
+    private static void writeProduct(Output out, Product product) {
+        int mask = (product.getId() != null ? HAS_ID : 0)
+                | (product.getName() != null ? HAS_NAME : 0)
+                | (product.getDescription() != null ? HAS_DESCRIPTION : 0)
+                | (product.getPrice() != null ? HAS_PRICE : 0)
+                | (product.getImageUrl() != null ? HAS_IMAGE_URL : 0)
+                | (product.getQuantity() != null ? HAS_QUANTITY : 0);
+        out.write((byte) mask);
+
+        if (product.getId() != null) {
+            out.writeVarLong(zigzag(product.getId()));
+        }
+        if (product.getName() != null) {
+            out.writeString(product.getName());
+        }
+        if (product.getDescription() != null) {
+            out.writeString(product.getDescription());
+        }
+        if (product.getPrice() != null) {
+            out.writeVarLong(zigzag(product.getPrice()));
+        }
+        if (product.getImageUrl() != null) {
+            out.writeString(product.getImageUrl());
+        }
+        if (product.getQuantity() != null) {
+            out.writeVarLong(zigzag(product.getQuantity()));
+        }
+    }
+
+    private static Product readProduct(ByteBuffer in) {
+        int mask = in.get();
+        Product product = new Product();
+        if ((mask & HAS_ID) != 0) {
+            product.setId(unzigzag(readVarLong(in)));
+        }
+        if ((mask & HAS_NAME) != 0) {
+            product.setName(readString(in));
+        }
+        if ((mask & HAS_DESCRIPTION) != 0) {
+            product.setDescription(readString(in));
+        }
+        if ((mask & HAS_PRICE) != 0) {
+            product.setPrice((int) unzigzag(readVarLong(in)));
+        }
+        if ((mask & HAS_IMAGE_URL) != 0) {
+            product.setImageUrl(readString(in));
+        }
+        if ((mask & HAS_QUANTITY) != 0) {
+            product.setQuantity((int) unzigzag(readVarLong(in)));
+        }
+        return product;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new SerializationException("Повреждённое значение кэша: слишком длинное число");
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readLength(in);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /** Длина, проверенная по остатку записи до приведения к {@code int} */
+    private static int readLength(ByteBuffer in) {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new SerializationException("Повреждённое значение кэша: неверная длина " + length);
+        }
+        return (int) length;
+    }
+
+    /** Буфер записи с varint-кодированием */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(64);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
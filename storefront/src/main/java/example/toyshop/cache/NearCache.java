@@ -0,0 +1,125 @@
+package example.toyshop.cache;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Ограниченный локальный кэш (near cache) в памяти JVM перед Redis.
+ * <p>
+ * Обёртка над Caffeine с вытеснением по размеру и по TTL.
+ * Счётчики попаданий, промахов и вытеснений публикуются в Micrometer под
+ * общими для всех локальных кэшей именами, а сам кэш различается тегом
+ * {@code cache} (товары, балансы, пользователи):
+ * <ul>
+ * <li>{@code near.cache.gets{cache, result=hit|miss}}</li>
+ * <li>{@code near.cache.evictions{cache}}</li>
+ * <li>{@code near.cache.size{cache}}</li>
+ * </ul>
+ * <p>
+ * Для защиты от гонки «загрузка старого значения ↔ инвалидация» кэш ведёт
+ * счётчик поколений: загрузчик запоминает {@link #generation()} до похода в
+ * Redis/БД и кладёт результат через {@link #putIfCurrent}, который ничего не
+ * делает, если за это время пришла инвалидация.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class NearCache<K, V> {
+
+    private final Cache<K, V> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param name     имя кэша (тег {@code cache} в метриках)
+     * @param maxSize  максимальное количество записей
+     * @param ttl      время жизни записи после записи
+     * @param registry реестр метрик
+     */
+    public NearCache(String name, long maxSize, Duration ttl, MeterRegistry registry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        FunctionCounter.builder("near.cache.gets", cache, c -> c.stats().hitCount())
+                .tags("cache", name, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("near.cache.gets", cache, c -> c.stats().missCount())
+                .tags("cache", name, "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("near.cache.evictions", cache, c -> c.stats().evictionCount())
+                .tags("cache", name)
+                .register(registry);
+        Gauge.builder("near.cache.size", cache, Cache::estimatedSize)
+                .tags("cache", name)
+                .register(registry);
+    }
+
+    /**
+     * Значение из кэша или {@code null}, если записи нет (учитывается как промах).
+     */
+    public V getIfPresent(K key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Текущее поколение кэша. Увеличивается при каждой инвалидации.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Кладёт значение, только если с момента {@code expectedGeneration}
+     * не было инвалидаций.
+     *
+     * @return {@code true}, если значение сохранено
+     */
+    public boolean putIfCurrent(K key, V value, long expectedGeneration) {
+        if (generation.get() != expectedGeneration) {
+            return false;
+        }
+        cache.put(key, value);
+        // инвалидация могла проскочить между проверкой и put — перепроверяем
+        if (generation.get() != expectedGeneration) {
+            cache.invalidate(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Записывает значение, заведомо более свежее, чем уже идущие загрузки
+     * (например, из ответа на операцию записи): поколение увеличивается,
+     * поэтому начатые раньше загрузки его не перезапишут.
+     */
+    public void put(K key, V value) {
+        generation.incrementAndGet();
+        cache.put(key, value);
+    }
+
+    /** Удаляет запись по ключу */
+    public void invalidate(K key) {
+        generation.incrementAndGet();
+        cache.invalidate(key);
+    }
+
+    /** Очищает кэш целиком */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /** Приблизительное количество записей */
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,98 @@
+package example.toyshop.cache;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import example.toyshop.model.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Рассылка инвалидаций локальных кэшей товаров через Redis pub/sub.
+ * <p>
+ * При изменении товара узел сразу очищает свой {@link NearCache} и публикует
+ * сообщение в канал {@value #CHANNEL}; остальные узлы витрины, подписанные на
+ * канал, удаляют устаревшие записи у себя в пределах миллисекунд.
+ * <p>
+ * Формат сообщения: идентификатор товара или {@value #ALL} для полной очистки.
+ * Pub/sub не гарантирует доставку, поэтому при каждой (пере)подписке локальные
+ * кэши очищаются целиком, а TTL near-кэша ограничивает время жизни записи,
+ * если сообщение всё же потерялось.
+ */
+@Component
+public class ProductCacheInvalidator {
+
+    public static final String CHANNEL = "product:invalidate";
+    public static final String ALL = "*";
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCacheInvalidator.class);
+
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+    private final NearCache<Long, Product> productNearCache;
+
+    private Disposable subscription;
+
+    public ProductCacheInvalidator(ReactiveStringRedisTemplate stringRedisTemplate,
+            NearCache<Long, Product> productNearCache) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.productNearCache = productNearCache;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        subscription = stringRedisTemplate.listenToChannel(CHANNEL)
+                .doOnSubscribe(s -> evictAllLocal())
+                .doOnNext(message -> handle(message.getMessage()))
+                .doOnError(e -> log.warn("Подписка на {} прервана: {}", CHANNEL, e.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void unsubscribe() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * Инвалидирует товар локально и рассылает инвалидацию остальным узлам.
+     * Ошибка публикации не прерывает сохранение товара — устаревшие записи
+     * на других узлах в этом случае истекут по TTL.
+     *
+     * @param productId идентификатор изменённого товара
+     */
+    public Mono<Void> publish(Long productId) {
+        handle(String.valueOf(productId));
+        return stringRedisTemplate.convertAndSend(CHANNEL, String.valueOf(productId))
+                .doOnError(e -> log.warn("Не удалось разослать инвалидацию товара {}: {}", productId, e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /** Обработка входящего сообщения инвалидации */
+    void handle(String message) {
+        if (ALL.equals(message)) {
+            evictAllLocal();
+            return;
+        }
+        try {
+            productNearCache.invalidate(Long.valueOf(message));
+        } catch (NumberFormatException e) {
+            log.warn("Некорректное сообщение инвалидации: {}", message);
+            productNearCache.invalidateAll();
+        }
+    }
+
+    private void evictAllLocal() {
+        productNearCache.invalidateAll();
+    }
+}
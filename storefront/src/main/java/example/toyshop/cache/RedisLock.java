@@ -0,0 +1,57 @@
+package example.toyshop.cache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Простая распределённая блокировка на Redis для выбора «лидера» загрузки.
+ * <p>
+ * Захват — {@code SET key token NX PX ttl}, освобождение — Lua-скрипт,
+ * удаляющий ключ только если в нём всё ещё наш токен (чтобы не снять чужую
+ * блокировку после истечения TTL). Блокировка не реентерабельна и
+ * предназначена для коротких операций вроде перестроения кэша.
+ */
+@Component
+@RequiredArgsConstructor
+public class RedisLock {
+
+    private static final RedisScript<Long> RELEASE = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final ReactiveStringRedisTemplate stringRedisTemplate;
+
+    /**
+     * Пытается захватить блокировку.
+     *
+     * @param key ключ блокировки
+     * @param ttl время, после которого блокировка снимается автоматически
+     * @return токен владельца или пустой {@link Mono}, если блокировка занята
+     */
+    public Mono<String> tryAcquire(String key, Duration ttl) {
+        String token = UUID.randomUUID().toString();
+        return stringRedisTemplate.opsForValue().setIfAbsent(key, token, ttl)
+                .filter(Boolean::booleanValue)
+                .map(acquired -> token);
+    }
+
+    /**
+     * Освобождает блокировку, если она всё ещё принадлежит владельцу токена.
+     *
+     * @return {@code true}, если блокировка снята
+     */
+    public Mono<Boolean> release(String key, String token) {
+        return stringRedisTemplate.execute(RELEASE, List.of(key), List.of(token))
+                .next()
+                .map(deleted -> deleted == 1L)
+                .defaultIfEmpty(false);
+    }
+}
@@ -0,0 +1,49 @@
+package example.toyshop.cache;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Счётчики кэша на уровне Redis.
+ * <p>
+ * Метрики устроены так же, как у {@link NearCache}, и с тем же тегом
+ * {@code cache}, поэтому доли попаданий обоих уровней одного кэша видны на
+ * одном графике: {@code redis.cache.gets{cache, result=hit|miss}} и
+ * {@code redis.cache.evictions{cache}} (явные удаления ключей при
+ * изменении товаров).
+ */
+@Component
+public class RedisTierMetrics {
+
+    private final MeterRegistry registry;
+
+    public RedisTierMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Значение найдено в Redis */
+    public void hit(String cache) {
+        counter("redis.cache.gets", cache, "hit").increment();
+    }
+
+    /** Значения нет в Redis — загрузка из БД */
+    public void miss(String cache) {
+        counter("redis.cache.gets", cache, "miss").increment();
+    }
+
+    /** Ключи удалены из Redis при инвалидации */
+    public void evictions(String cache, long count) {
+        Counter.builder("redis.cache.evictions")
+                .tags("cache", cache)
+                .register(registry)
+                .increment(count);
+    }
+
+    private Counter counter(String name, String cache, String result) {
+        return Counter.builder(name)
+                .tags("cache", cache, "result", result)
+                .register(registry);
+    }
+}
@@ -0,0 +1,49 @@
+package example.toyshop.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Объединение одновременных загрузок одного ключа (single-flight) внутри JVM.
+ * <p>
+ * Пока загрузка ключа выполняется, все остальные запросы этого ключа
+ * подписываются на тот же {@link Mono} и получают его результат,
+ * а не запускают собственную загрузку. После завершения (успешного или с
+ * ошибкой) запись удаляется, и следующий промах запускает новую загрузку.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Выполняет загрузку ключа или присоединяется к уже идущей.
+     *
+     * @param key    ключ
+     * @param loader загрузчик, вызывается не более одного раза на волну промахов
+     * @return результат загрузки
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> inFlight.computeIfAbsent(key, k -> {
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            Mono<V> shared = Mono.defer(loader)
+                    // до передачи сигнала подписчикам: иначе вызов сразу после
+                    // ошибки успеет присоединиться к завершённой загрузке и получит её ошибку
+                    .doOnTerminate(() -> inFlight.remove(k, self.get()))
+                    .cache();
+            self.set(shared);
+            return shared;
+        }));
+    }
+
+    /** Количество загрузок, выполняющихся в данный момент */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,57 @@
+package example.toyshop.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.openapi.client.model.BalanceResponse;
+
+import example.toyshop.cache.NearCache;
+import example.toyshop.model.Product;
+import example.toyshop.service.UserService.UserWithRoles;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Локальные (near) кэши товаров перед Redis, кэш балансов платёжного
+ * сервиса и кэш пользователей с ролями.
+ * <p>
+ * Размер и TTL настраиваются свойствами {@code cache.product.near.*}.
+ * TTL намеренно короткий: он ограничивает устаревание записи, если
+ * сообщение инвалидации pub/sub не дошло до узла.
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public NearCache<Long, Product> productNearCache(MeterRegistry registry,
+            @Value("${cache.product.near.max-size:10000}") long maxSize,
+            @Value("${cache.product.near.ttl:30s}") Duration ttl) {
+        return new NearCache<>("product", maxSize, ttl, registry);
+    }
+
+    /**
+     * Балансы покупателей ({@code cache.balance.*}). Операции оплаты через
+     * этот узел обновляют запись сразу; TTL ограничивает устаревание после
+     * изменений баланса мимо витрины (истёкшие блокировки, другие узлы).
+     */
+    @Bean
+    public NearCache<String, BalanceResponse> balanceCache(MeterRegistry registry,
+            @Value("${cache.balance.max-size:10000}") long maxSize,
+            @Value("${cache.balance.ttl:5s}") Duration ttl) {
+        return new NearCache<>("balance", maxSize, ttl, registry);
+    }
+
+    /**
+     * Пользователи с ролями ({@code cache.user.*}): для запросов, у которых
+     * в сессии нет id пользователя. TTL ограничивает устаревание ролей,
+     * изменённых на другом узле.
+     */
+    @Bean
+    public NearCache<String, UserWithRoles> userNearCache(MeterRegistry registry,
+            @Value("${cache.user.max-size:10000}") long maxSize,
+            @Value("${cache.user.ttl:5m}") Duration ttl) {
+        return new NearCache<>("user", maxSize, ttl, registry);
+    }
+}
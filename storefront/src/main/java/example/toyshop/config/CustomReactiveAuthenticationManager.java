@@ -1,15 +1,17 @@
 package example.toyshop.config;
 
+import example.toyshop.service.PasswordHasher;
+import example.toyshop.service.PasswordHashingRejectedException;
 import example.toyshop.service.UserService;
 import example.toyshop.model.User;
 import example.toyshop.model.UserRole;
 import lombok.RequiredArgsConstructor;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.ReactiveAuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
@@ -21,35 +23,38 @@ import java.util.stream.Collectors;
 public class CustomReactiveAuthenticationManager implements ReactiveAuthenticationManager {
 
     private final UserService userService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
 
     @Override
     public Mono<Authentication> authenticate(Authentication authentication) {
         String username = authentication.getName();
         String rawPassword = authentication.getCredentials().toString();
 
-        return userService.findByUsernameWithRoles(username)
-                .flatMap(userWithRoles -> {
-                    User user = userWithRoles.user();
-
-                    // Проверяем пароль
-                    if (!passwordEncoder.matches(rawPassword, user.getPassword())) {
-                        return Mono.empty();
-                    }
-
-                    // Преобразуем роли UserRole -> SimpleGrantedAuthority
-                    List<GrantedAuthority> authorities = userWithRoles.roles().stream()
-                            .map(UserRole::getRole) // берём строку из поля role
-                            .map(SimpleGrantedAuthority::new) // создаём GrantedAuthority
-                            .collect(Collectors.toList());
-
-                    return Mono.just(
-                            new UsernamePasswordAuthenticationToken(
-                                    user.getUsername(), // ✅ principal = строка
-                                    user.getPassword(),
-                                    authorities
-
-                            ));
-                });
+        return userService.loadForLogin(username)
+                // Проверяем пароль на пуле хеширования: BCrypt не занимает event loop
+                .flatMap(userWithRoles -> passwordHasher.matches(rawPassword, userWithRoles.user().getPassword())
+                        .filter(Boolean::booleanValue)
+                        .map(matched -> toAuthentication(userWithRoles)))
+                // пул перегружен: вход отклоняется сразу, как неудачный, а не ждёт в очереди
+                .onErrorMap(PasswordHashingRejectedException.class,
+                        e -> new AuthenticationServiceException(e.getMessage(), e));
+    }
+
+    private static Authentication toAuthentication(UserService.UserWithRoles userWithRoles) {
+        User user = userWithRoles.user();
+
+        // Преобразуем роли UserRole -> SimpleGrantedAuthority
+        List<GrantedAuthority> authorities = userWithRoles.roles().stream()
+                .map(UserRole::getRole) // берём строку из поля role
+                .map(SimpleGrantedAuthority::new) // создаём GrantedAuthority
+                .collect(Collectors.toList());
+
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
+                user.getUsername(), // ✅ principal = строка
+                user.getPassword(),
+                authorities);
+        // id сохраняется в сессии вместе с аутентификацией: запросам не нужно искать пользователя
+        token.setDetails(new UserService.AuthenticatedUser(user.getId()));
+        return token;
     }
 }
@@ -1,13 +1,37 @@
 package example.toyshop.config;
 
 import com.example.openapi.client.ApiClient;
+
+import example.toyshop.resilience.AdaptiveConcurrencyLimiter;
+import example.toyshop.resilience.CallGuard;
+import example.toyshop.resilience.CircuitBreaker;
+import example.toyshop.service.AccessTokenHolder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientProviderBuilder;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.reactive.function.client.WebClient;
 
 @Configuration
 public class PaymentClientConfig {
 
+    /** Регистрация клиента платёжного сервиса в spring.security.oauth2.client */
+    public static final String PAYMENT_CLIENT = "payment-client";
+
     @Value("${payment.service.url}")
     private String paymentServiceUrl;
 
@@ -17,4 +41,131 @@ public class PaymentClientConfig {
         client.setBasePath(paymentServiceUrl); // берем из application-docker.yml
         return client;
     }
+
+    /**
+     * Менеджер токенов для вызовов сервис-сервис: работает вне веб-запроса
+     * (фоновое обновление в {@link AccessTokenHolder}) и выдаёт новый токен
+     * client credentials, когда до истечения старого осталось меньше
+     * {@code payment.token.refresh-ahead}.
+     */
+    @Bean
+    public ReactiveOAuth2AuthorizedClientManager authorizedClientManager(
+            ReactiveClientRegistrationRepository clientRegistrations,
+            ReactiveOAuth2AuthorizedClientService authorizedClients,
+            @Value("${payment.token.refresh-ahead:60s}") Duration refreshAhead) {
+        AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager manager =
+                new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrations, authorizedClients);
+        manager.setAuthorizedClientProvider(ReactiveOAuth2AuthorizedClientProviderBuilder.builder()
+                .clientCredentials(clientCredentials -> clientCredentials.clockSkew(refreshAhead))
+                .build());
+        return manager;
+    }
+
+    @Bean
+    public AccessTokenHolder paymentAccessToken(ReactiveOAuth2AuthorizedClientManager authorizedClientManager,
+            @Value("${payment.token.refresh-ahead:60s}") Duration refreshAhead, MeterRegistry registry) {
+        return new AccessTokenHolder(authorizedClientManager, PAYMENT_CLIENT, refreshAhead, registry);
+    }
+
+    /**
+     * Пул соединений для чтения баланса. У чтения и оплат свои пулы: пачка
+     * зависших оплат не занимает соединения, нужные чтению. Ожидающих
+     * соединения запросов не больше, чем самих соединений, и ждут они не
+     * дольше {@code payment.client.pending-acquire-timeout}: очередь к
+     * медленному сервису не копится в памяти витрины.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider paymentReadConnectionProvider(
+            @Value("${payment.client.reads.max-connections:50}") int maxConnections,
+            @Value("${payment.client.pending-acquire-timeout:1s}") Duration pendingAcquireTimeout) {
+        return connectionProvider("payment-service-read", maxConnections, pendingAcquireTimeout);
+    }
+
+    /** Пул соединений для оплаты и подтверждения */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider paymentWriteConnectionProvider(
+            @Value("${payment.client.writes.max-connections:25}") int maxConnections,
+            @Value("${payment.client.pending-acquire-timeout:1s}") Duration pendingAcquireTimeout) {
+        return connectionProvider("payment-service-write", maxConnections, pendingAcquireTimeout);
+    }
+
+    @Bean
+    public WebClient paymentReadWebClient(WebClient.Builder builder,
+            @Qualifier("paymentReadConnectionProvider") ConnectionProvider connectionProvider,
+            @Value("${payment.client.connect-timeout:1s}") Duration connectTimeout) {
+        return webClient(builder, connectionProvider, connectTimeout);
+    }
+
+    @Bean
+    public WebClient paymentWriteWebClient(WebClient.Builder builder,
+            @Qualifier("paymentWriteConnectionProvider") ConnectionProvider connectionProvider,
+            @Value("${payment.client.connect-timeout:1s}") Duration connectTimeout) {
+        return webClient(builder, connectionProvider, connectTimeout);
+    }
+
+    /** Общий для всех операций выключатель: лежит сервис — быстро отказывают все */
+    @Bean
+    public CircuitBreaker paymentCircuitBreaker(
+            @Value("${payment.client.circuit.failure-rate:0.5}") double failureRate,
+            @Value("${payment.client.circuit.window:20}") int window,
+            @Value("${payment.client.circuit.open-duration:10s}") Duration openDuration,
+            @Value("${payment.client.circuit.half-open-probes:3}") int halfOpenProbes,
+            MeterRegistry registry) {
+        CircuitBreaker breaker = new CircuitBreaker(failureRate, window, openDuration, halfOpenProbes);
+        Gauge.builder("client.circuit.state", breaker, b -> b.state().ordinal())
+                .tag("service", "payment")
+                .description("0 - замкнут, 1 - разомкнут, 2 - пробные вызовы")
+                .register(registry);
+        return breaker;
+    }
+
+    /**
+     * Чтение баланса: своя переборка, чтобы оплаты не вытесняли его. Лимит
+     * одновременных вызовов не выше размера пула чтения: лишние вызовы
+     * отклоняются сразу, а не ждут соединения.
+     */
+    @Bean
+    public CallGuard paymentReadGuard(@Qualifier("paymentCircuitBreaker") CircuitBreaker breaker,
+            @Value("${payment.client.reads.initial-limit:20}") int initialLimit,
+            @Value("${payment.client.reads.max-limit:50}") int maxLimit,
+            @Value("${payment.client.reads.max-connections:50}") int maxConnections,
+            MeterRegistry registry) {
+        return new CallGuard("payment.read", limiter(initialLimit, 2, maxLimit, maxConnections), breaker, registry);
+    }
+
+    /** Оплата и подтверждение; лимит не выше размера пула оплат */
+    @Bean
+    public CallGuard paymentWriteGuard(@Qualifier("paymentCircuitBreaker") CircuitBreaker breaker,
+            @Value("${payment.client.writes.initial-limit:10}") int initialLimit,
+            @Value("${payment.client.writes.max-limit:25}") int maxLimit,
+            @Value("${payment.client.writes.max-connections:25}") int maxConnections,
+            MeterRegistry registry) {
+        return new CallGuard("payment.write", limiter(initialLimit, 1, maxLimit, maxConnections), breaker, registry);
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit,
+            int maxConnections) {
+        int max = Math.min(maxLimit, maxConnections);
+        return new AdaptiveConcurrencyLimiter(Math.min(initialLimit, max), Math.min(minLimit, max), max);
+    }
+
+    private static ConnectionProvider connectionProvider(String name, int maxConnections,
+            Duration pendingAcquireTimeout) {
+        return ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(maxConnections)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+    }
+
+    private WebClient webClient(WebClient.Builder builder, ConnectionProvider connectionProvider,
+            Duration connectTimeout) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis());
+        return builder.clone()
+                .baseUrl(paymentServiceUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
 }
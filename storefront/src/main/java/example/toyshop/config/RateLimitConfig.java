@@ -0,0 +1,45 @@
+package example.toyshop.config;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import example.toyshop.ratelimit.ClientIpResolver;
+import example.toyshop.ratelimit.LoginRateLimitFilter;
+import example.toyshop.ratelimit.SlidingWindowRateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Ограничение частоты попыток входа и регистрации.
+ */
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    public SlidingWindowRateLimiter authRateLimiter(ReactiveStringRedisTemplate redis,
+            @Value("${security.rate-limit.window:1m}") Duration window) {
+        return new SlidingWindowRateLimiter(redis, window);
+    }
+
+    @Bean
+    public ClientIpResolver clientIpResolver(
+            @Value("${security.rate-limit.trusted-proxies:}") List<String> trustedProxies) {
+        return new ClientIpResolver(trustedProxies);
+    }
+
+    @Bean
+    public LoginRateLimitFilter loginRateLimitFilter(SlidingWindowRateLimiter authRateLimiter,
+            ClientIpResolver clientIpResolver,
+            @Value("${security.rate-limit.window:1m}") Duration window,
+            @Value("${security.rate-limit.per-ip:30}") int perIp,
+            @Value("${security.rate-limit.per-username:10}") int perUsername,
+            @Value("${security.rate-limit.local-burst:3}") int localBurst,
+            MeterRegistry registry) {
+        return new LoginRateLimitFilter(authRateLimiter, clientIpResolver, window, perIp, perUsername, localBurst,
+                registry);
+    }
+}
@@ -1,5 +1,6 @@
 package example.toyshop.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
@@ -7,14 +8,31 @@ import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.RedisSerializer;
 
+import example.toyshop.cache.CompactRedisSerializer;
+
 @Configuration
 public class RedisConfig {
 
+    /**
+     * Шаблон для значений кэша товаров.
+     * <p>
+     * {@code cache.redis.codec}: {@code json} (по умолчанию) — запись в
+     * прежнем JSON-формате, {@code compact} — в бинарном формате
+     * {@link CompactRedisSerializer}. Читаются оба формата при любом значении,
+     * поэтому {@code compact} включается отдельным шагом, когда все узлы уже
+     * раскатаны с {@code json}.
+     */
     @Bean
-    public ReactiveRedisTemplate<String, Object> reactiveRedisTemplate(ReactiveRedisConnectionFactory factory) {
+    public ReactiveRedisTemplate<String, Object> reactiveRedisTemplate(ReactiveRedisConnectionFactory factory,
+            @Value("${cache.redis.codec:json}") String codec) {
+        RedisSerializer<Object> values = switch (codec) {
+            case "compact" -> new CompactRedisSerializer(RedisSerializer.json());
+            case "json" -> new CompactRedisSerializer(RedisSerializer.json(), false);
+            default -> throw new IllegalArgumentException("Неизвестный cache.redis.codec: " + codec);
+        };
         RedisSerializationContext<String, Object> context = RedisSerializationContext
                 .<String, Object>newSerializationContext(RedisSerializer.string())
-                .value(RedisSerializer.json())
+                .value(values)
                 .build();
         return new ReactiveRedisTemplate<>(factory, context);
     }
@@ -15,8 +15,11 @@ import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.security.web.server.context.WebSessionServerSecurityContextRepository;
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
 
+import example.toyshop.service.GuestCartService;
+import example.toyshop.service.PasswordHasher;
 import example.toyshop.service.UserService;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
 
 import org.springframework.http.HttpMethod;
 
@@ -28,32 +31,37 @@ public class SecurityConfig {
 
         @Bean
         public ReactiveAuthenticationManager authenticationManager(UserService userService,
-                        PasswordEncoder passwordEncoder) {
-                return new CustomReactiveAuthenticationManager(userService, passwordEncoder);
+                        PasswordHasher passwordHasher) {
+                return new CustomReactiveAuthenticationManager(userService, passwordHasher);
         }
 
         @Bean
         public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
-                        ReactiveAuthenticationManager authenticationManager) {
+                        ReactiveAuthenticationManager authenticationManager,
+                        GuestCartService guestCartService) {
                 return http
                                 .csrf(ServerHttpSecurity.CsrfSpec::disable)
                                 .authorizeExchange(exchanges -> exchanges
                                                 .pathMatchers("/", "/products", "/login", "/signup", "/auth", "/css/**",
                                                                 "/js/**", "/uploads/**", "/api/auth-info", "/api/**")
                                                 .permitAll()
+                                                // гостевая корзина: анонимный посетитель может добавлять товары
+                                                .pathMatchers(HttpMethod.POST, "/cart/add/**").permitAll()
                                                 .pathMatchers("/add").hasRole("ADMIN")
                                                 .anyExchange().authenticated())
                                 .authenticationManager(authenticationManager)
                                 .formLogin(form -> form
                                                 .loginPage("/login")
-                                                .authenticationSuccessHandler((webFilterExchange, authentication) -> {
+                                                .authenticationSuccessHandler((webFilterExchange, authentication) -> guestCartService
+                                                .mergeOnLogin(webFilterExchange.getExchange(), authentication.getName())
+                                                .then(Mono.defer(() -> {
                                                         webFilterExchange.getExchange().getResponse()
                                                                         .setStatusCode(HttpStatus.SEE_OTHER);
                                                         webFilterExchange.getExchange().getResponse().getHeaders()
                                                                         .setLocation(URI.create("/products"));
                                                         return webFilterExchange.getExchange().getResponse()
                                                                         .setComplete();
-                                                }))
+                                                }))))
                                 .logout(logout -> logout
                                                 .requiresLogout(ServerWebExchangeMatchers.pathMatchers(HttpMethod.GET,
                                                                 "/logout")) // разрешаем GET
@@ -0,0 +1,38 @@
+package example.toyshop.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+import org.springframework.web.server.session.WebSessionManager;
+
+import example.toyshop.session.RedisWebSessionStore;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Веб-сессии (а с ними и контекст безопасности) хранятся в Redis, а не в
+ * памяти узла.
+ */
+@Configuration
+public class SessionConfig {
+
+    @Bean
+    public RedisWebSessionStore webSessionStore(ReactiveStringRedisTemplate redis,
+            @Value("${session.timeout:30m}") Duration timeout,
+            @Value("${session.touch-interval:1m}") Duration touchInterval,
+            @Value("${session.local-cache-ttl:2s}") Duration localCacheTtl,
+            MeterRegistry registry) {
+        return new RedisWebSessionStore(redis, timeout, touchInterval, localCacheTtl, registry);
+    }
+
+    @Bean(WebHttpHandlerBuilder.WEB_SESSION_MANAGER_BEAN_NAME)
+    public WebSessionManager webSessionManager(RedisWebSessionStore webSessionStore) {
+        DefaultWebSessionManager manager = new DefaultWebSessionManager();
+        manager.setSessionStore(webSessionStore);
+        return manager;
+    }
+}
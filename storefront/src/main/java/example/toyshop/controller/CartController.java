@@ -4,6 +4,7 @@ import example.toyshop.dto.cart.CartView;
 import example.toyshop.model.Cart;
 import example.toyshop.service.CartPaymentService;
 import example.toyshop.service.CartService;
+import example.toyshop.service.GuestCartService;
 import example.toyshop.service.PaymentServiceClient;
 import example.toyshop.service.UserService;
 import lombok.RequiredArgsConstructor;
@@ -35,9 +36,9 @@ import reactor.core.publisher.Mono;
  * </p>
  *
  * <p>
- * Идентификатор корзины хранится в cookie {@code CART_SESSION}.
- * Если cookie отсутствует, при первом действии с корзиной
- * создаётся новый идентификатор и устанавливается cookie.
+ * Корзина вошедшего пользователя хранится в БД. Анонимный посетитель может
+ * только добавлять товары — в гостевую корзину ({@link GuestCartService}),
+ * идентификатор которой хранится в cookie {@code GUEST_CART}.
  * </p>
  *
  * <p>
@@ -66,19 +67,11 @@ public class CartController {
         private final CartService cartService;
         private final CartPaymentService cartPaymentService;
         private final UserService userService;
+        private final GuestCartService guestCartService;
 
         /** Получение текущего пользователя из контекста */
         private Mono<String> getUserId() {
-                return ReactiveSecurityContextHolder.getContext()
-                                .map(SecurityContext::getAuthentication)
-                                .flatMap(auth -> {
-                                        if (auth == null || !auth.isAuthenticated()
-                                                        || "anonymousUser".equals(auth.getName())) {
-                                                return Mono.empty();
-                                        }
-                                        return userService.findByUsernameWithRoles(auth.getName())
-                                                        .map(u -> u.user().getId().toString());
-                                });
+                return userService.currentUserId();
         }
 
         /** Отображает корзину пользователя */
@@ -93,11 +86,17 @@ public class CartController {
                                                 .thenReturn("cart"));
         }
 
-        /** Добавляет товар в корзину */
+        /**
+         * Добавляет товар в корзину. Доступно и анонимному посетителю: его товары
+         * попадают в гостевую корзину в Redis и переносятся в БД при входе.
+         */
         @PostMapping("/add/{productId}")
-        public Mono<String> addProduct(@PathVariable Long productId) {
+        @PreAuthorize("permitAll()")
+        public Mono<String> addProduct(@PathVariable Long productId, ServerWebExchange exchange) {
                 return getUserId()
-                                .flatMap(userId -> cartService.addProduct(userId, productId))
+                                .flatMap(userId -> cartService.addProduct(userId, productId).thenReturn(true))
+                                .switchIfEmpty(Mono.defer(() -> guestCartService.add(exchange, productId)
+                                                .thenReturn(true)))
                                 .thenReturn("redirect:/products");
         }
 
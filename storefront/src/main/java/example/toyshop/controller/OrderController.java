@@ -3,31 +3,32 @@ package example.toyshop.controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.WebSession;
 
-import example.toyshop.dto.cart.CartItemView;
 import example.toyshop.dto.cart.OrderView;
 import example.toyshop.model.CartStatus;
 import example.toyshop.repository.CartItemRepository;
 import example.toyshop.repository.CartRepository;
-import example.toyshop.repository.ProductRepository;
+import example.toyshop.service.OrderHistoryService;
 import example.toyshop.service.PaymentServiceClient;
 import example.toyshop.service.UserService;
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 
 /**
  * Контроллер для управления заказами.
  * <p>
- * Отвечает за отображение истории заказов (все корзины со статусом
- * {@link CartStatus#COMPLETED})
+ * Отвечает за отображение истории заказов (корзины со статусом
+ * {@link CartStatus#COMPLETED}, постранично)
  * и просмотр конкретного заказа по его идентификатору.
  */
 @Controller
@@ -38,52 +39,55 @@ public class OrderController {
 
     private final CartRepository cartRepository;
     private final CartItemRepository cartItemRepository;
-    private final ProductRepository productRepository;
     private final PaymentServiceClient paymentServiceClient;
     private final UserService userService;
+    private final OrderHistoryService orderHistoryService;
 
-    /** Получаем текущего пользователя реактивно */
-    private Mono<UserService.UserWithRoles> getCurrentUser() {
-        return ReactiveSecurityContextHolder.getContext()
-                .map(ctx -> ctx.getAuthentication())
-                .flatMap(auth -> userService.findByUsernameWithRoles(auth.getName()));
-    }
-
-    /** Список завершённых заказов текущего пользователя */
+    /**
+     * История заказов текущего пользователя: от новых к старым, постранично.
+     * <p>
+     * Страница — один SQL-запрос (заказы вместе с элементами и товарами),
+     * переход к более ранним заказам — по курсору {@code after}
+     * (keyset-пагинация).
+     *
+     * @param size  количество заказов на странице
+     * @param after курсор следующей страницы (опционально)
+     */
     @GetMapping
-    public Mono<String> viewOrders(Model model) {
-        return getCurrentUser()
-                .flatMap(userWithRoles -> {
-                    String userId = userWithRoles.user().getId().toString();
-                    return cartRepository.findByStatusAndUserId(CartStatus.COMPLETED, userId)
-                            .flatMap(cart -> cartItemRepository.findByCartId(cart.getId())
-                                    .flatMap(item -> productRepository.findById(item.getProductId())
-                                            .map(product -> new CartItemView(item, product)))
-                                    .collectList()
-                                    .map(items -> new OrderView(cart, items)))
-                            .collectList()
-                            .map(orderViews -> {
-                                model.addAttribute("orders", orderViews);
-                                return "orders";
-                            });
+    public Mono<String> viewOrders(@RequestParam(name = "size", defaultValue = "10") int size,
+            @RequestParam(name = "after", required = false) String after,
+            Model model) {
+        return userService.currentUserId()
+                .flatMap(userId -> orderHistoryService.getPage(userId, size, after))
+                .map(page -> {
+                    model.addAttribute("orders", page.items());
+                    model.addAttribute("nextCursor", page.nextCursor());
+                    model.addAttribute("firstPage", after == null || after.isBlank());
+                    model.addAttribute("size", size);
+                    return "orders";
                 });
     }
 
-    /** Детали конкретного заказа для текущего пользователя */
+    /**
+     * Детали конкретного заказа для текущего пользователя.
+     * <p>
+     * Заказ читается из снимка, записанного при оформлении, — одно чтение по
+     * первичному ключу с ценами на момент покупки. Если снимка ещё нет
+     * (заказ до появления снимков, перенос не завершён), заказ собирается из
+     * текущих элементов корзины, как раньше.
+     */
     @GetMapping("/{id}")
     public Mono<String> viewOrder(@PathVariable Long id, WebSession session, Model model) {
-        return getCurrentUser()
-                .flatMap(userWithRoles -> {
-                    String userId = userWithRoles.user().getId().toString();
-                    return cartRepository.findById(id)
-                            .filter(cart -> userId.equals(cart.getUserId())) // проверка владельца
+        return userService.currentUserId()
+                .flatMap(userId -> {
+                    return cartRepository.findOrderSnapshot(id, userId) // владелец проверяется в запросе
+                            .switchIfEmpty(Mono.defer(() -> cartRepository.findById(id)
+                                    .filter(cart -> userId.equals(cart.getUserId())) // проверка владельца
+                                    .flatMap(cart -> cartItemRepository.findItemViewsByCartIds(List.of(cart.getId()))
+                                            .map(itemsByCart -> new OrderView(cart,
+                                                    itemsByCart.getOrDefault(cart.getId(), List.of()))))))
                             .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Заказ не найден")))
-                            .flatMap(cart -> cartItemRepository.findByCartId(cart.getId())
-                                    .flatMap(ci -> productRepository.findById(ci.getProductId())
-                                            .map(product -> new CartItemView(ci, product)))
-                                    .collectList()
-                                    .map(items -> new OrderView(cart, items)))
-                            .flatMap(orderView -> paymentServiceClient.getBalance()
+                            .flatMap(orderView -> paymentServiceClient.getBalance(userId)
                                     .map(balance -> {
                                         model.addAttribute("order", orderView);
                                         model.addAttribute("currentBalance", balance.getBalance());
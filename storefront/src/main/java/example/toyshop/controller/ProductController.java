@@ -1,13 +1,16 @@
 package example.toyshop.controller;
 
-import example.toyshop.dto.cart.CartView;
+import example.toyshop.dto.product.ProductPage;
+import example.toyshop.dto.product.ProductSort;
 import example.toyshop.model.Product;
 import example.toyshop.model.ProductForm;
 import example.toyshop.service.CartService;
+import example.toyshop.service.FlashSaleService;
+import example.toyshop.service.GuestCartService;
 import example.toyshop.service.ProductService;
+import example.toyshop.service.UserService;
 import lombok.RequiredArgsConstructor;
 
-import java.util.List;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -21,8 +24,8 @@ import reactor.core.publisher.Mono;
 /**
  * Контроллер для управления товарами в магазине.
  * <p>
- * Обрабатывает отображение списка товаров, просмотр конкретного товара
- * и добавление нового товара.
+ * Обрабатывает отображение списка товаров, просмотр конкретного товара,
+ * добавление нового товара и включение распродажи товара.
  * Также интегрируется с {@link CartService}, чтобы показывать количество
  * товаров в корзине.
  */
@@ -33,19 +36,24 @@ public class ProductController {
 
     private final ProductService service;
     private final CartService cartService;
+    private final GuestCartService guestCartService;
+    private final UserService userService;
+    private final FlashSaleService flashSaleService;
 
     /**
-     * Отображает список товаров с возможностью поиска, сортировки и ограничения по
-     * размеру выборки.
-     * Также обрабатывает cookie для идентификации корзины покупателя.
+     * Отображает страницу витрины с возможностью поиска, сортировки и
+     * постраничного просмотра.
+     * <p>
+     * Фильтрация, сортировка и ограничение выборки выполняются в PostgreSQL,
+     * переход на следующую страницу — по курсору {@code after} (keyset-пагинация).
      *
-     * @param sessionId идентификатор сессии корзины (берётся из cookie, может быть
-     *                  null)
-     * @param response  HTTP-ответ (для установки cookie при первой загрузке)
+     * @param oidcUser  текущий пользователь OIDC (может быть null)
      * @param keyword   ключевое слово для фильтрации по названию (опционально)
      * @param sort      порядок сортировки (name_asc, name_desc, price_asc,
      *                  price_desc)
-     * @param size      количество товаров для отображения
+     * @param size      количество товаров на странице
+     * @param after     курсор следующей страницы (опционально)
+     * @param guestCart идентификатор гостевой корзины из cookie (опционально)
      * @param model     модель MVC для передачи данных в шаблон
      * @return имя HTML-шаблона {@code products}
      */
@@ -55,41 +63,26 @@ public class ProductController {
             @RequestParam(name = "keyword", required = false) String keyword,
             @RequestParam(name = "sort", defaultValue = "name_asc") String sort,
             @RequestParam(name = "size", defaultValue = "10") int size,
+            @RequestParam(name = "after", required = false) String after,
+            @CookieValue(name = GuestCartService.COOKIE, required = false) String guestCart,
             Model model) {
 
-        // Определяем ID пользователя
-        String userId = oidcUser != null ? oidcUser.getSubject() : "guest";
-
-        Mono<List<Product>> productsMono = service.getAll()
-                .filter(p -> keyword == null || p.getName().toLowerCase().contains(keyword.toLowerCase()))
-                .sort((p1, p2) -> {
-                    switch (sort) {
-                        case "price_asc":
-                            return p1.getPrice().compareTo(p2.getPrice());
-                        case "price_desc":
-                            return p2.getPrice().compareTo(p1.getPrice());
-                        case "name_desc":
-                            return p2.getName().compareToIgnoreCase(p1.getName());
-                        case "name_asc":
-                        default:
-                            return p1.getName().compareToIgnoreCase(p2.getName());
-                    }
-                })
-                .take(size)
-                .collectList();
+        Mono<ProductPage> pageMono = service.getPage(keyword, ProductSort.fromParam(sort), size, after);
 
-        Mono<CartView> cartMono = cartService.getCartView(userId);
+        // Счётчик корзины только читается: анонимному посетителю корзина в БД не создаётся
+        Mono<String> userIdMono = oidcUser != null ? Mono.just(oidcUser.getSubject()) : userService.currentUserId();
+        Mono<Integer> cartQuantityMono = userIdMono
+                .flatMap(cartService::getTotalQuantity)
+                .switchIfEmpty(Mono.defer(() -> guestCartService.totalQuantity(guestCart)));
 
-        return Mono.zip(productsMono, cartMono)
+        return Mono.zip(pageMono, cartQuantityMono)
                 .map(tuple -> {
-                    List<Product> products = tuple.getT1();
-                    CartView cart = tuple.getT2();
-
-                    int totalQuantity = cart.getItems().stream()
-                            .mapToInt(item -> item.getQuantity() != null ? item.getQuantity() : 0)
-                            .sum();
+                    ProductPage page = tuple.getT1();
+                    int totalQuantity = tuple.getT2();
 
-                    model.addAttribute("products", products);
+                    model.addAttribute("products", page.items());
+                    model.addAttribute("nextCursor", page.nextCursor());
+                    model.addAttribute("firstPage", after == null || after.isBlank());
                     model.addAttribute("cartTotalQuantity", totalQuantity);
                     model.addAttribute("keyword", keyword);
                     model.addAttribute("sort", sort);
@@ -158,4 +151,31 @@ public class ProductController {
                     return "product"; // product.html
                 });
     }
+
+    /**
+     * Включает распродажу товара ({@link FlashSaleService}).
+     * Доступно только администратору.
+     *
+     * @param id идентификатор товара
+     * @return перенаправление на страницу товара
+     */
+    @PostMapping("/{id}/flash-sale")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Mono<String> startFlashSale(@PathVariable Long id) {
+        return flashSaleService.start(id)
+                .thenReturn("redirect:/products/" + id);
+    }
+
+    /**
+     * Выключает распродажу товара. Доступно только администратору.
+     *
+     * @param id идентификатор товара
+     * @return перенаправление на страницу товара
+     */
+    @PostMapping("/{id}/flash-sale/stop")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Mono<String> stopFlashSale(@PathVariable Long id) {
+        return flashSaleService.stop(id)
+                .thenReturn("redirect:/products/" + id);
+    }
 }
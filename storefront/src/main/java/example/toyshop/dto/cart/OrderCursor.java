@@ -0,0 +1,57 @@
+package example.toyshop.dto.cart;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Курсор keyset-пагинации истории заказов.
+ * <p>
+ * Заказы идут от новых к старым, следующая страница выбирается условием
+ * {@code (created_at, id) < (:createdAt, :id)} — как {@link
+ * example.toyshop.dto.product.ProductCursor} у витрины. В URL передаётся
+ * непрозрачной строкой Base64 (URL-safe).
+ *
+ * @param createdAt время создания последнего заказа на странице
+ * @param id        идентификатор последнего заказа на странице
+ */
+public record OrderCursor(LocalDateTime createdAt, long id) {
+
+    private static final String SEPARATOR = ":";
+
+    /** Курсор, указывающий на заказ */
+    public static OrderCursor after(OrderView order) {
+        return new OrderCursor(order.getCreatedAt(), order.getId());
+    }
+
+    /** Кодирует курсор в строку для передачи в параметре запроса */
+    public String encode() {
+        String raw = id + SEPARATOR + createdAt;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Декодирует курсор из параметра запроса. Повреждённый курсор
+     * игнорируется — история показывается с первой страницы.
+     *
+     * @param token строка курсора (может быть {@code null})
+     * @return курсор или {@code null}
+     */
+    public static OrderCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR, 2); // во времени тоже есть ':'
+            if (parts.length != 2) {
+                return null;
+            }
+            return new OrderCursor(LocalDateTime.parse(parts[1]), Long.parseLong(parts[0]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package example.toyshop.dto.cart;
+
+import java.util.List;
+
+/**
+ * Страница истории заказов.
+ *
+ * @param items      заказы текущей страницы, от новых к старым
+ * @param nextCursor курсор следующей (более ранней) страницы или {@code null}, если страница последняя
+ */
+public record OrderPage(List<OrderView> items, String nextCursor) {
+
+    /** Есть ли следующая страница */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
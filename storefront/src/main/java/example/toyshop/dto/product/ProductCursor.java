@@ -0,0 +1,71 @@
+package example.toyshop.dto.product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import example.toyshop.model.Product;
+
+/**
+ * Курсор keyset-пагинации витрины.
+ * <p>
+ * Хранит ключ сортировки и {@code id} последнего товара на странице.
+ * Следующая страница выбирается условием вида
+ * {@code (key, id) > (:key, :id)}, поэтому стоимость выборки страницы N
+ * не зависит от N — в отличие от {@code OFFSET}.
+ * <p>
+ * В URL курсор передаётся в виде непрозрачной строки Base64 (URL-safe).
+ *
+ * @param sort  порядок сортировки, для которого построен курсор
+ * @param id    идентификатор последнего товара на странице
+ * @param value значение ключа сортировки последнего товара
+ */
+public record ProductCursor(ProductSort sort, long id, String value) {
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * Строит курсор, указывающий на товар.
+     */
+    public static ProductCursor after(ProductSort sort, Product product) {
+        return new ProductCursor(sort, product.getId(), sort.keyOf(product));
+    }
+
+    /**
+     * Кодирует курсор в строку для передачи в параметре запроса.
+     */
+    public String encode() {
+        String raw = sort.getParam() + SEPARATOR + id + SEPARATOR + value;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Декодирует курсор из параметра запроса.
+     * <p>
+     * Повреждённый курсор или курсор от другой сортировки игнорируется —
+     * в этом случае выдача начинается с первой страницы.
+     *
+     * @param token строка курсора (может быть {@code null})
+     * @param sort  текущий порядок сортировки
+     * @return курсор или {@code null}
+     */
+    public static ProductCursor decode(String token, ProductSort sort) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(SEPARATOR, 3);
+            if (parts.length != 3 || !sort.getParam().equals(parts[0])) {
+                return null;
+            }
+            long id = Long.parseLong(parts[1]);
+            if (sort.isByPrice()) {
+                Integer.parseInt(parts[2]);
+            }
+            return new ProductCursor(sort, id, parts[2]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
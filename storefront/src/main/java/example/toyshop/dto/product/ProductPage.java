@@ -0,0 +1,19 @@
+package example.toyshop.dto.product;
+
+import java.util.List;
+
+import example.toyshop.model.Product;
+
+/**
+ * Страница витрины товаров.
+ *
+ * @param items      товары текущей страницы
+ * @param nextCursor курсор следующей страницы или {@code null}, если страница последняя
+ */
+public record ProductPage(List<Product> items, String nextCursor) {
+
+    /** Есть ли следующая страница */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,71 @@
+package example.toyshop.dto.product;
+
+import example.toyshop.model.Product;
+
+/**
+ * Порядок сортировки витрины товаров.
+ * <p>
+ * Каждое значение задаёт колонку сортировки в SQL и направление обхода.
+ * Вторым ключом всегда выступает {@code id}, поэтому порядок строго
+ * детерминирован и пригоден для keyset-пагинации.
+ */
+public enum ProductSort {
+    NAME_ASC("name_asc", "lower(name)", true),
+    NAME_DESC("name_desc", "lower(name)", false),
+    PRICE_ASC("price_asc", "price", true),
+    PRICE_DESC("price_desc", "price", false);
+
+    private final String param;
+    private final String sortExpression;
+    private final boolean ascending;
+
+    ProductSort(String param, String sortExpression, boolean ascending) {
+        this.param = param;
+        this.sortExpression = sortExpression;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Разбирает значение параметра {@code sort} из запроса.
+     * Неизвестные значения трактуются как {@link #NAME_ASC}.
+     *
+     * @param param значение параметра (name_asc, name_desc, price_asc, price_desc)
+     * @return порядок сортировки
+     */
+    public static ProductSort fromParam(String param) {
+        for (ProductSort sort : values()) {
+            if (sort.param.equalsIgnoreCase(param)) {
+                return sort;
+            }
+        }
+        return NAME_ASC;
+    }
+
+    /** Значение параметра {@code sort} для ссылок в шаблоне */
+    public String getParam() {
+        return param;
+    }
+
+    /** SQL-выражение, по которому выполняется сортировка */
+    public String getSortExpression() {
+        return sortExpression;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /** Сортировка по цене (значение курсора — число) */
+    public boolean isByPrice() {
+        return this == PRICE_ASC || this == PRICE_DESC;
+    }
+
+    /**
+     * Значение ключа сортировки товара, которое кладётся в курсор.
+     * Для сортировки по названию хранится исходное название —
+     * {@code lower()} применяется на стороне PostgreSQL.
+     */
+    public String keyOf(Product product) {
+        return isByPrice() ? String.valueOf(product.getPrice()) : product.getName();
+    }
+}
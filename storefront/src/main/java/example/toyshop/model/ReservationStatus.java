@@ -0,0 +1,15 @@
+package example.toyshop.model;
+
+/**
+ * Статусы резерва товара на складе.
+ * <ul>
+ *     <li>{@link #HELD} — товар списан со склада и удерживается за корзиной до оплаты</li>
+ *     <li>{@link #COMMITTED} — заказ оплачен, списание окончательное</li>
+ *     <li>{@link #RELEASED} — оплата не прошла или резерв истёк, товар возвращён на склад</li>
+ * </ul>
+ */
+public enum ReservationStatus {
+    HELD,
+    COMMITTED,
+    RELEASED
+}
@@ -0,0 +1,47 @@
+package example.toyshop.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Резерв товара на складе под оформляемый заказ.
+ * <p>
+ * Хранится в таблице {@code stock_reservation}. Пока резерв в статусе
+ * {@link ReservationStatus#HELD}, зарезервированное количество уже вычтено из
+ * {@code product.quantity}; при освобождении оно возвращается на склад.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("stock_reservation")
+public class StockReservation {
+
+    /** Уникальный идентификатор резерва */
+    @Id
+    private Long id;
+
+    /** Корзина (заказ), под которую взят резерв */
+    @Column("cart_id")
+    private Long cartId;
+
+    /** Зарезервированный товар */
+    @Column("product_id")
+    private Long productId;
+
+    /** Зарезервированное количество */
+    private Integer quantity;
+
+    /** Статус резерва */
+    private ReservationStatus status;
+
+    /** Момент, после которого неоплаченный резерв освобождается */
+    @Column("expires_at")
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,163 @@
+package example.toyshop.ratelimit;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import io.netty.util.NetUtil;
+
+/**
+ * Адрес клиента для лимитов по IP.
+ * <p>
+ * За балансировщиком адрес соединения — адрес балансировщика, и все клиенты
+ * делили бы один лимит. Поэтому, если соединение пришло от доверенного
+ * прокси ({@code security.rate-limit.trusted-proxies}, адреса или подсети
+ * CIDR), адрес берётся из {@code Forwarded} или {@code X-Forwarded-For}:
+ * цепочка читается справа налево, доверенные прокси пропускаются, первый
+ * недоверенный адрес — клиент. Левее него значения записал сам клиент, и
+ * им верить нельзя.
+ * <p>
+ * От недоверенного соединения заголовки не читаются вовсе: иначе клиент
+ * обходил бы лимит, подставляя новый адрес в каждую попытку. По той же
+ * причине {@code server.forward-headers-strategy} остаётся выключенной —
+ * {@code ForwardedHeaderTransformer} верит заголовкам любого соединения.
+ */
+public class ClientIpResolver {
+
+    private static final String FORWARDED = "Forwarded";
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+
+    private final List<Subnet> trustedProxies;
+
+    /**
+     * @param trustedProxies адреса и подсети CIDR прокси, которым можно
+     *                       верить; пустой список — заголовки не читаются
+     */
+    public ClientIpResolver(List<String> trustedProxies) {
+        this.trustedProxies = trustedProxies.stream()
+                .map(String::trim)
+                .filter(proxy -> !proxy.isEmpty())
+                .map(Subnet::parse)
+                .toList();
+    }
+
+    public String resolve(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        if (address == null) {
+            return "unknown";
+        }
+        String peer = address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+        if (!isTrusted(peer)) {
+            return peer;
+        }
+        List<String> hops = forwardedHops(request.getHeaders());
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            if (!isTrusted(hops.get(i))) {
+                return hops.get(i);
+            }
+        }
+        // вся цепочка из доверенных прокси: клиент — самый левый адрес
+        return hops.isEmpty() ? peer : hops.get(0);
+    }
+
+    private boolean isTrusted(String ip) {
+        if (trustedProxies.isEmpty()) {
+            return false;
+        }
+        // разбор без обращения к DNS; не адрес ("unknown", скрытый идентификатор) — не прокси
+        byte[] address = NetUtil.createByteArrayFromIpAddressString(ip);
+        if (address == null) {
+            return false;
+        }
+        for (Subnet proxy : trustedProxies) {
+            if (proxy.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Адреса цепочки прокси слева направо; {@code Forwarded} важнее {@code X-Forwarded-For} */
+    private static List<String> forwardedHops(HttpHeaders headers) {
+        List<String> hops = new ArrayList<>();
+        List<String> forwarded = headers.get(FORWARDED);
+        if (forwarded != null && !forwarded.isEmpty()) {
+            for (String header : forwarded) {
+                for (String element : header.split(",")) {
+                    for (String pair : element.split(";")) {
+                        String trimmed = pair.trim();
+                        if (trimmed.toLowerCase(Locale.ROOT).startsWith("for=")) {
+                            hops.add(forwardedNode(trimmed.substring(4)));
+                        }
+                    }
+                }
+            }
+            return hops;
+        }
+        List<String> xForwardedFor = headers.get(X_FORWARDED_FOR);
+        if (xForwardedFor != null) {
+            for (String header : xForwardedFor) {
+                for (String hop : header.split(",")) {
+                    if (!hop.isBlank()) {
+                        hops.add(hop.trim());
+                    }
+                }
+            }
+        }
+        return hops;
+    }
+
+    /** Адрес из {@code for=}: без кавычек, скобок IPv6 и порта */
+    private static String forwardedNode(String value) {
+        String node = value.trim();
+        if (node.length() >= 2 && node.startsWith("\"") && node.endsWith("\"")) {
+            node = node.substring(1, node.length() - 1);
+        }
+        if (node.startsWith("[")) {
+            int end = node.indexOf(']');
+            return end > 0 ? node.substring(1, end) : node;
+        }
+        int colon = node.indexOf(':');
+        return colon >= 0 ? node.substring(0, colon) : node;
+    }
+
+    /** Адрес или подсеть CIDR доверенного прокси */
+    private record Subnet(byte[] network, int prefixLength) {
+
+        static Subnet parse(String cidr) {
+            int slash = cidr.indexOf('/');
+            String ip = slash >= 0 ? cidr.substring(0, slash) : cidr;
+            byte[] network = NetUtil.createByteArrayFromIpAddressString(ip);
+            if (network == null) {
+                throw new IllegalArgumentException("Не адрес доверенного прокси: " + cidr);
+            }
+            int prefixLength = slash >= 0 ? Integer.parseInt(cidr.substring(slash + 1)) : network.length * 8;
+            if (prefixLength < 0 || prefixLength > network.length * 8) {
+                throw new IllegalArgumentException("Неверная длина префикса: " + cidr);
+            }
+            return new Subnet(network, prefixLength);
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            int restBits = prefixLength % 8;
+            if (restBits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - restBits);
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
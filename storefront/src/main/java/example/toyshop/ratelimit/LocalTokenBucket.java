@@ -0,0 +1,39 @@
+package example.toyshop.ratelimit;
+
+import java.time.Duration;
+
+/**
+ * Ведро жетонов одного ключа на одном узле: {@code capacity} попыток сразу,
+ * затем по {@code capacity} за {@code refillPeriod}.
+ */
+class LocalTokenBucket {
+
+    private final int capacity;
+    private final double tokensPerNano;
+
+    // под монитором ведра
+    private double tokens;
+    private long refilledAt;
+
+    LocalTokenBucket(int capacity, Duration refillPeriod, long nowNanos) {
+        this.capacity = capacity;
+        this.tokensPerNano = (double) capacity / refillPeriod.toNanos();
+        this.tokens = capacity;
+        this.refilledAt = nowNanos;
+    }
+
+    synchronized boolean tryTake(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - refilledAt) * tokensPerNano);
+        refilledAt = nowNanos;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /** Возвращает жетон попытки, которая всё же пошла через Redis */
+    synchronized void giveBack() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+}
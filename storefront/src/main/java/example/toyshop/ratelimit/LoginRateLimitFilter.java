@@ -0,0 +1,199 @@
+package example.toyshop.ratelimit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ограничивает попытки входа и регистрации до того, как они дойдут до
+ * BCrypt и базы: перебор паролей иначе превращается в нагрузку на CPU.
+ * <p>
+ * {@code POST /login} ограничивается по IP и по имени пользователя из формы
+ * (перебор паролей одного аккаунта с разных адресов), {@code POST /signup} —
+ * по IP: имя в JSON-теле, а его чтение до контроллера стоило бы буферизации
+ * каждого запроса. Адрес клиента за балансировщиком определяет
+ * {@link ClientIpResolver}.
+ * <p>
+ * Решение принимается в три шага:
+ * <ol>
+ * <li>ключ, недавно отклонённый Redis, отклоняется сразу до конца окна — во
+ * время атаки узел не ходит в Redis на каждую попытку;</li>
+ * <li>первые {@code localBurst} попыток ключа на узле за окно разрешает
+ * локальное ведро жетонов — обычный вход не ходит в Redis вовсе;</li>
+ * <li>остальные попытки проверяет {@link SlidingWindowRateLimiter}.</li>
+ * </ol>
+ * Попытки из локального ведра в Redis не считаются, поэтому на всех узлах
+ * вместе за окно проходит не больше {@code limit + узлы * localBurst}
+ * попыток ключа. Если Redis недоступен, попытка разрешается: лимитер не
+ * должен закрывать вход.
+ * <p>
+ * Отказ — {@code 429 Too Many Requests} с {@code Retry-After}. Метрика
+ * {@code auth.rate-limit{endpoint, result=local|allowed|rejected|rejected-local|redis-error}}.
+ */
+public class LoginRateLimitFilter implements WebFilter, Ordered {
+
+    /** Раньше цепочки Spring Security ({@code -100}), которая и проверяет пароль */
+    public static final int ORDER = -200;
+
+    private static final Logger log = LoggerFactory.getLogger(LoginRateLimitFilter.class);
+
+    private static final List<String> ENDPOINTS = List.of("login", "signup");
+    private static final List<String> RESULTS = List.of("local", "allowed", "rejected", "rejected-local",
+            "redis-error");
+
+    private final SlidingWindowRateLimiter limiter;
+    private final ClientIpResolver clientIps;
+    private final int perIp;
+    private final int perUsername;
+    private final int localBurst;
+    private final Duration window;
+    private final LongSupplier nanoClock;
+
+    private final Cache<String, LocalTokenBucket> buckets;
+    /** Ключи, отклонённые Redis: до какого момента (nanoTime) отклонять на узле */
+    private final Cache<String, Long> blockedUntil;
+    /** {@code auth.rate-limit} по ключу {@code endpoint:result} */
+    private final Map<String, Counter> counters = new HashMap<>();
+
+    /**
+     * @param perIp       попыток с одного IP за окно (на каждую из форм)
+     * @param perUsername попыток входа под одним именем за окно
+     * @param localBurst  попыток ключа за окно, которые узел разрешает сам
+     */
+    public LoginRateLimitFilter(SlidingWindowRateLimiter limiter, ClientIpResolver clientIps, Duration window,
+            int perIp, int perUsername, int localBurst, MeterRegistry registry) {
+        this(limiter, clientIps, window, perIp, perUsername, localBurst, registry, System::nanoTime);
+    }
+
+    LoginRateLimitFilter(SlidingWindowRateLimiter limiter, ClientIpResolver clientIps, Duration window,
+            int perIp, int perUsername, int localBurst, MeterRegistry registry, LongSupplier nanoClock) {
+        this.limiter = limiter;
+        this.clientIps = clientIps;
+        this.window = window;
+        this.perIp = perIp;
+        this.perUsername = perUsername;
+        this.localBurst = localBurst;
+        this.nanoClock = nanoClock;
+        this.buckets = Caffeine.newBuilder().maximumSize(100_000).expireAfterAccess(window).build();
+        this.blockedUntil = Caffeine.newBuilder().maximumSize(100_000).expireAfterWrite(window).build();
+        for (String endpoint : ENDPOINTS) {
+            for (String result : RESULTS) {
+                counters.put(endpoint + ":" + result, Counter.builder("auth.rate-limit")
+                        .tags("endpoint", endpoint, "result", result)
+                        .register(registry));
+            }
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (exchange.getRequest().getMethod() != HttpMethod.POST) {
+            return chain.filter(exchange);
+        }
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        String ip = clientIps.resolve(exchange.getRequest());
+        return switch (path) {
+            case "/login" -> exchange.getFormData()
+                    .flatMap(form -> {
+                        List<SlidingWindowRateLimiter.Limit> limits = new ArrayList<>(2);
+                        limits.add(new SlidingWindowRateLimiter.Limit("login:ip:" + ip, perIp));
+                        String username = form.getFirst("username");
+                        if (username != null && !username.isBlank()) {
+                            limits.add(new SlidingWindowRateLimiter.Limit(
+                                    "login:user:" + username.trim().toLowerCase(Locale.ROOT), perUsername));
+                        }
+                        return guard("login", limits, exchange, chain);
+                    });
+            case "/signup" -> guard("signup",
+                    List.of(new SlidingWindowRateLimiter.Limit("signup:ip:" + ip, perIp)), exchange, chain);
+            default -> chain.filter(exchange);
+        };
+    }
+
+    private Mono<Void> guard(String endpoint, List<SlidingWindowRateLimiter.Limit> limits,
+            ServerWebExchange exchange, WebFilterChain chain) {
+        long now = nanoClock.getAsLong();
+        for (SlidingWindowRateLimiter.Limit limit : limits) {
+            Long until = blockedUntil.getIfPresent(limit.key());
+            if (until != null && until - now > 0) {
+                count(endpoint, "rejected-local");
+                return reject(exchange, Duration.ofNanos(until - now));
+            }
+        }
+        if (takeLocal(limits, now)) {
+            count(endpoint, "local");
+            return chain.filter(exchange);
+        }
+        return limiter.tryAcquire(limits)
+                .doOnNext(decision -> {
+                    if (decision.allowed()) {
+                        count(endpoint, "allowed");
+                    } else {
+                        count(endpoint, "rejected");
+                        blockedUntil.put(decision.exceeded().key(),
+                                nanoClock.getAsLong() + decision.retryAfter().toNanos());
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Лимит попыток {} не проверен, попытка разрешена: {}", endpoint, e.toString());
+                    count(endpoint, "redis-error");
+                    return Mono.just(new SlidingWindowRateLimiter.Decision(null, Duration.ZERO));
+                })
+                .flatMap(decision -> decision.allowed()
+                        ? chain.filter(exchange)
+                        : reject(exchange, decision.retryAfter()));
+    }
+
+    /** Берёт жетон из ведра каждого ключа; если хоть одно пусто — возвращает взятые */
+    private boolean takeLocal(List<SlidingWindowRateLimiter.Limit> limits, long now) {
+        if (localBurst <= 0) {
+            return false;
+        }
+        List<LocalTokenBucket> taken = new ArrayList<>(limits.size());
+        for (SlidingWindowRateLimiter.Limit limit : limits) {
+            LocalTokenBucket bucket = buckets.get(limit.key(), key -> new LocalTokenBucket(localBurst, window, now));
+            if (!bucket.tryTake(now)) {
+                taken.forEach(LocalTokenBucket::giveBack);
+                return false;
+            }
+            taken.add(bucket);
+        }
+        return true;
+    }
+
+    private static Mono<Void> reject(ServerWebExchange exchange, Duration retryAfter) {
+        exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        exchange.getResponse().getHeaders().set("Retry-After",
+                Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000)));
+        return exchange.getResponse().setComplete();
+    }
+
+    private void count(String endpoint, String result) {
+        counters.get(endpoint + ":" + result).increment();
+    }
+}
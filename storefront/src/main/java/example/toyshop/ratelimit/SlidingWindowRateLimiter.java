@@ -0,0 +1,110 @@
+package example.toyshop.ratelimit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Лимит попыток в скользящем окне, общий для всех узлов (счётчики в Redis).
+ * <p>
+ * Окно приближается двумя фиксированными: у каждого ключа счётчик текущего
+ * окна и счётчик предыдущего, который учитывается с весом, равным доле
+ * предыдущего окна, ещё попадающей в скользящее. Так граница окон не даёт
+ * удвоенный всплеск, а на ключ хранится два числа вместо журнала попыток.
+ * <p>
+ * Все лимиты попытки проверяются и увеличиваются одним скриптом — один
+ * запрос к Redis. Отклонённая попытка счётчики не увеличивает: иначе
+ * атакующий продлевал бы блокировку своими же отказами. Ключи — под общим
+ * хеш-тегом {@value #PREFIX}, чтобы скрипт работал и в Redis Cluster.
+ */
+public class SlidingWindowRateLimiter {
+
+    static final String PREFIX = "{auth-rate}:";
+
+    /**
+     * KEYS — пары (текущее окно, предыдущее окно) на каждый лимит; ARGV[1] —
+     * вес предыдущего окна, ARGV[2] — TTL счётчиков в мс, ARGV[3..] — лимиты.
+     * Возвращает 0, если попытка разрешена, иначе номер превышенного лимита (с 1).
+     */
+    private static final RedisScript<Long> ACQUIRE = RedisScript.of("""
+            local weight = tonumber(ARGV[1])
+            for i = 1, #KEYS / 2 do
+              local current = tonumber(redis.call('GET', KEYS[2 * i - 1]) or '0')
+              local previous = tonumber(redis.call('GET', KEYS[2 * i]) or '0')
+              if current + previous * weight >= tonumber(ARGV[i + 2]) then return i end
+            end
+            for i = 1, #KEYS / 2 do
+              redis.call('INCR', KEYS[2 * i - 1])
+              redis.call('PEXPIRE', KEYS[2 * i - 1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redis;
+    private final long windowMillis;
+    private final LongSupplier clockMillis;
+
+    public SlidingWindowRateLimiter(ReactiveStringRedisTemplate redis, Duration window) {
+        this(redis, window, System::currentTimeMillis);
+    }
+
+    SlidingWindowRateLimiter(ReactiveStringRedisTemplate redis, Duration window, LongSupplier clockMillis) {
+        this.redis = redis;
+        this.windowMillis = window.toMillis();
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * Лимит одного ключа.
+     *
+     * @param key что ограничивается, например {@code login:ip:10.0.0.1}
+     * @param max сколько попыток разрешено за окно
+     */
+    public record Limit(String key, int max) {
+    }
+
+    /**
+     * Итог проверки.
+     *
+     * @param exceeded   превышенный лимит; {@code null}, если попытка разрешена
+     * @param retryAfter через сколько стоит повторить
+     */
+    public record Decision(Limit exceeded, Duration retryAfter) {
+
+        public boolean allowed() {
+            return exceeded == null;
+        }
+    }
+
+    /** Засчитывает попытку во все лимиты, если ни один из них не исчерпан */
+    public Mono<Decision> tryAcquire(List<Limit> limits) {
+        return Mono.defer(() -> {
+            long now = clockMillis.getAsLong();
+            long window = now / windowMillis;
+            long elapsed = now - window * windowMillis;
+            double previousWeight = 1.0 - (double) elapsed / windowMillis;
+
+            List<String> keys = new ArrayList<>(limits.size() * 2);
+            List<String> args = new ArrayList<>(limits.size() + 2);
+            args.add(Double.toString(previousWeight));
+            args.add(Long.toString(2 * windowMillis));
+            for (Limit limit : limits) {
+                keys.add(PREFIX + limit.key() + ":" + window);
+                keys.add(PREFIX + limit.key() + ":" + (window - 1));
+                args.add(Integer.toString(limit.max()));
+            }
+            Duration untilNextWindow = Duration.ofMillis(windowMillis - elapsed);
+            return redis.execute(ACQUIRE, keys, args)
+                    .next()
+                    .map(result -> result == 0
+                            ? new Decision(null, Duration.ZERO)
+                            : new Decision(limits.get(result.intValue() - 1), untilNextWindow));
+        });
+    }
+}
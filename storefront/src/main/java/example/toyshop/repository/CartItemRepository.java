@@ -1,5 +1,6 @@
 package example.toyshop.repository;
 
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 
 import example.toyshop.model.CartItem;
@@ -11,8 +12,11 @@ import reactor.core.publisher.Flux;
  * <p>
  * Расширяет {@link R2dbcRepository} для асинхронного взаимодействия с базой
  * данных через R2DBC.
+ * Чтение корзин для отображения вынесено во фрагмент {@link CartViewRepository},
+ * перенос заявок распродажи — во фрагмент {@link FlashSaleClaimRepository}.
  */
-public interface CartItemRepository extends R2dbcRepository<CartItem, Long> {
+public interface CartItemRepository extends R2dbcRepository<CartItem, Long>, CartViewRepository,
+        FlashSaleClaimRepository {
 
     /**
      * Находит все элементы корзины по идентификатору корзины.
@@ -39,4 +43,170 @@ public interface CartItemRepository extends R2dbcRepository<CartItem, Long> {
      * @return элемент корзины, если найден
      */
     Mono<Void> deleteByCartId(Long cartId);
+
+    /**
+     * Атомарно добавляет единицу товара в корзину одним запросом.
+     * <p>
+     * Если строки ещё нет — создаёт её с количеством 1, если есть — увеличивает
+     * количество на 1. Ни то, ни другое не выполняется, если на складе нет
+     * столько единиц товара. Одновременные нажатия не теряют обновлений:
+     * конфликт по {@code (cart_id, product_id)} разрешает сама база.
+     * Счётчик {@code cart.item_count} меняется в том же запросе.
+     *
+     * @param cartId    идентификатор корзины
+     * @param productId идентификатор товара
+     * @return новое количество или пустой {@link Mono}, если достигнут остаток на складе
+     */
+    @Query("""
+            WITH changed AS (
+                INSERT INTO cart_item (cart_id, product_id, quantity)
+                SELECT :cartId, p.id, 1 FROM product p WHERE p.id = :productId AND p.quantity > 0
+                ON CONFLICT (cart_id, product_id) DO UPDATE SET quantity = cart_item.quantity + 1
+                WHERE cart_item.quantity < (SELECT p.quantity FROM product p WHERE p.id = EXCLUDED.product_id)
+                RETURNING quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count + 1
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM changed)
+            )
+            SELECT quantity FROM changed
+            """)
+    Mono<Integer> addOne(Long cartId, Long productId);
+
+    /**
+     * Добавляет в корзину единицу товара, уже списанную со счётчика распродажи
+     * (заявка {@code claimId} из потока Redis). Остаток на складе здесь не
+     * проверяется — его проверил скрипт распродажи, а строка {@code product}
+     * не читается и не блокируется.
+     * <p>
+     * Заявка записывается в {@code flash_sale_claim} в том же запросе, поэтому
+     * строка корзины по одной заявке добавляется не более одного раза — даже
+     * если её уже дописала сверка. Счётчик {@code cart.item_count} меняется в
+     * том же запросе.
+     *
+     * @param cartId    идентификатор корзины
+     * @param productId идентификатор товара
+     * @param claimId   id заявки в потоке распродажи
+     * @return новое количество или пустой {@link Mono}, если заявка уже записана
+     */
+    @Query("""
+            WITH claimed AS (
+                INSERT INTO flash_sale_claim (claim_id, cart_id, product_id)
+                VALUES (:claimId, :cartId, :productId)
+                ON CONFLICT (claim_id) DO NOTHING
+                RETURNING cart_id, product_id
+            ), changed AS (
+                INSERT INTO cart_item (cart_id, product_id, quantity)
+                SELECT cart_id, product_id, 1 FROM claimed
+                ON CONFLICT (cart_id, product_id) DO UPDATE SET quantity = cart_item.quantity + 1
+                RETURNING quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count + 1
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM changed)
+            )
+            SELECT quantity FROM changed
+            """)
+    Mono<Integer> addClaimed(Long cartId, Long productId, String claimId);
+
+    /**
+     * Атомарно добавляет в корзину несколько единиц товара (перенос гостевой
+     * корзины): количество складывается с уже лежащим, но не превышает
+     * остаток на складе.
+     * <p>
+     * Счётчик {@code cart.item_count} здесь не меняется — после переноса его
+     * пересчитывает {@link CartRepository#recountItems(Long)}.
+     *
+     * @param cartId    идентификатор корзины
+     * @param productId идентификатор товара
+     * @param quantity  добавляемое количество
+     * @return новое количество или пустой {@link Mono}, если товара нет на складе
+     */
+    @Query("""
+            INSERT INTO cart_item (cart_id, product_id, quantity)
+            SELECT :cartId, p.id, LEAST(:quantity, p.quantity) FROM product p WHERE p.id = :productId AND p.quantity > 0
+            ON CONFLICT (cart_id, product_id) DO UPDATE SET quantity = LEAST(cart_item.quantity + EXCLUDED.quantity,
+                (SELECT p.quantity FROM product p WHERE p.id = EXCLUDED.product_id))
+            RETURNING quantity
+            """)
+    Mono<Integer> addUpTo(Long cartId, Long productId, Integer quantity);
+
+    /**
+     * Атомарно увеличивает количество товара, уже лежащего в корзине, не
+     * превышая остаток на складе. Счётчик {@code cart.item_count} меняется в
+     * том же запросе.
+     *
+     * @return новое количество или пустой {@link Mono}, если строки нет или
+     *         достигнут остаток на складе
+     */
+    @Query("""
+            WITH changed AS (
+                UPDATE cart_item ci SET quantity = ci.quantity + 1
+                FROM product p
+                WHERE ci.cart_id = :cartId AND ci.product_id = :productId
+                  AND p.id = ci.product_id AND ci.quantity < p.quantity
+                RETURNING ci.quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count + 1
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM changed)
+            )
+            SELECT quantity FROM changed
+            """)
+    Mono<Integer> increaseBounded(Long cartId, Long productId);
+
+    /**
+     * Атомарно уменьшает количество товара, если в корзине больше одной единицы.
+     * Счётчик {@code cart.item_count} меняется в том же запросе.
+     *
+     * @return новое количество или пустой {@link Mono}, если строки нет или в
+     *         ней одна единица (её удаляет {@link #deleteIfSingle(Long, Long)})
+     */
+    @Query("""
+            WITH changed AS (
+                UPDATE cart_item SET quantity = quantity - 1
+                WHERE cart_id = :cartId AND product_id = :productId AND quantity > 1
+                RETURNING quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count - 1
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM changed)
+            )
+            SELECT quantity FROM changed
+            """)
+    Mono<Integer> decreaseAboveOne(Long cartId, Long productId);
+
+    /**
+     * Удаляет строку корзины, если в ней осталась одна единица товара.
+     * Счётчик {@code cart.item_count} меняется в том же запросе.
+     *
+     * @return количество удалённых строк
+     */
+    @Query("""
+            WITH removed AS (
+                DELETE FROM cart_item
+                WHERE cart_id = :cartId AND product_id = :productId AND quantity <= 1
+                RETURNING quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count - (SELECT COALESCE(SUM(quantity), 0) FROM removed)
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM removed)
+            )
+            SELECT COUNT(*)::int FROM removed
+            """)
+    Mono<Integer> deleteIfSingle(Long cartId, Long productId);
+
+    /**
+     * Удаляет товар из корзины целиком. Счётчик {@code cart.item_count}
+     * меняется в том же запросе.
+     *
+     * @return удалённое количество единиц товара ({@code 0}, если строки не было)
+     */
+    @Query("""
+            WITH removed AS (
+                DELETE FROM cart_item
+                WHERE cart_id = :cartId AND product_id = :productId
+                RETURNING quantity
+            ), counted AS (
+                UPDATE cart SET item_count = item_count - (SELECT COALESCE(SUM(quantity), 0) FROM removed)
+                WHERE id = :cartId AND EXISTS (SELECT 1 FROM removed)
+            )
+            SELECT COALESCE(SUM(quantity), 0)::int FROM removed
+            """)
+    Mono<Integer> removeItem(Long cartId, Long productId);
 }
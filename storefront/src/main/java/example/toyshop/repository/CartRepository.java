@@ -1,5 +1,6 @@
 package example.toyshop.repository;
 
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 
 import example.toyshop.model.Cart;
@@ -11,8 +12,9 @@ import reactor.core.publisher.Mono;
  * Репозиторий для работы с корзинами {@link Cart}.
  * <p>
  * Расширяет {@link R2dbcRepository} для асинхронного взаимодействия с базой данных через R2DBC.
+ * Снимки оформленных заказов — во фрагменте {@link OrderSnapshotRepository}.
  */
-public interface CartRepository extends R2dbcRepository<Cart, Long> {
+public interface CartRepository extends R2dbcRepository<Cart, Long>, OrderSnapshotRepository {
 
     /**
      * Находит корзину по идентификатору сессии и статусу.
@@ -38,4 +40,28 @@ public interface CartRepository extends R2dbcRepository<Cart, Long> {
      * @return поток корзин с указанным статусом
      */
     Flux<Cart> findByStatusAndUserId(CartStatus status, String userId);
+
+    /**
+     * Счётчик товаров активной корзины для значка в шапке витрины — одно
+     * чтение строки по индексу {@code (user_id, status)}, без элементов и товаров.
+     *
+     * @param userId идентификатор пользователя
+     * @return количество единиц товара или пустой {@link Mono}, если корзины нет
+     */
+    @Query("SELECT item_count FROM cart WHERE user_id = :userId AND status = 'ACTIVE'")
+    Mono<Integer> findActiveItemCount(String userId);
+
+    /**
+     * Пересчитывает счётчик {@code item_count} по элементам корзины
+     * (после переноса гостевой корзины и при оформлении заказа).
+     *
+     * @param cartId идентификатор корзины
+     * @return актуальное количество единиц товара
+     */
+    @Query("""
+            UPDATE cart SET item_count = (SELECT COALESCE(SUM(quantity), 0) FROM cart_item WHERE cart_id = :cartId)
+            WHERE id = :cartId
+            RETURNING item_count
+            """)
+    Mono<Integer> recountItems(Long cartId);
 }
@@ -0,0 +1,38 @@
+package example.toyshop.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import example.toyshop.dto.cart.CartItemView;
+import example.toyshop.dto.cart.CartView;
+import reactor.core.publisher.Mono;
+
+/**
+ * Чтение корзин для отображения одним SQL-запросом.
+ * <p>
+ * Фрагмент {@link CartItemRepository}: элементы корзины соединяются с
+ * товарами в базе ({@code cart_item JOIN product}) и сразу отображаются в
+ * {@link CartItemView}, без отдельного запроса товара на каждую строку.
+ */
+public interface CartViewRepository {
+
+    /**
+     * Представление активной корзины пользователя: корзина, элементы и товары
+     * одним запросом.
+     *
+     * @param userId идентификатор пользователя
+     * @return корзина с элементами или пустой {@link Mono}, если активной корзины нет
+     */
+    Mono<CartView> findActiveCartView(String userId);
+
+    /**
+     * Элементы нескольких корзин (например, истории заказов) одним запросом
+     * {@code WHERE cart_id IN (...)}.
+     *
+     * @param cartIds идентификаторы корзин
+     * @return элементы, сгруппированные по идентификатору корзины; корзины без
+     *         элементов в карте отсутствуют
+     */
+    Mono<Map<Long, List<CartItemView>>> findItemViewsByCartIds(Collection<Long> cartIds);
+}
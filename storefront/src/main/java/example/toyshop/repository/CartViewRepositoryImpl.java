@@ -0,0 +1,99 @@
+package example.toyshop.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import example.toyshop.dto.cart.CartItemView;
+import example.toyshop.dto.cart.CartView;
+import example.toyshop.model.CartStatus;
+import io.r2dbc.spi.Readable;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Реализация {@link CartViewRepository} на {@link DatabaseClient}.
+ * <p>
+ * Товар присоединяется через {@code LEFT JOIN}: строка корзины с удалённым
+ * товаром не пропадает, а показывается с нулевой ценой — так же, как раньше
+ * в {@code CartService#getCartView}.
+ */
+@RequiredArgsConstructor
+public class CartViewRepositoryImpl implements CartViewRepository {
+
+    private static final String ITEM_COLUMNS = "p.id AS product_id, p.name, p.image_url, p.price, ci.quantity";
+
+    private static final String ACTIVE_CART_VIEW = "SELECT c.id AS cart_id, " + ITEM_COLUMNS
+            + " FROM cart c"
+            + " LEFT JOIN cart_item ci ON ci.cart_id = c.id"
+            + " LEFT JOIN product p ON p.id = ci.product_id"
+            + " WHERE c.user_id = :userId AND c.status = :status"
+            + " ORDER BY ci.id";
+
+    private static final String ITEM_VIEWS_BY_CART_IDS = "SELECT ci.cart_id, " + ITEM_COLUMNS
+            + " FROM cart_item ci"
+            + " LEFT JOIN product p ON p.id = ci.product_id"
+            + " WHERE ci.cart_id IN (:cartIds)"
+            + " ORDER BY ci.cart_id, ci.id";
+
+    /** Маркер строки пустой корзины (корзина без элементов) */
+    private static final CartItemView EMPTY = new CartItemView(null, null, null, 0, BigDecimal.ZERO, BigDecimal.ZERO);
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<CartView> findActiveCartView(String userId) {
+        return databaseClient.sql(ACTIVE_CART_VIEW)
+                .bind("userId", userId)
+                .bind("status", CartStatus.ACTIVE.name())
+                // у пустой корзины одна строка с NULL вместо элемента
+                .map(row -> row.get("quantity") != null ? toItemView(row) : EMPTY)
+                .all()
+                .collectList()
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> {
+                    List<CartItemView> items = new ArrayList<>(rows.size());
+                    BigDecimal total = BigDecimal.ZERO;
+                    for (CartItemView item : rows) {
+                        if (item != EMPTY) {
+                            items.add(item);
+                            total = total.add(item.getTotalPrice());
+                        }
+                    }
+                    return new CartView(items, total);
+                });
+    }
+
+    @Override
+    public Mono<Map<Long, List<CartItemView>>> findItemViewsByCartIds(Collection<Long> cartIds) {
+        if (cartIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return databaseClient.sql(ITEM_VIEWS_BY_CART_IDS)
+                .bind("cartIds", cartIds)
+                .map(row -> Map.entry(row.get("cart_id", Long.class), toItemView(row)))
+                .all()
+                .collect(LinkedHashMap::new, (byCart, entry) -> byCart
+                        .computeIfAbsent(entry.getKey(), id -> new ArrayList<>())
+                        .add(entry.getValue()));
+    }
+
+    private static CartItemView toItemView(Readable row) {
+        Integer price = row.get("price", Integer.class);
+        Integer quantity = row.get("quantity", Integer.class);
+        BigDecimal unitPrice = price != null ? BigDecimal.valueOf(price) : BigDecimal.ZERO;
+        int count = quantity != null ? quantity : 0;
+        return new CartItemView(
+                row.get("product_id", Long.class),
+                row.get("name", String.class),
+                row.get("image_url", String.class),
+                count,
+                unitPrice,
+                unitPrice.multiply(BigDecimal.valueOf(count)));
+    }
+}
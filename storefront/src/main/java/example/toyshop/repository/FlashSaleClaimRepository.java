@@ -0,0 +1,88 @@
+package example.toyshop.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Перенос заявок распродажи из Redis в PostgreSQL.
+ * <p>
+ * Фрагмент {@link CartItemRepository}. Каждый шаг — один SQL-запрос над
+ * пачкой заявок; повторное выполнение с теми же заявками ничего не меняет.
+ *
+ * @see example.toyshop.service.FlashSaleReconciler
+ */
+public interface FlashSaleClaimRepository {
+
+    /**
+     * Заявка на единицу товара из потока распродажи.
+     *
+     * @param id        id записи в потоке
+     * @param cartId    корзина
+     * @param productId товар
+     */
+    record FlashSaleClaim(String id, Long cartId, Long productId) {
+    }
+
+    /**
+     * Итог {@link #recoverFlashSaleClaims}.
+     *
+     * @param recovered количество восстановленных заявок
+     * @param discarded товар каждой отброшенной заявки: её единицу нужно
+     *                  вернуть в счётчик распродажи
+     */
+    record RecoveredClaims(int recovered, List<Long> discarded) {
+    }
+
+    /**
+     * Итог {@link #stockFlashSaleClaims}.
+     *
+     * @param stocked    количество обработанных заявок
+     * @param unreserved единиц в активных корзинах, которые не удалось списать
+     *                   со склада: товара в {@code product.quantity} меньше, чем
+     *                   заявок. Их резерв не создан, нехватку покажет оформление
+     *                   заказа
+     */
+    record StockedClaims(int stocked, int unreserved) {
+    }
+
+    /**
+     * Дописывает строки корзины по заявкам, которые узел не успел записать
+     * сам (упал после скрипта в Redis). Заявки, уже записанные узлом,
+     * пропускаются. Заявки корзин, которые уже не активны, отбрасываются:
+     * они записываются сразу перенесёнными, поэтому повторная обработка той
+     * же заявки не отбросит её второй раз.
+     *
+     * @param claims заявки из потока
+     * @return восстановленные и отброшенные заявки
+     */
+    Mono<RecoveredClaims> recoverFlashSaleClaims(List<FlashSaleClaim> claims);
+
+    /**
+     * Переносит списание записанных заявок в {@code product.quantity}: одним
+     * {@code UPDATE} на товар, с удержанием товара за корзиной резервом, как
+     * при оформлении заказа. Заявки корзин, которые уже не активны, только
+     * помечаются: их товар был списан при оформлении заказа. Заявки товара,
+     * остатка которого не хватило, тоже помечаются, без резерва, и
+     * учитываются в {@link StockedClaims#unreserved()}: оставленные
+     * необработанными, они занимали бы начало очереди и останавливали сверку,
+     * пока остаток не вернётся.
+     * <p>
+     * Пачка берётся с {@code FOR UPDATE SKIP LOCKED}, так что сверку можно
+     * выполнять на нескольких узлах одновременно.
+     *
+     * @param limit       максимум заявок за раз
+     * @param holdSeconds срок резерва в секундах
+     * @return обработанные заявки и единицы без резерва
+     */
+    Mono<StockedClaims> stockFlashSaleClaims(int limit, long holdSeconds);
+
+    /**
+     * Удаляет обработанные заявки старше {@code before}: к этому времени их
+     * повторная доставка из потока уже невозможна.
+     *
+     * @return количество удалённых записей
+     */
+    Mono<Integer> deleteFlashSaleClaimsBefore(LocalDateTime before);
+}
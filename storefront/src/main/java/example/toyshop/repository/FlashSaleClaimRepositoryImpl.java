@@ -0,0 +1,134 @@
+package example.toyshop.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Реализация {@link FlashSaleClaimRepository} на {@link DatabaseClient}.
+ * <p>
+ * Пачка из потока передаётся тремя массивами и разворачивается
+ * {@code unnest}: текст запроса не зависит от числа заявок.
+ */
+@RequiredArgsConstructor
+public class FlashSaleClaimRepositoryImpl implements FlashSaleClaimRepository {
+
+    private static final String RECOVER_CLAIMS = """
+            WITH claims AS (
+                SELECT * FROM unnest(:claimIds::varchar[], :cartIds::bigint[], :productIds::bigint[])
+                    AS c(claim_id, cart_id, product_id)
+            ), recovered AS (
+                INSERT INTO flash_sale_claim (claim_id, cart_id, product_id)
+                SELECT c.claim_id, c.cart_id, c.product_id
+                FROM claims c JOIN cart ON cart.id = c.cart_id AND cart.status = 'ACTIVE'
+                ON CONFLICT (claim_id) DO NOTHING
+                RETURNING cart_id, product_id
+            ), items AS (
+                INSERT INTO cart_item (cart_id, product_id, quantity)
+                SELECT cart_id, product_id, COUNT(*) FROM recovered GROUP BY cart_id, product_id
+                ON CONFLICT (cart_id, product_id) DO UPDATE SET quantity = cart_item.quantity + EXCLUDED.quantity
+            ), counted AS (
+                UPDATE cart SET item_count = cart.item_count + r.quantity
+                FROM (SELECT cart_id, COUNT(*) AS quantity FROM recovered GROUP BY cart_id) r
+                WHERE cart.id = r.cart_id
+            ), discarded AS (
+                INSERT INTO flash_sale_claim (claim_id, cart_id, product_id, stocked)
+                SELECT c.claim_id, c.cart_id, c.product_id, TRUE
+                FROM claims c
+                WHERE NOT EXISTS (SELECT 1 FROM cart WHERE cart.id = c.cart_id AND cart.status = 'ACTIVE')
+                ON CONFLICT (claim_id) DO NOTHING
+                RETURNING product_id
+            )
+            SELECT (SELECT COUNT(*)::int FROM recovered) AS recovered,
+                (SELECT array_agg(product_id) FROM discarded) AS discarded
+            """;
+
+    private static final String STOCK_CLAIMS = """
+            WITH batch AS (
+                SELECT claim_id FROM flash_sale_claim WHERE NOT stocked
+                ORDER BY created_at
+                LIMIT :limit
+                FOR UPDATE SKIP LOCKED
+            ), marked AS (
+                UPDATE flash_sale_claim f SET stocked = TRUE
+                FROM batch b
+                WHERE f.claim_id = b.claim_id
+                RETURNING f.cart_id, f.product_id
+            ), per_item AS (
+                SELECT m.cart_id, m.product_id, COUNT(*)::int AS quantity
+                FROM marked m JOIN cart ON cart.id = m.cart_id AND cart.status = 'ACTIVE'
+                GROUP BY m.cart_id, m.product_id
+            ), locked AS (
+                SELECT p.id FROM product p WHERE p.id IN (SELECT product_id FROM per_item)
+                ORDER BY p.id
+                FOR UPDATE OF p
+            ), decremented AS (
+                UPDATE product p SET quantity = p.quantity - t.quantity
+                FROM (SELECT product_id, SUM(quantity) AS quantity FROM per_item GROUP BY product_id) t
+                JOIN locked l ON l.id = t.product_id
+                WHERE p.id = t.product_id AND p.quantity >= t.quantity
+                RETURNING p.id
+            ), held AS (
+                INSERT INTO stock_reservation (cart_id, product_id, quantity, status, expires_at)
+                SELECT i.cart_id, i.product_id, i.quantity, 'HELD', LOCALTIMESTAMP + make_interval(secs => :holdSeconds)
+                FROM per_item i JOIN decremented d ON d.id = i.product_id
+                ON CONFLICT (cart_id, product_id) DO UPDATE
+                SET quantity = CASE WHEN stock_reservation.status = 'HELD' THEN stock_reservation.quantity ELSE 0 END
+                        + EXCLUDED.quantity,
+                    status = EXCLUDED.status, expires_at = EXCLUDED.expires_at
+            )
+            SELECT (SELECT COUNT(*)::int FROM marked) AS stocked,
+                (SELECT COALESCE(SUM(i.quantity), 0)::int FROM per_item i
+                    WHERE i.product_id NOT IN (SELECT id FROM decremented)) AS unreserved
+            """;
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<RecoveredClaims> recoverFlashSaleClaims(List<FlashSaleClaim> claims) {
+        if (claims.isEmpty()) {
+            return Mono.just(new RecoveredClaims(0, List.of()));
+        }
+        String[] claimIds = new String[claims.size()];
+        Long[] cartIds = new Long[claims.size()];
+        Long[] productIds = new Long[claims.size()];
+        for (int i = 0; i < claims.size(); i++) {
+            FlashSaleClaim claim = claims.get(i);
+            claimIds[i] = claim.id();
+            cartIds[i] = claim.cartId();
+            productIds[i] = claim.productId();
+        }
+        return databaseClient.sql(RECOVER_CLAIMS)
+                .bind("claimIds", claimIds)
+                .bind("cartIds", cartIds)
+                .bind("productIds", productIds)
+                .map(row -> {
+                    Long[] discarded = row.get("discarded", Long[].class);
+                    return new RecoveredClaims(row.get("recovered", Integer.class),
+                            discarded != null ? List.of(discarded) : List.of());
+                })
+                .one();
+    }
+
+    @Override
+    public Mono<StockedClaims> stockFlashSaleClaims(int limit, long holdSeconds) {
+        return databaseClient.sql(STOCK_CLAIMS)
+                .bind("limit", limit)
+                .bind("holdSeconds", holdSeconds)
+                .map(row -> new StockedClaims(row.get("stocked", Integer.class), row.get("unreserved", Integer.class)))
+                .one();
+    }
+
+    @Override
+    public Mono<Integer> deleteFlashSaleClaimsBefore(LocalDateTime before) {
+        return databaseClient.sql("DELETE FROM flash_sale_claim WHERE stocked AND created_at < :before")
+                .bind("before", before)
+                .fetch()
+                .rowsUpdated()
+                .map(Long::intValue);
+    }
+}
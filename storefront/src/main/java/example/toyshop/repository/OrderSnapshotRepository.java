@@ -0,0 +1,68 @@
+package example.toyshop.repository;
+
+import java.util.List;
+
+import example.toyshop.dto.cart.OrderCursor;
+import example.toyshop.dto.cart.OrderView;
+import reactor.core.publisher.Mono;
+
+/**
+ * Неизменяемые снимки оформленных заказов ({@code order_snapshot}).
+ * <p>
+ * Фрагмент {@link CartRepository}. Снимок — строка на заказ с позициями в
+ * одном JSONB-документе: название, цена за единицу и сумма позиции на момент
+ * оформления. Страница заказа читает его по первичному ключу, без соединения
+ * с {@code cart_item} и {@code product}, и цены не меняются, когда
+ * администратор правит товар. Снимок собирается в SQL, поэтому оформление
+ * заказа и перенос старых заказов пишут один и тот же формат.
+ */
+public interface OrderSnapshotRepository {
+
+    /**
+     * Записывает снимок заказа по текущим элементам корзины и ценам товаров.
+     * Существующий снимок не перезаписывается.
+     *
+     * @param cartId идентификатор оформляемой корзины
+     */
+    Mono<Void> createOrderSnapshot(Long cartId);
+
+    /**
+     * Снимок заказа пользователя — одно чтение по первичному ключу.
+     *
+     * @param cartId идентификатор заказа
+     * @param userId владелец заказа
+     * @return заказ или пустой {@link Mono}, если снимка нет или заказ чужой
+     */
+    Mono<OrderView> findOrderSnapshot(Long cartId, String userId);
+
+    /**
+     * Страница истории заказов пользователя из снимков, одним запросом.
+     * Заказы — от новых к старым, пагинация по курсору {@code (created_at, id)}.
+     * Заказы, снимок которых ещё не перенесён, собираются по текущим ценам.
+     *
+     * @param userId идентификатор пользователя
+     * @param after  курсор последнего заказа предыдущей страницы, {@code null} — первая страница
+     * @param limit  максимальное число заказов
+     * @return заказы страницы по порядку
+     */
+    Mono<List<OrderView>> findOrderPage(String userId, OrderCursor after, int limit);
+
+    /**
+     * С какой корзины продолжать перенос снимков старых заказов.
+     *
+     * @return последний обработанный id корзины или пустой {@link Mono}, если
+     *         перенос уже закончен
+     */
+    Mono<Long> findOrderSnapshotBackfillStart();
+
+    /**
+     * Пишет снимки пачки завершённых корзин с {@code id > afterId}, у которых
+     * снимка ещё нет, и сдвигает отметку переноса. Пустая пачка отмечает
+     * перенос законченным.
+     *
+     * @param afterId последний обработанный id корзины, {@code 0} — с начала
+     * @param limit   корзин в пачке
+     * @return последний id корзины в пачке или пустой {@link Mono}, если корзин больше нет
+     */
+    Mono<Long> backfillOrderSnapshots(long afterId, int limit);
+}
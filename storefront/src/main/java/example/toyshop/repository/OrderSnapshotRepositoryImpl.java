@@ -0,0 +1,220 @@
+package example.toyshop.repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import example.toyshop.dto.cart.CartItemView;
+import example.toyshop.dto.cart.OrderCursor;
+import example.toyshop.dto.cart.OrderView;
+import io.r2dbc.spi.Readable;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Реализация {@link OrderSnapshotRepository} на {@link DatabaseClient}.
+ * <p>
+ * Товар присоединяется через {@code LEFT JOIN}, как в
+ * {@link CartViewRepositoryImpl}: позиция удалённого товара попадает в снимок
+ * с нулевой ценой.
+ */
+@RequiredArgsConstructor
+public class OrderSnapshotRepositoryImpl implements OrderSnapshotRepository {
+
+    /** Вставка снимков корзин из источника {@code %s} со столбцами {@code id, user_id, created_at} */
+    private static final String INSERT_SNAPSHOTS = "INSERT INTO order_snapshot"
+            + " (cart_id, user_id, created_at, total_amount, items)"
+            + " SELECT c.id, c.user_id, COALESCE(c.created_at, now()),"
+            + " COALESCE(SUM(COALESCE(p.price, 0) * COALESCE(ci.quantity, 0)), 0),"
+            + " COALESCE(jsonb_agg(jsonb_build_object("
+            + "'product_id', ci.product_id, 'name', p.name, 'image_url', p.image_url,"
+            + " 'price', COALESCE(p.price, 0), 'quantity', COALESCE(ci.quantity, 0),"
+            + " 'total', COALESCE(p.price, 0) * COALESCE(ci.quantity, 0)) ORDER BY ci.id)"
+            + " FILTER (WHERE ci.id IS NOT NULL), '[]'::jsonb)"
+            + " FROM %s c"
+            + " LEFT JOIN cart_item ci ON ci.cart_id = c.id"
+            + " LEFT JOIN product p ON p.id = ci.product_id"
+            + " GROUP BY c.id, c.user_id, c.created_at"
+            + " ON CONFLICT (cart_id) DO NOTHING";
+
+    private static final String CREATE = INSERT_SNAPSHOTS.formatted(
+            "(SELECT id, user_id, created_at FROM cart WHERE id = :cartId)");
+
+    /**
+     * Пачка корзин без снимка, их снимки и сдвиг отметки переноса. Пустая
+     * пачка означает, что перенос закончен. GREATEST пропускает NULL, поэтому
+     * пустая пачка отметку не сдвигает, а узлы, переносящие одновременно,
+     * не отводят её назад.
+     */
+    private static final String BACKFILL = "WITH batch AS ("
+            + "SELECT id, user_id, created_at FROM cart"
+            + " WHERE status = 'COMPLETED' AND id > :afterId"
+            + " AND NOT EXISTS (SELECT 1 FROM order_snapshot s WHERE s.cart_id = cart.id)"
+            + " ORDER BY id LIMIT :limit),"
+            // изменяющие CTE выполняются, даже если на них не ссылаются
+            + " inserted AS (" + INSERT_SNAPSHOTS.formatted("batch") + "),"
+            + " mark AS (UPDATE order_snapshot_backfill"
+            + " SET last_cart_id = GREATEST(last_cart_id, (SELECT max(id) FROM batch)),"
+            + " completed = NOT EXISTS (SELECT 1 FROM batch) WHERE id = 1)"
+            + " SELECT max(id) AS last_id FROM batch";
+
+    private static final String BACKFILL_START =
+            "SELECT last_cart_id FROM order_snapshot_backfill WHERE id = 1 AND NOT completed";
+
+    /**
+     * Позиции в порядке документа. У заказа без позиций одна строка с NULL
+     * вместо позиции.
+     */
+    private static final String FIND = "SELECT s.cart_id, s.created_at, s.total_amount,"
+            + " i.product_id, i.name, i.image_url, i.price, i.quantity, i.total"
+            + " FROM order_snapshot s"
+            + " LEFT JOIN LATERAL ROWS FROM (jsonb_to_recordset(s.items) AS (product_id BIGINT, name TEXT,"
+            + " image_url TEXT, price NUMERIC, quantity INT, total NUMERIC)) WITH ORDINALITY"
+            + " AS i(product_id, name, image_url, price, quantity, total, ord) ON true"
+            + " WHERE s.cart_id = :cartId AND s.user_id = :userId"
+            + " ORDER BY i.ord";
+
+    /**
+     * Страница истории заказов: сначала ограничиваются заказы (по индексу
+     * {@code (user_id, created_at, cart_id)}), затем разворачиваются их позиции —
+     * {@code LIMIT} считает заказы, а не позиции.
+     * <p>
+     * Пока перенос снимков не закончен, в страницу попадают и завершённые
+     * корзины без снимка; их позиции собираются по текущим товарам, как до
+     * появления снимков. После переноса эта ветка отсекается одним чтением
+     * {@code order_snapshot_backfill}.
+     */
+    private static final String ORDER_PAGE = "WITH page AS ("
+            + "(SELECT cart_id AS id, created_at FROM order_snapshot"
+            + " WHERE user_id = :userId%1$s"
+            + " ORDER BY created_at DESC, cart_id DESC LIMIT :limit)"
+            + " UNION ALL"
+            + " (SELECT id, created_at FROM cart"
+            + " WHERE user_id = :userId AND status = 'COMPLETED'%2$s"
+            + " AND NOT COALESCE((SELECT completed FROM order_snapshot_backfill WHERE id = 1), false)"
+            + " AND NOT EXISTS (SELECT 1 FROM order_snapshot s WHERE s.cart_id = cart.id)"
+            + " ORDER BY created_at DESC, id DESC LIMIT :limit)"
+            + " ORDER BY created_at DESC, id DESC LIMIT :limit)"
+            + " SELECT page.id AS cart_id, page.created_at, s.total_amount,"
+            + " i.product_id, i.name, i.image_url, i.price, i.quantity, i.total, i.ord"
+            + " FROM page JOIN order_snapshot s ON s.cart_id = page.id"
+            + " LEFT JOIN LATERAL ROWS FROM (jsonb_to_recordset(s.items) AS (product_id BIGINT, name TEXT,"
+            + " image_url TEXT, price NUMERIC, quantity INT, total NUMERIC)) WITH ORDINALITY"
+            + " AS i(product_id, name, image_url, price, quantity, total, ord) ON true"
+            + " UNION ALL"
+            // заказ без снимка: позиции по текущим ценам, итог считается по позициям
+            + " SELECT page.id, page.created_at, NULL::numeric,"
+            + " ci.product_id, p.name, p.image_url, COALESCE(p.price, 0)::numeric, ci.quantity,"
+            + " (COALESCE(p.price, 0) * ci.quantity)::numeric, ci.id"
+            + " FROM page"
+            + " LEFT JOIN cart_item ci ON ci.cart_id = page.id"
+            + " LEFT JOIN product p ON p.id = ci.product_id"
+            + " WHERE NOT EXISTS (SELECT 1 FROM order_snapshot s WHERE s.cart_id = page.id)"
+            + " ORDER BY created_at DESC, cart_id DESC, ord";
+
+    private static final String SNAPSHOT_AFTER = " AND (created_at, cart_id) < (:afterCreatedAt, :afterId)";
+    private static final String CART_AFTER = " AND (created_at, id) < (:afterCreatedAt, :afterId)";
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<Void> createOrderSnapshot(Long cartId) {
+        return databaseClient.sql(CREATE)
+                .bind("cartId", cartId)
+                .then();
+    }
+
+    @Override
+    public Mono<OrderView> findOrderSnapshot(Long cartId, String userId) {
+        return databaseClient.sql(FIND)
+                .bind("cartId", cartId)
+                .bind("userId", userId)
+                .map(row -> new SnapshotRow(row.get("cart_id", Long.class),
+                        row.get("created_at", LocalDateTime.class),
+                        row.get("total_amount", BigDecimal.class),
+                        row.get("quantity") != null ? toItemView(row) : null))
+                .all()
+                .collectList()
+                .filter(rows -> !rows.isEmpty())
+                .map(OrderSnapshotRepositoryImpl::toOrderView);
+    }
+
+    @Override
+    public Mono<List<OrderView>> findOrderPage(String userId, OrderCursor after, int limit) {
+        String sql = after != null
+                ? ORDER_PAGE.formatted(SNAPSHOT_AFTER, CART_AFTER)
+                : ORDER_PAGE.formatted("", "");
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql)
+                .bind("userId", userId)
+                .bind("limit", limit);
+        if (after != null) {
+            spec = spec.bind("afterCreatedAt", after.createdAt()).bind("afterId", after.id());
+        }
+        return spec
+                .map(row -> new SnapshotRow(row.get("cart_id", Long.class),
+                        row.get("created_at", LocalDateTime.class),
+                        row.get("total_amount", BigDecimal.class),
+                        row.get("quantity") != null ? toItemView(row) : null))
+                .all()
+                .collect(() -> new LinkedHashMap<Long, List<SnapshotRow>>(), (byOrder, row) -> byOrder
+                        .computeIfAbsent(row.cartId(), id -> new ArrayList<>())
+                        .add(row))
+                .map(byOrder -> byOrder.values().stream()
+                        .map(OrderSnapshotRepositoryImpl::toOrderView)
+                        .toList());
+    }
+
+    @Override
+    public Mono<Long> findOrderSnapshotBackfillStart() {
+        return databaseClient.sql(BACKFILL_START)
+                .map(row -> row.get("last_cart_id", Long.class))
+                .one();
+    }
+
+    @Override
+    public Mono<Long> backfillOrderSnapshots(long afterId, int limit) {
+        return databaseClient.sql(BACKFILL)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(row -> row.get("last_id", Long.class) != null ? row.get("last_id", Long.class) : -1L)
+                .one()
+                .filter(lastId -> lastId > 0);
+    }
+
+    /**
+     * Строка результата {@link #FIND} и {@link #ORDER_PAGE}: заказ и одна его
+     * позиция ({@code null} у заказа без позиций). Итог {@code null} у заказа
+     * без снимка.
+     */
+    private record SnapshotRow(Long cartId, LocalDateTime createdAt, BigDecimal totalAmount, CartItemView item) {
+    }
+
+    /** Заказ из строк одного заказа по порядку позиций */
+    private static OrderView toOrderView(List<SnapshotRow> rows) {
+        List<CartItemView> items = new ArrayList<>(rows.size());
+        BigDecimal itemsTotal = BigDecimal.ZERO;
+        for (SnapshotRow row : rows) {
+            if (row.item() != null) {
+                items.add(row.item());
+                itemsTotal = itemsTotal.add(row.item().getTotalPrice());
+            }
+        }
+        SnapshotRow first = rows.get(0);
+        BigDecimal total = first.totalAmount() != null ? first.totalAmount() : itemsTotal;
+        return new OrderView(first.cartId(), first.createdAt(), items, total, BigDecimal.ZERO);
+    }
+
+    private static CartItemView toItemView(Readable row) {
+        return new CartItemView(
+                row.get("product_id", Long.class),
+                row.get("name", String.class),
+                row.get("image_url", String.class),
+                row.get("quantity", Integer.class),
+                row.get("price", BigDecimal.class),
+                row.get("total", BigDecimal.class));
+    }
+}
@@ -0,0 +1,26 @@
+package example.toyshop.repository;
+
+import example.toyshop.dto.product.ProductCursor;
+import example.toyshop.dto.product.ProductSort;
+import example.toyshop.model.Product;
+import reactor.core.publisher.Flux;
+
+/**
+ * Запросы витрины товаров, выполняемые целиком на стороне PostgreSQL.
+ * <p>
+ * Фрагмент {@link ProductRepository}: фильтрация, сортировка и ограничение
+ * выборки выполняются в SQL, пагинация — по курсору (keyset), без {@code OFFSET}.
+ */
+public interface ProductCatalogRepository {
+
+    /**
+     * Возвращает страницу витрины.
+     *
+     * @param keyword подстрока названия (без учёта регистра), {@code null} — без фильтра
+     * @param sort    порядок сортировки
+     * @param after   курсор последнего товара предыдущей страницы, {@code null} — первая страница
+     * @param limit   максимальное количество товаров
+     * @return поток товаров в порядке сортировки
+     */
+    Flux<Product> findCatalogPage(String keyword, ProductSort sort, ProductCursor after, int limit);
+}
@@ -0,0 +1,66 @@
+package example.toyshop.repository;
+
+import org.springframework.data.r2dbc.convert.R2dbcConverter;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import example.toyshop.dto.product.ProductCursor;
+import example.toyshop.dto.product.ProductSort;
+import example.toyshop.model.Product;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+
+/**
+ * Реализация {@link ProductCatalogRepository} на {@link DatabaseClient}.
+ * <p>
+ * SQL собирается только из значений {@link ProductSort}, пользовательский
+ * ввод передаётся исключительно через параметры.
+ * Для эффективной работы нужны индексы {@code (lower(name), id)} и
+ * {@code (price, id)} — см. {@code schema.sql}.
+ */
+@RequiredArgsConstructor
+public class ProductCatalogRepositoryImpl implements ProductCatalogRepository {
+
+    private static final String SELECT = "SELECT id, name, description, price, image_url, quantity FROM product";
+
+    private final DatabaseClient databaseClient;
+    private final R2dbcConverter converter;
+
+    @Override
+    public Flux<Product> findCatalogPage(String keyword, ProductSort sort, ProductCursor after, int limit) {
+        boolean filtered = keyword != null && !keyword.isBlank();
+        String key = sort.getSortExpression();
+        String direction = sort.isAscending() ? "ASC" : "DESC";
+
+        StringBuilder sql = new StringBuilder(SELECT).append(" WHERE 1 = 1");
+        if (filtered) {
+            sql.append(" AND name ILIKE :pattern");
+        }
+        if (after != null) {
+            String value = sort.isByPrice() ? ":afterValue" : "lower(:afterValue)";
+            sql.append(" AND (").append(key).append(", id) ")
+                    .append(sort.isAscending() ? ">" : "<")
+                    .append(" (").append(value).append(", :afterId)");
+        }
+        sql.append(" ORDER BY ").append(key).append(' ').append(direction)
+                .append(", id ").append(direction)
+                .append(" LIMIT :limit");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString())
+                .bind("limit", limit);
+        if (filtered) {
+            spec = spec.bind("pattern", "%" + escapeLike(keyword.trim()) + "%");
+        }
+        if (after != null) {
+            spec = spec.bind("afterValue", sort.isByPrice() ? Integer.valueOf(after.value()) : after.value())
+                    .bind("afterId", after.id());
+        }
+        return spec.map((row, metadata) -> converter.read(Product.class, row, metadata)).all();
+    }
+
+    /** Экранирует спецсимволы шаблона LIKE, чтобы ключевое слово искалось буквально */
+    private static String escapeLike(String keyword) {
+        return keyword.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+}
@@ -9,8 +9,9 @@ import reactor.core.publisher.Flux;
  * Репозиторий для работы с товарами {@link Product}.
  * <p>
  * Расширяет {@link ReactiveCrudRepository} для асинхронного взаимодействия с базой данных через R2DBC.
+ * Постраничная выборка витрины вынесена во фрагмент {@link ProductCatalogRepository}.
  */
-public interface ProductRepository extends ReactiveCrudRepository<Product, Long> {
+public interface ProductRepository extends ReactiveCrudRepository<Product, Long>, ProductCatalogRepository {
 
     /**
      * Находит товары, название которых содержит указанную подстроку, игнорируя регистр.
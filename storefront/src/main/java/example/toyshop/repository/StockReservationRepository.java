@@ -0,0 +1,127 @@
+package example.toyshop.repository;
+
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+
+import example.toyshop.model.StockReservation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Репозиторий резервов товара {@link StockReservation}.
+ * <p>
+ * Каждое изменение склада — один SQL-запрос: условное списание
+ * ({@code quantity >= :нужно}) и запись резерва, либо смена статуса резерва
+ * и возврат товара на склад, выполняются атомарно в одном выражении.
+ */
+public interface StockReservationRepository extends R2dbcRepository<StockReservation, Long> {
+
+    /**
+     * Резервирует все товары корзины: списывает их со склада и записывает
+     * резервы со сроком {@code ttlSeconds}.
+     * <p>
+     * Строки товаров блокируются в порядке {@code id}, чтобы встречные заказы
+     * с несколькими товарами не блокировали друг друга взаимно. Товар, которого
+     * на складе меньше, чем в корзине, не списывается.
+     *
+     * @param cartId     идентификатор корзины
+     * @param ttlSeconds срок резерва в секундах
+     * @return количество товаров корзины, которые зарезервировать не удалось
+     *         ({@code 0} — зарезервировано всё)
+     */
+    @Query("""
+            WITH wanted AS (
+                SELECT product_id, quantity FROM cart_item WHERE cart_id = :cartId
+            ), locked AS (
+                SELECT p.id FROM product p JOIN wanted w ON w.product_id = p.id
+                ORDER BY p.id
+                FOR UPDATE OF p
+            ), decremented AS (
+                UPDATE product p SET quantity = p.quantity - w.quantity
+                FROM wanted w JOIN locked l ON l.id = w.product_id
+                WHERE p.id = w.product_id AND p.quantity >= w.quantity
+                RETURNING p.id, w.quantity
+            ), reserved AS (
+                INSERT INTO stock_reservation (cart_id, product_id, quantity, status, expires_at)
+                SELECT :cartId, d.id, d.quantity, 'HELD', LOCALTIMESTAMP + make_interval(secs => :ttlSeconds)
+                FROM decremented d
+                ON CONFLICT (cart_id, product_id) DO UPDATE
+                SET quantity = EXCLUDED.quantity, status = EXCLUDED.status, expires_at = EXCLUDED.expires_at
+                RETURNING product_id
+            )
+            SELECT ((SELECT COUNT(*) FROM wanted) - (SELECT COUNT(*) FROM reserved))::int
+            """)
+    Mono<Integer> reserveCart(Long cartId, long ttlSeconds);
+
+    /**
+     * Освобождает удерживаемые резервы корзины и возвращает товар на склад.
+     * Повторный вызов ничего не меняет.
+     *
+     * @return количество освобождённых резервов
+     */
+    @Query("""
+            WITH released AS (
+                UPDATE stock_reservation SET status = 'RELEASED'
+                WHERE cart_id = :cartId AND status = 'HELD'
+                RETURNING product_id, quantity
+            ), restocked AS (
+                UPDATE product p SET quantity = p.quantity + r.quantity
+                FROM released r
+                WHERE p.id = r.product_id
+            )
+            SELECT COUNT(*)::int FROM released
+            """)
+    Mono<Integer> releaseCart(Long cartId);
+
+    /**
+     * Делает удерживаемые резервы корзины окончательными (заказ оплачен).
+     *
+     * @return количество подтверждённых резервов
+     */
+    @Query("""
+            WITH committed AS (
+                UPDATE stock_reservation SET status = 'COMMITTED'
+                WHERE cart_id = :cartId AND status = 'HELD'
+                RETURNING id
+            )
+            SELECT COUNT(*)::int FROM committed
+            """)
+    Mono<Integer> commitCart(Long cartId);
+
+    /**
+     * Освобождает все просроченные резервы и возвращает товар на склад.
+     * <p>
+     * Резервы уже закрытых корзин не освобождаются: заказ оплачен, но
+     * подтвердить резерв после оплаты не удалось. Такие резервы становятся
+     * окончательными.
+     *
+     * @return количество освобождённых резервов
+     */
+    @Query("""
+            WITH overdue AS (
+                SELECT r.id, c.status = 'COMPLETED' AS paid
+                FROM stock_reservation r JOIN cart c ON c.id = r.cart_id
+                WHERE r.status = 'HELD' AND r.expires_at < LOCALTIMESTAMP
+            ), committed AS (
+                UPDATE stock_reservation r SET status = 'COMMITTED'
+                FROM overdue o
+                WHERE r.id = o.id AND o.paid
+            ), expired AS (
+                UPDATE stock_reservation r SET status = 'RELEASED'
+                FROM overdue o
+                WHERE r.id = o.id AND NOT o.paid
+                RETURNING r.product_id, r.quantity
+            ), restocked AS (
+                UPDATE product p SET quantity = p.quantity + e.quantity
+                FROM (SELECT product_id, SUM(quantity) AS quantity FROM expired GROUP BY product_id) e
+                WHERE p.id = e.product_id
+            )
+            SELECT COUNT(*)::int FROM expired
+            """)
+    Mono<Integer> releaseExpired();
+
+    /**
+     * Все резервы корзины независимо от статуса.
+     */
+    Flux<StockReservation> findByCartId(Long cartId);
+}
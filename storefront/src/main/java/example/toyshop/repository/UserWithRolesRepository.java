@@ -0,0 +1,22 @@
+package example.toyshop.repository;
+
+import example.toyshop.service.UserService.UserWithRoles;
+import reactor.core.publisher.Mono;
+
+/**
+ * Чтение пользователя вместе с ролями одним SQL-запросом.
+ * <p>
+ * Фрагмент {@link UserRepository}: {@code users LEFT JOIN user_roles} вместо
+ * двух запросов (пользователь, затем его роли).
+ */
+public interface UserWithRolesRepository {
+
+    /**
+     * Пользователь и его роли.
+     *
+     * @param username имя пользователя
+     * @return пользователь с ролями (возможно, без ролей) или пустой
+     *         {@link Mono}, если пользователя нет
+     */
+    Mono<UserWithRoles> findWithRolesByUsername(String username);
+}
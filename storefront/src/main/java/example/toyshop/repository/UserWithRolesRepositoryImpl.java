@@ -0,0 +1,70 @@
+package example.toyshop.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import example.toyshop.model.User;
+import example.toyshop.model.UserRole;
+import example.toyshop.service.UserService.UserWithRoles;
+import io.r2dbc.spi.Readable;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Реализация {@link UserWithRolesRepository} на {@link DatabaseClient}.
+ * <p>
+ * Роли присоединяются через {@code LEFT JOIN}: пользователь без ролей
+ * возвращается одной строкой с {@code NULL} вместо роли.
+ */
+@RequiredArgsConstructor
+public class UserWithRolesRepositoryImpl implements UserWithRolesRepository {
+
+    private static final String USER_WITH_ROLES = "SELECT u.id, u.username, u.password, u.enabled, u.email,"
+            + " r.id AS role_id, r.role"
+            + " FROM users u"
+            + " LEFT JOIN user_roles r ON r.user_id = u.id"
+            + " WHERE u.username = :username"
+            + " ORDER BY r.id";
+
+    private final DatabaseClient databaseClient;
+
+    @Override
+    public Mono<UserWithRoles> findWithRolesByUsername(String username) {
+        return databaseClient.sql(USER_WITH_ROLES)
+                .bind("username", username)
+                .map(row -> new Row(toUser(row), toRole(row)))
+                .all()
+                .collectList()
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> {
+                    List<UserRole> roles = new ArrayList<>(rows.size());
+                    for (Row row : rows) {
+                        if (row.role() != null) {
+                            roles.add(row.role());
+                        }
+                    }
+                    return new UserWithRoles(rows.get(0).user(), roles);
+                });
+    }
+
+    private static User toUser(Readable row) {
+        Boolean enabled = row.get("enabled", Boolean.class);
+        return new User(
+                row.get("id", Long.class),
+                row.get("username", String.class),
+                row.get("password", String.class),
+                enabled == null || enabled,
+                row.get("email", String.class));
+    }
+
+    private static UserRole toRole(Readable row) {
+        Long roleId = row.get("role_id", Long.class);
+        return roleId != null ? new UserRole(roleId, row.get("id", Long.class), row.get("role", String.class)) : null;
+    }
+
+    /** Строка результата: пользователь повторяется в каждой строке своих ролей */
+    private record Row(User user, UserRole role) {
+    }
+}
@@ -0,0 +1,130 @@
+package example.toyshop.resilience;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограничение числа одновременных вызовов, которое подстраивается под
+ * задержку ответа (градиентный алгоритм в духе Netflix concurrency-limits).
+ * <p>
+ * Лимитер ведёт два скользящих средних времени ответа: короткое (последние
+ * вызовы) и длинное (базовая задержка без очереди). Их отношение — градиент:
+ * пока сервис отвечает как обычно, градиент около 1 и лимит растёт на
+ * {@code sqrt(limit)}; когда задержка растёт, градиент падает ниже 1 и лимит
+ * сжимается пропорционально. Таймаут или отказ сервиса сразу уменьшает лимит
+ * в {@value #BACKOFF_RATIO} раза. Лишние вызовы не ждут в очереди, а сразу
+ * отклоняются ({@link #tryAcquire()} возвращает {@code null}).
+ * <p>
+ * Отдельный экземпляр на группу операций работает как переборка (bulkhead):
+ * медленные операции одной группы не занимают разрешения другой.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    static final double BACKOFF_RATIO = 0.9;
+    private static final double SHORT_RTT_WEIGHT = 0.2;
+    private static final double LONG_RTT_WEIGHT = 0.02;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // под монитором лимитера; limit читается без блокировки
+    private volatile double limit;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * @param initialLimit начальный лимит
+     * @param minLimit     ниже этого лимит не опускается
+     * @param maxLimit     выше этого лимит не поднимается
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Нужно 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Занимает разрешение на вызов.
+     *
+     * @return разрешение, которое нужно закрыть одним из методов
+     *         {@link Permit}, или {@code null}, если лимит исчерпан
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(current + 1, System.nanoTime());
+            }
+        }
+    }
+
+    /** Текущий лимит */
+    public int limit() {
+        return (int) limit;
+    }
+
+    /** Вызовы, выполняющиеся сейчас */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+        shortRtt = shortRtt == 0 ? rttNanos : shortRtt + (rttNanos - shortRtt) * SHORT_RTT_WEIGHT;
+        longRtt = longRtt == 0 ? rttNanos : longRtt + (rttNanos - longRtt) * LONG_RTT_WEIGHT;
+        if (longRtt > 2 * shortRtt) {
+            // задержка надолго упала: базовая линия догоняет её быстрее обычного
+            longRtt *= 0.95;
+        }
+        if (inFlightAtStart < limit / 2) {
+            return; // нагрузка далеко от лимита: замер ничего не говорит о его величине
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRtt / shortRtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        setLimit(limit * (1 - SMOOTHING) + target * SMOOTHING);
+    }
+
+    private synchronized void onDropped() {
+        setLimit(limit * BACKOFF_RATIO);
+    }
+
+    private void setLimit(double value) {
+        limit = Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    /** Разрешение на один вызов */
+    public final class Permit {
+
+        private final int inFlightAtStart;
+        private final long startedNanos;
+
+        private Permit(int inFlightAtStart, long startedNanos) {
+            this.inFlightAtStart = inFlightAtStart;
+            this.startedNanos = startedNanos;
+        }
+
+        /** Вызов завершился ответом сервиса: время ответа идёт в оценку лимита */
+        public void success() {
+            inFlight.decrementAndGet();
+            onSample(System.nanoTime() - startedNanos, inFlightAtStart);
+        }
+
+        /** Таймаут или отказ сервиса: лимит уменьшается */
+        public void dropped() {
+            inFlight.decrementAndGet();
+            onDropped();
+        }
+
+        /** Вызов отменён вызывающим: на лимит не влияет */
+        public void ignore() {
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package example.toyshop.resilience;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Защита вызовов одной группы операций внешнего сервиса: таймаут,
+ * адаптивный лимит одновременных вызовов ({@link AdaptiveConcurrencyLimiter})
+ * и общий для сервиса выключатель ({@link CircuitBreaker}).
+ * <p>
+ * У каждой группы свой лимитер, поэтому группы изолированы друг от друга
+ * (bulkhead): зависшие оплаты не отнимают разрешения у чтения баланса.
+ * Выключатель общий: если сервис лежит, отказывать быстро нужно всем.
+ * Отклонённый вызов завершается {@link CallRejectedException} сразу, без
+ * сетевого запроса.
+ * <p>
+ * Отказом сервиса считаются таймаут, ошибка соединения и ответ 5xx: они
+ * уменьшают лимит и идут в статистику выключателя. Ответ 4xx — сервис
+ * здоров, ошибся вызывающий. Отмена подписки не учитывается никак.
+ * <p>
+ * Метрики с тегом {@code group}: {@code client.calls{outcome=success|failure}}
+ * (время вызова), {@code client.calls.rejected{reason=limit|circuit_open}},
+ * {@code client.calls.limit} и {@code client.calls.in-flight}.
+ */
+public class CallGuard {
+
+    private final String group;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
+
+    private final Timer succeeded;
+    private final Timer failed;
+    private final Counter rejectedByLimit;
+    private final Counter rejectedByCircuit;
+
+    public CallGuard(String group, AdaptiveConcurrencyLimiter limiter, CircuitBreaker breaker,
+            MeterRegistry registry) {
+        this.group = group;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.succeeded = Timer.builder("client.calls").tags("group", group, "outcome", "success").register(registry);
+        this.failed = Timer.builder("client.calls").tags("group", group, "outcome", "failure").register(registry);
+        this.rejectedByLimit = Counter.builder("client.calls.rejected")
+                .tags("group", group, "reason", "limit")
+                .register(registry);
+        this.rejectedByCircuit = Counter.builder("client.calls.rejected")
+                .tags("group", group, "reason", "circuit_open")
+                .register(registry);
+        registerGauge(registry, "client.calls.limit", AdaptiveConcurrencyLimiter::limit);
+        registerGauge(registry, "client.calls.in-flight", AdaptiveConcurrencyLimiter::inFlight);
+    }
+
+    /**
+     * Регистрирует датчик лимитера этой группы. Датчик прежнего экземпляра
+     * той же группы в реестре снимается: иначе реестр вернул бы старый
+     * датчик, и метрика показывала бы чужой лимитер.
+     */
+    private void registerGauge(MeterRegistry registry, String name,
+            ToDoubleFunction<AdaptiveConcurrencyLimiter> value) {
+        Gauge previous = registry.find(name).tags("group", group).gauge();
+        if (previous != null) {
+            registry.remove(previous);
+        }
+        Gauge.builder(name, limiter, value).tags("group", group).register(registry);
+    }
+
+    /**
+     * Выполняет вызов под защитой группы.
+     *
+     * @param call    вызов; подписка на него — сетевой запрос
+     * @param timeout сколько ждать ответа
+     */
+    public <T> Mono<T> execute(Mono<T> call, Duration timeout) {
+        return Mono.defer(() -> {
+            AdaptiveConcurrencyLimiter.Permit slot = limiter.tryAcquire();
+            if (slot == null) {
+                rejectedByLimit.increment();
+                return Mono.error(new CallRejectedException(group, CallRejectedException.Reason.LIMIT));
+            }
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            if (permit == null) {
+                slot.ignore();
+                rejectedByCircuit.increment();
+                return Mono.error(new CallRejectedException(group, CallRejectedException.Reason.CIRCUIT_OPEN));
+            }
+            Outcome outcome = new Outcome(slot, permit);
+            return call.timeout(timeout)
+                    .doOnSuccess(value -> outcome.success())
+                    .doOnError(outcome::error)
+                    .doOnCancel(outcome::cancel);
+        });
+    }
+
+    /** Итог одного вызова; учитывается ровно один раз */
+    private final class Outcome {
+
+        private final AdaptiveConcurrencyLimiter.Permit slot;
+        private final CircuitBreaker.Permit permit;
+        private final long startedNanos = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Outcome(AdaptiveConcurrencyLimiter.Permit slot, CircuitBreaker.Permit permit) {
+            this.slot = slot;
+            this.permit = permit;
+        }
+
+        void success() {
+            if (done.compareAndSet(false, true)) {
+                slot.success();
+                permit.success();
+                succeeded.record(Duration.ofNanos(System.nanoTime() - startedNanos));
+            }
+        }
+
+        void error(Throwable e) {
+            if (isServiceFailure(e)) {
+                if (done.compareAndSet(false, true)) {
+                    slot.dropped();
+                    permit.failure();
+                    failed.record(Duration.ofNanos(System.nanoTime() - startedNanos));
+                }
+            } else if (e instanceof WebClientResponseException) {
+                success(); // 4xx: сервис ответил
+            } else {
+                cancel();
+            }
+        }
+
+        void cancel() {
+            if (done.compareAndSet(false, true)) {
+                slot.ignore();
+                permit.ignore();
+            }
+        }
+    }
+
+    private static boolean isServiceFailure(Throwable e) {
+        return e instanceof TimeoutException
+                || e instanceof WebClientRequestException
+                || e instanceof WebClientResponseException response && response.getStatusCode().is5xxServerError();
+    }
+}
@@ -0,0 +1,26 @@
+package example.toyshop.resilience;
+
+/**
+ * Вызов не выполнялся: его отклонил {@link CallGuard}, не обращаясь к
+ * сервису.
+ */
+public class CallRejectedException extends RuntimeException {
+
+    public enum Reason {
+        /** исчерпан лимит одновременных вызовов группы */
+        LIMIT,
+        /** выключатель разомкнут */
+        CIRCUIT_OPEN
+    }
+
+    private final Reason reason;
+
+    public CallRejectedException(String group, Reason reason) {
+        super("Вызов " + group + " отклонён: " + reason);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,182 @@
+package example.toyshop.resilience;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Автоматический выключатель вызовов нездорового сервиса.
+ * <p>
+ * В состоянии {@link State#CLOSED} вызовы идут как обычно, а итоги
+ * последних {@code windowSize} вызовов собираются в кольцевой буфер. Когда
+ * буфер заполнен и доля отказов в нём достигает {@code failureRateThreshold},
+ * выключатель переходит в {@link State#OPEN} и на {@code openDuration}
+ * отклоняет вызовы сразу, не нагружая сервис. Затем он переходит в
+ * {@link State#HALF_OPEN} и пропускает не больше {@code halfOpenProbes}
+ * пробных вызовов: если все пробы успешны, выключатель замыкается, первый же
+ * отказ снова размыкает его.
+ * <p>
+ * Итог вызова, начатого в другом состоянии (например, до размыкания), не
+ * учитывается: каждое разрешение помнит поколение выключателя. Все переходы —
+ * под монитором выключателя: он вызывается один раз до и один раз после
+ * сетевого вызова, и эти секции короткие.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier nanoClock;
+
+    // состояние ниже — под монитором
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    /** Растёт при каждой смене состояния */
+    private long generation;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * @param failureRateThreshold доля отказов (0..1], при которой выключатель размыкается
+     * @param windowSize           по скольким последним вызовам считается доля
+     * @param openDuration         сколько выключатель разомкнут до пробных вызовов
+     * @param halfOpenProbes       сколько успешных проб нужно, чтобы замкнуться
+     */
+    public CircuitBreaker(double failureRateThreshold, int windowSize, Duration openDuration, int halfOpenProbes) {
+        this(failureRateThreshold, windowSize, openDuration, halfOpenProbes, System::nanoTime);
+    }
+
+    CircuitBreaker(double failureRateThreshold, int windowSize, Duration openDuration, int halfOpenProbes,
+            LongSupplier nanoClock) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1 || windowSize < 1 || halfOpenProbes < 1) {
+            throw new IllegalArgumentException("Неверные настройки выключателя");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Разрешает вызов.
+     *
+     * @return разрешение, которое нужно закрыть одним из методов
+     *         {@link Permit}, или {@code null}, если выключатель разомкнут
+     *         или все пробы уже выданы
+     */
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAt < openNanos) {
+                return null;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= halfOpenProbes) {
+                return null;
+            }
+            probesStarted++;
+        }
+        return new Permit(generation);
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private synchronized void onSuccess(long permitGeneration) {
+        if (permitGeneration != generation) {
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(false);
+        } else if (state == State.HALF_OPEN && ++probesSucceeded >= halfOpenProbes) {
+            transition(State.CLOSED);
+        }
+    }
+
+    private synchronized void onFailure(long permitGeneration) {
+        if (permitGeneration != generation) {
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (windowCount == window.length && windowFailures >= failureRateThreshold * window.length) {
+                transition(State.OPEN);
+            }
+        } else if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        }
+    }
+
+    private synchronized void onIgnored(long permitGeneration) {
+        if (permitGeneration == generation && state == State.HALF_OPEN) {
+            probesStarted--; // проба ничего не показала: место освобождается для следующей
+        }
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+        switch (next) {
+            case OPEN -> openedAt = nanoClock.getAsLong();
+            case HALF_OPEN -> {
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+            case CLOSED -> {
+                windowPosition = 0;
+                windowCount = 0;
+                windowFailures = 0;
+            }
+        }
+    }
+
+    /** Разрешение на один вызов */
+    public final class Permit {
+
+        private final long generation;
+
+        private Permit(long generation) {
+            this.generation = generation;
+        }
+
+        /** Сервис ответил */
+        public void success() {
+            onSuccess(generation);
+        }
+
+        /** Таймаут, ошибка соединения или 5xx */
+        public void failure() {
+            onFailure(generation);
+        }
+
+        /** Вызов отменён вызывающим: о здоровье сервиса он ничего не говорит */
+        public void ignore() {
+            onIgnored(generation);
+        }
+    }
+}
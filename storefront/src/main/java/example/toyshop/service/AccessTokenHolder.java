@@ -0,0 +1,168 @@
+package example.toyshop.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+
+import example.toyshop.cache.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Access token client credentials для вызовов другого сервиса.
+ * <p>
+ * Токен хранится в {@code volatile}-поле и отдаётся без блокировок и без
+ * обращения к {@link ReactiveOAuth2AuthorizedClientManager}. За
+ * {@code refreshAhead} до истечения токен обновляется в фоне: по таймеру
+ * после каждого получения, а если таймер не сработал (например, Keycloak
+ * был недоступен) — при следующем обращении. Пока идёт обновление, запросы
+ * получают старый, ещё действующий токен. Ждать Keycloak приходится только
+ * при первом обращении и если токен уже истёк. Одновременные обновления
+ * объединяются в одно ({@link SingleFlight}).
+ * <p>
+ * Менеджер должен выдавать новый токен, когда до истечения старого осталось
+ * меньше {@code refreshAhead} (clock skew провайдера client credentials), иначе
+ * он вернёт тот же токен из своего хранилища.
+ * <p>
+ * Метрики: {@code oauth2.token.gets{client, result=hit|miss}} и
+ * {@code oauth2.token.refresh{client, outcome=success|failure}} (время
+ * получения токена).
+ */
+public class AccessTokenHolder {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessTokenHolder.class);
+
+    /** Токен с меньшим остатком не отдаём: он может истечь по дороге к сервису */
+    static final Duration EXPIRY_MARGIN = Duration.ofSeconds(5);
+
+    private final ReactiveOAuth2AuthorizedClientManager authorizedClientManager;
+    private final String registrationId;
+    private final Duration refreshAhead;
+    private final Clock clock;
+
+    private final SingleFlight<String, OAuth2AccessToken> refreshes = new SingleFlight<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer refreshSuccess;
+    private final Timer refreshFailure;
+
+    private volatile OAuth2AccessToken token;
+    private volatile Disposable scheduledRefresh;
+
+    public AccessTokenHolder(ReactiveOAuth2AuthorizedClientManager authorizedClientManager, String registrationId,
+            Duration refreshAhead, MeterRegistry registry) {
+        this(authorizedClientManager, registrationId, refreshAhead, registry, Clock.systemUTC());
+    }
+
+    AccessTokenHolder(ReactiveOAuth2AuthorizedClientManager authorizedClientManager, String registrationId,
+            Duration refreshAhead, MeterRegistry registry, Clock clock) {
+        this.authorizedClientManager = authorizedClientManager;
+        this.registrationId = registrationId;
+        this.refreshAhead = refreshAhead;
+        this.clock = clock;
+        this.hits = Counter.builder("oauth2.token.gets")
+                .tags("client", registrationId, "result", "hit")
+                .register(registry);
+        this.misses = Counter.builder("oauth2.token.gets")
+                .tags("client", registrationId, "result", "miss")
+                .register(registry);
+        this.refreshSuccess = Timer.builder("oauth2.token.refresh")
+                .tags("client", registrationId, "outcome", "success")
+                .register(registry);
+        this.refreshFailure = Timer.builder("oauth2.token.refresh")
+                .tags("client", registrationId, "outcome", "failure")
+                .register(registry);
+    }
+
+    /**
+     * Значение действующего access token.
+     *
+     * @return токен сразу, если он есть в памяти; иначе — после получения
+     *         нового, с ошибкой, если получить его не удалось
+     */
+    public Mono<String> getToken() {
+        return Mono.defer(() -> {
+            OAuth2AccessToken current = token;
+            Instant now = clock.instant();
+            if (current != null && usable(current, now)) {
+                hits.increment();
+                if (dueForRefresh(current, now)) {
+                    refreshInBackground();
+                }
+                return Mono.just(current.getTokenValue());
+            }
+            misses.increment();
+            return refresh().map(OAuth2AccessToken::getTokenValue);
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        Disposable scheduled = scheduledRefresh;
+        if (scheduled != null) {
+            scheduled.dispose();
+        }
+    }
+
+    private Mono<OAuth2AccessToken> refresh() {
+        return refreshes.execute(registrationId, this::load);
+    }
+
+    private void refreshInBackground() {
+        refresh().subscribe(refreshed -> { },
+                e -> log.warn("Не удалось заранее обновить токен {}: {}", registrationId, e.getMessage()));
+    }
+
+    private Mono<OAuth2AccessToken> load() {
+        OAuth2AuthorizeRequest request = OAuth2AuthorizeRequest
+                .withClientRegistrationId(registrationId)
+                .principal(registrationId)
+                .build();
+        return Mono.defer(() -> {
+            long started = System.nanoTime();
+            return authorizedClientManager.authorize(request)
+                    .flatMap(client -> Mono.justOrEmpty(client.getAccessToken()))
+                    .switchIfEmpty(Mono.error(() -> new IllegalStateException("Не удалось получить access token")))
+                    .doOnNext(loaded -> {
+                        refreshSuccess.record(Duration.ofNanos(System.nanoTime() - started));
+                        token = loaded;
+                        schedule(loaded);
+                    })
+                    .doOnError(e -> refreshFailure.record(Duration.ofNanos(System.nanoTime() - started)));
+        });
+    }
+
+    /** Ставит фоновое обновление на момент за {@code refreshAhead} до истечения */
+    private void schedule(OAuth2AccessToken loaded) {
+        if (loaded.getExpiresAt() == null) {
+            return;
+        }
+        Duration delay = Duration.between(clock.instant(), loaded.getExpiresAt().minus(refreshAhead));
+        if (delay.isNegative() || delay.isZero()) {
+            return; // токен живёт меньше refreshAhead: обновит следующее обращение
+        }
+        Disposable previous = scheduledRefresh;
+        scheduledRefresh = Mono.delay(delay).subscribe(tick -> refreshInBackground());
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    private static boolean usable(OAuth2AccessToken token, Instant now) {
+        return token.getExpiresAt() == null || now.isBefore(token.getExpiresAt().minus(EXPIRY_MARGIN));
+    }
+
+    private boolean dueForRefresh(OAuth2AccessToken token, Instant now) {
+        return token.getExpiresAt() != null && !now.isBefore(token.getExpiresAt().minus(refreshAhead));
+    }
+}
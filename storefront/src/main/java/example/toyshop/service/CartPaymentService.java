@@ -3,16 +3,21 @@ package example.toyshop.service;
 import example.toyshop.dto.cart.CartView;
 import example.toyshop.model.Cart;
 import com.example.openapi.client.model.BalanceResponse;
-import com.example.openapi.client.model.ConfirmRequest;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
 import com.example.openapi.client.model.PaymentRequest;
-import com.example.openapi.client.model.PaymentResponse;
+import example.toyshop.resilience.CallRejectedException;
 import lombok.RequiredArgsConstructor;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.Map;
 
 @Service
@@ -20,15 +25,21 @@ import java.util.Map;
 @PreAuthorize("isAuthenticated()")
 public class CartPaymentService {
 
+    private static final Logger log = LoggerFactory.getLogger(CartPaymentService.class);
+
+    /** Повторы закрытия корзины и подтверждения резерва после списания денег */
+    private static final Retry POST_CHARGE_RETRY = Retry.backoff(3, Duration.ofMillis(100));
+
     private final CartService cartService;
     private final PaymentServiceClient paymentServiceClient;
+    private final InventoryService inventoryService;
 
     /**
      * Подготавливает данные корзины и баланса для отображения пользователю.
      */
     public Mono<Map<String, Object>> prepareCartForView(String userId) {
         Mono<CartView> cartMono = cartService.getCartView(userId);
-        Mono<BalanceResponse> balanceMono = paymentServiceClient.getBalance()
+        Mono<BalanceResponse> balanceMono = paymentServiceClient.getBalance(userId)
                 .onErrorReturn(new BalanceResponse().balance(BigDecimal.ZERO));
 
         return Mono.zip(cartMono, balanceMono)
@@ -41,41 +52,72 @@ public class CartPaymentService {
     /**
      * Обрабатывает checkout и оплату корзины.
      * Возвращает URL для redirect (успешно или с ошибкой).
+     * <p>
+     * Порядок: резерв товара на складе → оплата → закрытие корзины и
+     * подтверждение резерва. Оплата — один запрос к платёжному сервису
+     * ({@code /checkout-payment}): списание и подтверждение заказа без
+     * отдельных запросов баланса и подтверждения. Если товара не хватает, оплата не выполняется.
+     * <p>
+     * Резерв освобождается, только если деньги точно не списаны: сервис
+     * вернул неуспешный статус, ответ 4xx или вызов не выполнялся вовсе
+     * ({@link CallRejectedException}). При таймауте, ошибке соединения или
+     * ответе 5xx исход оплаты неизвестен, поэтому резерв удерживается до
+     * истечения срока; повторное оформление получит исход той же оплаты по
+     * ключу идемпотентности. Корзина в обоих случаях остаётся активной.
+     * <p>
+     * Если деньги списаны, а закрыть корзину или подтвердить резерв не
+     * удалось, резерв не освобождается: шаги повторяются, а неподтверждённый
+     * резерв закрытой корзины подтвердит {@link InventoryService#releaseExpired()}.
      */
     public Mono<String> checkoutAndPay(String userId) {
-        return cartService.getCartView(userId)
-                .flatMap(cartView -> cartService.checkout(userId)
-                        .flatMap(cart -> doPayment(cart, cartView)));
+        return cartService.findActiveCart(userId)
+                .flatMap(cart -> cartService.getCartView(userId)
+                        .flatMap(cartView -> inventoryService.reserve(cart.getId())
+                                .then(Mono.defer(() -> doPayment(userId, cart, cartView)))
+                                .onErrorResume(InsufficientStockException.class, e -> Mono.just("cart"))));
     }
 
-    private Mono<String> doPayment(Cart cart, CartView cartView) {
+    private Mono<String> doPayment(String userId, Cart cart, CartView cartView) {
         BigDecimal totalAmount = cartView.getTotalAmount();
 
         PaymentRequest request = new PaymentRequest();
         request.setOrderId(cart.getId().toString());
+        request.setAccountId(userId); // у каждого покупателя свой счёт в платёжном сервисе
         request.setAmount(totalAmount);
         request.setCurrency("RUB");
         request.setMethod("CARD");
 
-        return paymentServiceClient.pay(request)
-                .flatMap(resp -> handlePaymentResponse(cart, cartView, resp));
+        return paymentServiceClient.checkoutPayment(request)
+                // деньги точно не списаны: товар возвращается на склад
+                .onErrorResume(CartPaymentService::isDeclined,
+                        e -> inventoryService.release(cart.getId()).then(Mono.error(e)))
+                .doOnError(e -> !isDeclined(e), e -> log.warn(
+                        "Исход оплаты корзины {} неизвестен, резерв удерживается до истечения: {}",
+                        cart.getId(), e.getMessage()))
+                .flatMap(resp -> handlePaymentResponse(userId, cart, resp));
     }
 
-    private Mono<String> handlePaymentResponse(Cart cart, CartView cartView, PaymentResponse paymentResponse) {
-        return paymentServiceClient.getBalance()
-                .flatMap(balance -> {
-                    if (PaymentResponse.StatusEnum.SUCCESS.equals(paymentResponse.getStatus())) {
-                        ConfirmRequest confirmRequest = new ConfirmRequest();
-                        confirmRequest.setOrderId(cart.getId().toString());
-                        confirmRequest.setTransactionId(paymentResponse.getTransactionId());
+    private Mono<String> handlePaymentResponse(String userId, Cart cart, CheckoutPaymentResponse paymentResponse) {
+        if (CheckoutPaymentResponse.StatusEnum.SUCCESS.equals(paymentResponse.getStatus())) {
+            return cartService.checkout(userId)
+                    .retryWhen(POST_CHARGE_RETRY)
+                    .doOnError(e -> log.error("Корзина {} оплачена, но не закрыта: {}", cart.getId(), e.getMessage()))
+                    .then(inventoryService.commit(cart.getId())
+                            .retryWhen(POST_CHARGE_RETRY)
+                            .onErrorResume(e -> {
+                                // заказ оформлен; резерв закрытой корзины подтвердит плановая сверка
+                                log.warn("Не удалось подтвердить резерв корзины {}: {}", cart.getId(), e.getMessage());
+                                return Mono.empty();
+                            }))
+                    .thenReturn("redirect:/orders/" + cart.getId());
+        }
+        return inventoryService.release(cart.getId())
+                .thenReturn("cart"); // можно добавить модель с paymentResponse.getMessage()
+    }
 
-                        return paymentServiceClient.confirm(confirmRequest)
-                                .map(confirmResp -> Boolean.TRUE.equals(confirmResp.getConfirmed())
-                                        ? "redirect:/orders/" + cart.getId()
-                                        : "cart"); // можно добавить модель с ошибкой
-                    } else {
-                        return Mono.just("cart"); // можно добавить модель с paymentResponse.getMessage()
-                    }
-                });
+    /** Отказ, после которого деньги точно не списаны */
+    private static boolean isDeclined(Throwable e) {
+        return e instanceof CallRejectedException
+                || e instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError();
     }
 }
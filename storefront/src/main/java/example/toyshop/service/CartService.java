@@ -1,23 +1,22 @@
 package example.toyshop.service;
 
-import example.toyshop.dto.cart.CartItemView;
 import example.toyshop.dto.cart.CartView;
 import example.toyshop.model.Cart;
 import example.toyshop.model.CartItem;
 import example.toyshop.model.CartStatus;
-import example.toyshop.model.Product;
 import example.toyshop.repository.CartItemRepository;
 import example.toyshop.repository.CartRepository;
-import example.toyshop.repository.ProductRepository;
 import lombok.RequiredArgsConstructor;
 
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Сервис для работы с корзиной пользователя.
@@ -35,7 +34,7 @@ public class CartService {
 
     private final CartRepository cartRepository;
     private final CartItemRepository cartItemRepository;
-    private final ProductRepository productRepository;
+    private final FlashSaleService flashSaleService;
 
     /**
      * Получить активную корзину по userId или создать новую, если её нет.
@@ -66,73 +65,79 @@ public class CartService {
 
     /**
      * Добавить товар в корзину. Создаёт корзину при необходимости.
+     * <p>
+     * Строка корзины создаётся или увеличивается одним условным
+     * {@code INSERT ... ON CONFLICT}, ограниченным остатком на складе.
+     * Товар на распродаже сначала списывается со счётчика в Redis
+     * ({@link FlashSaleService#claim(Long, Long)}), и строка корзины
+     * добавляется без обращения к строке товара.
      *
      * @param userId    идентификатор пользователя
      * @param productId идентификатор товара
-     * @return Mono<Void> после завершения операции
+     * @return новое количество товара в корзине; пустой {@link Mono}, если
+     *         достигнут остаток на складе
      */
-    @Transactional
-    public Mono<Void> addProduct(String userId, Long productId) {
+    public Mono<Integer> addProduct(String userId, Long productId) {
         return getActiveCart(userId)
-                .flatMap(cart -> cartItemRepository.findByCartIdAndProductId(cart.getId(), productId)
-                        .switchIfEmpty(Mono.defer(() -> {
-                            CartItem newItem = new CartItem(null, cart.getId(), productId, 1); // 1 вместо 0
-                            return cartItemRepository.save(newItem);
-                        }))
-                        .flatMap(item -> productRepository.findById(productId)
-                                .flatMap(product -> {
-                                    if (item.getQuantity() < product.getQuantity()) {
-                                        item.setQuantity(item.getQuantity() + 1);
-                                        return cartItemRepository.save(item);
-                                    }
-                                    return Mono.just(item); // максимум достигнут
-                                })))
-                .then();
+                .flatMap(cart -> flashSaleService.isOnSale(productId)
+                        ? addFlashSaleItem(cart.getId(), productId,
+                                () -> cartItemRepository.addOne(cart.getId(), productId))
+                        : cartItemRepository.addOne(cart.getId(), productId));
+    }
+
+    /**
+     * Добавляет единицу товара на распродаже по заявке
+     * {@link FlashSaleService#claim(Long, Long)}.
+     *
+     * @param notOnSale обычный путь через PostgreSQL, если распродажа уже закончилась
+     */
+    private Mono<Integer> addFlashSaleItem(Long cartId, Long productId, Supplier<Mono<Integer>> notOnSale) {
+        return flashSaleService.claim(cartId, productId)
+                .flatMap(claim -> switch (claim.status()) {
+                    case CLAIMED -> cartItemRepository.addClaimed(cartId, productId, claim.id())
+                            // заявку успела записать сверка — строка уже в корзине
+                            .switchIfEmpty(Mono.defer(() -> cartItemRepository.findByCartIdAndProductId(cartId, productId)
+                                    .map(CartItem::getQuantity)));
+                    case SOLD_OUT -> Mono.<Integer>empty();
+                    // распродажа только что закончилась
+                    case NOT_ON_SALE -> notOnSale.get();
+                });
     }
 
     /**
      * Уменьшить количество товара в корзине. Не создаёт новую корзину.
+     * Последняя единица удаляет строку из корзины.
      *
      * @param userId    идентификатор пользователя
      * @param productId идентификатор товара
-     * @return Mono<Void> после завершения операции
+     * @return новое количество товара в корзине ({@code 0}, если строка удалена)
      */
-    @Transactional
-    public Mono<Void> decreaseProduct(String userId, Long productId) {
+    public Mono<Integer> decreaseProduct(String userId, Long productId) {
         return findActiveCart(userId)
-                .flatMap(cart -> cartItemRepository.findByCartIdAndProductId(cart.getId(), productId)
-                        .flatMap(item -> {
-                            if (item.getQuantity() > 1) {
-                                item.setQuantity(item.getQuantity() - 1);
-                                return cartItemRepository.save(item).then();
-                            } else {
-                                return cartItemRepository.delete(item);
-                            }
-                        }))
-                .then();
+                .flatMap(cart -> cartItemRepository.decreaseAboveOne(cart.getId(), productId)
+                        .switchIfEmpty(Mono.defer(() -> cartItemRepository.deleteIfSingle(cart.getId(), productId)
+                                .filter(deleted -> deleted > 0)
+                                .map(deleted -> 0))));
     }
 
     /**
      * Увеличить количество товара в корзине. Не создаёт новую корзину.
-     * Проверяет наличие товара на складе.
+     * Проверка остатка на складе выполняется в том же {@code UPDATE}; товар
+     * на распродаже, как и в {@link #addProduct(String, Long)}, списывается со
+     * счётчика в Redis.
      *
      * @param userId    идентификатор пользователя
      * @param productId идентификатор товара
-     * @return Mono<Void> после завершения операции
+     * @return новое количество товара в корзине; пустой {@link Mono}, если
+     *         товара нет в корзине или достигнут остаток на складе
      */
-    @Transactional
-    public Mono<Void> increaseProduct(String userId, Long productId) {
+    public Mono<Integer> increaseProduct(String userId, Long productId) {
         return findActiveCart(userId)
-                .flatMap(cart -> cartItemRepository.findByCartIdAndProductId(cart.getId(), productId)
-                        .flatMap(item -> productRepository.findById(productId)
-                                .flatMap(product -> {
-                                    if (item.getQuantity() < product.getQuantity()) {
-                                        item.setQuantity(item.getQuantity() + 1);
-                                        return cartItemRepository.save(item).then();
-                                    }
-                                    return Mono.empty(); // товара на складе больше нет
-                                })))
-                .then();
+                .flatMap(cart -> flashSaleService.isOnSale(productId)
+                        ? cartItemRepository.findByCartIdAndProductId(cart.getId(), productId)
+                                .flatMap(item -> addFlashSaleItem(cart.getId(), productId,
+                                        () -> cartItemRepository.increaseBounded(cart.getId(), productId)))
+                        : cartItemRepository.increaseBounded(cart.getId(), productId));
     }
 
     /**
@@ -142,38 +147,83 @@ public class CartService {
      * @param productId идентификатор товара
      * @return Mono<Void> после завершения операции
      */
-    @Transactional
     public Mono<Void> removeProduct(String userId, Long productId) {
         return findActiveCart(userId)
-                .flatMap(cart -> cartItemRepository.findByCartIdAndProductId(cart.getId(), productId)
-                        .flatMap(cartItemRepository::delete))
+                .flatMap(cart -> cartItemRepository.removeItem(cart.getId(), productId))
                 .then();
     }
 
     /**
      * Получить представление корзины для отображения пользователю.
+     * <p>
+     * Только чтение: корзина, её элементы и товары читаются одним запросом
+     * ({@link CartItemRepository#findActiveCartView(String)}); если активной
+     * корзины нет, возвращается пустая — без записи в БД.
      *
      * @param userId идентификатор пользователя
      * @return {@link CartView} с элементами корзины и общей суммой
      */
     public Mono<CartView> getCartView(String userId) {
-        return findActiveCart(userId)
-                .switchIfEmpty(cartRepository.save(new Cart(null, userId, CartStatus.ACTIVE, LocalDateTime.now())))
-                .flatMap(cart -> cartItemRepository.findByCartId(cart.getId())
-                        .flatMap(item -> productRepository.findById(item.getProductId())
-                                .map(product -> new CartItemView(item, product))
-                                .defaultIfEmpty(new CartItemView(item, new Product())))
-                        .collectList()
-                        .map(items -> {
-                            BigDecimal total = items.stream()
-                                    .map(CartItemView::getTotalPrice)
-                                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-                            return new CartView(items, total);
-                        }));
+        return cartItemRepository.findActiveCartView(userId)
+                .defaultIfEmpty(new CartView());
+    }
+
+    /**
+     * Общее количество товаров в активной корзине (для счётчика в шапке).
+     * <p>
+     * Читается поддерживаемый счётчик {@code cart.item_count}: его меняет тот
+     * же SQL-запрос, что и элементы корзины. Только чтение, корзина не создаётся.
+     *
+     * @param userId идентификатор пользователя
+     * @return количество единиц товара, {@code 0} — если корзины нет
+     */
+    public Mono<Integer> getTotalQuantity(String userId) {
+        return cartRepository.findActiveItemCount(userId)
+                .defaultIfEmpty(0);
+    }
+
+    /**
+     * Перенести товары (например, из гостевой корзины) в активную корзину
+     * пользователя. Количества складываются с уже лежащими в корзине, но не
+     * превышают остаток на складе. Товар на распродаже переносится по одной
+     * заявке на единицу, пока счётчик распродажи не исчерпан.
+     *
+     * @param userId идентификатор пользователя
+     * @param items  товар → количество
+     * @return Mono<Void> после завершения операции
+     */
+    @Transactional
+    public Mono<Void> mergeItems(String userId, Map<Long, Integer> items) {
+        return getActiveCart(userId)
+                .flatMapMany(cart -> Flux.fromIterable(items.entrySet())
+                        .filter(entry -> entry.getValue() > 0)
+                        .concatMap(entry -> flashSaleService.isOnSale(entry.getKey())
+                                ? mergeFlashSaleItem(cart.getId(), entry.getKey(), entry.getValue())
+                                : cartItemRepository.addUpTo(cart.getId(), entry.getKey(), entry.getValue()).then())
+                        .then(cartRepository.recountItems(cart.getId())))
+                .then();
+    }
+
+    private Mono<Void> mergeFlashSaleItem(Long cartId, Long productId, int quantity) {
+        if (quantity <= 0) {
+            return Mono.empty();
+        }
+        return flashSaleService.claim(cartId, productId)
+                .flatMap(claim -> switch (claim.status()) {
+                    case CLAIMED -> cartItemRepository.addClaimed(cartId, productId, claim.id())
+                            .then(Mono.defer(() -> mergeFlashSaleItem(cartId, productId, quantity - 1)));
+                    case SOLD_OUT -> Mono.<Void>empty();
+                    // распродажа закончилась: остаток — обычным путём
+                    case NOT_ON_SALE -> cartItemRepository.addUpTo(cartId, productId, quantity).then();
+                });
     }
 
     /**
      * Оформление заказа (checkout) — перевод корзины в статус COMPLETED.
+     * <p>
+     * Перед закрытием счётчик товаров корзины сверяется с её элементами, в
+     * той же транзакции записывается неизменяемый снимок заказа
+     * ({@link CartRepository#createOrderSnapshot}) с текущими ценами.
      *
      * @param userId идентификатор пользователя
      * @return обновлённая корзина со статусом COMPLETED
@@ -183,12 +233,14 @@ public class CartService {
         return cartRepository.findByUserIdAndStatus(userId, CartStatus.ACTIVE)
                 .switchIfEmpty(Mono.error(new IllegalStateException("Активная корзина не найдена")))
                 .doOnNext(cart -> System.out.println("[CHECKOUT] Найдена активная корзина id=" + cart.getId()))
+                .flatMap(cart -> cartRepository.recountItems(cart.getId()).thenReturn(cart))
                 .flatMap(cart -> {
                     cart.setStatus(CartStatus.COMPLETED);
                     System.out.println("[CHECKOUT] Меняем статус корзины id=" + cart.getId() + " → COMPLETED");
                     return cartRepository.save(cart)
                             .doOnNext(saved -> System.out.println("[CHECKOUT] Сохранена корзина id=" + saved.getId()
-                                    + " со статусом " + saved.getStatus()));
+                                    + " со статусом " + saved.getStatus()))
+                            .flatMap(saved -> cartRepository.createOrderSnapshot(saved.getId()).thenReturn(saved));
                 });
     }
 }
@@ -0,0 +1,268 @@
+package example.toyshop.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import example.toyshop.repository.CartItemRepository;
+import example.toyshop.repository.FlashSaleClaimRepository.FlashSaleClaim;
+import example.toyshop.repository.FlashSaleClaimRepository.RecoveredClaims;
+import example.toyshop.repository.FlashSaleClaimRepository.StockedClaims;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Асинхронная сверка распродажи с PostgreSQL.
+ * <p>
+ * Каждый запуск:
+ * <ol>
+ * <li>читает новые заявки из потока {@link FlashSaleService#CLAIMS} через
+ * группу потребителей {@value #GROUP}, а также забирает заявки, которые
+ * другой узел получил, но не подтвердил за {@code flash-sale.claim-timeout}
+ * (узел упал);</li>
+ * <li>дописывает строки корзины по заявкам, которые узел не успел записать
+ * ({@link CartItemRepository#recoverFlashSaleClaims}), возвращает в счётчик
+ * распродажи единицы заявок, отброшенных из-за неактивной корзины, и
+ * подтверждает и удаляет заявки из потока;</li>
+ * <li>пачками переносит списание записанных заявок в {@code product.quantity}
+ * ({@link CartItemRepository#stockFlashSaleClaims}).</li>
+ * </ol>
+ * Заявка удаляется из потока только после фиксации в БД, а повторное
+ * применение безопасно, поэтому падение узла на любом шаге не теряет и не
+ * удваивает строки корзины.
+ * <p>
+ * Пока на узле нет распродаж и предыдущий запуск не нашёл работы, сверка
+ * запускается не чаще {@code flash-sale.idle-reconcile-interval}: этого
+ * хватает, чтобы довести заявки, принятые перед выключением распродажи, и
+ * заявки упавших узлов.
+ */
+@Service
+public class FlashSaleReconciler {
+
+    static final String GROUP = "reconciler";
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleReconciler.class);
+
+    private final ReactiveStreamOperations<String, Object, Object> streams;
+    private final CartItemRepository cartItemRepository;
+    private final FlashSaleService flashSaleService;
+    private final int batchSize;
+    private final Duration claimTimeout;
+    private final Duration claimRetention;
+    private final Duration holdTtl;
+    private final Duration idleInterval;
+    /** Имя потребителя узла; после перезапуска старые заявки забираются по таймауту */
+    private final String consumer = "storefront-" + UUID.randomUUID();
+
+    private volatile boolean groupCreated;
+    /** Предыдущий запуск не нашёл ни заявок, ни записанных заявок для списания */
+    private volatile boolean idle;
+    private volatile long lastRunNanos;
+
+    public FlashSaleReconciler(ReactiveStringRedisTemplate redisTemplate,
+            CartItemRepository cartItemRepository,
+            FlashSaleService flashSaleService,
+            @Value("${flash-sale.batch-size:500}") int batchSize,
+            @Value("${flash-sale.claim-timeout:30s}") Duration claimTimeout,
+            @Value("${flash-sale.claim-retention:1d}") Duration claimRetention,
+            @Value("${inventory.reservation.ttl:10m}") Duration holdTtl,
+            @Value("${flash-sale.idle-reconcile-interval:30s}") Duration idleInterval) {
+        this.streams = redisTemplate.opsForStream();
+        this.cartItemRepository = cartItemRepository;
+        this.flashSaleService = flashSaleService;
+        this.batchSize = batchSize;
+        this.claimTimeout = claimTimeout;
+        this.claimRetention = claimRetention;
+        this.holdTtl = holdTtl;
+        this.idleInterval = idleInterval;
+    }
+
+    /**
+     * Переносит накопленные заявки в БД.
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.reconcile-interval:200ms}")
+    public Mono<Void> reconcile() {
+        return Mono.defer(() -> {
+            long now = System.nanoTime();
+            if (idle && !flashSaleService.hasActiveSales() && now - lastRunNanos < idleInterval.toNanos()) {
+                return Mono.empty();
+            }
+            lastRunNanos = now;
+            AtomicBoolean worked = new AtomicBoolean();
+            Function<Integer, Integer> track = count -> {
+                if (count > 0) {
+                    worked.set(true);
+                }
+                return count;
+            };
+            return ensureGroup()
+                    .then(reclaimStale().flatMap(this::recover).map(track))
+                    .then(readNew().flatMap(this::recover).map(track)
+                            .expand(count -> count == batchSize
+                                    ? readNew().flatMap(this::recover).map(track)
+                                    : Mono.empty())
+                            .then())
+                    .then(stock().map(track)
+                            .expand(count -> count == batchSize ? stock().map(track) : Mono.empty())
+                            .then())
+                    .doOnSuccess(done -> idle = !worked.get())
+                    .onErrorResume(e -> {
+                        // необработанные заявки останутся в потоке до следующего запуска
+                        idle = false;
+                        log.warn("Сверка распродажи не завершена: {}", e.getMessage());
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    /**
+     * Переносит пачку записанных заявок в {@code product.quantity}.
+     *
+     * @return количество обработанных заявок
+     */
+    private Mono<Integer> stock() {
+        return cartItemRepository.stockFlashSaleClaims(batchSize, holdTtl.toSeconds())
+                .doOnNext(result -> {
+                    if (result.unreserved() > 0) {
+                        log.warn("Заявок распродажи больше остатка на складе: {} ед. в корзинах без резерва",
+                                result.unreserved());
+                    }
+                })
+                .map(StockedClaims::stocked);
+    }
+
+    /**
+     * Удаляет записи об обработанных заявках старше {@code flash-sale.claim-retention}.
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.cleanup-interval:1h}")
+    public Mono<Void> cleanup() {
+        return cartItemRepository.deleteFlashSaleClaimsBefore(LocalDateTime.now().minus(claimRetention))
+                .doOnNext(deleted -> log.debug("Удалено обработанных заявок распродажи: {}", deleted))
+                .onErrorResume(e -> {
+                    log.warn("Не удалось удалить старые заявки распродажи: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Void> ensureGroup() {
+        if (groupCreated) {
+            return Mono.empty();
+        }
+        return streams.createGroup(FlashSaleService.CLAIMS, ReadOffset.from("0"), GROUP)
+                .onErrorResume(e -> isBusyGroup(e) ? Mono.just("OK") : Mono.error(e))
+                .doOnNext(ok -> groupCreated = true)
+                .then();
+    }
+
+    /** Заявки, полученные другими узлами и не подтверждённые вовремя */
+    private Mono<List<MapRecord<String, Object, Object>>> reclaimStale() {
+        return streams.pending(FlashSaleService.CLAIMS, GROUP, Range.unbounded(), batchSize)
+                .flatMapMany(Flux::fromIterable)
+                .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(claimTimeout) >= 0)
+                .map(PendingMessage::getId)
+                .collectList()
+                .filter(ids -> !ids.isEmpty())
+                .flatMap(ids -> streams.claim(FlashSaleService.CLAIMS, GROUP, consumer, claimTimeout,
+                        ids.toArray(RecordId[]::new)).collectList());
+    }
+
+    private Mono<List<MapRecord<String, Object, Object>>> readNew() {
+        return streams.read(Consumer.from(GROUP, consumer),
+                StreamReadOptions.empty().count(batchSize),
+                StreamOffset.create(FlashSaleService.CLAIMS, ReadOffset.lastConsumed()))
+                .collectList();
+    }
+
+    /**
+     * Восстанавливает строки корзины по заявкам и удаляет заявки из потока.
+     *
+     * @return количество прочитанных заявок
+     */
+    private Mono<Integer> recover(List<MapRecord<String, Object, Object>> records) {
+        if (records.isEmpty()) {
+            return Mono.just(0);
+        }
+        List<FlashSaleClaim> claims = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            FlashSaleClaim claim = toClaim(record);
+            if (claim != null) {
+                claims.add(claim);
+            }
+        }
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+
+        return cartItemRepository.recoverFlashSaleClaims(claims)
+                .doOnNext(result -> {
+                    if (result.recovered() > 0) {
+                        log.info("Восстановлено строк корзины по заявкам распродажи: {}", result.recovered());
+                    }
+                })
+                .flatMap(this::releaseDiscarded)
+                .then(Mono.defer(() -> streams.acknowledge(FlashSaleService.CLAIMS, GROUP, ids)))
+                .then(Mono.defer(() -> streams.delete(FlashSaleService.CLAIMS, ids)))
+                .thenReturn(records.size());
+    }
+
+    /**
+     * Возвращает в счётчик распродажи единицы отброшенных заявок. Отброшенная
+     * заявка записана в БД, поэтому повторная доставка её не вернёт второй
+     * раз; если Redis недоступен, единица не возвращается — распродажа
+     * недопродаёт, но не перепродаёт.
+     */
+    private Mono<Void> releaseDiscarded(RecoveredClaims result) {
+        Map<Long, Long> units = result.discarded().stream()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        return Flux.fromIterable(units.entrySet())
+                .concatMap(entry -> flashSaleService.release(entry.getKey(), entry.getValue().intValue())
+                        .onErrorResume(e -> {
+                            log.warn("Не удалось вернуть {} ед. товара {} в счётчик распродажи: {}",
+                                    entry.getValue(), entry.getKey(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    static FlashSaleClaim toClaim(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        try {
+            return new FlashSaleClaim(record.getId().getValue(),
+                    Long.valueOf((String) value.get("cart")), Long.valueOf((String) value.get("product")));
+        } catch (NumberFormatException e) {
+            // повреждённая заявка не должна останавливать сверку остальных
+            log.warn("Пропущена повреждённая заявка распродажи {}: {}", record.getId(), value);
+            return null;
+        }
+    }
+
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,210 @@
+package example.toyshop.service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import example.toyshop.repository.ProductRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Режим распродажи для отдельных товаров.
+ * <p>
+ * Пока товар на распродаже, его остаток для добавления в корзину хранится в
+ * Redis ({@code {flash-sale}:stock:{id}}), а не в PostgreSQL: Lua-скрипт
+ * {@link #claim(Long, Long)} одним обращением проверяет остаток, уменьшает
+ * его и записывает заявку в поток {@value #CLAIMS}. Горячая строка
+ * {@code product} при этом не трогается — списание в {@code product.quantity}
+ * переносит пачками {@link FlashSaleReconciler}.
+ * <p>
+ * Заявка в потоке — журнал: если узел упадёт после скрипта, но до записи
+ * строки корзины, сверка допишет строку сама. Поэтому Redis должен работать
+ * с журналированием ({@code appendonly yes}), иначе при его падении
+ * теряются ещё не сверенные заявки.
+ * <p>
+ * Единицы, убранные из корзины во время распродажи, возвращаются на склад в
+ * PostgreSQL (по истечении резерва), а не в счётчик распродажи. В счётчик
+ * возвращаются только заявки, которые сверка отбросила: корзину успели
+ * оформить или удалить до записи строки. После
+ * {@link #stop(Long)} товар снова продаётся по остатку в PostgreSQL.
+ */
+@Service
+public class FlashSaleService {
+
+    /** Поток заявок; ключи в одном hash-слоте, чтобы скрипт работал и в Redis Cluster */
+    public static final String CLAIMS = "{flash-sale}:claims";
+    static final String PRODUCTS = "{flash-sale}:products";
+    static final String STOCK_PREFIX = "{flash-sale}:stock:";
+
+    static final String NOT_ON_SALE = "-1";
+    static final String SOLD_OUT = "0";
+
+    /**
+     * KEYS[1] — остаток, KEYS[2] — поток заявок; ARGV — корзина и товар.
+     * Возвращает id заявки в потоке, {@value #SOLD_OUT} или {@value #NOT_ON_SALE}.
+     */
+    private static final RedisScript<String> CLAIM = RedisScript.of("""
+            local stock = redis.call('GET', KEYS[1])
+            if not stock then return '-1' end
+            if tonumber(stock) <= 0 then return '0' end
+            redis.call('DECR', KEYS[1])
+            return redis.call('XADD', KEYS[2], '*', 'cart', ARGV[1], 'product', ARGV[2])
+            """, String.class);
+
+    /**
+     * KEYS[1] — остаток, ARGV[1] — сколько единиц вернуть. Счётчик
+     * выключенной распродажи не создаётся заново. Возвращает новый остаток
+     * или {@code -1}.
+     */
+    private static final RedisScript<Long> RELEASE = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end
+            return redis.call('INCRBY', KEYS[1], ARGV[1])
+            """, Long.class);
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleService.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ProductRepository productRepository;
+
+    /** Товары на распродаже; обновляется по расписанию, чтобы обычные товары не ходили в Redis */
+    private volatile Set<Long> onSale = Set.of();
+
+    public FlashSaleService(ReactiveStringRedisTemplate redisTemplate, ProductRepository productRepository) {
+        this.redisTemplate = redisTemplate;
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * Результат заявки на единицу товара.
+     *
+     * @param status итог заявки
+     * @param id     id записи в потоке {@value #CLAIMS} (только для {@link Status#CLAIMED})
+     */
+    public record Claim(Status status, String id) {
+
+        public enum Status {
+            /** единица списана со счётчика распродажи */
+            CLAIMED,
+            /** счётчик распродажи исчерпан */
+            SOLD_OUT,
+            /** товар не на распродаже — обычный путь через PostgreSQL */
+            NOT_ON_SALE
+        }
+    }
+
+    /**
+     * Товар на распродаже по локальному списку узла. Список может отставать
+     * на {@code flash-sale.refresh-interval}: окончательно решает скрипт
+     * {@link #claim(Long, Long)}.
+     */
+    public boolean isOnSale(Long productId) {
+        return onSale.contains(productId);
+    }
+
+    /** Есть ли на узле товары на распродаже */
+    public boolean hasActiveSales() {
+        return !onSale.isEmpty();
+    }
+
+    /**
+     * Атомарно списывает единицу товара со счётчика распродажи и записывает
+     * заявку в поток.
+     *
+     * @param cartId    корзина, в которую добавляется товар
+     * @param productId товар
+     */
+    public Mono<Claim> claim(Long cartId, Long productId) {
+        return redisTemplate.execute(CLAIM, List.of(STOCK_PREFIX + productId, CLAIMS),
+                List.of(cartId.toString(), productId.toString()))
+                .next()
+                .map(result -> switch (result) {
+                    case NOT_ON_SALE -> new Claim(Claim.Status.NOT_ON_SALE, null);
+                    case SOLD_OUT -> new Claim(Claim.Status.SOLD_OUT, null);
+                    default -> new Claim(Claim.Status.CLAIMED, result);
+                });
+    }
+
+    /**
+     * Возвращает единицы отброшенных заявок в счётчик распродажи. Если
+     * распродажа уже выключена, ничего не делает: товар снова продаётся по
+     * остатку в PostgreSQL, который заявка не трогала.
+     *
+     * @param productId товар
+     * @param units     сколько единиц вернуть
+     */
+    public Mono<Void> release(Long productId, int units) {
+        return redisTemplate.execute(RELEASE, List.of(STOCK_PREFIX + productId), List.of(String.valueOf(units)))
+                .then();
+    }
+
+    /**
+     * Включает распродажу товара. Счётчик получает текущий остаток из
+     * PostgreSQL; повторный вызов счётчик не перезаписывает.
+     *
+     * @return остаток на распродаже
+     */
+    public Mono<Long> start(Long productId) {
+        String stockKey = STOCK_PREFIX + productId;
+        return productRepository.findById(productId)
+                .switchIfEmpty(Mono.error(new IllegalArgumentException("Товар не найден: " + productId)))
+                .flatMap(product -> {
+                    // товар без остатка распродаётся как распроданный
+                    int stock = product.getQuantity() != null ? Math.max(product.getQuantity(), 0) : 0;
+                    return redisTemplate.opsForValue().setIfAbsent(stockKey, String.valueOf(stock));
+                })
+                .then(redisTemplate.opsForSet().add(PRODUCTS, productId.toString()))
+                .then(redisTemplate.opsForValue().get(stockKey))
+                .map(Long::valueOf)
+                .doOnNext(stock -> {
+                    markOnSale(productId, true);
+                    log.info("Распродажа товара {} включена, остаток {}", productId, stock);
+                });
+    }
+
+    /**
+     * Выключает распродажу товара. Уже принятые заявки доводит до БД сверка.
+     */
+    public Mono<Void> stop(Long productId) {
+        return redisTemplate.opsForSet().remove(PRODUCTS, productId.toString())
+                .then(redisTemplate.delete(STOCK_PREFIX + productId))
+                .doOnSuccess(deleted -> {
+                    markOnSale(productId, false);
+                    log.info("Распродажа товара {} выключена", productId);
+                })
+                .then();
+    }
+
+    /**
+     * Обновляет локальный список товаров на распродаже (включить распродажу
+     * можно на любом узле).
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.refresh-interval:1s}")
+    public Mono<Void> refresh() {
+        return redisTemplate.opsForSet().members(PRODUCTS)
+                .map(Long::valueOf)
+                .collect(HashSet<Long>::new, Set::add)
+                .doOnNext(products -> onSale = Set.copyOf(products))
+                .onErrorResume(e -> {
+                    log.warn("Не удалось обновить список товаров распродажи: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private synchronized void markOnSale(Long productId, boolean active) {
+        Set<Long> products = new HashSet<>(onSale);
+        if (active) {
+            products.add(productId);
+        } else {
+            products.remove(productId);
+        }
+        onSale = Set.copyOf(products);
+    }
+}
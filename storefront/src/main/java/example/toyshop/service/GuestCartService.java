@@ -0,0 +1,157 @@
+package example.toyshop.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Корзина анонимного посетителя.
+ * <p>
+ * Хранится в Redis в хэше {@code guest-cart:{id}} (товар → количество) и не
+ * создаёт строк в PostgreSQL. Идентификатор — случайный UUID в cookie
+ * {@value #COOKIE}; угадать чужую корзину по нему нельзя, поэтому подпись
+ * cookie не нужна. Корзина живёт {@code cart.guest.ttl} с последнего
+ * изменения и при входе пользователя переносится в его корзину в БД
+ * ({@link #mergeOnLogin(ServerWebExchange, String)}).
+ */
+@Service
+public class GuestCartService {
+
+    public static final String COOKIE = "GUEST_CART";
+    private static final String KEY_PREFIX = "guest-cart:";
+    private static final Logger log = LoggerFactory.getLogger(GuestCartService.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ProductService productService;
+    private final CartService cartService;
+    private final UserService userService;
+    private final Duration ttl;
+
+    public GuestCartService(ReactiveStringRedisTemplate redisTemplate,
+            ProductService productService,
+            CartService cartService,
+            UserService userService,
+            @Value("${cart.guest.ttl:7d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.productService = productService;
+        this.cartService = cartService;
+        this.userService = userService;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Добавляет единицу товара в гостевую корзину, не превышая остаток на
+     * складе. Выдаёт посетителю cookie, если её ещё нет.
+     *
+     * @return новое количество товара в гостевой корзине
+     */
+    public Mono<Integer> add(ServerWebExchange exchange, Long productId) {
+        String guestId = guestId(exchange).orElseGet(() -> issueGuestId(exchange));
+        String key = KEY_PREFIX + guestId;
+        String field = productId.toString();
+
+        return productService.getById(productId)
+                .flatMap(product -> {
+                    // товар без остатка не добавляется
+                    int stock = product.getQuantity() != null ? product.getQuantity() : 0;
+                    return redisTemplate.<String, String>opsForHash().increment(key, field, 1)
+                            .flatMap(quantity -> quantity > stock
+                                    ? redisTemplate.<String, String>opsForHash().increment(key, field, -1)
+                                    : Mono.just(quantity));
+                })
+                .flatMap(quantity -> redisTemplate.expire(key, ttl).thenReturn(quantity.intValue()));
+    }
+
+    /**
+     * Общее количество товаров в гостевой корзине (для счётчика в шапке).
+     * Без cookie в Redis не обращается.
+     *
+     * @param guestId значение cookie {@value #COOKIE}, может быть {@code null}
+     */
+    public Mono<Integer> totalQuantity(String guestId) {
+        if (!isValid(guestId)) {
+            return Mono.just(0);
+        }
+        return redisTemplate.<String, String>opsForHash().values(KEY_PREFIX + guestId)
+                .map(Integer::parseInt)
+                .reduce(0, Integer::sum);
+    }
+
+    /**
+     * Переносит гостевую корзину в корзину вошедшего пользователя и удаляет
+     * гостевую корзину вместе с cookie. Ничего не делает, если cookie нет.
+     *
+     * @param exchange текущий запрос (успешный вход)
+     * @param username имя вошедшего пользователя
+     */
+    public Mono<Void> mergeOnLogin(ServerWebExchange exchange, String username) {
+        Optional<String> guestId = guestId(exchange);
+        if (guestId.isEmpty()) {
+            return Mono.empty();
+        }
+        String key = KEY_PREFIX + guestId.get();
+
+        return redisTemplate.<String, String>opsForHash().entries(key)
+                .collectMap(entry -> Long.valueOf(entry.getKey()), entry -> Integer.valueOf(entry.getValue()))
+                .filter(items -> !items.isEmpty())
+                .flatMap(items -> userService.findByUsernameWithRoles(username)
+                        .flatMap(user -> cartService.mergeItems(user.user().getId().toString(), items)))
+                .then(redisTemplate.delete(key))
+                .doOnSuccess(deleted -> expireCookie(exchange))
+                .onErrorResume(e -> {
+                    // вход важнее переноса корзины: гостевая корзина останется до следующего входа
+                    log.warn("Не удалось перенести гостевую корзину {}: {}", guestId.get(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /** Идентификатор гостевой корзины из cookie, если он корректен */
+    public static Optional<String> guestId(ServerWebExchange exchange) {
+        return Optional.ofNullable(exchange.getRequest().getCookies().getFirst(COOKIE))
+                .map(HttpCookie::getValue)
+                .filter(GuestCartService::isValid);
+    }
+
+    private String issueGuestId(ServerWebExchange exchange) {
+        String guestId = UUID.randomUUID().toString();
+        exchange.getResponse().addCookie(cookie(guestId, ttl));
+        return guestId;
+    }
+
+    private static void expireCookie(ServerWebExchange exchange) {
+        exchange.getResponse().addCookie(cookie("", Duration.ZERO));
+    }
+
+    private static ResponseCookie cookie(String value, Duration maxAge) {
+        return ResponseCookie.from(COOKIE, value)
+                .path("/")
+                .httpOnly(true)
+                .sameSite("Lax")
+                .maxAge(maxAge)
+                .build();
+    }
+
+    private static boolean isValid(String guestId) {
+        if (guestId == null || guestId.length() != 36) {
+            return false;
+        }
+        try {
+            UUID.fromString(guestId);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
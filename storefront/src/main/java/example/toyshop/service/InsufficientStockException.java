@@ -0,0 +1,11 @@
+package example.toyshop.service;
+
+/**
+ * Товара корзины на складе меньше, чем заказано: резерв не взят.
+ */
+public class InsufficientStockException extends IllegalStateException {
+
+    public InsufficientStockException(Long cartId, int missingItems) {
+        super("Недостаточно товара на складе для корзины " + cartId + ": позиций без остатка — " + missingItems);
+    }
+}
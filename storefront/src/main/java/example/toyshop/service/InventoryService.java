@@ -0,0 +1,106 @@
+package example.toyshop.service;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import example.toyshop.repository.StockReservationRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Складской учёт при оформлении заказа.
+ * <p>
+ * Жизненный цикл резерва:
+ * <ol>
+ * <li>{@link #reserve(Long)} при начале оформления — товары корзины
+ * атомарно списываются со склада (условным {@code UPDATE ... WHERE quantity >= n})
+ * и удерживаются за корзиной {@code inventory.reservation.ttl};</li>
+ * <li>{@link #commit(Long)} после успешной оплаты — списание становится окончательным;</li>
+ * <li>{@link #release(Long)} при отказе в оплате — товар возвращается на склад;</li>
+ * <li>{@link #releaseExpired()} по расписанию — возвращаются резервы, не
+ * оплаченные вовремя (например, если узел упал посреди оплаты или исход
+ * оплаты неизвестен); резервы уже закрытых корзин подтверждаются.</li>
+ * </ol>
+ * Так {@code product.quantity} всегда равно доступному остатку, и два
+ * покупателя не могут купить одну и ту же единицу товара.
+ */
+@Service
+public class InventoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryService.class);
+
+    private final StockReservationRepository reservationRepository;
+    private final Duration ttl;
+
+    public InventoryService(StockReservationRepository reservationRepository,
+            @Value("${inventory.reservation.ttl:10m}") Duration ttl) {
+        this.reservationRepository = reservationRepository;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Резервирует все товары корзины или ни одного.
+     * <p>
+     * Ранее взятые и ещё не оплаченные резервы этой корзины (повторное
+     * оформление) сначала освобождаются. Если хотя бы одного товара не
+     * хватает, транзакция откатывается и склад не меняется.
+     *
+     * @param cartId идентификатор корзины
+     * @return пустой {@link Mono} при успехе или ошибка {@link InsufficientStockException}
+     */
+    @Transactional
+    public Mono<Void> reserve(Long cartId) {
+        return reservationRepository.releaseCart(cartId)
+                .then(reservationRepository.reserveCart(cartId, ttl.toSeconds()))
+                .flatMap(missing -> missing > 0
+                        ? Mono.<Void>error(new InsufficientStockException(cartId, missing))
+                        : Mono.<Void>empty());
+    }
+
+    /**
+     * Подтверждает резервы корзины после успешной оплаты.
+     */
+    public Mono<Void> commit(Long cartId) {
+        return reservationRepository.commitCart(cartId)
+                .doOnNext(committed -> {
+                    if (committed == 0) {
+                        // резерв истёк раньше, чем пришло подтверждение оплаты
+                        log.warn("Оплачена корзина {} без действующего резерва товара", cartId);
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * Освобождает резервы корзины и возвращает товар на склад.
+     * Безопасно вызывать повторно.
+     */
+    public Mono<Void> release(Long cartId) {
+        return reservationRepository.releaseCart(cartId)
+                .doOnNext(released -> log.debug("Освобождено резервов корзины {}: {}", cartId, released))
+                .then();
+    }
+
+    /**
+     * Периодически освобождает просроченные резервы.
+     */
+    @Scheduled(fixedDelayString = "${inventory.reservation.sweep-interval:30s}")
+    public Mono<Void> releaseExpired() {
+        return reservationRepository.releaseExpired()
+                .doOnNext(released -> {
+                    if (released > 0) {
+                        log.info("Освобождено просроченных резервов: {}", released);
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Не удалось освободить просроченные резервы: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
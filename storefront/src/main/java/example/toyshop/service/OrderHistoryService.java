@@ -0,0 +1,49 @@
+package example.toyshop.service;
+
+import java.util.List;
+
+import org.springframework.stereotype.Service;
+
+import example.toyshop.dto.cart.OrderCursor;
+import example.toyshop.dto.cart.OrderPage;
+import example.toyshop.dto.cart.OrderView;
+import example.toyshop.repository.CartRepository;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * История заказов пользователя постранично.
+ */
+@Service
+@RequiredArgsConstructor
+public class OrderHistoryService {
+
+    static final int MAX_PAGE_SIZE = 50;
+
+    private final CartRepository cartRepository;
+
+    /**
+     * Страница истории заказов: от новых к старым, один SQL-запрос на
+     * страницу по снимкам заказов ({@code order_snapshot}). Запрашивается на один заказ больше размера страницы, чтобы
+     * узнать, есть ли следующая, без отдельного {@code COUNT}.
+     *
+     * @param userId идентификатор пользователя
+     * @param size   размер страницы (ограничивается {@value #MAX_PAGE_SIZE})
+     * @param cursor курсор из предыдущей страницы (опционально)
+     * @return заказы страницы и курсор следующей
+     */
+    public Mono<OrderPage> getPage(String userId, int size, String cursor) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        OrderCursor after = OrderCursor.decode(cursor);
+
+        return cartRepository.findOrderPage(userId, after, limit + 1)
+                .map(orders -> {
+                    if (orders.size() <= limit) {
+                        return new OrderPage(orders, null);
+                    }
+                    List<OrderView> page = orders.subList(0, limit);
+                    String next = OrderCursor.after(page.get(limit - 1)).encode();
+                    return new OrderPage(List.copyOf(page), next);
+                });
+    }
+}
@@ -0,0 +1,63 @@
+package example.toyshop.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import example.toyshop.repository.CartRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Перенос заказов, оформленных до появления снимков, в {@code order_snapshot}.
+ * <p>
+ * Запускается один раз после старта узла и проходит завершённые корзины без
+ * снимка пачками по возрастанию id, по одному SQL-запросу на пачку. Отметка
+ * в {@code order_snapshot_backfill} хранит, докуда дошёл перенос: прерванный
+ * перенос продолжается с неё, а законченный стоит одного чтения отметки.
+ * Новые заказы получают снимок при оформлении, поэтому законченный перенос
+ * не возобновляется. Узлы могут выполнять перенос одновременно — существующий
+ * снимок не перезаписывается. Отключается {@code order.snapshot.backfill.enabled=false}.
+ */
+@Service
+public class OrderSnapshotBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderSnapshotBackfill.class);
+
+    private final CartRepository cartRepository;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public OrderSnapshotBackfill(CartRepository cartRepository,
+            @Value("${order.snapshot.backfill.enabled:true}") boolean enabled,
+            @Value("${order.snapshot.backfill.batch-size:500}") int batchSize) {
+        this.cartRepository = cartRepository;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            backfill().subscribe(
+                    batches -> log.info("Снимки старых заказов проверены: пачек {}", batches),
+                    e -> log.warn("Перенос снимков заказов прерван, продолжится при следующем запуске: {}",
+                            e.getMessage()));
+        }
+    }
+
+    /**
+     * Проходит завершённые корзины от отметки переноса.
+     *
+     * @return количество обработанных пачек, {@code 0} — перенос уже закончен
+     */
+    public Mono<Long> backfill() {
+        return cartRepository.findOrderSnapshotBackfillStart()
+                .flatMap(start -> cartRepository.backfillOrderSnapshots(start, batchSize)
+                        .expand(lastId -> cartRepository.backfillOrderSnapshots(lastId, batchSize))
+                        .count())
+                .defaultIfEmpty(0L);
+    }
+}
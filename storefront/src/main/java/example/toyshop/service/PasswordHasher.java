@@ -0,0 +1,108 @@
+package example.toyshop.service;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Хеширование и проверка паролей вне event loop Netty.
+ * <p>
+ * BCrypt занимает процессор на десятки миллисекунд; на потоке event loop это
+ * задерживает все остальные запросы этого потока. Поэтому
+ * {@link PasswordEncoder} вызывается на отдельном пуле из
+ * {@code security.password-hash.threads} потоков (по умолчанию — число ядер)
+ * с очередью не длиннее {@code security.password-hash.queue-capacity}. Когда
+ * очередь заполнена, задача сразу отклоняется с
+ * {@link PasswordHashingRejectedException}: всплеск входов не копит очередь,
+ * а получает быстрый отказ.
+ * <p>
+ * Метрики: {@code password.hash.wait} — ожидание в очереди,
+ * {@code password.hash{operation=encode|matches}} — само хеширование,
+ * {@code password.hash.rejected}, {@code password.hash.queue}.
+ */
+@Component
+public class PasswordHasher {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final Scheduler scheduler;
+
+    private final Timer queueWait;
+    private final Timer encodeTime;
+    private final Timer matchesTime;
+    private final Counter rejected;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder,
+            @Value("${security.password-hash.threads:0}") int threads,
+            @Value("${security.password-hash.queue-capacity:64}") int queueCapacity,
+            MeterRegistry registry) {
+        this.passwordEncoder = passwordEncoder;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.scheduler = Schedulers.fromExecutorService(executor, "password-hash");
+
+        this.queueWait = Timer.builder("password.hash.wait").register(registry);
+        this.encodeTime = Timer.builder("password.hash").tag("operation", "encode").register(registry);
+        this.matchesTime = Timer.builder("password.hash").tag("operation", "matches").register(registry);
+        this.rejected = Counter.builder("password.hash.rejected").register(registry);
+        Gauge.builder("password.hash.queue", executor, e -> e.getQueue().size()).register(registry);
+    }
+
+    /** Хеш пароля для сохранения */
+    public Mono<String> encode(CharSequence rawPassword) {
+        return submit(encodeTime, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    /** Совпадает ли пароль с сохранённым хешем */
+    public Mono<Boolean> matches(CharSequence rawPassword, String encodedPassword) {
+        return submit(matchesTime, () -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    private <T> Mono<T> submit(Timer timer, Callable<T> task) {
+        return Mono.defer(() -> {
+            long queuedAt = System.nanoTime();
+            return Mono.fromCallable(() -> {
+                long startedAt = System.nanoTime();
+                queueWait.record(Duration.ofNanos(startedAt - queuedAt));
+                try {
+                    return task.call();
+                } finally {
+                    timer.record(Duration.ofNanos(System.nanoTime() - startedAt));
+                }
+            }).subscribeOn(scheduler);
+        }).onErrorMap(RejectedExecutionException.class, e -> {
+            rejected.increment();
+            return new PasswordHashingRejectedException();
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.dispose();
+    }
+}
@@ -0,0 +1,15 @@
+package example.toyshop.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Пул хеширования паролей перегружен: очередь заполнена, задача не принята.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PasswordHashingRejectedException extends IllegalStateException {
+
+    public PasswordHashingRejectedException() {
+        super("Слишком много одновременных входов и регистраций, повторите позже");
+    }
+}
@@ -1,17 +1,24 @@
 package example.toyshop.service;
 
 import com.example.openapi.client.model.BalanceResponse;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
 import com.example.openapi.client.model.ConfirmRequest;
 import com.example.openapi.client.model.ConfirmResponse;
 import com.example.openapi.client.model.PaymentRequest;
 import com.example.openapi.client.model.PaymentResponse;
 
+import example.toyshop.cache.NearCache;
+import example.toyshop.cache.SingleFlight;
 import example.toyshop.config.ClientRegistrationLogger;
+import example.toyshop.resilience.CallGuard;
+import example.toyshop.resilience.CallRejectedException;
 
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
-import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
@@ -23,50 +30,58 @@ import org.slf4j.LoggerFactory;
  * Клиент для взаимодействия с платежным сервисом.
  * <p>
  * Использует {@link WebClient} для отправки HTTP-запросов и
- * {@link ReactiveOAuth2AuthorizedClientManager} для получения OAuth2 access
- * token.
+ * {@link AccessTokenHolder} для OAuth2 access token: токен берётся из памяти
+ * и обновляется в фоне, поэтому запрос не ждёт Keycloak.
+ * <p>
+ * Каждый вызов ограничен таймаутом своей операции
+ * ({@code payment.client.timeout.*}) и проходит через {@link CallGuard}:
+ * чтение баланса и платёжные операции — через разные переборки с
+ * адаптивным лимитом и разные пулы соединений, а общий выключатель при отказе сервиса сразу
+ * отклоняет вызовы с {@link CallRejectedException}.
+ * <p>
+ * Баланс кэшируется на узле с коротким TTL, одновременные промахи одного
+ * счёта объединяются в один запрос ({@link SingleFlight}). Успешная оплата
+ * обновляет или сбрасывает запись счёта, поэтому платёжный сервис получает
+ * запросы баланса в основном после его изменения.
  * Предоставляет методы для получения баланса, оплаты и подтверждения платежей.
  */
 @Service
 @PreAuthorize("isAuthenticated()")
 public class PaymentServiceClient {
 
-    private final WebClient webClient;
-    private final ReactiveOAuth2AuthorizedClientManager authorizedClientManager;
-    // private static final Logger log =
-    // LoggerFactory.getLogger(ClientRegistrationLogger.class);
-
-    public PaymentServiceClient(WebClient.Builder webClientBuilder,
-            ReactiveOAuth2AuthorizedClientManager authorizedClientManager) {
-        this.webClient = webClientBuilder.baseUrl("http://localhost:8081").build();
-        this.authorizedClientManager = authorizedClientManager;
-    }
+    /** Заголовок ключа идемпотентности платёжного сервиса */
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
 
-    /**
-     * Конструктор для тестирования PaymentServiceClient.
-     * <p>
-     * Создаёт экземпляр сервиса с WebClient, направленным на локальный тестовый
-     * сервер на {@code http://localhost:8081}, и моком
-     * {@link ReactiveOAuth2AuthorizedClientManager}.
-     * </p>
-     * <p>
-     * Используется в интеграционных тестах для эмуляции взаимодействия с
-     * платежным сервисом без необходимости поднятия реального сервера.
-     * </p>
-     *
-     * @param webClientBuilder        билдeр WebClient, используется для создания
-     *                                клиента
-     * @param authorizedClientManager менеджер OAuth2 авторизации, обычно мок в
-     *                                тестах
-     */
+    private final WebClient readClient;
+    private final WebClient writeClient;
+    private final AccessTokenHolder accessToken;
+    private final CallGuard reads;
+    private final CallGuard writes;
+    private final Duration balanceTimeout;
+    private final Duration payTimeout;
+    private final Duration confirmTimeout;
+    private final NearCache<String, BalanceResponse> balanceCache;
+    private final SingleFlight<String, BalanceResponse> balanceLoads = new SingleFlight<>();
 
-    // public PaymentServiceClient(WebClient.Builder webClientBuilder,
-    // ReactiveOAuth2AuthorizedClientManager authorizedClientManager,
-    // String baseUrl) { // <-- новый параметр
-    // this.webClient = webClientBuilder.baseUrl(baseUrl).build(); // используем
-    // переданный baseUrl
-    // this.authorizedClientManager = authorizedClientManager;
-    // }
+    public PaymentServiceClient(@Qualifier("paymentReadWebClient") WebClient readClient,
+            @Qualifier("paymentWriteWebClient") WebClient writeClient,
+            AccessTokenHolder accessToken,
+            @Qualifier("paymentReadGuard") CallGuard reads,
+            @Qualifier("paymentWriteGuard") CallGuard writes,
+            @Value("${payment.client.timeout.balance:1s}") Duration balanceTimeout,
+            @Value("${payment.client.timeout.pay:3s}") Duration payTimeout,
+            @Value("${payment.client.timeout.confirm:2s}") Duration confirmTimeout,
+            NearCache<String, BalanceResponse> balanceCache) {
+        this.readClient = readClient;
+        this.writeClient = writeClient;
+        this.accessToken = accessToken;
+        this.reads = reads;
+        this.writes = writes;
+        this.balanceTimeout = balanceTimeout;
+        this.payTimeout = payTimeout;
+        this.confirmTimeout = confirmTimeout;
+        this.balanceCache = balanceCache;
+    }
 
     /**
      * Получает access token для авторизации в платежном сервисе.
@@ -75,69 +90,141 @@ public class PaymentServiceClient {
      *         Если токен не удалось получить, возвращает {@link Mono#error}.
      */
     private Mono<String> getAccessToken() {
-        OAuth2AuthorizeRequest request = OAuth2AuthorizeRequest
-                .withClientRegistrationId("payment-client")
-                .principal("payment-client")
-                .build();
-
-        return authorizedClientManager.authorize(request)
-                // .doOnNext(client -> log.info("Authorized client: {}", client))
-                .flatMap(client -> {
-                    if (client == null || client.getAccessToken() == null) {
-                        return Mono.error(new IllegalStateException("Не удалось получить access token"));
-                    }
-                    return Mono.just(client.getAccessToken().getTokenValue());
-                });
+        return accessToken.getToken();
     }
 
     /**
-     * Получает текущий баланс пользователя из платежного сервиса.
+     * Получает текущий баланс пользователя: из кэша узла или, при промахе,
+     * из платёжного сервиса.
      *
+     * @param accountId счёт покупателя (идентификатор пользователя витрины)
      * @return {@link Mono} с {@link BalanceResponse}, содержащим информацию о
      *         балансе.
      */
-    public Mono<BalanceResponse> getBalance() {
+    public Mono<BalanceResponse> getBalance(String accountId) {
+        return Mono.defer(() -> {
+            BalanceResponse cached = balanceCache.getIfPresent(accountId);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return balanceLoads.execute(accountId, () -> {
+                long generation = balanceCache.generation();
+                return fetchBalance(accountId)
+                        .doOnNext(balance -> balanceCache.putIfCurrent(accountId, balance, generation));
+            });
+        });
+    }
+
+    private Mono<BalanceResponse> fetchBalance(String accountId) {
         return getAccessToken()
-                .flatMap(token -> webClient.get()
-                        .uri("/balance")
+                .flatMap(token -> reads.execute(readClient.get()
+                        .uri(uri -> uri.path("/balance").queryParam("accountId", accountId).build())
                         .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                         .retrieve()
-                        .bodyToMono(BalanceResponse.class));
+                        .bodyToMono(BalanceResponse.class), balanceTimeout));
     }
 
     /**
      * Отправляет платежный запрос в платежный сервис.
+     * <p>
+     * Ключ идемпотентности выводится из заказа, поэтому повтор того же
+     * запроса (в том числе повторная подписка после таймаута) не спишет
+     * сумму дважды: платёжный сервис вернёт исходный ответ.
      *
-     * @param request запрос на оплату {@link PaymentRequest}, содержащий сумму,
-     *                валюту и метод оплаты.
+     * @param request запрос на оплату {@link PaymentRequest}, содержащий счёт
+     *                покупателя, сумму, валюту и метод оплаты.
      * @return {@link Mono} с {@link PaymentResponse}, содержащим статус платежа и
      *         ID транзакции.
      */
     public Mono<PaymentResponse> pay(PaymentRequest request) {
         return getAccessToken()
-                .flatMap(token -> webClient.post()
+                .flatMap(token -> writes.execute(writeClient.post()
                         .uri("/pay")
                         .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .header(IDEMPOTENCY_KEY, "pay-order-" + request.getOrderId())
                         .bodyValue(request)
                         .retrieve()
-                        .bodyToMono(PaymentResponse.class));
+                        .bodyToMono(PaymentResponse.class), payTimeout))
+                .doOnNext(response -> {
+                    if (PaymentResponse.StatusEnum.SUCCESS.equals(response.getStatus())
+                            && request.getAccountId() != null) {
+                        balanceCache.invalidate(request.getAccountId()); // сумма заблокирована
+                    }
+                });
     }
 
     /**
-     * Подтверждает выполненный платеж в платежном сервисе.
+     * Оплачивает и подтверждает заказ одним запросом: платёжный сервис
+     * списывает сумму и возвращает новый баланс счёта. Заменяет цепочку
+     * {@link #pay}, {@link #getBalance} и {@link #confirm} при оформлении
+     * заказа. Ключ идемпотентности выводится из заказа, как в {@link #pay}.
      *
+     * @param request запрос на оплату {@link PaymentRequest}
+     * @return {@link Mono} с {@link CheckoutPaymentResponse}: статус оплаты и
+     *         баланс после неё
+     */
+    public Mono<CheckoutPaymentResponse> checkoutPayment(PaymentRequest request) {
+        return getAccessToken()
+                .flatMap(token -> writes.execute(writeClient.post()
+                        .uri("/checkout-payment")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .header(IDEMPOTENCY_KEY, "checkout-order-" + request.getOrderId())
+                        .bodyValue(request)
+                        .retrieve()
+                        .bodyToMono(CheckoutPaymentResponse.class), payTimeout))
+                .doOnNext(response -> {
+                    if (CheckoutPaymentResponse.StatusEnum.SUCCESS.equals(response.getStatus())
+                            && request.getAccountId() != null) {
+                        updateBalance(request.getAccountId(), response);
+                    }
+                });
+    }
+
+    /**
+     * Подтверждает выполненный платеж в платежном сервисе. Повтор
+     * подтверждения заказа возвращает исходный ответ.
+     *
+     * @param accountId счёт покупателя: уходит в запросе, если в нём счёт не
+     *                  указан, и его баланс в кэше сбрасывается после
+     *                  подтверждения
      * @param request запрос на подтверждение {@link ConfirmRequest}, содержащий ID
      *                заказа и ID транзакции.
      * @return {@link Mono} с {@link ConfirmResponse}, содержащим статус
      *         подтверждения.
      */
-    public Mono<ConfirmResponse> confirm(ConfirmRequest request) {
+    public Mono<ConfirmResponse> confirm(String accountId, ConfirmRequest request) {
+        if (request.getAccountId() == null) {
+            request.setAccountId(accountId);
+        }
         return getAccessToken()
-                .flatMap(token -> webClient.post()
+                .flatMap(token -> writes.execute(writeClient.post()
                         .uri("/confirm")
                         .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .header(IDEMPOTENCY_KEY, "confirm-order-" + request.getOrderId())
                         .bodyValue(request)
                         .retrieve()
-                        .bodyToMono(ConfirmResponse.class));
+                        .bodyToMono(ConfirmResponse.class), confirmTimeout))
+                .doOnNext(response -> {
+                    if (Boolean.TRUE.equals(response.getConfirmed())) {
+                        balanceCache.invalidate(accountId);
+                    }
+                });
+    }
+
+    /**
+     * Записывает в кэш баланс из ответа оплаты. Блокировки оплата не меняет,
+     * поэтому их сумма берётся из прежней записи; если её нет, запись
+     * просто сбрасывается.
+     */
+    private void updateBalance(String accountId, CheckoutPaymentResponse response) {
+        BalanceResponse cached = balanceCache.getIfPresent(accountId);
+        if (cached == null || response.getCurrency() == null) {
+            balanceCache.invalidate(accountId);
+            return;
+        }
+        balanceCache.put(accountId, new BalanceResponse()
+                .balance(response.getBalance())
+                .held(cached.getHeld())
+                .currency(response.getCurrency()));
     }
 }
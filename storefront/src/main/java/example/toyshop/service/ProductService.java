@@ -3,10 +3,19 @@ package example.toyshop.service;
 import lombok.RequiredArgsConstructor;
 
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import example.toyshop.cache.NearCache;
+import example.toyshop.cache.ProductCacheInvalidator;
+import example.toyshop.cache.RedisLock;
+import example.toyshop.cache.RedisTierMetrics;
+import example.toyshop.cache.SingleFlight;
+import example.toyshop.dto.product.ProductCursor;
+import example.toyshop.dto.product.ProductPage;
+import example.toyshop.dto.product.ProductSort;
 import example.toyshop.model.Product;
 import example.toyshop.repository.ProductRepository;
 import reactor.core.publisher.Mono;
@@ -16,6 +25,8 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,33 +37,47 @@ public class ProductService {
 
     private final ProductRepository repo;
     private final ReactiveRedisTemplate<String, Object> redisTemplate;
+    private final NearCache<Long, Product> productNearCache;
+    private final ProductCacheInvalidator cacheInvalidator;
+    private final RedisTierMetrics redisTierMetrics;
+    private final RedisLock redisLock;
+
+    private final SingleFlight<Long, Product> productLoads = new SingleFlight<>();
 
     private static final String CACHE_PREFIX = "product:";
-    private static final String CACHE_ALL = CACHE_PREFIX + "all";
     private static final Duration TTL = Duration.ofMinutes(5);
+    private static final Duration LOCK_TTL = Duration.ofSeconds(5);
+    private static final int FOLLOWER_POLLS = 10;
+    private static final Duration FOLLOWER_POLL_INTERVAL = Duration.ofMillis(50);
+    private static final int MAX_PAGE_SIZE = 100;
     private static final Logger log = LoggerFactory.getLogger(ProductService.class);
 
     /**
-     * Получить все товары.
+     * Получить страницу витрины.
      * <p>
-     * Сначала пытаемся взять из Redis, если кэша нет —
-     * берём из базы и кладём в Redis.
+     * Фильтрация по названию, сортировка и ограничение выполняются в PostgreSQL.
+     * Запрашиваем на один товар больше размера страницы, чтобы узнать,
+     * есть ли следующая страница, не выполняя отдельный {@code COUNT}.
+     *
+     * @param keyword подстрока названия (опционально)
+     * @param sort    порядок сортировки
+     * @param size    размер страницы (ограничивается {@value #MAX_PAGE_SIZE})
+     * @param cursor  курсор из предыдущей страницы (опционально)
+     * @return страница товаров и курсор следующей страницы
      */
-    public Flux<Product> getAll() {
-        return redisTemplate.opsForList().size(CACHE_ALL)
-                .flatMapMany(size -> {
-                    if (size != null && size > 0) {
-                        return redisTemplate.opsForList()
-                                .range(CACHE_ALL, 0, -1)
-                                .cast(Product.class);
-                    } else {
-                        return repo.findAll()
-                                .collectList()
-                                .flatMapMany(products -> redisTemplate.opsForList()
-                                        .rightPushAll(CACHE_ALL, products.toArray())
-                                        .then(redisTemplate.expire(CACHE_ALL, TTL)) // TTL
-                                        .thenMany(Flux.fromIterable(products)));
+    public Mono<ProductPage> getPage(String keyword, ProductSort sort, int size, String cursor) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        ProductCursor after = ProductCursor.decode(cursor, sort);
+
+        return repo.findCatalogPage(keyword, sort, after, limit + 1)
+                .collectList()
+                .map(products -> {
+                    if (products.size() <= limit) {
+                        return new ProductPage(products, null);
                     }
+                    List<Product> page = products.subList(0, limit);
+                    String next = ProductCursor.after(sort, page.get(limit - 1)).encode();
+                    return new ProductPage(List.copyOf(page), next);
                 });
     }
 
@@ -82,31 +107,93 @@ public class ProductService {
 
     /**
      * Сохранить или обновить товар.
-     * После сохранения сбрасываем кэш: сам товар и список всех товаров.
+     * После сохранения сбрасываем кэш товара — в Redis и в локальных кэшах
+     * всех узлов (через pub/sub).
      */
     @Transactional
     public Mono<Product> save(Product product) {
         return repo.save(product)
                 .flatMap(saved -> redisTemplate.delete(CACHE_PREFIX + saved.getId())
-                        .then(redisTemplate.delete(CACHE_ALL))
+                        .doOnNext(deleted -> redisTierMetrics.evictions("product", deleted))
+                        .then(cacheInvalidator.publish(saved.getId()))
                         .thenReturn(saved));
     }
 
     /**
      * Получить товар по идентификатору.
-     * Сначала ищем в Redis, если нет — в базе и кладём в кэш.
+     * Сначала ищем в локальном near-кэше, затем в Redis, если нет — в базе
+     * и кладём в оба уровня кэша. Одновременные промахи по одному товару
+     * объединяются: внутри узла — через {@link SingleFlight}, между узлами —
+     * через блокировку в Redis (см. {@link #reloadProduct(Long)}).
      */
     public Mono<Product> getById(Long id) {
+        Product local = productNearCache.getIfPresent(id);
+        if (local != null) {
+            return Mono.just(local);
+        }
+        long generation = productNearCache.generation();
+
+        return productLoads.execute(id, () -> loadProduct(id))
+                .doOnNext(product -> productNearCache.putIfCurrent(id, product, generation));
+    }
+
+    private Mono<Product> loadProduct(Long id) {
+        return readProduct(id)
+                .doOnNext(p -> {
+                    redisTierMetrics.hit("product");
+                    log.debug("Из кеша: {}", p.getName());
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    redisTierMetrics.miss("product");
+                    return reloadProduct(id);
+                }));
+    }
+
+    private Mono<Product> readProduct(Long id) {
         String key = CACHE_PREFIX + id;
 
-        return redisTemplate.opsForValue().get(key)
+        return Mono.defer(() -> redisTemplate.opsForValue().get(key))
                 .cast(Product.class)
-                .doOnNext(p -> log.info("Из кеша: {}", p.getName()))
-                .switchIfEmpty(
-                        repo.findById(id)
-                                .doOnNext(p -> log.info("Из БД: {}", p.getName()))
-                                .flatMap(product -> redisTemplate.opsForValue()
-                                        .set(key, product, Duration.ofMinutes(5))
-                                        .thenReturn(product)));
+                .onErrorResume(SerializationException.class, e -> {
+                    log.warn("Не удалось прочитать {} из кеша: {}", key, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Загрузка товара из базы после промаха в Redis.
+     * <p>
+     * Базу читает и кладёт товар в Redis только узел, захвативший блокировку
+     * {@code product:{id}:lock}. Остальные узлы недолго ждут, пока лидер
+     * заполнит кэш, и только по истечении ожидания читают базу сами (без
+     * записи в Redis). Так истечение TTL популярного товара даёт одно
+     * обращение к базе на весь кластер, а не по одному на узел.
+     */
+    private Mono<Product> reloadProduct(Long id) {
+        String lockKey = CACHE_PREFIX + id + ":lock";
+
+        return redisLock.tryAcquire(lockKey, LOCK_TTL)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(token -> token.isPresent()
+                        ? Mono.usingWhen(Mono.just(token.get()),
+                                t -> loadAndCache(id),
+                                t -> redisLock.release(lockKey, t))
+                        : awaitLeader(id));
+    }
+
+    private Mono<Product> loadAndCache(Long id) {
+        return repo.findById(id)
+                .doOnNext(p -> log.debug("Из БД: {}", p.getName()))
+                .flatMap(product -> redisTemplate.opsForValue()
+                        .set(CACHE_PREFIX + id, product, TTL)
+                        .thenReturn(product));
+    }
+
+    private Mono<Product> awaitLeader(Long id) {
+        return readProduct(id)
+                .repeatWhenEmpty(attempts -> attempts.take(FOLLOWER_POLLS)
+                        .delayElements(FOLLOWER_POLL_INTERVAL))
+                .switchIfEmpty(Mono.defer(() -> repo.findById(id)));
     }
 }
@@ -1,26 +1,48 @@
 package example.toyshop.service;
 
+import example.toyshop.cache.NearCache;
+import example.toyshop.cache.SingleFlight;
 import example.toyshop.model.User;
 import example.toyshop.model.UserRole;
 import example.toyshop.repository.UserRepository;
 import example.toyshop.repository.UserRoleRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.io.Serializable;
+
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+/**
+ * Пользователи витрины.
+ * <p>
+ * Пользователь с ролями читается одним запросом и кэшируется на узле
+ * ({@code cache.user.*}), одновременные промахи объединяются
+ * ({@link SingleFlight}). Идентификатор вошедшего пользователя кладётся в
+ * аутентификацию при входе ({@link AuthenticatedUser}) и хранится в сессии
+ * вместе с ней, поэтому обычный запрос не обращается ни к кэшу, ни к базе.
+ * Роли в сессии тоже остаются такими, какими были при входе.
+ */
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
     private final UserRepository userRepository;
     private final UserRoleRepository userRoleRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
+    private final NearCache<String, UserWithRoles> userNearCache;
+    private final SingleFlight<String, UserWithRoles> userLoads = new SingleFlight<>();
 
-    // Регистрация нового пользователя с ролью ROLE_USER
+    // Регистрация нового пользователя с ролью ROLE_USER; пароль хешируется на пуле PasswordHasher
     public Mono<User> register(User user) {
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
-        return userRepository.save(user)
+        return passwordHasher.encode(user.getPassword())
+                .flatMap(hash -> {
+                    user.setPassword(hash);
+                    return userRepository.save(user);
+                })
                 .flatMap(savedUser -> userRoleRepository.save(new UserRole(null, savedUser.getId(), "ROLE_USER"))
                         .thenReturn(savedUser));
     }
@@ -31,15 +53,51 @@ public class UserService {
                 .hasElement();
     }
 
-    // Получение пользователя с ролями
+    // Получение пользователя с ролями: из кэша узла или одним запросом к базе
     public Mono<UserWithRoles> findByUsernameWithRoles(String username) {
-        return userRepository.findByUsername(username)
-                .flatMap(user -> userRoleRepository.findByUserId(user.getId())
-                        .collectList()
-                        .map(roles -> new UserWithRoles(user, roles)));
+        return Mono.defer(() -> {
+            UserWithRoles cached = userNearCache.getIfPresent(username);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return userLoads.execute(username, () -> {
+                long generation = userNearCache.generation();
+                return userRepository.findWithRolesByUsername(username)
+                        .doOnNext(user -> userNearCache.putIfCurrent(username, user, generation));
+            });
+        });
+    }
+
+    // Пользователь с ролями для проверки пароля при входе: всегда из базы, заодно обновляет кэш
+    public Mono<UserWithRoles> loadForLogin(String username) {
+        return userRepository.findWithRolesByUsername(username)
+                .doOnNext(user -> userNearCache.put(username, user));
+    }
+
+    // Сбрасывает пользователя из кэша узла. Роли сейчас меняются только при регистрации, и
+    // вызовов нет: управление ролями, когда появится, должно вызывать evict на каждом узле
+    // и обновлять роли в сохранённых сессиях пользователя — там они зафиксированы при входе
+    public void evict(String username) {
+        userNearCache.invalidate(username);
+    }
+
+    // Идентификатор вошедшего пользователя из контекста безопасности; пусто для анонимного посетителя
+    public Mono<String> currentUserId() {
+        return ReactiveSecurityContextHolder.getContext()
+                .mapNotNull(SecurityContext::getAuthentication)
+                .filter(auth -> auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken))
+                .flatMap(auth -> auth.getDetails() instanceof AuthenticatedUser user
+                        ? Mono.just(user.id().toString())
+                        // вход через OAuth2 или сессия, созданная до появления AuthenticatedUser
+                        : findByUsernameWithRoles(auth.getName())
+                                .map(userWithRoles -> userWithRoles.user().getId().toString()));
     }
 
     // Вспомогательный класс для возврата пользователя с ролями
     public record UserWithRoles(User user, java.util.List<UserRole> roles) {
     }
+
+    // Детали аутентификации, сохраняемые в сессии при входе
+    public record AuthenticatedUser(Long id) implements Serializable {
+    }
 }
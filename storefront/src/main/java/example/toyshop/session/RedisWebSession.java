@@ -0,0 +1,150 @@
+package example.toyshop.session;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.web.server.WebSession;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Веб-сессия из {@link RedisWebSessionStore}. Помнит, в каком виде она
+ * последний раз записана в Redis, чтобы при сохранении отправить только
+ * изменения.
+ */
+class RedisWebSession implements WebSession {
+
+    private final RedisWebSessionStore store;
+    private final Map<String, Object> attributes;
+    private final Instant creationTime;
+
+    private volatile String id;
+    private volatile Instant lastAccessTime;
+    private volatile Duration maxIdleTime;
+    private volatile boolean started;
+    private volatile boolean invalidated;
+    /** Что лежит в Redis; {@code null}, пока сессия не сохранялась */
+    private volatile RedisWebSessionStore.Snapshot persisted;
+
+    /** Новая сессия */
+    RedisWebSession(RedisWebSessionStore store, String id, Instant now, Duration maxIdleTime) {
+        this.store = store;
+        this.id = id;
+        this.attributes = new ConcurrentHashMap<>();
+        this.creationTime = now;
+        this.lastAccessTime = now;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /** Сессия, прочитанная из Redis */
+    RedisWebSession(RedisWebSessionStore store, String id, RedisWebSessionStore.Snapshot snapshot,
+            Map<String, Object> attributes) {
+        this.store = store;
+        this.id = id;
+        this.attributes = new ConcurrentHashMap<>(attributes);
+        this.creationTime = snapshot.created();
+        this.lastAccessTime = snapshot.accessed();
+        this.maxIdleTime = snapshot.maxIdleTime();
+        this.started = true;
+        this.persisted = snapshot;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public void start() {
+        started = true;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started || !attributes.isEmpty();
+    }
+
+    @Override
+    public Mono<Void> changeSessionId() {
+        return Mono.defer(() -> {
+            String oldId = id;
+            String newId = store.newId();
+            id = newId;
+            if (persisted == null) {
+                return Mono.empty();
+            }
+            return store.rename(oldId, newId)
+                    .onErrorResume(e -> {
+                        // ключ успел истечь: следующее сохранение запишет сессию целиком
+                        persisted = null;
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    @Override
+    public Mono<Void> invalidate() {
+        return Mono.defer(() -> {
+            invalidated = true;
+            attributes.clear();
+            persisted = null;
+            return store.removeSession(id);
+        });
+    }
+
+    @Override
+    public Mono<Void> save() {
+        return invalidated ? Mono.empty() : store.save(this);
+    }
+
+    @Override
+    public boolean isExpired() {
+        return invalidated || lastAccessTime.plus(maxIdleTime).isBefore(store.now());
+    }
+
+    @Override
+    public Instant getCreationTime() {
+        return creationTime;
+    }
+
+    @Override
+    public Instant getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    void setLastAccessTime(Instant lastAccessTime) {
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    @Override
+    public void setMaxIdleTime(Duration maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    @Override
+    public Duration getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /** Сессию завершили на другом узле: сохранять и отдавать её больше нельзя */
+    void discard() {
+        invalidated = true;
+        attributes.clear();
+        persisted = null;
+    }
+
+    RedisWebSessionStore.Snapshot persisted() {
+        return persisted;
+    }
+
+    void setPersisted(RedisWebSessionStore.Snapshot persisted) {
+        this.persisted = persisted;
+    }
+}
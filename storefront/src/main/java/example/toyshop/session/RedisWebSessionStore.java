@@ -0,0 +1,324 @@
+package example.toyshop.session;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.web.server.WebSession;
+import org.springframework.web.server.session.WebSessionStore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Хранилище веб-сессий в Redis: сессия переживает перезапуск узла, и любой
+ * узел витрины обслуживает любого пользователя без sticky sessions.
+ * <p>
+ * Сессия — хеш {@code session:<id>}: по полю на атрибут (значение пишет
+ * {@link SessionAttributeSerializer}) и служебные поля {@code #created},
+ * {@code #accessed}, {@code #max-idle}. Ключ живёт {@code maxIdleTime} с
+ * последней записи.
+ * <p>
+ * Запись при сохранении сессии — только изменившиеся атрибуты: сериализованное
+ * значение сравнивается с прочитанным из Redis, изменённые поля, удалённые поля
+ * и продление TTL пишет один Lua-скрипт. Уже сохранённая сессия
+ * записывается, только если её ключ ещё есть: иначе сохранение на одном узле
+ * воскресило бы сессию, из которой пользователь вышел на другом. Такая
+ * сессия считается завершённой. Если атрибуты не менялись,
+ * время последнего доступа записывается не чаще раза в {@code touchInterval}
+ * — обычный запрос ничего в Redis не пишет. Поэтому сессия может истечь на
+ * {@code touchInterval} раньше {@code maxIdleTime}.
+ * <p>
+ * Прочитанные сессии кэшируются на узле на {@code localTtl}, чтобы запросы
+ * одной страницы (HTML, затем fetch) не читали Redis каждый раз. Запись и
+ * удаление через этот узел обновляют локальный кэш сразу; изменение сессии
+ * на другом узле (например, выход) видно здесь не позже, чем через
+ * {@code localTtl}, поэтому он должен быть коротким.
+ * <p>
+ * Метрики: {@code session.store.reads{source=local|redis}},
+ * {@code session.store.writes{result=written|skipped|gone}}.
+ */
+public class RedisWebSessionStore implements WebSessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisWebSessionStore.class);
+
+    static final String KEY_PREFIX = "session:";
+    static final String CREATED = "#created";
+    static final String ACCESSED = "#accessed";
+    static final String MAX_IDLE = "#max-idle";
+
+    /**
+     * KEYS[1] — сессия. ARGV[1] — {@code 1}, если ключ должен существовать;
+     * ARGV[2] — TTL в миллисекундах; ARGV[3] — число пар поле/значение, затем
+     * пары, затем удаляемые поля. Возвращает {@code 0}, если ключа нет и
+     * записывать нельзя, иначе {@code 1}.
+     */
+    private static final String SAVE = """
+            if ARGV[1] == '1' and redis.call('EXISTS', KEYS[1]) == 0 then return 0 end
+            local last = 3 + tonumber(ARGV[3]) * 2
+            redis.call('HSET', KEYS[1], unpack(ARGV, 4, last))
+            if #ARGV > last then redis.call('HDEL', KEYS[1], unpack(ARGV, last + 1)) end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """;
+    private static final ByteBuffer SAVE_SCRIPT = bytes(SAVE);
+
+    private final ReactiveStringRedisTemplate redis;
+    private final SessionAttributeSerializer serializer = new SessionAttributeSerializer();
+    private final Duration maxIdleTime;
+    private final Duration touchInterval;
+    private final Clock clock;
+    private final Cache<String, Snapshot> localCache;
+
+    private final Counter redisReads;
+    private final Counter written;
+    private final Counter skipped;
+    private final Counter gone;
+
+    public RedisWebSessionStore(ReactiveStringRedisTemplate redis, Duration maxIdleTime, Duration touchInterval,
+            Duration localTtl, MeterRegistry registry) {
+        this(redis, maxIdleTime, touchInterval, localTtl, registry, Clock.systemUTC());
+    }
+
+    RedisWebSessionStore(ReactiveStringRedisTemplate redis, Duration maxIdleTime, Duration touchInterval,
+            Duration localTtl, MeterRegistry registry, Clock clock) {
+        this.redis = redis;
+        this.maxIdleTime = maxIdleTime;
+        this.touchInterval = touchInterval;
+        this.clock = clock;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(localTtl)
+                .recordStats()
+                .build();
+        FunctionCounter.builder("session.store.reads", localCache, c -> c.stats().hitCount())
+                .tag("source", "local")
+                .register(registry);
+        this.redisReads = Counter.builder("session.store.reads").tag("source", "redis").register(registry);
+        this.written = Counter.builder("session.store.writes").tag("result", "written").register(registry);
+        this.skipped = Counter.builder("session.store.writes").tag("result", "skipped").register(registry);
+        this.gone = Counter.builder("session.store.writes").tag("result", "gone").register(registry);
+    }
+
+    @Override
+    public Mono<WebSession> createWebSession() {
+        return Mono.fromSupplier(() -> new RedisWebSession(this, newId(), clock.instant(), maxIdleTime));
+    }
+
+    @Override
+    public Mono<WebSession> retrieveSession(String id) {
+        return loadSnapshot(id)
+                .flatMap(snapshot -> {
+                    Instant now = clock.instant();
+                    if (snapshot.accessed().plus(snapshot.maxIdleTime()).isBefore(now)) {
+                        return removeSession(id).then(Mono.empty());
+                    }
+                    return Mono.just((WebSession) new RedisWebSession(this, id, snapshot, decode(id, snapshot)));
+                });
+    }
+
+    @Override
+    public Mono<Void> removeSession(String id) {
+        return Mono.defer(() -> {
+            localCache.invalidate(id);
+            return redis.delete(KEY_PREFIX + id).then();
+        });
+    }
+
+    @Override
+    public Mono<WebSession> updateLastAccessTime(WebSession webSession) {
+        return Mono.fromSupplier(() -> {
+            ((RedisWebSession) webSession).setLastAccessTime(clock.instant());
+            return webSession;
+        });
+    }
+
+    Instant now() {
+        return clock.instant();
+    }
+
+    String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /** Переименовывает сохранённую сессию после смены id (защита от фиксации сессии при входе) */
+    Mono<Void> rename(String oldId, String newId) {
+        return Mono.defer(() -> {
+            Snapshot snapshot = localCache.getIfPresent(oldId);
+            localCache.invalidate(oldId);
+            if (snapshot != null) {
+                localCache.put(newId, snapshot);
+            }
+            return redis.rename(KEY_PREFIX + oldId, KEY_PREFIX + newId).then();
+        });
+    }
+
+    /**
+     * Сохраняет сессию: изменённые и удалённые атрибуты, время доступа и TTL
+     * — одним скриптом, либо ничего, если записывать нечего. Если ключа
+     * сохранённой сессии в Redis уже нет (выход или истечение на другом
+     * узле), сессия не записывается и завершается.
+     */
+    Mono<Void> save(RedisWebSession session) {
+        return Mono.defer(() -> {
+            Snapshot previous = session.persisted();
+            Map<String, byte[]> encoded = encode(session.getAttributes());
+
+            Map<String, byte[]> changed = new HashMap<>();
+            encoded.forEach((name, value) -> {
+                if (previous == null || !Arrays.equals(previous.attributes().get(name), value)) {
+                    changed.put(name, value);
+                }
+            });
+            List<String> removed = new ArrayList<>();
+            if (previous != null) {
+                for (String name : previous.attributes().keySet()) {
+                    if (!encoded.containsKey(name)) {
+                        removed.add(name);
+                    }
+                }
+            }
+            boolean touchDue = previous == null
+                    || !previous.maxIdleTime().equals(session.getMaxIdleTime())
+                    || !session.getLastAccessTime().isBefore(previous.accessed().plus(touchInterval));
+            if (changed.isEmpty() && removed.isEmpty() && !touchDue) {
+                skipped.increment();
+                return Mono.empty();
+            }
+
+            Snapshot next = new Snapshot(session.getCreationTime(), session.getLastAccessTime(),
+                    session.getMaxIdleTime(), encoded);
+            String id = session.getId();
+            List<ByteBuffer> keysAndArgs = new ArrayList<>(4 + (changed.size() + 3) * 2 + removed.size());
+            keysAndArgs.add(bytes(KEY_PREFIX + id));
+            keysAndArgs.add(bytes(previous != null ? "1" : "0"));
+            keysAndArgs.add(bytes(Long.toString(next.maxIdleTime().toMillis())));
+            keysAndArgs.add(bytes(Integer.toString(changed.size() + (previous == null ? 3 : 2))));
+            changed.forEach((name, value) -> {
+                keysAndArgs.add(bytes(name));
+                keysAndArgs.add(ByteBuffer.wrap(value));
+            });
+            if (previous == null) {
+                keysAndArgs.add(bytes(CREATED));
+                keysAndArgs.add(bytes(Long.toString(next.created().toEpochMilli())));
+            }
+            keysAndArgs.add(bytes(ACCESSED));
+            keysAndArgs.add(bytes(Long.toString(next.accessed().toEpochMilli())));
+            keysAndArgs.add(bytes(MAX_IDLE));
+            keysAndArgs.add(bytes(Long.toString(next.maxIdleTime().toMillis())));
+            removed.forEach(name -> keysAndArgs.add(bytes(name)));
+
+            return redis.execute(connection -> connection.scriptingCommands().<Long>eval(SAVE_SCRIPT.duplicate(),
+                            ReturnType.INTEGER, 1, keysAndArgs.toArray(ByteBuffer[]::new)))
+                    .next()
+                    .doOnNext(saved -> {
+                        if (saved == 1L) {
+                            written.increment();
+                            session.setPersisted(next);
+                            localCache.put(id, next);
+                        } else {
+                            gone.increment();
+                            localCache.invalidate(id);
+                            session.discard();
+                        }
+                    })
+                    .then();
+        });
+    }
+
+    private Mono<Snapshot> loadSnapshot(String id) {
+        return Mono.defer(() -> {
+            Snapshot cached = localCache.getIfPresent(id);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            redisReads.increment();
+            return readHash(id).doOnNext(snapshot -> localCache.put(id, snapshot));
+        });
+    }
+
+    private Mono<Snapshot> readHash(String id) {
+        return redis.execute(connection -> connection.hashCommands().hGetAll(bytes(KEY_PREFIX + id)))
+                .collectList()
+                .flatMap(entries -> {
+                    Map<String, byte[]> attributes = new HashMap<>();
+                    Map<String, String> meta = new HashMap<>();
+                    for (Map.Entry<ByteBuffer, ByteBuffer> entry : entries) {
+                        String name = string(entry.getKey());
+                        if (name.startsWith("#")) {
+                            meta.put(name, string(entry.getValue()));
+                        } else {
+                            attributes.put(name, toArray(entry.getValue()));
+                        }
+                    }
+                    if (!meta.containsKey(ACCESSED)) {
+                        return Mono.empty(); // ключа нет или он истёк
+                    }
+                    Instant accessed = Instant.ofEpochMilli(Long.parseLong(meta.get(ACCESSED)));
+                    return Mono.just(new Snapshot(
+                            meta.containsKey(CREATED) ? Instant.ofEpochMilli(Long.parseLong(meta.get(CREATED))) : accessed,
+                            accessed,
+                            meta.containsKey(MAX_IDLE) ? Duration.ofMillis(Long.parseLong(meta.get(MAX_IDLE))) : maxIdleTime,
+                            attributes));
+                });
+    }
+
+    private Map<String, byte[]> encode(Map<String, Object> attributes) {
+        Map<String, byte[]> encoded = new HashMap<>(attributes.size() * 2);
+        attributes.forEach((name, value) -> {
+            if (value != null) {
+                encoded.put(name, serializer.serialize(value));
+            }
+        });
+        return encoded;
+    }
+
+    private Map<String, Object> decode(String id, Snapshot snapshot) {
+        Map<String, Object> attributes = new HashMap<>(snapshot.attributes().size() * 2);
+        snapshot.attributes().forEach((name, value) -> {
+            try {
+                attributes.put(name, serializer.deserialize(value));
+            } catch (SerializationException e) {
+                // атрибут из несовместимой версии: сессия живёт без него
+                log.warn("Атрибут {} сессии {} пропущен: {}", name, id, e.getMessage());
+            }
+        });
+        return attributes;
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /** Сессия в том виде, в каком она лежит в Redis */
+    record Snapshot(Instant created, Instant accessed, Duration maxIdleTime, Map<String, byte[]> attributes) {
+    }
+}
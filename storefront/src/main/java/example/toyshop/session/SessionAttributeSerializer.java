@@ -0,0 +1,235 @@
+package example.toyshop.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import example.toyshop.service.UserService.AuthenticatedUser;
+
+/**
+ * Компактный бинарный сериализатор атрибутов веб-сессии.
+ * <p>
+ * Формат записи: {@code [MAGIC][версия][тег][тело]}, числа — zigzag-varint,
+ * строки — varint-длина и UTF-8, как в
+ * {@link example.toyshop.cache.CompactRedisSerializer}. Отдельные теги у
+ * частых атрибутов: строк, чисел и контекста безопасности после входа по
+ * паролю. Контекст хранится как имя пользователя, его роли и id — без пароля
+ * и без Java-сериализации Spring Security (сотни байт вместо десятков).
+ * Прочие значения пишутся Java-сериализацией ({@link #TAG_JAVA}): атрибуты
+ * сессии по контракту {@link java.io.Serializable}.
+ */
+public class SessionAttributeSerializer implements RedisSerializer<Object> {
+
+    static final byte MAGIC = (byte) 0xC8;
+    static final byte VERSION = 1;
+
+    static final byte TAG_JAVA = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_LONG = 2;
+    static final byte TAG_INTEGER = 3;
+    static final byte TAG_BOOLEAN = 4;
+    static final byte TAG_DECIMAL = 5;
+    static final byte TAG_PASSWORD_LOGIN = 6;
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        Output out = new Output();
+        out.write(MAGIC);
+        out.write(VERSION);
+        if (value instanceof String string) {
+            out.write(TAG_STRING);
+            out.writeString(string);
+        } else if (value instanceof Long number) {
+            out.write(TAG_LONG);
+            out.writeVarLong(zigzag(number));
+        } else if (value instanceof Integer number) {
+            out.write(TAG_INTEGER);
+            out.writeVarLong(zigzag(number));
+        } else if (value instanceof Boolean flag) {
+            out.write(TAG_BOOLEAN);
+            out.write(flag ? 1 : 0);
+        } else if (value instanceof BigDecimal decimal) {
+            out.write(TAG_DECIMAL);
+            out.writeVarLong(zigzag(decimal.scale()));
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeVarLong(unscaled.length);
+            out.write(unscaled);
+        } else if (isPasswordLogin(value)) {
+            out.write(TAG_PASSWORD_LOGIN);
+            writePasswordLogin(out, ((SecurityContext) value).getAuthentication());
+        } else {
+            out.write(TAG_JAVA);
+            writeJava(out, value);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length < 3 || bytes[0] != MAGIC) {
+            throw new SerializationException("Повреждённый атрибут сессии: нет заголовка");
+        }
+        if (bytes[1] != VERSION) {
+            throw new SerializationException("Неподдерживаемая версия формата сессии: " + bytes[1]);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, 3, bytes.length - 3);
+        try {
+            return switch (bytes[2]) {
+                case TAG_STRING -> readString(in);
+                case TAG_LONG -> unzigzag(readVarLong(in));
+                case TAG_INTEGER -> (int) unzigzag(readVarLong(in));
+                case TAG_BOOLEAN -> in.get() != 0;
+                case TAG_DECIMAL -> {
+                    int scale = (int) unzigzag(readVarLong(in));
+                    yield new BigDecimal(new BigInteger(readBytes(in)), scale);
+                }
+                case TAG_PASSWORD_LOGIN -> readPasswordLogin(in);
+                case TAG_JAVA -> readJava(in);
+                default -> throw new SerializationException("Неизвестный тип атрибута сессии: " + bytes[2]);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Повреждённый атрибут сессии: запись обрезана", e);
+        }
+    }
+
+    /** Контекст после входа по паролю ({@code CustomReactiveAuthenticationManager}) */
+    private static boolean isPasswordLogin(Object value) {
+        return value instanceof SecurityContext context
+                && context.getAuthentication() instanceof UsernamePasswordAuthenticationToken auth
+                && auth.isAuthenticated()
+                && auth.getPrincipal() instanceof String
+                && (auth.getDetails() == null || auth.getDetails() instanceof AuthenticatedUser);
+    }
+
+    private static void writePasswordLogin(Output out, Authentication auth) {
+        out.writeString(auth.getName());
+        out.writeVarLong(auth.getAuthorities().size());
+        for (GrantedAuthority authority : auth.getAuthorities()) {
+            out.writeString(authority.getAuthority());
+        }
+        if (auth.getDetails() instanceof AuthenticatedUser user && user.id() != null) {
+            out.write(1);
+            out.writeVarLong(zigzag(user.id()));
+        } else {
+            out.write(0);
+        }
+    }
+
+    private static SecurityContext readPasswordLogin(ByteBuffer in) {
+        String username = readString(in);
+        int count = (int) readVarLong(in);
+        List<GrantedAuthority> authorities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            authorities.add(new SimpleGrantedAuthority(readString(in)));
+        }
+        // пароль после входа не нужен и в сессию не попадает
+        UsernamePasswordAuthenticationToken auth =
+                UsernamePasswordAuthenticationToken.authenticated(username, null, authorities);
+        if (in.get() != 0) {
+            auth.setDetails(new AuthenticatedUser(unzigzag(readVarLong(in))));
+        }
+        return new SecurityContextImpl(auth);
+    }
+
+    private static void writeJava(Output out, Object value) {
+        try (ObjectOutputStream stream = new ObjectOutputStream(out)) {
+            stream.writeObject(value);
+        } catch (IOException e) {
+            throw new SerializationException("Атрибут сессии не сериализуется: " + value.getClass().getName(), e);
+        }
+    }
+
+    private static Object readJava(ByteBuffer in) {
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(
+                in.array(), in.arrayOffset() + in.position(), in.remaining()))) {
+            return stream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException("Атрибут сессии не читается", e);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new SerializationException("Повреждённый атрибут сессии: слишком длинное число");
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new SerializationException("Повреждённый атрибут сессии: неверная длина");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    /** Буфер записи с varint-кодированием */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(64);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
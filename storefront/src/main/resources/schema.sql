@@ -0,0 +1,128 @@
+-- Схема БД витрины (PostgreSQL).
+-- Скрипт идемпотентный: его можно выполнить вручную на существующей БД
+-- или включить автоматически через spring.sql.init.mode=always.
+
+CREATE TABLE IF NOT EXISTS product (
+    id BIGSERIAL PRIMARY KEY,
+    name VARCHAR(255) NOT NULL,
+    description TEXT,
+    price INT NOT NULL,
+    image_url VARCHAR(255),
+    quantity INT
+);
+
+CREATE TABLE IF NOT EXISTS cart (
+    id BIGSERIAL PRIMARY KEY,
+    user_id VARCHAR NOT NULL,
+    status VARCHAR(20),
+    created_at TIMESTAMP DEFAULT now(),
+    item_count INT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS cart_item (
+    id BIGSERIAL PRIMARY KEY,
+    cart_id BIGINT REFERENCES cart(id) ON DELETE CASCADE,
+    product_id BIGINT REFERENCES product(id),
+    quantity INT
+);
+
+CREATE TABLE IF NOT EXISTS users (
+    id BIGSERIAL PRIMARY KEY,
+    username VARCHAR(255) NOT NULL UNIQUE,
+    password VARCHAR(255) NOT NULL,
+    enabled BOOLEAN NOT NULL DEFAULT TRUE,
+    email VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS user_roles (
+    id BIGSERIAL PRIMARY KEY,
+    user_id BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    role VARCHAR(50) NOT NULL
+);
+
+-- Keyset-пагинация витрины: индексы повторяют ORDER BY запросов
+-- ProductCatalogRepositoryImpl, обход в обратном направлении (DESC) тоже использует их.
+CREATE INDEX IF NOT EXISTS idx_product_lower_name_id ON product (lower(name), id);
+CREATE INDEX IF NOT EXISTS idx_product_price_id ON product (price, id);
+
+-- Поиск по подстроке названия (ILIKE '%...%') через триграммы.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_product_name_trgm ON product USING gin (name gin_trgm_ops);
+
+-- Чтение корзин одним запросом (CartViewRepositoryImpl): элементы корзин по
+-- cart_id.
+CREATE INDEX IF NOT EXISTS idx_cart_item_cart_id ON cart_item (cart_id, id);
+
+-- Корзины пользователя по статусу: активная корзина — по префиксу
+-- (user_id, status), заказы без снимка в истории заказов
+-- (OrderSnapshotRepositoryImpl.findOrderPage) — новые заказы первыми, keyset
+-- по (created_at, id). Отдельный индекс (user_id, status) лишний.
+DROP INDEX IF EXISTS idx_cart_user_status;
+CREATE INDEX IF NOT EXISTS idx_cart_user_status_created ON cart (user_id, status, created_at DESC, id DESC);
+
+-- Одна строка на товар в корзине: на этом ограничении построен атомарный
+-- INSERT ... ON CONFLICT (cart_id, product_id) в CartItemRepository.addOne.
+-- Если в существующей БД уже есть дубликаты, их нужно слить до создания индекса.
+CREATE UNIQUE INDEX IF NOT EXISTS ux_cart_item_cart_product ON cart_item (cart_id, product_id);
+
+-- Счётчик товаров корзины для значка в шапке витрины. Меняется в тех же
+-- запросах, что и cart_item (CartItemRepository). Для существующей БД столбец
+-- добавляется и заполняется по активным корзинам.
+ALTER TABLE cart ADD COLUMN IF NOT EXISTS item_count INT NOT NULL DEFAULT 0;
+UPDATE cart c SET item_count = (SELECT COALESCE(SUM(ci.quantity), 0) FROM cart_item ci WHERE ci.cart_id = c.id)
+WHERE c.status = 'ACTIVE';
+
+-- Резервы склада на время оплаты (StockReservationRepository). Пока резерв
+-- HELD, его количество уже вычтено из product.quantity.
+CREATE TABLE IF NOT EXISTS stock_reservation (
+    id BIGSERIAL PRIMARY KEY,
+    cart_id BIGINT NOT NULL REFERENCES cart(id) ON DELETE CASCADE,
+    product_id BIGINT NOT NULL REFERENCES product(id),
+    quantity INT NOT NULL CHECK (quantity > 0),
+    status VARCHAR(20) NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    UNIQUE (cart_id, product_id)
+);
+CREATE INDEX IF NOT EXISTS idx_stock_reservation_held_expires
+    ON stock_reservation (expires_at) WHERE status = 'HELD';
+
+-- Заявки распродажи (FlashSaleService): единица товара, списанная со счётчика
+-- в Redis. Первичный ключ — id записи в потоке заявок, поэтому повторная
+-- обработка той же заявки (после падения узла) ничего не меняет; stocked —
+-- списание уже перенесено в product.quantity (FlashSaleReconciler).
+CREATE TABLE IF NOT EXISTS flash_sale_claim (
+    claim_id VARCHAR(64) PRIMARY KEY,
+    cart_id BIGINT NOT NULL,
+    product_id BIGINT NOT NULL,
+    stocked BOOLEAN NOT NULL DEFAULT FALSE,
+    created_at TIMESTAMP NOT NULL DEFAULT now()
+);
+CREATE INDEX IF NOT EXISTS idx_flash_sale_claim_unstocked ON flash_sale_claim (created_at) WHERE NOT stocked;
+CREATE INDEX IF NOT EXISTS idx_flash_sale_claim_created ON flash_sale_claim (created_at);
+
+-- Неизменяемые снимки оформленных заказов (OrderSnapshotRepository): позиции
+-- с названием, ценой и суммой на момент оформления одним JSONB-документом.
+-- Пишется при оформлении заказа; заказы, оформленные раньше, переносит
+-- OrderSnapshotBackfill.
+CREATE TABLE IF NOT EXISTS order_snapshot (
+    cart_id BIGINT PRIMARY KEY REFERENCES cart(id) ON DELETE CASCADE,
+    user_id VARCHAR NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    total_amount NUMERIC NOT NULL,
+    items JSONB NOT NULL
+);
+
+-- История заказов постранично (OrderSnapshotRepositoryImpl.findOrderPage):
+-- новые заказы первыми, keyset по (created_at, cart_id).
+CREATE INDEX IF NOT EXISTS idx_order_snapshot_user_created
+    ON order_snapshot (user_id, created_at DESC, cart_id DESC);
+
+-- Отметка переноса снимков: до какой корзины дошёл OrderSnapshotBackfill и
+-- закончен ли он. Закончивший перенос при старте узла стоит одного чтения
+-- этой строки.
+CREATE TABLE IF NOT EXISTS order_snapshot_backfill (
+    id SMALLINT PRIMARY KEY CHECK (id = 1),
+    last_cart_id BIGINT NOT NULL DEFAULT 0,
+    completed BOOLEAN NOT NULL DEFAULT false
+);
+INSERT INTO order_snapshot_backfill (id) VALUES (1) ON CONFLICT (id) DO NOTHING;
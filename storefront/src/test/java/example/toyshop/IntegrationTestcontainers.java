@@ -42,7 +42,8 @@ public abstract class IntegrationTestcontainers {
                         id BIGSERIAL PRIMARY KEY,
                         user_id VARCHAR NOT NULL,
                         status VARCHAR(20),
-                        created_at TIMESTAMP DEFAULT now()
+                        created_at TIMESTAMP DEFAULT now(),
+                        item_count INT NOT NULL DEFAULT 0
                     )
                 """).then().block();
 
@@ -51,10 +52,35 @@ public abstract class IntegrationTestcontainers {
                         id BIGSERIAL PRIMARY KEY,
                         cart_id BIGINT REFERENCES cart(id) ON DELETE CASCADE,
                         product_id BIGINT REFERENCES product(id),
-                        quantity INT
+                        quantity INT,
+                        UNIQUE (cart_id, product_id)
+                    )
+                """).then().block();
+
+        databaseClient.sql("""
+                    CREATE TABLE IF NOT EXISTS stock_reservation (
+                        id BIGSERIAL PRIMARY KEY,
+                        cart_id BIGINT NOT NULL REFERENCES cart(id) ON DELETE CASCADE,
+                        product_id BIGINT NOT NULL REFERENCES product(id),
+                        quantity INT NOT NULL CHECK (quantity > 0),
+                        status VARCHAR(20) NOT NULL,
+                        expires_at TIMESTAMP NOT NULL,
+                        UNIQUE (cart_id, product_id)
+                    )
+                """).then().block();
+
+        databaseClient.sql("""
+                    CREATE TABLE IF NOT EXISTS flash_sale_claim (
+                        claim_id VARCHAR(64) PRIMARY KEY,
+                        cart_id BIGINT NOT NULL,
+                        product_id BIGINT NOT NULL,
+                        stocked BOOLEAN NOT NULL DEFAULT FALSE,
+                        created_at TIMESTAMP NOT NULL DEFAULT now()
                     )
                 """).then().block();
 
+        databaseClient.sql("DELETE FROM flash_sale_claim").then().block();
+        databaseClient.sql("DELETE FROM stock_reservation").then().block();
         databaseClient.sql("DELETE FROM cart_item").then().block();
         databaseClient.sql("DELETE FROM cart").then().block();
         databaseClient.sql("DELETE FROM product").then().block();
@@ -0,0 +1,141 @@
+package example.toyshop.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import example.toyshop.service.PasswordHasher;
+import example.toyshop.service.PasswordHashingRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Нагрузочный тест: задержка каталога во время шторма входов.
+ * <p>
+ * Поднимает Reactor Netty сервер с {@value #SERVER_LOOPS} потоками event
+ * loop и двумя маршрутами: {@code GET /products} отвечает сразу,
+ * {@code POST /login} проверяет пароль BCrypt. Пока {@code bench.logins}
+ * клиентов непрерывно входят, отдельный клиент раз в 10 мс читает каталог и
+ * замеряет время ответа. Три прогона:
+ * <ul>
+ * <li>{@code BASELINE} — входов нет;</li>
+ * <li>{@code INLINE} — BCrypt прямо на event loop, как было раньше;</li>
+ * <li>{@code POOL} — через {@link PasswordHasher}.</li>
+ * </ul>
+ * При {@code POOL} перцентили каталога должны остаться близки к
+ * {@code BASELINE}, при {@code INLINE} — вырасти до времени BCrypt и выше.
+ * Внешние сервисы не нужны. Запуск после {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     -Dbench.seconds=10 -Dbench.logins=32 example.toyshop.benchmark.LoginStormBenchmark
+ * </pre>
+ */
+public class LoginStormBenchmark {
+
+    private static final int SERVER_LOOPS = 2;
+    private static final String PASSWORD = "secret";
+    private static final String CATALOG = "[{\"id\":1,\"name\":\"Мяч\",\"price\":500}]";
+
+    enum Mode {
+        BASELINE, INLINE, POOL
+    }
+
+    public static void main(String[] args) {
+        Duration duration = Duration.ofSeconds(Long.getLong("bench.seconds", 10));
+        int logins = Integer.getInteger("bench.logins", 32);
+        PasswordEncoder encoder = new BCryptPasswordEncoder();
+        String hash = encoder.encode(PASSWORD);
+
+        System.out.printf("%-9s %12s %12s %12s %10s %10s%n",
+                "mode", "catalog p50", "catalog p99", "catalog max", "logins/s", "rejected");
+        for (Mode mode : Mode.values()) {
+            run(mode, encoder, hash, duration, logins);
+        }
+    }
+
+    private static void run(Mode mode, PasswordEncoder encoder, String hash, Duration duration, int logins) {
+        PasswordHasher hasher = new PasswordHasher(encoder, 0, 64, new SimpleMeterRegistry());
+        LoopResources serverLoops = LoopResources.create("bench-server", SERVER_LOOPS, true);
+        LoopResources clientLoops = LoopResources.create("bench-client", 4, true);
+        ConnectionProvider connections = ConnectionProvider.builder("bench").maxConnections(logins + 1).build();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .runOn(serverLoops)
+                .route(routes -> routes
+                        .get("/products", (request, response) -> response.sendString(Mono.just(CATALOG)))
+                        .post("/login", (request, response) -> {
+                            Mono<Boolean> check = mode == Mode.POOL
+                                    ? hasher.matches(PASSWORD, hash)
+                                    : Mono.fromCallable(() -> encoder.matches(PASSWORD, hash));
+                            return request.receive().then(check)
+                                    .map(ok -> ok ? "ok" : "denied")
+                                    .onErrorResume(PasswordHashingRejectedException.class, e -> {
+                                        response.status(503);
+                                        return Mono.just("busy");
+                                    })
+                                    .flatMap(body -> response.sendString(Mono.just(body)).then());
+                        }))
+                .bindNow();
+        HttpClient client = HttpClient.create(connections)
+                .runOn(clientLoops)
+                .baseUrl("http://localhost:" + server.port());
+        try {
+            AtomicLong loggedIn = new AtomicLong();
+            AtomicLong rejected = new AtomicLong();
+            Mono<Void> stop = Mono.delay(duration).then();
+
+            Mono<Void> storm = mode == Mode.BASELINE ? Mono.empty()
+                    : Flux.range(0, Integer.MAX_VALUE)
+                            .flatMap(i -> client.post().uri("/login").responseSingle((response, body) -> {
+                                (response.status().code() == 503 ? rejected : loggedIn).incrementAndGet();
+                                return body.then();
+                            }), logins)
+                            .takeUntilOther(stop)
+                            .then();
+
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            Mono<Void> probe = Flux.interval(Duration.ofMillis(10))
+                    .onBackpressureDrop()
+                    .concatMap(tick -> {
+                        long started = System.nanoTime();
+                        return client.get().uri("/products").responseSingle((response, body) -> body.asString())
+                                .doOnNext(body -> latencies.add(System.nanoTime() - started));
+                    })
+                    .takeUntilOther(stop)
+                    .then();
+
+            Mono.when(storm, probe).block();
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            System.out.printf("%-9s %10.1fms %10.1fms %10.1fms %10.0f %10d%n", mode,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                    loggedIn.get() / (double) duration.toSeconds(), rejected.get());
+        } finally {
+            server.disposeNow();
+            connections.dispose();
+            clientLoops.dispose();
+            serverLoops.dispose();
+            hasher.close();
+        }
+    }
+
+    private static double percentile(List<Long> sorted, double quantile) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,76 @@
+package example.toyshop.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import example.toyshop.cache.CompactRedisSerializer;
+import example.toyshop.model.Product;
+
+/**
+ * Сравнение {@link CompactRedisSerializer} с прежним JSON-сериализатором
+ * на значении {@code product:{id}}.
+ * <p>
+ * Пропускная способность — результаты JMH; размеры значений печатаются
+ * при подготовке состояния. Запуск после {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     example.toyshop.benchmark.RedisCodecBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisCodecBenchmark {
+
+    @Param({ "json", "compact" })
+    public String codec;
+
+    private RedisSerializer<Object> serializer;
+    private Product value;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RedisSerializer<Object> json = RedisSerializer.json();
+        serializer = "compact".equals(codec) ? new CompactRedisSerializer(json) : json;
+
+        value = new Product(1L, "Игрушка №1", "Описание игрушки номер 1", 107, "/images/toy-1.png", 1);
+        encoded = serializer.serialize(value);
+        System.out.printf("%n[%s] размер значения: %d байт%n", codec, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return serializer.deserialize(encoded);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package example.toyshop.cache;
+
+import example.toyshop.model.Product;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactRedisSerializerTest {
+
+    private final RedisSerializer<Object> json = RedisSerializer.json();
+    private final CompactRedisSerializer serializer = new CompactRedisSerializer(json);
+
+    private final Product product = new Product(1L, "Мяч", "Футбольный", 500, "img1", 10);
+
+    @Test
+    void product_shouldRoundTrip_andBeSmallerThanJson() {
+        byte[] bytes = serializer.serialize(product);
+
+        assertThat(serializer.deserialize(bytes)).isEqualTo(product);
+        assertThat(bytes.length).isLessThan(json.serialize(product).length / 3);
+    }
+
+    @Test
+    void product_shouldKeepNullFields() {
+        Product partial = new Product(null, "Мяч", null, 500, null, 0);
+
+        assertThat(serializer.deserialize(serializer.serialize(partial))).isEqualTo(partial);
+    }
+
+    @Test
+    void productList_shouldFallBackToJson() {
+        List<Product> products = new ArrayList<>(List.of(product, new Product(2L, "Робот", "", 1500, "img2", 5)));
+        byte[] bytes = serializer.serialize(products);
+
+        assertThat(bytes[2]).isEqualTo(CompactRedisSerializer.TAG_JSON);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(products);
+    }
+
+    @Test
+    void jsonMode_shouldWriteJson_andReadCompact() {
+        CompactRedisSerializer jsonWriter = new CompactRedisSerializer(json, false);
+
+        assertThat(jsonWriter.serialize(product)).isEqualTo(json.serialize(product));
+        assertThat(jsonWriter.deserialize(serializer.serialize(product))).isEqualTo(product);
+    }
+
+    @Test
+    void otherValues_shouldFallBackToJson() {
+        Map<String, Object> value = new HashMap<>(Map.of("key", "value"));
+
+        assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+    }
+
+    @Test
+    void deserialize_shouldReadLegacyJson() {
+        byte[] legacy = json.serialize(product);
+
+        assertThat(serializer.deserialize(legacy)).isEqualTo(product);
+    }
+
+    @Test
+    void deserialize_shouldRejectUnknownVersion() {
+        byte[] bytes = serializer.serialize(product);
+        bytes[1] = CompactRedisSerializer.VERSION + 1;
+
+        assertThatThrownBy(() -> serializer.deserialize(bytes)).isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void deserialize_shouldRejectTruncatedValue() {
+        byte[] bytes = serializer.serialize(product);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+
+        assertThatThrownBy(() -> serializer.deserialize(truncated)).isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void deserialize_shouldRejectLengthBeyondValue() {
+        // товар с одним полем name, длина которого — 2^32 + 1: после приведения к int было бы 1
+        byte[] bytes = { CompactRedisSerializer.MAGIC, CompactRedisSerializer.VERSION, CompactRedisSerializer.TAG_PRODUCT,
+                2, (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10, 'a' };
+
+        assertThatThrownBy(() -> serializer.deserialize(bytes)).isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void deserialize_shouldRejectReservedListTag() {
+        byte[] bytes = { CompactRedisSerializer.MAGIC, CompactRedisSerializer.VERSION, 2, 0 };
+
+        assertThatThrownBy(() -> serializer.deserialize(bytes)).isInstanceOf(SerializationException.class);
+    }
+}
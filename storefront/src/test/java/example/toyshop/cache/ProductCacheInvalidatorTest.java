@@ -0,0 +1,66 @@
+package example.toyshop.cache;
+
+import example.toyshop.model.Product;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class ProductCacheInvalidatorTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate stringRedisTemplate;
+
+    private NearCache<Long, Product> productNearCache;
+    private ProductCacheInvalidator invalidator;
+
+    private final Product product = new Product(1L, "Мяч", "Футбольный", 500, "img1", 10);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        productNearCache = new NearCache<>("product", 100, Duration.ofMinutes(1), registry);
+        invalidator = new ProductCacheInvalidator(stringRedisTemplate, productNearCache);
+
+        productNearCache.putIfCurrent(1L, product, productNearCache.generation());
+    }
+
+    @Test
+    void handle_shouldEvictProduct() {
+        invalidator.handle("1");
+
+        assertThat(productNearCache.getIfPresent(1L)).isNull();
+    }
+
+    @Test
+    void publish_shouldEvictLocallyAndSendMessage() {
+        when(stringRedisTemplate.convertAndSend(ProductCacheInvalidator.CHANNEL, "1")).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(invalidator.publish(1L)).verifyComplete();
+
+        assertThat(productNearCache.getIfPresent(1L)).isNull();
+        verify(stringRedisTemplate).convertAndSend(ProductCacheInvalidator.CHANNEL, "1");
+    }
+
+    @Test
+    void putIfCurrent_shouldRejectValueLoadedBeforeInvalidation() {
+        long generation = productNearCache.generation();
+        invalidator.handle("1"); // инвалидация во время загрузки
+
+        assertThat(productNearCache.putIfCurrent(1L, product, generation)).isFalse();
+        assertThat(productNearCache.getIfPresent(1L)).isNull();
+    }
+}
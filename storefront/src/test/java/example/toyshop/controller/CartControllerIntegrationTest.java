@@ -5,6 +5,7 @@ import example.toyshop.dto.cart.CartView;
 import example.toyshop.model.User;
 import example.toyshop.service.CartPaymentService;
 import example.toyshop.service.CartService;
+import example.toyshop.service.GuestCartService;
 import example.toyshop.service.UserService;
 import reactor.core.publisher.Mono;
 
@@ -41,6 +42,9 @@ class CartControllerIntegrationTest {
         @MockitoBean
         private UserService userService;
 
+        @MockitoBean
+        private GuestCartService guestCartService;
+
         private final String testUserId = "1";
 
         @BeforeEach
@@ -54,6 +58,7 @@ class CartControllerIntegrationTest {
 
                 Mockito.when(userService.findByUsernameWithRoles(Mockito.anyString()))
                                 .thenReturn(Mono.just(userWithRoles));
+                Mockito.when(userService.currentUserId()).thenReturn(Mono.just(testUserId));
 
                 // Подключаем авторизацию ко всем запросам
                 webTestClient = webTestClient.mutateWith(
@@ -1,16 +1,17 @@
 package example.toyshop.controller;
 
 import example.toyshop.service.CartService;
+import example.toyshop.service.GuestCartService;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import reactor.core.publisher.Mono;
-import java.util.List;
 
-import example.toyshop.model.User;
 import example.toyshop.service.CartPaymentService;
 import example.toyshop.service.UserService;
 import org.mockito.Mockito;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
 import static org.assertj.core.api.Assertions.assertThat;
 
 class CartControllerTest {
@@ -20,6 +21,7 @@ class CartControllerTest {
     private CartService cartService;
     private CartPaymentService cartPaymentService;
     private UserService userService;
+    private GuestCartService guestCartService;
 
     private final String testUserId = "1";
 
@@ -28,27 +30,38 @@ class CartControllerTest {
         cartService = Mockito.mock(CartService.class);
         cartPaymentService = Mockito.mock(CartPaymentService.class);
         userService = Mockito.mock(UserService.class);
+        guestCartService = Mockito.mock(GuestCartService.class);
 
-        cartController = new CartController(cartService, cartPaymentService, userService);
+        cartController = new CartController(cartService, cartPaymentService, userService, guestCartService);
 
         // Мокируем UserService для возврата тестового пользователя
-        User testUser = new User();
-        testUser.setId(1L);
-        testUser.setUsername("test");
-
-        UserService.UserWithRoles userWithRoles = new UserService.UserWithRoles(testUser, List.of());
-
-        Mockito.when(userService.findByUsernameWithRoles(Mockito.anyString()))
-                .thenReturn(Mono.just(userWithRoles));
+        Mockito.when(userService.currentUserId()).thenReturn(Mono.just(testUserId));
     }
 
     @Test
     void addProduct_shouldReturnRedirectToProducts() {
         Mockito.when(cartService.addProduct(testUserId, 1L))
                 .thenReturn(Mono.empty());
+        Mockito.when(guestCartService.add(Mockito.any(), Mockito.eq(1L)))
+                .thenReturn(Mono.just(1));
+
+        String result = cartController.addProduct(1L,
+                MockServerWebExchange.from(MockServerHttpRequest.post("/cart/add/1"))).block();
+        assertThat(result).isEqualTo("redirect:/products");
+    }
+
+    @Test
+    void addProduct_shouldUseGuestCart_whenNotAuthenticated() {
+        Mockito.when(userService.currentUserId()).thenReturn(Mono.empty());
+        Mockito.when(guestCartService.add(Mockito.any(), Mockito.eq(1L)))
+                .thenReturn(Mono.just(1));
+
+        String result = cartController.addProduct(1L,
+                MockServerWebExchange.from(MockServerHttpRequest.post("/cart/add/1"))).block();
 
-        String result = cartController.addProduct(1L).block();
         assertThat(result).isEqualTo("redirect:/products");
+        Mockito.verify(guestCartService).add(Mockito.any(), Mockito.eq(1L));
+        Mockito.verifyNoInteractions(cartService);
     }
 
     @Test
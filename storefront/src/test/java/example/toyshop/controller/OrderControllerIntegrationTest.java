@@ -88,7 +88,7 @@ public class OrderControllerIntegrationTest extends IntegrationTestcontainers {
         cartItemRepository.save(item).block();
 
         // Мок для баланса
-        Mockito.when(paymentServiceClient.getBalance())
+        Mockito.when(paymentServiceClient.getBalance(Mockito.any()))
                 .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(1000.0))));
 
         User admin = new User();
@@ -100,6 +100,8 @@ public class OrderControllerIntegrationTest extends IntegrationTestcontainers {
         Mockito.when(userService.findByUsernameWithRoles("admin"))
                 .thenReturn(Mono.just(userWithRoles));
 
+        Mockito.when(userService.currentUserId()).thenReturn(Mono.just("1"));
+
         // Cart c = cartRepository.findByUserIdAndStatus("admin",
         // CartStatus.COMPLETED).block();
         // System.out.println("Cart found: " + c);
@@ -1,14 +1,15 @@
 package example.toyshop.controller;
 
+import example.toyshop.dto.cart.CartItemView;
+import example.toyshop.dto.cart.OrderPage;
 import example.toyshop.dto.cart.OrderView;
 import example.toyshop.model.Cart;
 import example.toyshop.model.CartItem;
 import example.toyshop.model.CartStatus;
 import example.toyshop.model.Product;
-import example.toyshop.model.User;
 import example.toyshop.repository.CartItemRepository;
 import example.toyshop.repository.CartRepository;
-import example.toyshop.repository.ProductRepository;
+import example.toyshop.service.OrderHistoryService;
 import example.toyshop.service.PaymentServiceClient;
 import example.toyshop.service.UserService;
 
@@ -16,17 +17,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.server.MockWebSession;
 import org.springframework.ui.ConcurrentModel;
 import org.springframework.ui.Model;
 import com.example.openapi.client.model.BalanceResponse;
 
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class OrderControllerTest {
@@ -37,15 +41,15 @@ class OrderControllerTest {
     @Mock
     private CartItemRepository cartItemRepository;
 
-    @Mock
-    private ProductRepository productRepository;
-
     @Mock
     private PaymentServiceClient paymentServiceClient;
 
     @Mock
     private UserService userService;
 
+    @Mock
+    private OrderHistoryService orderHistoryService;
+
     private OrderController orderController;
 
     private Cart testCart;
@@ -60,47 +64,62 @@ class OrderControllerTest {
         testItem = new CartItem(1L, 1L, 2L, 2);
         testCart = new Cart(1L, "1", CartStatus.COMPLETED, LocalDateTime.now());
 
-        when(paymentServiceClient.getBalance())
+        when(paymentServiceClient.getBalance("1"))
                 .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(1000))));
 
-        orderController = new OrderController(cartRepository, cartItemRepository, productRepository,
-                paymentServiceClient, userService);
+        orderController = new OrderController(cartRepository, cartItemRepository,
+                paymentServiceClient, userService, orderHistoryService);
 
         // Мокаем пользователя
-        User user = new User(1L, "admin", null, true, "admin@test.com");
-        UserService.UserWithRoles userWithRoles = new UserService.UserWithRoles(user, List.of());
-        when(userService.findByUsernameWithRoles(toString()))
-                .thenReturn(Mono.just(userWithRoles));
+        when(userService.currentUserId()).thenReturn(Mono.just("1"));
     }
 
     @Test
     void viewOrders_shouldReturnOrdersViewWithData() {
-        when(cartRepository.findByStatusAndUserId(CartStatus.COMPLETED, "1"))
-                .thenReturn(Flux.just(testCart));
-        when(cartItemRepository.findByCartId(1L))
-                .thenReturn(Flux.just(testItem));
-        when(productRepository.findById(2L))
-                .thenReturn(Mono.just(testProduct));
+        OrderView order = new OrderView(testCart, List.of(new CartItemView(testItem, testProduct)));
+        when(orderHistoryService.getPage("1", 10, null))
+                .thenReturn(Mono.just(new OrderPage(List.of(order), "next")));
 
         Model model = new ConcurrentModel();
 
         // Не используем block(), вызываем прямо
-        orderController.viewOrders(model).subscribe(viewName -> {
+        orderController.viewOrders(10, null, model).subscribe(viewName -> {
             assertThat(viewName).isEqualTo("orders");
 
             List<OrderView> orders = (List<OrderView>) model.getAttribute("orders");
             assertThat(orders).hasSize(1);
             assertThat(orders.get(0).getItems()).hasSize(1);
             assertThat(orders.get(0).getTotalAmount()).isEqualTo(BigDecimal.valueOf(1000));
+            assertThat(model.getAttribute("nextCursor")).isEqualTo("next");
+            assertThat(model.getAttribute("firstPage")).isEqualTo(true);
         });
     }
 
+    @Test
+    void viewOrder_shouldReadSnapshot() {
+        OrderView snapshot = new OrderView(1L, testCart.getCreatedAt(),
+                List.of(new CartItemView(2L, "Мяч", "img", 2, BigDecimal.valueOf(450), BigDecimal.valueOf(900))),
+                BigDecimal.valueOf(900), BigDecimal.ZERO);
+        when(cartRepository.findOrderSnapshot(1L, "1")).thenReturn(Mono.just(snapshot));
+
+        Model model = new ConcurrentModel();
+
+        StepVerifier.create(orderController.viewOrder(1L, new MockWebSession(), model))
+                .expectNext("order")
+                .verifyComplete();
+
+        // цена на момент покупки, а не текущая цена товара
+        assertThat(((OrderView) model.getAttribute("order")).getTotalAmount()).isEqualTo(BigDecimal.valueOf(900));
+        verifyNoInteractions(cartItemRepository);
+    }
+
     @Test
     void viewOrder_shouldReturnSingleOrderView() {
+        when(cartRepository.findOrderSnapshot(1L, "1")).thenReturn(Mono.empty());
         when(cartRepository.findById(1L)).thenReturn(Mono.just(testCart));
-        when(cartItemRepository.findByCartId(1L)).thenReturn(Flux.just(testItem));
-        when(productRepository.findById(2L)).thenReturn(Mono.just(testProduct));
-        when(paymentServiceClient.getBalance()).thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(1000))));
+        when(cartItemRepository.findItemViewsByCartIds(List.of(1L)))
+                .thenReturn(Mono.just(Map.of(1L, List.of(new CartItemView(testItem, testProduct)))));
+        when(paymentServiceClient.getBalance("1")).thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(1000))));
 
         Model model = new ConcurrentModel();
 
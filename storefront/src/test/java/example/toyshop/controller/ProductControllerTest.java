@@ -8,7 +8,6 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.math.BigDecimal;
 import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -20,12 +19,14 @@ import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.ui.Model;
 
-import example.toyshop.dto.cart.CartView;
+import example.toyshop.dto.product.ProductPage;
+import example.toyshop.dto.product.ProductSort;
 import example.toyshop.model.Product;
 import example.toyshop.model.ProductForm;
 import example.toyshop.service.CartService;
+import example.toyshop.service.GuestCartService;
 import example.toyshop.service.ProductService;
-import reactor.core.publisher.Flux;
+import example.toyshop.service.UserService;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import org.junit.jupiter.api.BeforeEach;
@@ -39,6 +40,12 @@ class ProductControllerTest {
     @Mock
     private CartService cartService;
 
+    @Mock
+    private GuestCartService guestCartService;
+
+    @Mock
+    private UserService userService;
+
     @Mock
     private Model model;
 
@@ -62,15 +69,13 @@ class ProductControllerTest {
         p1.setName("Мишка");
         p1.setPrice(1000);
 
-        // Подготовка корзины
-        CartView cart = new CartView(List.of(), BigDecimal.ZERO);
-
         // Lenient стабы
-        lenient().when(productService.getAll()).thenReturn(Flux.just(p1));
-        lenient().when(cartService.getCartView("admin")).thenReturn(Mono.just(cart));
+        lenient().when(productService.getPage(null, ProductSort.NAME_ASC, 10, null))
+                .thenReturn(Mono.just(new ProductPage(List.of(p1), null)));
+        lenient().when(cartService.getTotalQuantity("admin")).thenReturn(Mono.just(0));
 
         // Вызов метода
-        Mono<String> result = controller.listProducts(oidcUser, null, "name_asc", 10, model);
+        Mono<String> result = controller.listProducts(oidcUser, null, "name_asc", 10, null, null, model);
 
         StepVerifier.create(result)
                 .expectNext("products")
@@ -78,12 +83,29 @@ class ProductControllerTest {
 
         // Проверка модели
         verify(model).addAttribute("products", List.of(p1));
+        verify(model).addAttribute("nextCursor", null);
         verify(model).addAttribute("cartTotalQuantity", 0);
         verify(model).addAttribute("keyword", null);
         verify(model).addAttribute("sort", "name_asc");
         verify(model).addAttribute("size", 10);
     }
 
+    @Test
+    void listProducts_shouldReadGuestCart_forAnonymousVisitor() {
+        when(productService.getPage(null, ProductSort.NAME_ASC, 10, null))
+                .thenReturn(Mono.just(new ProductPage(List.of(), null)));
+        when(userService.currentUserId()).thenReturn(Mono.empty());
+        when(guestCartService.totalQuantity("guest-id")).thenReturn(Mono.just(3));
+
+        StepVerifier.create(controller.listProducts(null, null, "name_asc", 10, null, "guest-id", model))
+                .expectNext("products")
+                .verifyComplete();
+
+        verify(model).addAttribute("cartTotalQuantity", 3);
+        // анонимный просмотр витрины не трогает корзины в БД
+        Mockito.verifyNoInteractions(cartService);
+    }
+
     @Test
     @WithMockUser(username = "admin", roles = { "ADMIN" })
     void addProduct_shouldSaveProductAndRedirect() {
@@ -0,0 +1,45 @@
+package example.toyshop.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientIpResolverTest {
+
+    private final ClientIpResolver resolver = new ClientIpResolver(List.of("10.0.0.0/8"));
+
+    private static MockServerHttpRequest.BaseBuilder<?> from(String peer) {
+        return MockServerHttpRequest.post("/login").remoteAddress(new InetSocketAddress(peer, 40000));
+    }
+
+    @Test
+    void resolve_shouldIgnoreForwardedHeaders_fromUntrustedPeer() {
+        assertThat(resolver.resolve(from("203.0.113.7").header("X-Forwarded-For", "198.51.100.1").build()))
+                .isEqualTo("203.0.113.7");
+    }
+
+    @Test
+    void resolve_shouldTakeFirstUntrustedHopFromRight_behindTrustedProxies() {
+        // левее клиента — подставленное самим клиентом значение
+        assertThat(resolver.resolve(from("10.0.0.2")
+                .header("X-Forwarded-For", "1.1.1.1, 198.51.100.1, 10.0.0.5").build()))
+                .isEqualTo("198.51.100.1");
+    }
+
+    @Test
+    void resolve_shouldPreferForwardedHeader() {
+        assertThat(resolver.resolve(from("10.0.0.2")
+                .header("Forwarded", "for=\"[2001:db8::1]:4711\";proto=https, for=10.0.0.5")
+                .header("X-Forwarded-For", "198.51.100.1").build()))
+                .isEqualTo("2001:db8::1");
+    }
+
+    @Test
+    void resolve_shouldUsePeer_whenTrustedProxySentNoHeaders() {
+        assertThat(resolver.resolve(from("10.0.0.2").build())).isEqualTo("10.0.0.2");
+    }
+}
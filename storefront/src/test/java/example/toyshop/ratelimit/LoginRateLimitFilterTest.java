@@ -0,0 +1,104 @@
+package example.toyshop.ratelimit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class LoginRateLimitFilterTest {
+
+    @Mock
+    private SlidingWindowRateLimiter limiter;
+
+    private final AtomicInteger passed = new AtomicInteger();
+    private final WebFilterChain chain = exchange -> Mono.fromRunnable(passed::incrementAndGet);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private LoginRateLimitFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        filter = new LoginRateLimitFilter(limiter, new ClientIpResolver(List.of()), Duration.ofMinutes(1), 30, 10, 2,
+                registry, () -> 0L);
+    }
+
+    @Test
+    void login_shouldUseLocalBurstBeforeRedis() {
+        when(limiter.tryAcquire(any())).thenReturn(Mono.just(new SlidingWindowRateLimiter.Decision(null, Duration.ZERO)));
+
+        for (int i = 0; i < 3; i++) {
+            filter.filter(login("alice"), chain).block();
+        }
+
+        assertThat(passed).hasValue(3);
+        assertThat(registry.get("auth.rate-limit").tags("endpoint", "login", "result", "local").counter().count())
+                .isEqualTo(2);
+        verify(limiter, times(1)).tryAcquire(List.of(
+                new SlidingWindowRateLimiter.Limit("login:ip:10.0.0.1", 30),
+                new SlidingWindowRateLimiter.Limit("login:user:alice", 10)));
+    }
+
+    @Test
+    void login_shouldReject_andKeepRejectingLocallyUntilWindowEnds() {
+        SlidingWindowRateLimiter.Limit user = new SlidingWindowRateLimiter.Limit("login:user:alice", 10);
+        when(limiter.tryAcquire(any())).thenReturn(Mono.just(
+                new SlidingWindowRateLimiter.Decision(user, Duration.ofSeconds(20))));
+        filter.filter(login("alice"), chain).block();
+        filter.filter(login("alice"), chain).block();
+
+        MockServerWebExchange rejected = login("Alice");
+        filter.filter(rejected, chain).block();
+        MockServerWebExchange again = login("alice");
+        filter.filter(again, chain).block();
+
+        assertThat(passed).hasValue(2);
+        assertThat(rejected.getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(rejected.getResponse().getHeaders().getFirst("Retry-After")).isEqualTo("20");
+        assertThat(again.getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        verify(limiter, times(1)).tryAcquire(any());
+    }
+
+    @Test
+    void login_shouldBeAllowed_whenRedisFails() {
+        when(limiter.tryAcquire(any())).thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        for (int i = 0; i < 3; i++) {
+            filter.filter(login("alice"), chain).block();
+        }
+
+        assertThat(passed).hasValue(3);
+    }
+
+    @Test
+    void otherRequests_shouldPassWithoutChecks() {
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.get("/login")), chain).block();
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.post("/cart/add/1")), chain).block();
+
+        assertThat(passed).hasValue(2);
+        verifyNoInteractions(limiter);
+    }
+
+    private static MockServerWebExchange login(String username) {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/login")
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 40000))
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body("username=" + username + "&password=secret"));
+    }
+}
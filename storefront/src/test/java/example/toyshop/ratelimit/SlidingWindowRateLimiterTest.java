@@ -0,0 +1,50 @@
+package example.toyshop.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class SlidingWindowRateLimiterTest {
+
+    private final ReactiveStringRedisTemplate redis = mock(ReactiveStringRedisTemplate.class);
+    // 15 секунд в окно номер 2 из минутных: предыдущее окно весит 3/4
+    private final SlidingWindowRateLimiter limiter =
+            new SlidingWindowRateLimiter(redis, Duration.ofMinutes(1), () -> 135_000L);
+
+    private final SlidingWindowRateLimiter.Limit ip = new SlidingWindowRateLimiter.Limit("login:ip:10.0.0.1", 30);
+    private final SlidingWindowRateLimiter.Limit user = new SlidingWindowRateLimiter.Limit("login:user:alice", 10);
+
+    @Test
+    void tryAcquire_shouldCheckAllLimitsInOneScriptCall() {
+        when(redis.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(0L));
+
+        SlidingWindowRateLimiter.Decision decision = limiter.tryAcquire(List.of(ip, user)).block();
+
+        assertThat(decision.allowed()).isTrue();
+        verify(redis).execute(any(RedisScript.class),
+                eq(List.of("{auth-rate}:login:ip:10.0.0.1:2", "{auth-rate}:login:ip:10.0.0.1:1",
+                        "{auth-rate}:login:user:alice:2", "{auth-rate}:login:user:alice:1")),
+                eq(List.of("0.75", "120000", "30", "10")));
+    }
+
+    @Test
+    void tryAcquire_shouldReportExceededLimit_andTimeToNextWindow() {
+        when(redis.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(2L));
+
+        SlidingWindowRateLimiter.Decision decision = limiter.tryAcquire(List.of(ip, user)).block();
+
+        assertThat(decision.allowed()).isFalse();
+        assertThat(decision.exceeded()).isEqualTo(user);
+        assertThat(decision.retryAfter()).isEqualTo(Duration.ofSeconds(45));
+    }
+}
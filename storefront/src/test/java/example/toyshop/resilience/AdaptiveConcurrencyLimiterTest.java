@@ -0,0 +1,68 @@
+package example.toyshop.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void tryAcquire_shouldReject_whenLimitReached() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+
+        first.ignore();
+        assertEquals(1, limiter.inFlight());
+        assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    void dropped_shouldShrinkLimit_downToMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 3, 10);
+
+        limiter.tryAcquire().dropped();
+        assertEquals(9, limiter.limit());
+
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire().dropped();
+        }
+        assertEquals(3, limiter.limit());
+    }
+
+    @Test
+    void shouldGrow_whileLatencyStable_andShrink_whenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 100);
+
+        for (int round = 0; round < 20; round++) {
+            callsAtLimit(limiter, 1_000_000);
+        }
+        int grown = limiter.limit();
+        assertTrue(grown > 4, "лимит должен расти при стабильной задержке: " + grown);
+
+        // длинное среднее ещё помнит прежнюю задержку: лимит сжимается сразу
+        callsAtLimit(limiter, 20_000_000);
+        assertTrue(limiter.limit() < grown, "лимит должен сжиматься при росте задержки: " + limiter.limit());
+    }
+
+    /** Занимает все разрешения и завершает их через {@code rttNanos} */
+    private static void callsAtLimit(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        while ((permit = limiter.tryAcquire()) != null) {
+            permits.add(permit);
+        }
+        LockSupport.parkNanos(rttNanos);
+        permits.forEach(AdaptiveConcurrencyLimiter.Permit::success);
+    }
+}
@@ -0,0 +1,99 @@
+package example.toyshop.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    private static final Duration OPEN = Duration.ofSeconds(10);
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(0.5, 4, OPEN, 2, now::get);
+
+    @Test
+    void shouldOpen_whenFailureRateReachedOverFullWindow() {
+        call(true);
+        call(false);
+        call(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state()); // окно ещё не заполнено
+
+        call(false);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldStayClosed_whileFailuresBelowThreshold() {
+        for (int i = 0; i < 20; i++) {
+            call(i % 4 != 0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void shouldClose_afterSuccessfulProbes() {
+        open();
+        now.addAndGet(OPEN.toNanos());
+
+        CircuitBreaker.Permit first = breaker.tryAcquire();
+        CircuitBreaker.Permit second = breaker.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(breaker.tryAcquire()); // все пробы выданы
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        first.success();
+        second.success();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void shouldReopen_whenProbeFails() {
+        open();
+        now.addAndGet(OPEN.toNanos());
+
+        breaker.tryAcquire().failure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldIgnoreOutcome_ofCallStartedBeforeStateChange() {
+        CircuitBreaker.Permit stale = breaker.tryAcquire();
+        open();
+        now.addAndGet(OPEN.toNanos());
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        stale.failure(); // начат до размыкания: на пробы не влияет
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        probe.success();
+        breaker.tryAcquire().success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void call(boolean success) {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (success) {
+            permit.success();
+        } else {
+            permit.failure();
+        }
+    }
+}
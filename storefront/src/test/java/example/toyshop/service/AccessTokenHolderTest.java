@@ -0,0 +1,159 @@
+package example.toyshop.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+class AccessTokenHolderTest {
+
+    private static final Instant START = Instant.parse("2030-01-01T00:00:00Z");
+    private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(5);
+
+    private final ReactiveOAuth2AuthorizedClientManager manager = mock(ReactiveOAuth2AuthorizedClientManager.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock(START);
+    private AccessTokenHolder holder;
+
+    @BeforeEach
+    void setUp() {
+        holder = new AccessTokenHolder(manager, "payment-client", Duration.ofMinutes(1), registry, clock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        holder.close();
+    }
+
+    @Test
+    void getToken_shouldServeCachedToken_withoutAskingManagerAgain() {
+        when(manager.authorize(any())).thenReturn(Mono.just(client("t1", START)));
+
+        assertEquals("t1", holder.getToken().block());
+        clock.advance(Duration.ofMinutes(2));
+        assertEquals("t1", holder.getToken().block());
+
+        verify(manager, times(1)).authorize(any());
+        assertEquals(1, gets("hit"));
+        assertEquals(1, gets("miss"));
+        assertEquals(1, registry.get("oauth2.token.refresh").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void getToken_shouldCoalesceConcurrentRefreshes() {
+        Sinks.One<OAuth2AuthorizedClient> response = Sinks.one();
+        when(manager.authorize(any())).thenReturn(response.asMono());
+
+        StepVerifier.create(Mono.zip(holder.getToken(), holder.getToken(), (a, b) -> a + "," + b))
+                .then(() -> response.tryEmitValue(client("t1", START)))
+                .expectNext("t1,t1")
+                .verifyComplete();
+
+        verify(manager, times(1)).authorize(any());
+    }
+
+    @Test
+    void getToken_shouldServeOldTokenAndRefreshInBackground_whenCloseToExpiry() {
+        Sinks.One<OAuth2AuthorizedClient> refreshed = Sinks.one();
+        when(manager.authorize(any()))
+                .thenReturn(Mono.just(client("t1", START)))
+                .thenReturn(refreshed.asMono());
+        holder.getToken().block();
+
+        clock.advance(TOKEN_LIFETIME.minusSeconds(30));
+        // обновление ещё идёт, а запрос уже получил старый токен
+        assertEquals("t1", holder.getToken().block());
+        assertEquals("t1", holder.getToken().block());
+        verify(manager, times(2)).authorize(any());
+
+        refreshed.tryEmitValue(client("t2", clock.instant()));
+        assertEquals("t2", holder.getToken().block());
+    }
+
+    @Test
+    void getToken_shouldWaitForNewToken_whenCachedOneExpired() {
+        when(manager.authorize(any()))
+                .thenReturn(Mono.just(client("t1", START)))
+                .thenReturn(Mono.just(client("t2", START.plus(TOKEN_LIFETIME))));
+        holder.getToken().block();
+
+        clock.advance(TOKEN_LIFETIME);
+
+        assertEquals("t2", holder.getToken().block());
+        assertEquals(2, gets("miss"));
+    }
+
+    @Test
+    void getToken_shouldFail_andCountFailure_whenManagerFails() {
+        when(manager.authorize(any())).thenReturn(Mono.error(new IllegalStateException("keycloak недоступен")));
+
+        StepVerifier.create(holder.getToken()).verifyError(IllegalStateException.class);
+        assertEquals(1, registry.get("oauth2.token.refresh").tag("outcome", "failure").timer().count());
+    }
+
+    private double gets(String result) {
+        return registry.get("oauth2.token.gets").tag("result", result).counter().count();
+    }
+
+    private static OAuth2AuthorizedClient client(String value, Instant issuedAt) {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("payment-client")
+                .clientId("payment-service")
+                .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+                .tokenUri("http://localhost/token")
+                .build();
+        OAuth2AccessToken token = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, value,
+                issuedAt, issuedAt.plus(TOKEN_LIFETIME));
+        return new OAuth2AuthorizedClient(registration, "payment-client", token);
+    }
+
+    /** Часы, которые тест двигает вручную */
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
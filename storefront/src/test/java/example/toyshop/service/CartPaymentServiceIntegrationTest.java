@@ -1,9 +1,7 @@
 package example.toyshop.service;
 
 import com.example.openapi.client.model.BalanceResponse;
-import com.example.openapi.client.model.ConfirmResponse;
-import com.example.openapi.client.model.PaymentResponse;
-import com.example.openapi.client.model.PaymentResponse.StatusEnum;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
 
 import example.toyshop.model.Cart;
 import example.toyshop.config.TestSecurityConfig;
@@ -41,6 +39,9 @@ class CartPaymentServiceIntegrationTest {
     @MockitoBean
     private PaymentServiceClient paymentServiceClient;
 
+    @MockitoBean
+    private InventoryService inventoryService;
+
     private final String userId = "1";
 
     private Cart cart;
@@ -54,12 +55,17 @@ class CartPaymentServiceIntegrationTest {
         cartView = new CartView();
         cartView.setItems(List.of());
         cartView.setTotalAmount(BigDecimal.valueOf(1500));
+
+        Mockito.when(cartService.findActiveCart(userId)).thenReturn(Mono.just(cart));
+        Mockito.when(inventoryService.reserve(1L)).thenReturn(Mono.empty());
+        Mockito.when(inventoryService.commit(1L)).thenReturn(Mono.empty());
+        Mockito.when(inventoryService.release(1L)).thenReturn(Mono.empty());
     }
 
     @Test
     void prepareCartForView_shouldReturnCartAndBalance() {
         Mockito.when(cartService.getCartView(userId)).thenReturn(Mono.just(cartView));
-        Mockito.when(paymentServiceClient.getBalance())
+        Mockito.when(paymentServiceClient.getBalance(userId))
                 .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(500))));
 
         Mono<Map<String, Object>> result = cartPaymentService.prepareCartForView(userId);
@@ -74,19 +80,14 @@ class CartPaymentServiceIntegrationTest {
 
     @Test
     void checkoutAndPay_shouldRedirectToOrder_whenPaymentSucceeds() {
-        PaymentResponse paymentResponse = new PaymentResponse();
-        paymentResponse.setStatus(PaymentResponse.StatusEnum.SUCCESS);
+        CheckoutPaymentResponse paymentResponse = new CheckoutPaymentResponse();
+        paymentResponse.setStatus(CheckoutPaymentResponse.StatusEnum.SUCCESS);
         paymentResponse.setTransactionId("txn-123");
-
-        ConfirmResponse confirmResponse = new ConfirmResponse();
-        confirmResponse.setConfirmed(true);
+        paymentResponse.setBalance(BigDecimal.valueOf(500));
 
         Mockito.when(cartService.getCartView(userId)).thenReturn(Mono.just(cartView));
         Mockito.when(cartService.checkout(userId)).thenReturn(Mono.just(cart));
-        Mockito.when(paymentServiceClient.pay(Mockito.any())).thenReturn(Mono.just(paymentResponse));
-        Mockito.when(paymentServiceClient.confirm(Mockito.any())).thenReturn(Mono.just(confirmResponse));
-        Mockito.when(paymentServiceClient.getBalance())
-                .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(500))));
+        Mockito.when(paymentServiceClient.checkoutPayment(Mockito.any())).thenReturn(Mono.just(paymentResponse));
 
         Mono<String> result = cartPaymentService.checkoutAndPay(userId);
 
@@ -97,18 +98,14 @@ class CartPaymentServiceIntegrationTest {
 
     @Test
     void checkoutAndPay_shouldReturnCart_whenPaymentFails() {
-        PaymentResponse paymentResponse = new PaymentResponse();
-        paymentResponse.setStatus(PaymentResponse.StatusEnum.FAILED);
+        CheckoutPaymentResponse paymentResponse = new CheckoutPaymentResponse();
+        paymentResponse.setStatus(CheckoutPaymentResponse.StatusEnum.FAILED);
 
         Mockito.when(cartService.getCartView(userId)).thenReturn(Mono.just(cartView));
         Mockito.when(cartService.checkout(userId)).thenReturn(Mono.just(cart));
 
-        // pay возвращает FAILURE
-        Mockito.when(paymentServiceClient.pay(Mockito.any())).thenReturn(Mono.just(paymentResponse));
-
-        // balance должен быть Mono, иначе flatMap упадет
-        Mockito.when(paymentServiceClient.getBalance())
-                .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(500))));
+        // оплата возвращает FAILED
+        Mockito.when(paymentServiceClient.checkoutPayment(Mockito.any())).thenReturn(Mono.just(paymentResponse));
 
         StepVerifier.create(cartPaymentService.checkoutAndPay(userId))
                 .expectNext("cart") // как раз возвращается "cart" при FAILURE
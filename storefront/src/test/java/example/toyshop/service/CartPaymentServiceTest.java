@@ -3,11 +3,11 @@ package example.toyshop.service;
 import example.toyshop.model.Cart;
 import example.toyshop.config.TestSecurityConfig;
 import example.toyshop.dto.cart.CartView;
+import example.toyshop.resilience.CallRejectedException;
 
 import com.example.openapi.client.model.BalanceResponse;
-import com.example.openapi.client.model.ConfirmResponse;
-import com.example.openapi.client.model.PaymentResponse;
-import com.example.openapi.client.model.PaymentResponse.StatusEnum;
+import com.example.openapi.client.model.CheckoutPaymentResponse;
+import com.example.openapi.client.model.CheckoutPaymentResponse.StatusEnum;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -21,7 +21,12 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.math.BigDecimal;
+import java.util.concurrent.TimeoutException;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class CartPaymentServiceTest {
@@ -32,6 +37,9 @@ class CartPaymentServiceTest {
         @Mock
         private PaymentServiceClient paymentServiceClient;
 
+        @Mock
+        private InventoryService inventoryService;
+
         @InjectMocks
         private CartPaymentService cartPaymentService;
 
@@ -46,12 +54,17 @@ class CartPaymentServiceTest {
                 cart.setId(1L); // Long вместо UUID
                 cartView = new CartView();
                 cartView.setTotalAmount(BigDecimal.valueOf(100));
+
+                when(cartService.findActiveCart("user1")).thenReturn(Mono.just(cart));
+                when(inventoryService.reserve(1L)).thenReturn(Mono.empty());
+                when(inventoryService.commit(1L)).thenReturn(Mono.empty());
+                when(inventoryService.release(1L)).thenReturn(Mono.empty());
         }
 
         @Test
         void testPrepareCartForView() {
                 when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
-                when(paymentServiceClient.getBalance())
+                when(paymentServiceClient.getBalance("user1"))
                                 .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(50))));
 
                 StepVerifier.create(cartPaymentService.prepareCartForView("user1"))
@@ -64,17 +77,22 @@ class CartPaymentServiceTest {
         void testCheckoutAndPay_Success() {
                 when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
                 when(cartService.checkout("user1")).thenReturn(Mono.just(cart));
-                when(paymentServiceClient.pay(any())).thenReturn(Mono.just(new PaymentResponse()
+                when(paymentServiceClient.checkoutPayment(any())).thenReturn(Mono.just(new CheckoutPaymentResponse()
                                 .transactionId("tx123")
-                                .status(StatusEnum.SUCCESS)));
-                when(paymentServiceClient.getBalance())
-                                .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(50))));
-                when(paymentServiceClient.confirm(any()))
-                                .thenReturn(Mono.just(new ConfirmResponse().confirmed(true)));
+                                .status(StatusEnum.SUCCESS)
+                                .balance(BigDecimal.valueOf(50))));
 
                 StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
                                 .expectNext("redirect:/orders/" + cart.getId())
                                 .verifyComplete();
+
+                // списание идёт со счёта покупателя, а не с общего счёта витрины
+                verify(paymentServiceClient).checkoutPayment(
+                                argThat(request -> "user1".equals(request.getAccountId())));
+                // оплата — один запрос: ни отдельного баланса, ни подтверждения
+                verify(paymentServiceClient, never()).getBalance(any());
+                verify(paymentServiceClient, never()).confirm(any(), any());
+                verify(inventoryService).commit(1L);
         }
 
         @Test
@@ -83,20 +101,76 @@ class CartPaymentServiceTest {
                 when(cartService.checkout("user1")).thenReturn(Mono.just(cart));
 
                 // Платёж завершился неуспешно
-                when(paymentServiceClient.pay(any())).thenReturn(Mono.just(new PaymentResponse()
+                when(paymentServiceClient.checkoutPayment(any())).thenReturn(Mono.just(new CheckoutPaymentResponse()
                                 .transactionId("tx123")
-                                .status(StatusEnum.SUCCESS)));
+                                .status(StatusEnum.FAILED)
+                                .balance(BigDecimal.valueOf(50))));
 
-                // Баланс возвращается нормально
-                when(paymentServiceClient.getBalance())
-                                .thenReturn(Mono.just(new BalanceResponse().balance(BigDecimal.valueOf(50))));
+                StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
+                                .expectNext("cart") // возвращается страница с ошибкой
+                                .verifyComplete();
 
-                // confirm() не вызывается, но на всякий случай возвращаем Mono.just
-                when(paymentServiceClient.confirm(any()))
-                                .thenReturn(Mono.just(new ConfirmResponse().confirmed(false)));
+                verify(inventoryService).release(1L);
+                verify(cartService, never()).checkout(any());
+        }
+
+        @Test
+        void testCheckoutAndPay_InsufficientStock() {
+                when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
+                when(inventoryService.reserve(1L)).thenReturn(Mono.error(new InsufficientStockException(1L, 1)));
 
                 StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
-                                .expectNext("cart") // возвращается страница с ошибкой
+                                .expectNext("cart")
                                 .verifyComplete();
+
+                // без резерва оплата не выполняется, корзина не закрывается
+                verify(paymentServiceClient, never()).checkoutPayment(any());
+                verify(cartService, never()).checkout(any());
+        }
+
+        @Test
+        void testCheckoutAndPay_RejectedCallReleasesReservation() {
+                when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
+                when(paymentServiceClient.checkoutPayment(any())).thenReturn(Mono.error(
+                                new CallRejectedException("payment.write", CallRejectedException.Reason.CIRCUIT_OPEN)));
+
+                StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
+                                .verifyError(CallRejectedException.class);
+
+                // запрос не отправлялся — деньги точно не списаны
+                verify(inventoryService).release(1L);
+                verify(cartService, never()).checkout(any());
+        }
+
+        @Test
+        void testCheckoutAndPay_TimeoutKeepsReservation() {
+                when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
+                when(paymentServiceClient.checkoutPayment(any()))
+                                .thenReturn(Mono.error(new TimeoutException("timeout")));
+
+                StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
+                                .verifyError(TimeoutException.class);
+
+                // исход оплаты неизвестен — резерв держится до истечения срока
+                verify(inventoryService, never()).release(any());
+                verify(cartService, never()).checkout(any());
+        }
+
+        @Test
+        void testCheckoutAndPay_CommitFailureAfterChargeKeepsReservation() {
+                when(cartService.getCartView("user1")).thenReturn(Mono.just(cartView));
+                when(cartService.checkout("user1")).thenReturn(Mono.just(cart));
+                when(inventoryService.commit(1L)).thenReturn(Mono.error(new IllegalStateException("db down")));
+                when(paymentServiceClient.checkoutPayment(any())).thenReturn(Mono.just(new CheckoutPaymentResponse()
+                                .transactionId("tx123")
+                                .status(StatusEnum.SUCCESS)
+                                .balance(BigDecimal.valueOf(50))));
+
+                // заказ оформлен: резерв подтвердит плановая сверка
+                StepVerifier.create(cartPaymentService.checkoutAndPay("user1"))
+                                .expectNext("redirect:/orders/" + cart.getId())
+                                .verifyComplete();
+
+                verify(inventoryService, never()).release(any());
         }
 }
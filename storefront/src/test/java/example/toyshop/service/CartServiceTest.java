@@ -1,5 +1,7 @@
 package example.toyshop.service;
 
+import example.toyshop.dto.cart.CartItemView;
+import example.toyshop.dto.cart.CartView;
 import example.toyshop.model.Cart;
 import example.toyshop.model.CartItem;
 import example.toyshop.model.CartStatus;
@@ -19,10 +21,13 @@ import reactor.test.StepVerifier;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class CartServiceTest {
@@ -36,6 +41,9 @@ class CartServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private FlashSaleService flashSaleService;
+
     @InjectMocks
     private CartService cartService;
 
@@ -53,23 +61,159 @@ class CartServiceTest {
     }
 
     @Test
-    void addProduct_shouldAddNewItem() {
-        // Классическая ситуация: товар ещё не в корзине
+    void addProduct_shouldUpsertItemInOneStatement() {
         when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
                 .thenReturn(Mono.just(testCart));
-        when(cartItemRepository.findByCartIdAndProductId(1L, 2L))
-                .thenReturn(Mono.empty()); // товара нет
-        when(cartItemRepository.save(any(CartItem.class)))
-                .thenAnswer(inv -> Mono.just(inv.getArgument(0)));
-        when(productRepository.findById(2L))
-                .thenReturn(Mono.just(testProduct));
+        when(cartItemRepository.addOne(1L, 2L)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cartService.addProduct("session1", 2L))
+                .expectNext(1)
+                .verifyComplete();
+
+        // строка корзины не читается в Java перед изменением
+        verify(cartItemRepository, never()).findByCartIdAndProductId(anyLong(), anyLong());
+    }
+
+    @Test
+    void addProduct_shouldClaimFlashSaleStockInRedis() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(flashSaleService.isOnSale(2L)).thenReturn(true);
+        when(flashSaleService.claim(1L, 2L))
+                .thenReturn(Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.CLAIMED, "1-0")));
+        when(cartItemRepository.addClaimed(1L, 2L, "1-0")).thenReturn(Mono.just(3));
+
+        StepVerifier.create(cartService.addProduct("session1", 2L))
+                .expectNext(3)
+                .verifyComplete();
+
+        // остаток распродажи проверен в Redis — строка товара в БД не участвует
+        verify(cartItemRepository, never()).addOne(anyLong(), anyLong());
+    }
+
+    @Test
+    void addProduct_shouldReturnEmpty_whenFlashSaleSoldOut() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(flashSaleService.isOnSale(2L)).thenReturn(true);
+        when(flashSaleService.claim(1L, 2L))
+                .thenReturn(Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.SOLD_OUT, null)));
 
         StepVerifier.create(cartService.addProduct("session1", 2L))
                 .verifyComplete();
 
-        // save вызывается как минимум один раз (может быть два)
-        verify(cartItemRepository, atLeastOnce()).save(any(CartItem.class));
-        verify(productRepository).findById(2L);
+        verify(cartItemRepository, never()).addOne(anyLong(), anyLong());
+        verify(cartItemRepository, never()).addClaimed(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void addProduct_shouldFallBackToDatabase_whenFlashSaleJustEnded() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(flashSaleService.isOnSale(2L)).thenReturn(true);
+        when(flashSaleService.claim(1L, 2L))
+                .thenReturn(Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.NOT_ON_SALE, null)));
+        when(cartItemRepository.addOne(1L, 2L)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cartService.addProduct("session1", 2L))
+                .expectNext(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void increaseProduct_shouldReturnEmpty_whenStockLimitReached() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(cartItemRepository.increaseBounded(1L, 2L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(cartService.increaseProduct("session1", 2L))
+                .verifyComplete();
+    }
+
+    @Test
+    void increaseProduct_shouldClaimFlashSaleStockInRedis() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(flashSaleService.isOnSale(2L)).thenReturn(true);
+        when(cartItemRepository.findByCartIdAndProductId(1L, 2L)).thenReturn(Mono.just(testItem));
+        when(flashSaleService.claim(1L, 2L))
+                .thenReturn(Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.CLAIMED, "1-0")));
+        when(cartItemRepository.addClaimed(1L, 2L, "1-0")).thenReturn(Mono.just(3));
+
+        StepVerifier.create(cartService.increaseProduct("session1", 2L))
+                .expectNext(3)
+                .verifyComplete();
+
+        // увеличение не обходит счётчик распродажи
+        verify(cartItemRepository, never()).increaseBounded(anyLong(), anyLong());
+    }
+
+    @Test
+    void mergeItems_shouldClaimEachFlashSaleUnit_untilSoldOut() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(flashSaleService.isOnSale(2L)).thenReturn(true);
+        when(flashSaleService.claim(1L, 2L)).thenReturn(
+                Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.CLAIMED, "1-0")),
+                Mono.just(new FlashSaleService.Claim(FlashSaleService.Claim.Status.SOLD_OUT, null)));
+        when(cartItemRepository.addClaimed(1L, 2L, "1-0")).thenReturn(Mono.just(1));
+        when(cartItemRepository.addUpTo(1L, 3L, 2)).thenReturn(Mono.just(2));
+        when(cartRepository.recountItems(1L)).thenReturn(Mono.just(3));
+
+        StepVerifier.create(cartService.mergeItems("session1", new LinkedHashMap<>(Map.of(2L, 3, 3L, 2))))
+                .verifyComplete();
+
+        // из трёх единиц товара на распродаже досталась одна
+        verify(flashSaleService, times(2)).claim(1L, 2L);
+        verify(cartItemRepository, never()).addUpTo(eq(1L), eq(2L), anyInt());
+        verify(cartItemRepository).addUpTo(1L, 3L, 2);
+        verify(cartRepository).recountItems(1L);
+    }
+
+    @Test
+    void decreaseProduct_shouldDeleteLastUnit() {
+        when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
+                .thenReturn(Mono.just(testCart));
+        when(cartItemRepository.decreaseAboveOne(1L, 2L)).thenReturn(Mono.empty());
+        when(cartItemRepository.deleteIfSingle(1L, 2L)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cartService.decreaseProduct("session1", 2L))
+                .expectNext(0)
+                .verifyComplete();
+    }
+
+    @Test
+    void getCartView_shouldReadCartWithItemsInOneQuery() {
+        CartView view = new CartView(List.of(new CartItemView(testItem, testProduct)), BigDecimal.valueOf(1000));
+        when(cartItemRepository.findActiveCartView("session1")).thenReturn(Mono.just(view));
+
+        StepVerifier.create(cartService.getCartView("session1"))
+                .expectNext(view)
+                .verifyComplete();
+
+        verify(cartItemRepository, never()).findByCartId(anyLong());
+    }
+
+    @Test
+    void getCartView_shouldNotCreateCart_whenNoActiveCart() {
+        when(cartItemRepository.findActiveCartView("guest")).thenReturn(Mono.empty());
+
+        StepVerifier.create(cartService.getCartView("guest"))
+                .assertNext(view -> assertThat(view.getItems()).isEmpty())
+                .verifyComplete();
+
+        verify(cartRepository, never()).save(any(Cart.class));
+    }
+
+    @Test
+    void getTotalQuantity_shouldReadMaintainedCounter() {
+        when(cartRepository.findActiveItemCount("session1")).thenReturn(Mono.just(5));
+        when(cartRepository.findActiveItemCount("nobody")).thenReturn(Mono.empty());
+
+        StepVerifier.create(cartService.getTotalQuantity("session1")).expectNext(5).verifyComplete();
+        StepVerifier.create(cartService.getTotalQuantity("nobody")).expectNext(0).verifyComplete();
+
+        verify(cartItemRepository, never()).findActiveCartView(any());
     }
 
     // @Test
@@ -116,13 +260,17 @@ class CartServiceTest {
         testCart.setStatus(CartStatus.ACTIVE);
         when(cartRepository.findByUserIdAndStatus("session1", CartStatus.ACTIVE))
                 .thenReturn(Mono.just(testCart));
+        when(cartRepository.recountItems(1L)).thenReturn(Mono.just(2));
         when(cartRepository.save(any(Cart.class)))
                 .thenAnswer(inv -> Mono.just(inv.getArgument(0)));
+        when(cartRepository.createOrderSnapshot(1L)).thenReturn(Mono.empty());
 
         StepVerifier.create(cartService.checkout("session1"))
                 .assertNext(cart -> assertThat(cart.getStatus()).isEqualTo(CartStatus.COMPLETED))
                 .verifyComplete();
 
+        verify(cartRepository).recountItems(1L);
         verify(cartRepository).save(any(Cart.class));
+        verify(cartRepository).createOrderSnapshot(1L);
     }
 }
\ No newline at end of file
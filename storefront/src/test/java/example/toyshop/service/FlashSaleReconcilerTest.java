@@ -0,0 +1,158 @@
+package example.toyshop.service;
+
+import example.toyshop.repository.CartItemRepository;
+import example.toyshop.repository.FlashSaleClaimRepository.FlashSaleClaim;
+import example.toyshop.repository.FlashSaleClaimRepository.RecoveredClaims;
+import example.toyshop.repository.FlashSaleClaimRepository.StockedClaims;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class FlashSaleReconcilerTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveStreamOperations<String, Object, Object> streams;
+
+    @Mock
+    private CartItemRepository cartItemRepository;
+
+    @Mock
+    private FlashSaleService flashSaleService;
+
+    private FlashSaleReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForStream()).thenReturn(streams);
+        when(streams.createGroup(eq(FlashSaleService.CLAIMS), any(ReadOffset.class), eq(FlashSaleReconciler.GROUP)))
+                .thenReturn(Mono.just("OK"));
+        when(streams.pending(eq(FlashSaleService.CLAIMS), eq(FlashSaleReconciler.GROUP), any(Range.class), anyLong()))
+                .thenReturn(Mono.just(new PendingMessages(FlashSaleReconciler.GROUP, List.of())));
+        when(streams.acknowledge(eq(FlashSaleService.CLAIMS), eq(FlashSaleReconciler.GROUP), any(RecordId[].class)))
+                .thenReturn(Mono.just(1L));
+        when(streams.delete(eq(FlashSaleService.CLAIMS), any(RecordId[].class))).thenReturn(Mono.just(1L));
+        when(cartItemRepository.stockFlashSaleClaims(anyInt(), anyLong())).thenReturn(Mono.just(new StockedClaims(0, 0)));
+
+        reconciler = new FlashSaleReconciler(redisTemplate, cartItemRepository, flashSaleService, 100,
+                Duration.ofSeconds(30), Duration.ofDays(1), Duration.ofMinutes(10), Duration.ofMinutes(1));
+    }
+
+    private static MapRecord<String, Object, Object> record(String id, Map<Object, Object> value) {
+        return MapRecord.create(FlashSaleService.CLAIMS, value).withId(RecordId.of(id));
+    }
+
+    @Test
+    void reconcile_shouldRecoverClaimsThenAckAndDeleteThem() {
+        when(streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(Flux.just(
+                        record("1-0", Map.of("cart", "7", "product", "2")),
+                        record("1-1", Map.of("cart", "oops"))));
+        when(cartItemRepository.recoverFlashSaleClaims(any())).thenReturn(Mono.just(new RecoveredClaims(0, List.of())));
+
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        // повреждённая заявка не передаётся в БД, но из потока удаляется вместе с остальными
+        verify(cartItemRepository).recoverFlashSaleClaims(List.of(new FlashSaleClaim("1-0", 7L, 2L)));
+        verify(streams).acknowledge(FlashSaleService.CLAIMS, FlashSaleReconciler.GROUP,
+                RecordId.of("1-0"), RecordId.of("1-1"));
+        verify(streams).delete(FlashSaleService.CLAIMS, RecordId.of("1-0"), RecordId.of("1-1"));
+        verify(cartItemRepository).stockFlashSaleClaims(100, 600L);
+    }
+
+    @Test
+    void reconcile_shouldKeepClaimsInStream_whenDatabaseFails() {
+        when(streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(Flux.just(record("1-0", Map.of("cart", "7", "product", "2"))));
+        when(cartItemRepository.recoverFlashSaleClaims(any()))
+                .thenReturn(Mono.error(new IllegalStateException("db down")));
+
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        verify(streams, never()).acknowledge(any(), any(), any(RecordId[].class));
+        verify(streams, never()).delete(any(), any(RecordId[].class));
+    }
+
+    @Test
+    void reconcile_shouldTakeOverStaleClaimsOfDeadNode() {
+        PendingMessage stale = new PendingMessage(RecordId.of("1-0"), Consumer.from(FlashSaleReconciler.GROUP, "dead"),
+                Duration.ofMinutes(5), 1);
+        when(streams.pending(eq(FlashSaleService.CLAIMS), eq(FlashSaleReconciler.GROUP), any(Range.class), anyLong()))
+                .thenReturn(Mono.just(new PendingMessages(FlashSaleReconciler.GROUP, List.of(stale))));
+        when(streams.claim(eq(FlashSaleService.CLAIMS), eq(FlashSaleReconciler.GROUP), any(String.class),
+                any(Duration.class), any(RecordId[].class)))
+                .thenReturn(Flux.just(record("1-0", Map.of("cart", "7", "product", "2"))));
+        when(streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(Flux.empty());
+        when(cartItemRepository.recoverFlashSaleClaims(any())).thenReturn(Mono.just(new RecoveredClaims(1, List.of())));
+
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        verify(cartItemRepository).recoverFlashSaleClaims(List.of(new FlashSaleClaim("1-0", 7L, 2L)));
+        verify(streams).acknowledge(FlashSaleService.CLAIMS, FlashSaleReconciler.GROUP, RecordId.of("1-0"));
+    }
+
+    @Test
+    void reconcile_shouldReturnDiscardedUnitsToSaleCounter() {
+        when(streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(Flux.just(
+                        record("1-0", Map.of("cart", "7", "product", "2")),
+                        record("1-1", Map.of("cart", "8", "product", "2")),
+                        record("1-2", Map.of("cart", "8", "product", "5"))));
+        when(cartItemRepository.recoverFlashSaleClaims(any()))
+                .thenReturn(Mono.just(new RecoveredClaims(0, List.of(2L, 2L, 5L))));
+        when(flashSaleService.release(anyLong(), anyInt())).thenReturn(Mono.empty());
+
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        verify(flashSaleService).release(2L, 2);
+        verify(flashSaleService).release(5L, 1);
+        verify(streams).delete(FlashSaleService.CLAIMS, RecordId.of("1-0"), RecordId.of("1-1"), RecordId.of("1-2"));
+    }
+
+    @Test
+    void reconcile_shouldSkipRuns_whenNoSaleIsActiveAndLastRunFoundNothing() {
+        when(streams.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(Flux.empty());
+
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        verify(cartItemRepository, times(1)).stockFlashSaleClaims(anyInt(), anyLong());
+
+        when(flashSaleService.hasActiveSales()).thenReturn(true);
+        StepVerifier.create(reconciler.reconcile()).verifyComplete();
+
+        verify(cartItemRepository, times(2)).stockFlashSaleClaims(anyInt(), anyLong());
+    }
+}
@@ -0,0 +1,135 @@
+package example.toyshop.service;
+
+import example.toyshop.model.Product;
+import example.toyshop.repository.ProductRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.ReactiveSetOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class FlashSaleServiceTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveValueOperations<String, String> valueOps;
+
+    @Mock
+    private ReactiveSetOperations<String, String> setOps;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    private FlashSaleService flashSaleService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.opsForSet()).thenReturn(setOps);
+        flashSaleService = new FlashSaleService(redisTemplate, productRepository);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void scriptReturns(String result) {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenReturn(Flux.just(result));
+    }
+
+    @Test
+    void claim_shouldReturnStreamId_whenStockLeft() {
+        scriptReturns("1700000000000-0");
+
+        StepVerifier.create(flashSaleService.claim(1L, 2L))
+                .expectNext(new FlashSaleService.Claim(FlashSaleService.Claim.Status.CLAIMED, "1700000000000-0"))
+                .verifyComplete();
+
+        // остаток и поток заявок передаются скрипту как ключи — один hash-слот
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of(FlashSaleService.STOCK_PREFIX + 2, FlashSaleService.CLAIMS)), eq(List.of("1", "2")));
+    }
+
+    @Test
+    void claim_shouldReportSoldOutAndNotOnSale() {
+        scriptReturns(FlashSaleService.SOLD_OUT);
+        StepVerifier.create(flashSaleService.claim(1L, 2L))
+                .expectNextMatches(claim -> claim.status() == FlashSaleService.Claim.Status.SOLD_OUT)
+                .verifyComplete();
+
+        scriptReturns(FlashSaleService.NOT_ON_SALE);
+        StepVerifier.create(flashSaleService.claim(1L, 2L))
+                .expectNextMatches(claim -> claim.status() == FlashSaleService.Claim.Status.NOT_ON_SALE)
+                .verifyComplete();
+    }
+
+    @Test
+    void start_shouldSeedCounterFromDatabaseStockOnce() {
+        when(productRepository.findById(2L)).thenReturn(Mono.just(new Product(2L, "Мяч", null, 500, null, 40)));
+        when(valueOps.setIfAbsent(FlashSaleService.STOCK_PREFIX + 2, "40")).thenReturn(Mono.just(true));
+        when(setOps.add(FlashSaleService.PRODUCTS, "2")).thenReturn(Mono.just(1L));
+        when(valueOps.get(FlashSaleService.STOCK_PREFIX + 2)).thenReturn(Mono.just("40"));
+
+        StepVerifier.create(flashSaleService.start(2L))
+                .expectNext(40L)
+                .verifyComplete();
+
+        assertThat(flashSaleService.isOnSale(2L)).isTrue();
+        verify(valueOps, never()).set(any(), any());
+    }
+
+    @Test
+    void start_shouldSeedEmptyCounter_whenQuantityUnknown() {
+        when(productRepository.findById(2L)).thenReturn(Mono.just(new Product(2L, "Мяч", null, 500, null, null)));
+        when(valueOps.setIfAbsent(FlashSaleService.STOCK_PREFIX + 2, "0")).thenReturn(Mono.just(true));
+        when(setOps.add(FlashSaleService.PRODUCTS, "2")).thenReturn(Mono.just(1L));
+        when(valueOps.get(FlashSaleService.STOCK_PREFIX + 2)).thenReturn(Mono.just("0"));
+
+        StepVerifier.create(flashSaleService.start(2L))
+                .expectNext(0L)
+                .verifyComplete();
+    }
+
+    @Test
+    void stop_shouldRemoveCounterAndLocalFlag() {
+        when(productRepository.findById(2L)).thenReturn(Mono.just(new Product(2L, "Мяч", null, 500, null, 40)));
+        when(valueOps.setIfAbsent(any(), any())).thenReturn(Mono.just(true));
+        when(setOps.add(any(), any(String[].class))).thenReturn(Mono.just(1L));
+        when(valueOps.get(any())).thenReturn(Mono.just("40"));
+        when(setOps.remove(any(), any(Object[].class))).thenReturn(Mono.just(1L));
+        when(redisTemplate.delete(any(String[].class))).thenReturn(Mono.just(1L));
+        flashSaleService.start(2L).block();
+
+        StepVerifier.create(flashSaleService.stop(2L)).verifyComplete();
+
+        assertThat(flashSaleService.isOnSale(2L)).isFalse();
+        verify(redisTemplate).delete(FlashSaleService.STOCK_PREFIX + 2);
+    }
+
+    @Test
+    void refresh_shouldLoadProductsOnSaleFromRedis() {
+        when(setOps.members(FlashSaleService.PRODUCTS)).thenReturn(Flux.just("2", "5"));
+
+        StepVerifier.create(flashSaleService.refresh()).verifyComplete();
+
+        assertThat(flashSaleService.isOnSale(2L)).isTrue();
+        assertThat(flashSaleService.isOnSale(5L)).isTrue();
+        assertThat(flashSaleService.isOnSale(3L)).isFalse();
+    }
+}
@@ -0,0 +1,106 @@
+package example.toyshop.service;
+
+import example.toyshop.model.Product;
+import example.toyshop.model.User;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.ResponseCookie;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class GuestCartServiceTest {
+
+    private static final String GUEST_ID = "3f1c2a9e-5b7d-4c1e-9a0b-2d4e6f8a0b1c";
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveHashOperations<String, Object, Object> hashOps;
+
+    @Mock
+    private ProductService productService;
+
+    @Mock
+    private CartService cartService;
+
+    @Mock
+    private UserService userService;
+
+    private GuestCartService guestCartService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForHash()).thenReturn(hashOps);
+        guestCartService = new GuestCartService(redisTemplate, productService, cartService, userService,
+                Duration.ofDays(7));
+    }
+
+    @Test
+    void add_shouldKeepQuantity_whenProductStockUnknown() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/cart/add/2")
+                .cookie(new HttpCookie(GuestCartService.COOKIE, GUEST_ID)));
+        when(productService.getById(2L)).thenReturn(Mono.just(new Product(2L, "Мяч", null, 500, null, null)));
+        when(hashOps.increment("guest-cart:" + GUEST_ID, "2", 1L)).thenReturn(Mono.just(1L));
+        when(hashOps.increment("guest-cart:" + GUEST_ID, "2", -1L)).thenReturn(Mono.just(0L));
+        when(redisTemplate.expire("guest-cart:" + GUEST_ID, Duration.ofDays(7))).thenReturn(Mono.just(true));
+
+        StepVerifier.create(guestCartService.add(exchange, 2L)).expectNext(0).verifyComplete();
+    }
+
+    @Test
+    void totalQuantity_shouldNotTouchRedis_withoutCookie() {
+        StepVerifier.create(guestCartService.totalQuantity(null)).expectNext(0).verifyComplete();
+        StepVerifier.create(guestCartService.totalQuantity("../../etc")).expectNext(0).verifyComplete();
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void mergeOnLogin_shouldMoveItemsToUserCart_andDropGuestCart() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/login")
+                .cookie(new HttpCookie(GuestCartService.COOKIE, GUEST_ID)));
+        when(hashOps.entries("guest-cart:" + GUEST_ID))
+                .thenReturn(Flux.just(Map.entry((Object) "2", (Object) "3")));
+        User user = new User();
+        user.setId(7L);
+        when(userService.findByUsernameWithRoles("alex"))
+                .thenReturn(Mono.just(new UserService.UserWithRoles(user, List.of())));
+        when(cartService.mergeItems("7", Map.of(2L, 3))).thenReturn(Mono.empty());
+        when(redisTemplate.delete("guest-cart:" + GUEST_ID)).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(guestCartService.mergeOnLogin(exchange, "alex")).verifyComplete();
+
+        verify(cartService).mergeItems("7", Map.of(2L, 3));
+        ResponseCookie cookie = exchange.getResponse().getCookies().getFirst(GuestCartService.COOKIE);
+        assertThat(cookie).isNotNull();
+        assertThat(cookie.getMaxAge()).isZero();
+    }
+
+    @Test
+    void mergeOnLogin_shouldDoNothing_withoutCookie() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/login"));
+
+        StepVerifier.create(guestCartService.mergeOnLogin(exchange, "alex")).verifyComplete();
+
+        verifyNoInteractions(redisTemplate, cartService);
+    }
+}
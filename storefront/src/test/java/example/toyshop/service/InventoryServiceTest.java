@@ -0,0 +1,58 @@
+package example.toyshop.service;
+
+import example.toyshop.repository.StockReservationRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+class InventoryServiceTest {
+
+    @Mock
+    private StockReservationRepository reservationRepository;
+
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        inventoryService = new InventoryService(reservationRepository, Duration.ofMinutes(10));
+    }
+
+    @Test
+    void reserve_shouldReleasePreviousHoldAndReserveWithTtl() {
+        when(reservationRepository.releaseCart(1L)).thenReturn(Mono.just(0));
+        when(reservationRepository.reserveCart(1L, 600L)).thenReturn(Mono.just(0));
+
+        StepVerifier.create(inventoryService.reserve(1L)).verifyComplete();
+
+        InOrder inOrder = inOrder(reservationRepository);
+        inOrder.verify(reservationRepository).releaseCart(1L);
+        inOrder.verify(reservationRepository).reserveCart(1L, 600L);
+    }
+
+    @Test
+    void reserve_shouldFail_whenSomeItemsAreOutOfStock() {
+        when(reservationRepository.releaseCart(1L)).thenReturn(Mono.just(0));
+        when(reservationRepository.reserveCart(1L, 600L)).thenReturn(Mono.just(2));
+
+        StepVerifier.create(inventoryService.reserve(1L))
+                .verifyError(InsufficientStockException.class);
+    }
+
+    @Test
+    void releaseExpired_shouldSwallowErrors() {
+        when(reservationRepository.releaseExpired()).thenReturn(Mono.error(new IllegalStateException("db down")));
+
+        StepVerifier.create(inventoryService.releaseExpired()).verifyComplete();
+    }
+}
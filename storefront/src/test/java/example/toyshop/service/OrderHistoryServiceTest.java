@@ -0,0 +1,60 @@
+package example.toyshop.service;
+
+import example.toyshop.dto.cart.OrderCursor;
+import example.toyshop.dto.cart.OrderView;
+import example.toyshop.model.Cart;
+import example.toyshop.model.CartStatus;
+import example.toyshop.repository.CartRepository;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class OrderHistoryServiceTest {
+
+    private final CartRepository cartRepository = mock(CartRepository.class);
+    private final OrderHistoryService service = new OrderHistoryService(cartRepository);
+
+    private final LocalDateTime now = LocalDateTime.of(2025, 3, 1, 12, 30, 15, 123_456_000);
+    private final OrderView newer = new OrderView(new Cart(7L, "1", CartStatus.COMPLETED, now), List.of());
+    private final OrderView older = new OrderView(new Cart(3L, "1", CartStatus.COMPLETED, now.minusDays(1)), List.of());
+
+    @Test
+    void getPage_shouldReturnNextCursor_whenMoreOrdersExist() {
+        // запрашивается size + 1 заказов — лишний означает наличие следующей страницы
+        when(cartRepository.findOrderPage("1", null, 2)).thenReturn(Mono.just(List.of(newer, older)));
+
+        StepVerifier.create(service.getPage("1", 1, null))
+                .assertNext(page -> {
+                    assertThat(page.items()).containsExactly(newer);
+                    assertThat(OrderCursor.decode(page.nextCursor())).isEqualTo(new OrderCursor(now, 7L));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getPage_shouldPassDecodedCursor_andEndOnShortPage() {
+        String token = new OrderCursor(now, 7L).encode();
+        when(cartRepository.findOrderPage("1", new OrderCursor(now, 7L), 11))
+                .thenReturn(Mono.just(List.of(older)));
+
+        StepVerifier.create(service.getPage("1", 10, token))
+                .assertNext(page -> {
+                    assertThat(page.items()).containsExactly(older);
+                    assertThat(page.hasNext()).isFalse();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void decodeCursor_shouldIgnoreDamagedCursor() {
+        assertThat(OrderCursor.decode("не-base64!")).isNull();
+        assertThat(OrderCursor.decode("MTIz")).isNull(); // "123" без времени
+    }
+}
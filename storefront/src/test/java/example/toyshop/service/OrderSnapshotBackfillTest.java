@@ -0,0 +1,40 @@
+package example.toyshop.service;
+
+import example.toyshop.repository.CartRepository;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.mockito.Mockito.*;
+
+class OrderSnapshotBackfillTest {
+
+    private final CartRepository cartRepository = mock(CartRepository.class);
+    private final OrderSnapshotBackfill backfill = new OrderSnapshotBackfill(cartRepository, true, 100);
+
+    @Test
+    void backfill_shouldWalkBatchesFromMarkUntilNoCartsLeft() {
+        when(cartRepository.findOrderSnapshotBackfillStart()).thenReturn(Mono.just(40L));
+        when(cartRepository.backfillOrderSnapshots(40, 100)).thenReturn(Mono.just(140L));
+        when(cartRepository.backfillOrderSnapshots(140, 100)).thenReturn(Mono.just(260L));
+        when(cartRepository.backfillOrderSnapshots(260, 100)).thenReturn(Mono.empty());
+
+        StepVerifier.create(backfill.backfill())
+                .expectNext(2L)
+                .verifyComplete();
+
+        verify(cartRepository, times(3)).backfillOrderSnapshots(anyLong(), eq(100));
+    }
+
+    @Test
+    void backfill_shouldSkipScan_whenAlreadyCompleted() {
+        when(cartRepository.findOrderSnapshotBackfillStart()).thenReturn(Mono.empty());
+
+        StepVerifier.create(backfill.backfill())
+                .expectNext(0L)
+                .verifyComplete();
+
+        verify(cartRepository, never()).backfillOrderSnapshots(anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,79 @@
+package example.toyshop.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+class PasswordHasherTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile String hashingThread;
+
+    /** Кодировщик, который держит поток, пока тест не отпустит его */
+    private final PasswordEncoder encoder = new PasswordEncoder() {
+        @Override
+        public String encode(CharSequence rawPassword) {
+            hashingThread = Thread.currentThread().getName();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "hash:" + rawPassword;
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return encode(rawPassword).equals(encodedPassword);
+        }
+    };
+
+    private final PasswordHasher hasher = new PasswordHasher(encoder, 1, 1, registry);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        hasher.close();
+    }
+
+    @Test
+    void matches_shouldRunOnHashingPool() {
+        release.countDown();
+
+        StepVerifier.create(hasher.matches("secret", "hash:secret"))
+                .expectNext(true)
+                .verifyComplete();
+
+        assertTrue(hashingThread.startsWith("password-hash-"), hashingThread);
+        assertEquals(1, registry.get("password.hash").tag("operation", "matches").timer().count());
+        assertEquals(1, registry.get("password.hash.wait").timer().count());
+    }
+
+    @Test
+    void encode_shouldRejectFast_whenQueueIsFull() throws InterruptedException {
+        Disposable running = hasher.encode("a").subscribe();
+        while (hashingThread == null) {
+            Thread.sleep(1); // первая задача заняла единственный поток
+        }
+        Disposable queued = hasher.encode("b").subscribe();
+
+        StepVerifier.create(hasher.encode("c"))
+                .expectError(PasswordHashingRejectedException.class)
+                .verify();
+        assertEquals(1, registry.get("password.hash.rejected").counter().count());
+
+        running.dispose();
+        queued.dispose();
+    }
+}
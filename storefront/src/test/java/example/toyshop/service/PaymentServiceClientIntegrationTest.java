@@ -1,152 +1,194 @@
 package example.toyshop.service;
 
-import okhttp3.mockwebserver.MockResponse;
-import okhttp3.mockwebserver.MockWebServer;
-import okhttp3.mockwebserver.RecordedRequest;
-
-import org.springframework.security.oauth2.core.OAuth2AccessToken;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
-import reactor.test.StepVerifier;
-import static org.mockito.ArgumentMatchers.any;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.time.Instant;
-import com.example.openapi.client.model.ConfirmRequest;
-import com.example.openapi.client.model.PaymentRequest;
-import org.junit.jupiter.api.*;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpHeaders;
-import static org.mockito.Mockito.mock;
-import org.springframework.security.oauth2.client.*;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.example.openapi.client.model.PaymentRequest;
+
+import example.toyshop.cache.NearCache;
+import example.toyshop.resilience.AdaptiveConcurrencyLimiter;
+import example.toyshop.resilience.CallGuard;
+import example.toyshop.resilience.CallRejectedException;
+import example.toyshop.resilience.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 /**
- * Интеграционный тест для {@link PaymentServiceClient}.
- * <p>
- * Тестирует основные методы клиента платежного сервиса:
- * {@link PaymentServiceClient#getBalance()},
- * {@link PaymentServiceClient#pay(com.example.openapi.client.model.PaymentRequest)},
- * {@link PaymentServiceClient#confirm(com.example.openapi.client.model.ConfirmRequest)}.
- * </p>
- * <p>
- * В отличие от стандартных Spring Boot тестов, данный класс не поднимает
- * весь ApplicationContext. Для этого используется отдельный тестовый
- * конструктор
- * {@link PaymentServiceClient#PaymentServiceClient(WebClient.Builder, ReactiveOAuth2AuthorizedClientManager)}
- * и {@link MockWebServer}, который имитирует ответы внешнего платежного
- * сервиса.
- * </p>
- * <p>
- * OAuth2 авторизация также мокается через
- * {@link ReactiveOAuth2AuthorizedClientManager},
- * чтобы тестировать работу клиента без реального OAuth2 сервера.
- * </p>
- * <p>
- * Благодаря этому подходу, тесты быстрые, изолированные и не зависят от других
- * бинов
- * Spring контекста.
- * </p>
+ * Интеграционный тест {@link PaymentServiceClient} без контекста Spring:
+ * платёжный сервис заменяет {@link MockWebServer}, который отвечает с
+ * заданной задержкой или ошибкой, токен — мок {@link AccessTokenHolder}.
+ * Проверяются кэш баланса, таймауты операций, размыкание выключателя и
+ * изоляция чтения баланса от зависших оплат.
  */
-
-// class PaymentServiceClientIntegrationTest {
-
-// private static MockWebServer mockWebServer;
-// private PaymentServiceClient paymentServiceClient;
-
-// @BeforeAll
-// static void setupServer() throws IOException {
-// mockWebServer = new MockWebServer();
-// mockWebServer.start();
-// }
-
-// @AfterAll
-// static void shutdownServer() throws IOException {
-// mockWebServer.shutdown();
-// }
-
-// @BeforeEach
-// void setupClient() {
-// String baseUrl = mockWebServer.url("/").toString();
-// WebClient.Builder webClientBuilder = WebClient.builder();
-
-// // мок для authorizedClientManager
-// ReactiveOAuth2AuthorizedClientManager manager =
-// mock(ReactiveOAuth2AuthorizedClientManager.class);
-// OAuth2AuthorizedClient client = mock(OAuth2AuthorizedClient.class);
-// when(client.getAccessToken()).thenReturn(
-// new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER,
-// "token",
-// Instant.now(),
-// Instant.now().plusSeconds(3600)));
-// when(manager.authorize(any())).thenReturn(Mono.just(client));
-
-// // ⚡ используем конструктор с baseUrl
-// paymentServiceClient = new PaymentServiceClient(webClientBuilder, manager,
-// baseUrl);
-// }
-
-// @Test
-// void getBalance_shouldReturnBalance() throws InterruptedException {
-// mockWebServer.enqueue(new MockResponse()
-// .setBody("{\"balance\":123.45}")
-// .addHeader("Content-Type", "application/json"));
-
-// StepVerifier.create(paymentServiceClient.getBalance())
-// .expectNextMatches(balance ->
-// balance.getBalance().compareTo(BigDecimal.valueOf(123.45)) == 0)
-// .verifyComplete();
-
-// RecordedRequest recordedRequest = mockWebServer.takeRequest();
-// Assertions.assertEquals("/balance", recordedRequest.getPath());
-// Assertions.assertEquals("GET", recordedRequest.getMethod());
-// }
-
-// @Test
-// void pay_shouldReturnPaymentResponse() throws InterruptedException {
-// mockWebServer.enqueue(new MockResponse()
-// .setBody("{\"status\":\"SUCCESS\",\"transactionId\":\"tx123\"}")
-// .addHeader("Content-Type", "application/json"));
-
-// PaymentRequest request = new PaymentRequest();
-// request.setAmount(BigDecimal.valueOf(500));
-// request.setCurrency("USD");
-// request.setMethod("card");
-
-// StepVerifier.create(paymentServiceClient.pay(request))
-// .expectNextMatches(response ->
-// "SUCCESS".equals(response.getStatus().getValue()) &&
-// "tx123".equals(response.getTransactionId()))
-// .verifyComplete();
-
-// RecordedRequest recordedRequest = mockWebServer.takeRequest();
-// Assertions.assertEquals("/pay", recordedRequest.getPath());
-// Assertions.assertEquals("POST", recordedRequest.getMethod());
-// Assertions.assertEquals("Bearer token",
-// recordedRequest.getHeader(HttpHeaders.AUTHORIZATION));
-// }
-
-// @Test
-// void confirm_shouldReturnConfirmResponse() throws InterruptedException {
-// mockWebServer.enqueue(new MockResponse()
-// .setBody("{\"orderId\":\"1\",\"transactionId\":\"tx123\",\"confirmed\":true,\"message\":\"Оплата
-// успешна\"}")
-// .addHeader("Content-Type", "application/json"));
-
-// ConfirmRequest request = new ConfirmRequest();
-// request.setOrderId("1");
-// request.setTransactionId("tx123");
-
-// StepVerifier.create(paymentServiceClient.confirm(request))
-// .expectNextMatches(r -> Boolean.TRUE.equals(r.getConfirmed())
-// && "1".equals(r.getOrderId())
-// && "tx123".equals(r.getTransactionId()))
-// .verifyComplete();
-
-// RecordedRequest recordedRequest = mockWebServer.takeRequest();
-// Assertions.assertEquals("/confirm", recordedRequest.getPath());
-// Assertions.assertEquals("POST", recordedRequest.getMethod());
-// Assertions.assertEquals("Bearer token",
-// recordedRequest.getHeader(HttpHeaders.AUTHORIZATION));
-// }
-// }
+class PaymentServiceClientIntegrationTest {
+
+    private static final String BALANCE_JSON = """
+            {"accountId":"1","balance":123.45,"held":0,"currency":"RUB"}""";
+    private static final String PAYMENT_JSON = """
+            {"status":"SUCCESS","transactionId":"tx123"}""";
+    private static final String CHECKOUT_JSON = """
+            {"orderId":"1","transactionId":"tx123","status":"SUCCESS","balance":23.45,"currency":"RUB"}""";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private MockWebServer server;
+    private PaymentServiceClient client;
+
+    private volatile MockResponse balanceResponse;
+    private volatile MockResponse payResponse;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        balanceResponse = json(BALANCE_JSON);
+        payResponse = json(PAYMENT_JSON);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return request.getPath().startsWith("/balance") ? balanceResponse : payResponse;
+            }
+        });
+        server.start();
+        client = newClient(Duration.ofSeconds(1));
+    }
+
+    /** Клиент с одним разрешением на оплату и выключателем на окне из четырёх вызовов */
+    private PaymentServiceClient newClient(Duration payTimeout) {
+        AccessTokenHolder accessToken = mock(AccessTokenHolder.class);
+        when(accessToken.getToken()).thenReturn(Mono.just("token"));
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, Duration.ofMinutes(1), 1);
+        WebClient webClient = WebClient.builder().baseUrl("http://localhost:" + server.getPort()).build();
+        return new PaymentServiceClient(webClient, webClient,
+                accessToken,
+                new CallGuard("payment.read", new AdaptiveConcurrencyLimiter(5, 1, 5), breaker, registry),
+                new CallGuard("payment.write", new AdaptiveConcurrencyLimiter(1, 1, 1), breaker, registry),
+                Duration.ofSeconds(2), payTimeout, Duration.ofSeconds(1),
+                new NearCache<>("balance", 100, Duration.ofMinutes(1), new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void getBalance_shouldSendBearerToken_andReturnBalance() throws InterruptedException {
+        StepVerifier.create(client.getBalance("1"))
+                .expectNextMatches(balance -> balance.getBalance().compareTo(new BigDecimal("123.45")) == 0)
+                .verifyComplete();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/balance?accountId=1", request.getPath());
+        assertEquals("Bearer token", request.getHeader(HttpHeaders.AUTHORIZATION));
+        assertEquals(1, registry.get("client.calls").tags("group", "payment.read", "outcome", "success")
+                .timer().count());
+    }
+
+    @Test
+    void getBalance_shouldBeServedFromCache_untilPaymentChangesIt() {
+        client.getBalance("1").block();
+        client.getBalance("1").block();
+        assertEquals(1, server.getRequestCount());
+
+        payResponse = json(CHECKOUT_JSON);
+        client.checkoutPayment(paymentRequest("1")).block();
+
+        // новый баланс пришёл в ответе оплаты: запроса /balance нет
+        StepVerifier.create(client.getBalance("1"))
+                .expectNextMatches(balance -> balance.getBalance().compareTo(new BigDecimal("23.45")) == 0)
+                .verifyComplete();
+        assertEquals(2, server.getRequestCount());
+
+        payResponse = json(PAYMENT_JSON);
+        client.pay(paymentRequest("1")).block();
+        client.getBalance("1").block();
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    void pay_shouldTimeOut_whenServiceIsSlow() {
+        payResponse = json(PAYMENT_JSON).setHeadersDelay(2, TimeUnit.SECONDS);
+
+        StepVerifier.create(client.pay(paymentRequest("1")))
+                .expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(2));
+
+        assertEquals(1, registry.get("client.calls").tags("group", "payment.write", "outcome", "failure")
+                .timer().count());
+    }
+
+    @Test
+    void shouldRejectWithoutCallingService_whenCircuitOpen() {
+        balanceResponse = new MockResponse().setResponseCode(503);
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(client.getBalance("1")).expectError().verify();
+        }
+        assertEquals(4, server.getRequestCount());
+
+        StepVerifier.create(client.getBalance("1"))
+                .expectErrorMatches(e -> e instanceof CallRejectedException rejected
+                        && rejected.getReason() == CallRejectedException.Reason.CIRCUIT_OPEN)
+                .verify();
+        // выключатель общий: оплаты тоже отклоняются сразу
+        StepVerifier.create(client.pay(paymentRequest("1")))
+                .expectError(CallRejectedException.class)
+                .verify();
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    void slowPayments_shouldNotBlockBalanceReads() {
+        client = newClient(Duration.ofSeconds(10));
+        StepVerifier.create(client.getBalance("warm-up")).expectNextCount(1).verifyComplete();
+        payResponse = json(PAYMENT_JSON).setHeadersDelay(2, TimeUnit.SECONDS);
+        AtomicBoolean payFinished = new AtomicBoolean();
+        Disposable inFlight = client.pay(paymentRequest("1"))
+                .doFinally(signal -> payFinished.set(true))
+                .subscribe(response -> {}, error -> {});
+        try {
+            // переборка оплат занята: следующая оплата отклоняется сразу
+            StepVerifier.create(client.pay(paymentRequest("2")))
+                    .expectErrorMatches(e -> e instanceof CallRejectedException rejected
+                            && rejected.getReason() == CallRejectedException.Reason.LIMIT)
+                    .verify();
+            // а баланс читается без ожидания
+            StepVerifier.create(client.getBalance("1")).expectNextCount(1).verifyComplete();
+            assertFalse(payFinished.get());
+        } finally {
+            inFlight.dispose();
+        }
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse().setBody(body).addHeader("Content-Type", "application/json");
+    }
+
+    private static PaymentRequest paymentRequest(String orderId) {
+        PaymentRequest request = new PaymentRequest();
+        request.setOrderId(orderId);
+        request.setAccountId("1");
+        request.setAmount(BigDecimal.valueOf(500));
+        request.setCurrency("RUB");
+        return request;
+    }
+}
@@ -1,19 +1,34 @@
 package example.toyshop.service;
 
+import example.toyshop.cache.NearCache;
+import example.toyshop.cache.ProductCacheInvalidator;
+import example.toyshop.cache.RedisLock;
+import example.toyshop.cache.RedisTierMetrics;
+import example.toyshop.dto.product.ProductCursor;
+import example.toyshop.dto.product.ProductSort;
 import example.toyshop.model.Product;
 import example.toyshop.repository.ProductRepository;
-import example.toyshop.service.ProductService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
 import org.springframework.data.redis.core.ReactiveListOperations;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+import java.time.Duration;
+import java.util.List;
+
 class ProductServiceTest {
 
     @Mock
@@ -25,7 +40,17 @@ class ProductServiceTest {
     @Mock
     private ReactiveListOperations<String, Object> listOps;
 
-    @InjectMocks
+    @Mock
+    private ReactiveValueOperations<String, Object> valueOps;
+
+    @Mock
+    private ProductCacheInvalidator cacheInvalidator;
+
+    @Mock
+    private RedisLock redisLock;
+
+    private NearCache<Long, Product> productNearCache;
+
     private ProductService productService;
 
     private Product product1;
@@ -39,20 +64,117 @@ class ProductServiceTest {
         product2 = new Product(2L, "Робот", "Игрушечный", 1500, "img2", 5);
 
         when(redisTemplate.opsForList()).thenReturn(listOps);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        productNearCache = new NearCache<>("product", 100, Duration.ofMinutes(1), registry);
+        productService = new ProductService(productRepository, redisTemplate, productNearCache,
+                cacheInvalidator, new RedisTierMetrics(registry), redisLock);
+    }
+
+    @Test
+    void getById_shouldServeFromNearCache_afterRedisHit() {
+        when(valueOps.get("product:1")).thenReturn(Mono.just(product1));
+
+        StepVerifier.create(productService.getById(1L)).expectNext(product1).verifyComplete();
+        StepVerifier.create(productService.getById(1L)).expectNext(product1).verifyComplete();
+
+        verify(valueOps, times(1)).get("product:1");
+        verify(productRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void getById_shouldLoadFromDbAndCache_whenLockAcquired() {
+        when(valueOps.get("product:1")).thenReturn(Mono.empty());
+        when(redisLock.tryAcquire(eq("product:1:lock"), any())).thenReturn(Mono.just("token"));
+        when(redisLock.release("product:1:lock", "token")).thenReturn(Mono.just(true));
+        when(productRepository.findById(1L)).thenReturn(Mono.just(product1));
+        when(valueOps.set("product:1", product1, Duration.ofMinutes(5))).thenReturn(Mono.just(true));
+
+        StepVerifier.create(productService.getById(1L)).expectNext(product1).verifyComplete();
+
+        verify(valueOps).set("product:1", product1, Duration.ofMinutes(5));
+        verify(redisLock).release("product:1:lock", "token");
+    }
+
+    @Test
+    void getById_shouldReleaseLock_whenProductMissing() {
+        when(valueOps.get("product:1")).thenReturn(Mono.empty());
+        when(redisLock.tryAcquire(eq("product:1:lock"), any())).thenReturn(Mono.just("token"));
+        when(redisLock.release("product:1:lock", "token")).thenReturn(Mono.just(true));
+        when(productRepository.findById(1L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(productService.getById(1L)).verifyComplete();
+
+        // лидер не нашёл товар — повторно в базу не ходим
+        verify(productRepository, times(1)).findById(1L);
+        verify(redisLock).release("product:1:lock", "token");
     }
 
     @Test
-    void getAll_shouldReturnFromCache_ifCacheNotEmpty() {
-        // имитация наличия элементов в Redis
-        when(listOps.size("product:all")).thenReturn(Mono.just(2L));
-        when(listOps.range("product:all", 0, -1)).thenReturn(Flux.just(product1, product2));
+    void getById_shouldWaitForLeader_whenLockIsTaken() {
+        when(valueOps.get("product:1")).thenReturn(Mono.empty(), Mono.empty(), Mono.just(product1));
+        when(redisLock.tryAcquire(eq("product:1:lock"), any())).thenReturn(Mono.empty());
+
+        StepVerifier.create(productService.getById(1L)).expectNext(product1).verifyComplete();
 
-        StepVerifier.create(productService.getAll())
-                .expectNext(product1, product2)
+        // товар загружает другой узел — база не читается
+        verify(productRepository, never()).findById(anyLong());
+        verify(valueOps, never()).set(anyString(), any(), any(Duration.class));
+    }
+
+    @Test
+    void save_shouldDeleteRedisKeysAndBroadcastInvalidation() {
+        when(productRepository.save(product1)).thenReturn(Mono.just(product1));
+        when(redisTemplate.delete("product:1")).thenReturn(Mono.just(1L));
+        when(cacheInvalidator.publish(1L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(productService.save(product1)).expectNext(product1).verifyComplete();
+
+        verify(cacheInvalidator).publish(1L);
+    }
+
+    @Test
+    void getPage_shouldReturnNextCursor_whenMoreProductsExist() {
+        // запрашивается size + 1 товаров — лишний означает наличие следующей страницы
+        when(productRepository.findCatalogPage(null, ProductSort.PRICE_ASC, null, 2))
+                .thenReturn(Flux.just(product1, product2));
+
+        StepVerifier.create(productService.getPage(null, ProductSort.PRICE_ASC, 1, null))
+                .assertNext(page -> {
+                    assertThat(page.items()).containsExactly(product1);
+                    assertThat(page.nextCursor()).isNotNull();
+
+                    ProductCursor cursor = ProductCursor.decode(page.nextCursor(), ProductSort.PRICE_ASC);
+                    assertThat(cursor.id()).isEqualTo(1L);
+                    assertThat(cursor.value()).isEqualTo("500");
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getPage_shouldPassDecodedCursorToRepository() {
+        String token = ProductCursor.after(ProductSort.NAME_DESC, product1).encode();
+        when(productRepository.findCatalogPage(eq("мяч"), eq(ProductSort.NAME_DESC), any(), eq(11)))
+                .thenReturn(Flux.just(product2));
+
+        StepVerifier.create(productService.getPage("мяч", ProductSort.NAME_DESC, 10, token))
+                .assertNext(page -> {
+                    assertThat(page.items()).containsExactly(product2);
+                    assertThat(page.hasNext()).isFalse();
+                })
                 .verifyComplete();
 
-        verify(listOps).range("product:all", 0, -1);
-        verify(productRepository, never()).findAll();
+        verify(productRepository).findCatalogPage("мяч", ProductSort.NAME_DESC,
+                new ProductCursor(ProductSort.NAME_DESC, 1L, "Мяч"), 11);
+    }
+
+    @Test
+    void decodeCursor_shouldIgnoreCursorOfAnotherSort() {
+        String token = ProductCursor.after(ProductSort.NAME_ASC, product1).encode();
+
+        assertThat(ProductCursor.decode(token, ProductSort.PRICE_ASC)).isNull();
+        assertThat(ProductCursor.decode("не-base64!", ProductSort.NAME_ASC)).isNull();
     }
 
     // @Test
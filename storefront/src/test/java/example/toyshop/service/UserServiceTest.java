@@ -0,0 +1,100 @@
+package example.toyshop.service;
+
+import example.toyshop.cache.NearCache;
+import example.toyshop.model.User;
+import example.toyshop.model.UserRole;
+import example.toyshop.repository.UserRepository;
+import example.toyshop.repository.UserRoleRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+class UserServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private UserRoleRepository userRoleRepository;
+
+    @Mock
+    private PasswordHasher passwordHasher;
+
+    private UserService userService;
+
+    private final UserService.UserWithRoles alex = new UserService.UserWithRoles(
+            new User(7L, "alex", "hash", true, "alex@test.com"),
+            List.of(new UserRole(1L, 7L, "ROLE_USER")));
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        userService = new UserService(userRepository, userRoleRepository, passwordHasher,
+                new NearCache<>("user", 100, Duration.ofMinutes(5), new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void findByUsernameWithRoles_shouldQueryDatabaseOnce_andServeFromCache() {
+        when(userRepository.findWithRolesByUsername("alex")).thenReturn(Mono.just(alex));
+
+        StepVerifier.create(userService.findByUsernameWithRoles("alex")).expectNext(alex).verifyComplete();
+        StepVerifier.create(userService.findByUsernameWithRoles("alex")).expectNext(alex).verifyComplete();
+
+        verify(userRepository, times(1)).findWithRolesByUsername("alex");
+        verifyNoInteractions(userRoleRepository);
+    }
+
+    @Test
+    void evict_shouldForceReload_afterRoleChange() {
+        UserService.UserWithRoles admin = new UserService.UserWithRoles(alex.user(),
+                List.of(new UserRole(1L, 7L, "ROLE_USER"), new UserRole(2L, 7L, "ROLE_ADMIN")));
+        when(userRepository.findWithRolesByUsername("alex"))
+                .thenReturn(Mono.just(alex))
+                .thenReturn(Mono.just(admin));
+        userService.findByUsernameWithRoles("alex").block();
+
+        userService.evict("alex");
+
+        StepVerifier.create(userService.findByUsernameWithRoles("alex")).expectNext(admin).verifyComplete();
+    }
+
+    @Test
+    void currentUserId_shouldUseIdStoredAtLogin_withoutQueries() {
+        UsernamePasswordAuthenticationToken auth = UsernamePasswordAuthenticationToken.authenticated("alex", null,
+                List.of());
+        auth.setDetails(new UserService.AuthenticatedUser(7L));
+
+        StepVerifier.create(userService.currentUserId()
+                .contextWrite(ReactiveSecurityContextHolder.withAuthentication(auth)))
+                .expectNext("7")
+                .verifyComplete();
+
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void currentUserId_shouldFallBackToCachedLookup_whenSessionHasNoId() {
+        when(userRepository.findWithRolesByUsername("alex")).thenReturn(Mono.just(alex));
+        UsernamePasswordAuthenticationToken auth = UsernamePasswordAuthenticationToken.authenticated("alex", null,
+                List.of());
+
+        StepVerifier.create(userService.currentUserId()
+                .contextWrite(ReactiveSecurityContextHolder.withAuthentication(auth)))
+                .expectNext("7")
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,239 @@
+package example.toyshop.session;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.connection.ReactiveHashCommands;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveRedisCallback;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.server.WebSession;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RedisWebSessionStoreTest {
+
+    @Mock
+    private ReactiveStringRedisTemplate redis;
+    @Mock
+    private ReactiveRedisConnection connection;
+    @Mock
+    private ReactiveHashCommands hashCommands;
+    @Mock
+    private ReactiveScriptingCommands scriptingCommands;
+
+    /** Содержимое Redis: ключ → поля хеша */
+    private final Map<String, Map<String, byte[]>> hashes = new HashMap<>();
+    /** Поля, записанные последним скриптом сохранения */
+    private Map<String, byte[]> lastWrite;
+    /** Сколько раз скрипт сохранения записал сессию */
+    private int writes;
+    private Long lastTtlMillis;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+    private RedisWebSessionStore store;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redis.execute(any(ReactiveRedisCallback.class))).thenAnswer(inv -> Flux.from(
+                ((ReactiveRedisCallback<Object>) inv.getArgument(0)).doInRedis(connection)));
+        when(connection.hashCommands()).thenReturn(hashCommands);
+        when(connection.scriptingCommands()).thenReturn(scriptingCommands);
+        // скрипт сохранения: ключ, должен ли он существовать, TTL, число пар, пары, удаляемые поля
+        when(scriptingCommands.eval(any(ByteBuffer.class), eq(ReturnType.INTEGER), eq(1), any(ByteBuffer[].class)))
+                .thenAnswer(inv -> {
+                    Object[] args = inv.getRawArguments();
+                    ByteBuffer[] keysAndArgs = (ByteBuffer[]) args[3];
+                    String key = string(keysAndArgs[0]);
+                    if (string(keysAndArgs[1]).equals("1") && !hashes.containsKey(key)) {
+                        return Flux.just(0L);
+                    }
+                    lastTtlMillis = Long.valueOf(string(keysAndArgs[2]));
+                    int last = 3 + Integer.parseInt(string(keysAndArgs[3])) * 2;
+                    lastWrite = new HashMap<>();
+                    for (int i = 4; i <= last; i += 2) {
+                        lastWrite.put(string(keysAndArgs[i]), array(keysAndArgs[i + 1]));
+                    }
+                    Map<String, byte[]> hash = hashes.computeIfAbsent(key, k -> new HashMap<>());
+                    hash.putAll(lastWrite);
+                    for (int i = last + 1; i < keysAndArgs.length; i++) {
+                        hash.remove(string(keysAndArgs[i]));
+                    }
+                    writes++;
+                    return Flux.just(1L);
+                });
+        when(hashCommands.hGetAll(any(ByteBuffer.class))).thenAnswer(inv -> Flux.fromIterable(
+                hashes.getOrDefault(string(inv.getArgument(0)), Map.of()).entrySet())
+                .map(e -> new AbstractMap.SimpleEntry<>(bytes(e.getKey()), ByteBuffer.wrap(e.getValue()))));
+        when(redis.delete(any(String[].class))).thenAnswer(inv -> {
+            for (Object key : inv.getArguments()) {
+                hashes.remove((String) key);
+            }
+            return Mono.just(1L);
+        });
+
+        store = new RedisWebSessionStore(redis, Duration.ofMinutes(30), Duration.ofMinutes(1),
+                Duration.ofSeconds(2), new SimpleMeterRegistry(), clock);
+    }
+
+    @Test
+    void save_shouldWriteOnlyChangedAttributes() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("cart", "c-1");
+        session.getAttributes().put("locale", "ru");
+        session.save().block();
+
+        assertThat(lastWrite).containsKeys("cart", "locale", "#created", "#accessed", "#max-idle");
+
+        session.getAttributes().put("cart", "c-2");
+        session.save().block();
+
+        assertThat(lastWrite).containsKey("cart").doesNotContainKeys("locale", "#created");
+        assertThat(writes).isEqualTo(2);
+        assertThat(lastTtlMillis).isEqualTo(Duration.ofMinutes(30).toMillis());
+    }
+
+    @Test
+    void save_shouldSkipWrite_whenNothingChangedWithinTouchInterval() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("cart", "c-1");
+        session.save().block();
+
+        clock.advance(Duration.ofSeconds(10));
+        WebSession retrieved = store.retrieveSession(session.getId()).block();
+        store.updateLastAccessTime(retrieved).block();
+        retrieved.save().block();
+
+        assertThat(writes).isEqualTo(1);
+
+        clock.advance(Duration.ofMinutes(1));
+        store.updateLastAccessTime(retrieved).block();
+        retrieved.save().block();
+
+        assertThat(writes).isEqualTo(2);
+        assertThat(lastWrite).containsOnlyKeys("#accessed", "#max-idle");
+    }
+
+    @Test
+    void save_shouldDeleteRemovedAttributes() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("cart", "c-1");
+        session.getAttributes().put("locale", "ru");
+        session.save().block();
+
+        session.getAttributes().remove("locale");
+        session.save().block();
+
+        assertThat(hashes.get("session:" + session.getId())).containsKey("cart").doesNotContainKey("locale");
+    }
+
+    @Test
+    void save_shouldNotRecreateSession_invalidatedOnOtherNode() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("userId", 42L);
+        session.save().block();
+        WebSession onThisNode = store.retrieveSession(session.getId()).block();
+        RedisWebSessionStore otherNode = new RedisWebSessionStore(redis, Duration.ofMinutes(30),
+                Duration.ofMinutes(1), Duration.ofSeconds(2), new SimpleMeterRegistry(), clock);
+        otherNode.retrieveSession(session.getId()).block().invalidate().block();
+
+        onThisNode.getAttributes().put("cart", "c-1");
+        onThisNode.save().block();
+
+        assertThat(hashes).doesNotContainKey("session:" + session.getId());
+        assertThat(onThisNode.isExpired()).isTrue();
+        assertThat(store.retrieveSession(session.getId()).block()).isNull();
+    }
+
+    @Test
+    void retrieveSession_shouldReadRedisOnce_andServeRepeatsLocally() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("userId", 42L);
+        session.save().block();
+        RedisWebSessionStore otherNode = new RedisWebSessionStore(redis, Duration.ofMinutes(30),
+                Duration.ofMinutes(1), Duration.ofSeconds(2), new SimpleMeterRegistry(), clock);
+
+        WebSession first = otherNode.retrieveSession(session.getId()).block();
+        WebSession second = otherNode.retrieveSession(session.getId()).block();
+
+        assertThat(first.<Long>getAttribute("userId")).isEqualTo(42L);
+        assertThat(second.<Long>getAttribute("userId")).isEqualTo(42L);
+        assertThat(first.getCreationTime()).isEqualTo(session.getCreationTime());
+        verify(hashCommands, times(1)).hGetAll(any(ByteBuffer.class));
+    }
+
+    @Test
+    void retrieveSession_shouldDropExpiredSession() {
+        WebSession session = store.createWebSession().block();
+        session.getAttributes().put("cart", "c-1");
+        session.save().block();
+
+        clock.advance(Duration.ofMinutes(31));
+
+        assertThat(store.retrieveSession(session.getId()).block()).isNull();
+        verify(redis).delete("session:" + session.getId());
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    private static byte[] array(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package example.toyshop.session;
+
+import example.toyshop.service.UserService.AuthenticatedUser;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SessionAttributeSerializerTest {
+
+    private final SessionAttributeSerializer serializer = new SessionAttributeSerializer();
+
+    @Test
+    void simpleValues_shouldRoundTrip() {
+        for (Object value : List.of("корзина", 42L, -7, true, new BigDecimal("-123.45"))) {
+            assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void securityContext_shouldRoundTripWithoutPassword_andBeCompact() {
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+                "alice", "secret", List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        auth.setDetails(new AuthenticatedUser(7L));
+        SecurityContext context = new SecurityContextImpl(auth);
+
+        byte[] bytes = serializer.serialize(context);
+        Authentication restored = ((SecurityContext) serializer.deserialize(bytes)).getAuthentication();
+
+        assertThat(restored.getName()).isEqualTo("alice");
+        assertThat(restored.isAuthenticated()).isTrue();
+        assertThat(restored.getCredentials()).isNull();
+        assertThat(restored.getAuthorities()).extracting("authority").containsExactly("ROLE_USER");
+        assertThat(restored.getDetails()).isEqualTo(new AuthenticatedUser(7L));
+        assertThat(bytes.length).isLessThan(RedisSerializer.java().serialize(context).length / 10);
+    }
+
+    @Test
+    void otherValues_shouldFallBackToJavaSerialization() {
+        ArrayList<String> value = new ArrayList<>(List.of("a", "b"));
+
+        assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+    }
+
+    @Test
+    void deserialize_shouldRejectForeignData() {
+        assertThatThrownBy(() -> serializer.deserialize("{}".getBytes()))
+                .isInstanceOf(SerializationException.class);
+    }
+}